@@ -0,0 +1,74 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary payload received from OpenFin runtime, held in a pooled direct
+ * buffer. Close it when done so the buffer can be reused.
+ *
+ * @author Anthony
+ *
+ */
+public class BinaryResult implements AutoCloseable {
+	private final DirectBufferPool pool;
+	private ByteBuffer buffer;
+
+	BinaryResult(ByteBuffer buffer, DirectBufferPool pool) {
+		this.buffer = buffer;
+		this.pool = pool;
+	}
+
+	/**
+	 * @return the bytes between position and limit, not valid after close.
+	 */
+	public synchronized ByteBuffer getBuffer() {
+		if (this.buffer == null) {
+			throw new IllegalStateException("binary result closed already");
+		}
+		return this.buffer;
+	}
+
+	public synchronized int size() {
+		return this.buffer == null ? 0 : this.buffer.limit();
+	}
+
+	/**
+	 * @return copy of the bytes.
+	 */
+	public byte[] toByteArray() {
+		ByteBuffer buf = this.getBuffer().duplicate();
+		buf.rewind();
+		byte[] bytes = new byte[buf.remaining()];
+		buf.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Returns the buffer to the pool.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.buffer != null) {
+			this.pool.release(this.buffer);
+			this.buffer = null;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receiving side of a binary payload sent as base64 chunks, messages are
+ * <code>{"seq": n, "size": total bytes, "data": "base64", "end": true}</code>
+ * with size only in the first one and end in the last one. The chunks are
+ * decoded straight from the raw message text into a pooled direct buffer.
+ * Messages may arrive out of order, a chunk ahead of the sequence is kept as
+ * text and decoded once the chunks before it arrived. Not thread safe.
+ *
+ * @author Anthony
+ *
+ */
+class BinaryTransfer {
+	final static String BINARY = "binary";
+	final static String SEQUENCE = "seq";
+	final static String SIZE = "size";
+	final static String DATA = "data";
+	final static String END = "end";
+	final static String ERROR = "error";
+
+	/**
+	 * bytes per chunk when sending, a multiple of 3 so the chunks have no padding.
+	 */
+	final static int CHUNK_BYTES = 48 * 1024;
+	/**
+	 * maximum chunks kept ahead of the sequence.
+	 */
+	final static int MAX_EARLY_CHUNKS = 2 * OpenFinResultStream.MAX_WINDOW;
+
+	private final static byte[] DECODE = new byte[128];
+	static {
+		Arrays.fill(DECODE, (byte) -1);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			DECODE[alphabet.charAt(i)] = (byte) i;
+		}
+		// url safe alphabet
+		DECODE['-'] = 62;
+		DECODE['_'] = 63;
+	}
+
+	private final DirectBufferPool pool;
+	private ByteBuffer buffer;
+	private long sequence;
+	private int bits;
+	private int bitCount;
+	private boolean ended;
+	private boolean done;
+	private long lastMessageNanos;
+	// text of the chunks received ahead of the sequence, by seq
+	private final Map<Long, String> earlyChunks;
+
+	BinaryTransfer(DirectBufferPool pool) {
+		this.pool = pool;
+		this.earlyChunks = new HashMap<>();
+		this.lastMessageNanos = System.nanoTime();
+	}
+
+	/**
+	 * @param message JSON text of the message
+	 * @return true if the last message of the transfer and all before it are received.
+	 * @throws IllegalStateException on a duplicate chunk, too many chunks ahead
+	 *                               of the sequence or error reported by the sender.
+	 */
+	boolean onMessage(CharSequence message) {
+		this.lastMessageNanos = System.nanoTime();
+		int seqStart = JsonScanner.findField(message, 0, SEQUENCE);
+		if (seqStart < 0) {
+			throw new IllegalStateException("invalid binary chunk message");
+		}
+		int seqEnd = JsonScanner.skipValue(message, seqStart);
+		long seq = Long.parseLong(message.subSequence(seqStart, seqEnd).toString());
+		if (seq <= this.sequence || this.earlyChunks.containsKey(seq)) {
+			throw new IllegalStateException("duplicate binary chunk " + seq);
+		}
+		if (seq != this.sequence + 1) {
+			if (seq > this.sequence + MAX_EARLY_CHUNKS) {
+				throw new IllegalStateException("expected binary chunk " + (this.sequence + 1) + ", got " + seq);
+			}
+			// decoding carries bits over to the next chunk, so it waits for the ones before it.
+			this.earlyChunks.put(seq, message.toString());
+			return false;
+		}
+		this.process(message, seq);
+		String next;
+		while (!this.ended && (next = this.earlyChunks.remove(this.sequence + 1)) != null) {
+			this.process(next, this.sequence + 1);
+		}
+		return this.ended;
+	}
+
+	private void process(CharSequence message, long seq) {
+		this.sequence = seq;
+		int pos = JsonScanner.skipWhitespace(message, 0);
+		if (pos >= message.length() || message.charAt(pos) != '{') {
+			throw new IllegalStateException("invalid binary chunk message");
+		}
+		pos++;
+		String error = null;
+		while (true) {
+			pos = JsonScanner.skipWhitespace(message, pos);
+			if (message.charAt(pos) == '}') {
+				break;
+			}
+			int keyEnd = JsonScanner.skipString(message, pos);
+			String key = message.subSequence(pos + 1, keyEnd - 1).toString();
+			pos = JsonScanner.skipWhitespace(message, JsonScanner.skipWhitespace(message, keyEnd) + 1);
+			int valueEnd = JsonScanner.skipValue(message, pos);
+			switch (key) {
+			case SIZE:
+				this.ensureCapacity(Integer.parseInt(message.subSequence(pos, valueEnd).toString()));
+				break;
+			case DATA:
+				this.decode(message, pos + 1, valueEnd - 1);
+				break;
+			case END:
+				this.ended = true;
+				break;
+			case ERROR:
+				error = JsonScanner.readString(message, pos);
+				break;
+			default:
+			}
+			pos = JsonScanner.skipWhitespace(message, valueEnd);
+			if (message.charAt(pos) == ',') {
+				pos++;
+			}
+		}
+		if (error != null) {
+			throw new IllegalStateException("binary transfer error, " + error);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (this.buffer == null) {
+			this.buffer = this.pool.acquire(capacity);
+		}
+		else if (this.buffer.capacity() < capacity) {
+			ByteBuffer larger = this.pool.acquire(capacity);
+			larger.put(this.buffer.flip());
+			this.pool.release(this.buffer);
+			this.buffer = larger;
+		}
+	}
+
+	/**
+	 * Decodes base64 chars, chunks can be split anywhere, padding and escapes
+	 * of the JSON text are skipped.
+	 */
+	void decode(CharSequence text, int start, int end) {
+		while (end > start && text.charAt(end - 1) == '=') {
+			end--;
+		}
+		long decodedBits = this.bitCount + 6L * (end - start);
+		this.ensureCapacity((int) ((this.buffer == null ? 0 : this.buffer.position()) + decodedBits / 8));
+		ByteBuffer buf = this.buffer;
+		int bits = this.bits;
+		int bitCount = this.bitCount;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			int v = c < 128 ? DECODE[c] : -1;
+			if (v < 0) {
+				// '=', '\' of escaped '/', whitespace
+				continue;
+			}
+			bits = (bits << 6) | v;
+			bitCount += 6;
+			if (bitCount >= 8) {
+				bitCount -= 8;
+				buf.put((byte) (bits >> bitCount));
+			}
+		}
+		this.bits = bits & ((1 << bitCount) - 1);
+		this.bitCount = bitCount;
+	}
+
+	/**
+	 * @return the decoded bytes, the caller takes over the buffer.
+	 */
+	ByteBuffer finish() {
+		this.ensureCapacity(0);
+		ByteBuffer result = this.buffer.flip();
+		this.buffer = null;
+		this.done = true;
+		return result;
+	}
+
+	/**
+	 * Returns the partially received buffer to the pool.
+	 */
+	void release() {
+		this.pool.release(this.buffer);
+		this.buffer = null;
+		this.earlyChunks.clear();
+		this.done = true;
+	}
+
+	/**
+	 * @return true once finished or released.
+	 */
+	boolean isDone() {
+		return this.done;
+	}
+
+	long getLastMessageNanos() {
+		return this.lastMessageNanos;
+	}
+
+	long getSequence() {
+		return this.sequence;
+	}
+}
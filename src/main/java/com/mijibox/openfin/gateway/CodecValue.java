@@ -0,0 +1,106 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Java object argument of a typed invoke, written by the codec of its class
+ * straight into the outgoing message. The JsonValue tree is only built when
+ * something inspects the value, like the direct API fast path.
+ *
+ * @author Anthony
+ *
+ */
+class CodecValue implements JsonValue {
+	private final Object value;
+	private volatile JsonValue encoded;
+
+	private CodecValue(Object value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return null for null and JsonValues as they are.
+	 */
+	static JsonValue of(Object value) {
+		if (value == null || value instanceof JsonValue) {
+			return (JsonValue) value;
+		}
+		return new CodecValue(value);
+	}
+
+	void write(JsonGenerator generator) {
+		JsonValue json = this.encoded;
+		if (json != null) {
+			generator.write(json);
+		}
+		else {
+			OpenFinCodecs.write(this.value, generator);
+		}
+	}
+
+	JsonValue getEncoded() {
+		JsonValue json = this.encoded;
+		if (json == null) {
+			json = OpenFinCodecs.encode(this.value);
+			this.encoded = json;
+		}
+		return json;
+	}
+
+	@Override
+	public ValueType getValueType() {
+		return this.getEncoded().getValueType();
+	}
+
+	@Override
+	public JsonObject asJsonObject() {
+		return this.getEncoded().asJsonObject();
+	}
+
+	@Override
+	public JsonArray asJsonArray() {
+		return this.getEncoded().asJsonArray();
+	}
+
+	@Override
+	public int hashCode() {
+		return this.getEncoded().hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof CodecValue) {
+			obj = ((CodecValue) obj).getEncoded();
+		}
+		return this.getEncoded().equals(obj);
+	}
+
+	/**
+	 * @return the JSON text, written by the codec, used as part of coalescing and cache keys.
+	 */
+	@Override
+	public String toString() {
+		JsonValue json = this.encoded;
+		return json != null ? json.toString() : EnvelopeWriter.toText(this::write);
+	}
+}
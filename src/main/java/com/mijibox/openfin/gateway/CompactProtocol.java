@@ -0,0 +1,152 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Protocol version 2 of the gateway exec messages. Messages to gateway.js are
+ * positional arrays [action code, messageId, lane, payload], responses are
+ * [action code, messageId, payload]. Invoke and add-listener payloads, and the
+ * invoke-result response, are positional arrays as well, proxy ids are
+ * numbers. The action codes are the indexes of the action names gateway.js
+ * sends in the hello handshake.
+ *
+ * @author Anthony
+ *
+ */
+class CompactProtocol {
+
+	final static int VERSION = 2;
+
+	private final String[] actionNames;
+	private final Map<String, Integer> actionCodes;
+
+	CompactProtocol(JsonArray actions) {
+		this.actionNames = new String[actions.size()];
+		this.actionCodes = new HashMap<>();
+		for (int i = 0; i < this.actionNames.length; i++) {
+			this.actionNames[i] = actions.getString(i);
+			this.actionCodes.put(this.actionNames[i], i);
+		}
+	}
+
+	int getCode(String action) {
+		Integer code = this.actionCodes.get(action);
+		if (code == null) {
+			throw new IllegalArgumentException("action not supported by gateway.js: " + action);
+		}
+		return code;
+	}
+
+	void writeMessage(JsonGenerator generator, int msgId, String action, OpenFinPriority priority,
+			EnvelopeWriter.PayloadWriter payloadWriter) {
+		generator.writeStartArray()
+				.write(this.getCode(action))
+				.write(msgId)
+				.write(priority.ordinal());
+		payloadWriter.write(generator);
+		generator.writeEnd();
+	}
+
+	/**
+	 * [method or handle, proxyResult, proxyObjId, args], trailing ones omitted.
+	 */
+	static void writeInvokePayload(JsonGenerator generator, boolean createProxyObject, ProxyObject proxyObject,
+			String method, int handle, JsonValue[] args) {
+		generator.writeStartArray();
+		if (handle == OpenFinGatewayImpl.NO_HANDLE) {
+			generator.write(method);
+		}
+		else {
+			generator.write(handle);
+			// bound to the prepared method already
+			proxyObject = null;
+		}
+		generator.write(createProxyObject ? 1 : 0);
+		boolean hasArgs = EnvelopeWriter.lastNonNullIndex(args) >= 0;
+		if (proxyObject != null) {
+			generator.write(proxyObject.getProxyId());
+		}
+		else if (hasArgs) {
+			generator.writeNull();
+		}
+		if (hasArgs) {
+			EnvelopeWriter.writeArgs(generator, args);
+		}
+		generator.writeEnd();
+	}
+
+	/**
+	 * [iabTopic, method, listenerArgIdx, proxyResult, proxyObjId, args], trailing ones omitted.
+	 */
+	static void writeAddListenerPayload(JsonGenerator generator, String iabTopic, String method,
+			int listenerArgIndex, boolean createProxyListener, ProxyObject proxyObject, JsonValue[] args) {
+		generator.writeStartArray()
+				.write(iabTopic)
+				.write(method)
+				.write(listenerArgIndex)
+				.write(createProxyListener ? 1 : 0);
+		boolean hasArgs = EnvelopeWriter.lastNonNullIndex(args) >= 0;
+		if (proxyObject != null) {
+			generator.write(proxyObject.getProxyId());
+		}
+		else if (hasArgs) {
+			generator.writeNull();
+		}
+		if (hasArgs) {
+			EnvelopeWriter.writeArgs(generator, args);
+		}
+		generator.writeEnd();
+	}
+
+	String getAction(JsonArray message) {
+		int code = message.getInt(0);
+		if (code < 0 || code >= this.actionNames.length) {
+			throw new JsonException("unknown action code: " + code);
+		}
+		return this.actionNames[code];
+	}
+
+	/**
+	 * @return the response payload as v1 payload object.
+	 */
+	JsonObject getPayload(JsonArray message) {
+		JsonValue payload = message.size() > 2 ? message.get(2) : JsonValue.EMPTY_JSON_OBJECT;
+		if (payload.getValueType() == JsonValue.ValueType.ARRAY) {
+			// invoke-result [resultJson, proxyObjId]
+			JsonArray values = payload.asJsonArray();
+			FastJsonValues.FastJsonObject result = new FastJsonValues.FastJsonObject(2);
+			if (values.size() > 0 && values.get(0).getValueType() == JsonValue.ValueType.STRING) {
+				result.add(OpenFinGatewayImpl.RESULT_JSON, values.get(0));
+			}
+			if (values.size() > 1) {
+				result.add(OpenFinGatewayImpl.PROXY_ID, values.get(1));
+			}
+			return result;
+		}
+		return payload.asJsonObject();
+	}
+}
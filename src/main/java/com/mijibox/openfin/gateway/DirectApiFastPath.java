@@ -0,0 +1,226 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * Sends a whitelist of invokes as OpenFin API protocol actions over the
+ * websocket connection, one hop instead of the round trip through gateway.js.
+ * Window and application methods are routed for proxy objects created by the
+ * methods known to return a window or an application, by the identity in their
+ * result, recorded when the proxy object is created if the result JSON is
+ * not retained. A failed read falls back to the invoke through gateway.js, so
+ * errors are reported the same way. A failed state-changing call is not
+ * repeated through gateway.js, it fails with the reason of the runtime.
+ *
+ * @author Anthony
+ *
+ */
+public class DirectApiFastPath {
+
+	/**
+	 * Type of the target of a proxy object, known from the method that created it.
+	 */
+	enum TargetType {
+		WINDOW, APPLICATION
+	}
+
+	private static class Route {
+		final String action;
+		final boolean returnsValue;
+		final boolean boundsArgument;
+
+		Route(String action, boolean returnsValue, boolean boundsArgument) {
+			this.action = action;
+			this.returnsValue = returnsValue;
+			this.boundsArgument = boundsArgument;
+		}
+	}
+
+	/**
+	 * API protocol action with its payload.
+	 */
+	static class Call {
+		final String action;
+		final JsonObject payload;
+		final boolean returnsValue;
+
+		Call(String action, JsonObject payload, boolean returnsValue) {
+			this.action = action;
+			this.payload = payload;
+			this.returnsValue = returnsValue;
+		}
+
+		/**
+		 * @return true if the call only reads, the routes returning a value are
+		 *         the reads, the others change state.
+		 */
+		boolean isReadOnly() {
+			return this.returnsValue;
+		}
+	}
+
+	private final static Map<String, Route> staticRoutes = new HashMap<>();
+	private final static Map<String, Route> windowRoutes = new HashMap<>();
+	private final static Map<String, Route> applicationRoutes = new HashMap<>();
+	private final static Map<String, TargetType> staticTargetTypes = new HashMap<>();
+	private final static Map<String, TargetType> windowTargetTypes = new HashMap<>();
+	private final static Map<String, TargetType> applicationTargetTypes = new HashMap<>();
+
+	static {
+		staticRoutes.put("fin.System.getVersion", new Route("get-version", true, false));
+		staticRoutes.put("fin.System.getAllWindows", new Route("get-all-windows", true, false));
+		staticRoutes.put("fin.System.getAllApplications", new Route("get-all-applications", true, false));
+		staticRoutes.put("fin.System.getMonitorInfo", new Route("get-monitor-info", true, false));
+
+		windowRoutes.put("show", new Route("show-window", false, false));
+		windowRoutes.put("hide", new Route("hide-window", false, false));
+		windowRoutes.put("focus", new Route("focus-window", false, false));
+		windowRoutes.put("minimize", new Route("minimize-window", false, false));
+		windowRoutes.put("maximize", new Route("maximize-window", false, false));
+		windowRoutes.put("restore", new Route("restore-window", false, false));
+		windowRoutes.put("bringToFront", new Route("bring-window-to-front", false, false));
+		windowRoutes.put("getBounds", new Route("get-window-bounds", true, false));
+		windowRoutes.put("setBounds", new Route("set-window-bounds", false, true));
+		windowRoutes.put("getState", new Route("get-window-state", true, false));
+		windowRoutes.put("isShowing", new Route("is-window-showing", true, false));
+
+		applicationRoutes.put("run", new Route("run-application", false, false));
+		applicationRoutes.put("isRunning", new Route("is-application-running", true, false));
+
+		for (String method : new String[] { "fin.Window.wrap", "fin.Window.wrapSync", "fin.Window.getCurrent",
+				"fin.Window.getCurrentSync", "fin.Window.create" }) {
+			staticTargetTypes.put(method, TargetType.WINDOW);
+		}
+		for (String method : new String[] { "fin.Application.wrap", "fin.Application.wrapSync",
+				"fin.Application.getCurrent", "fin.Application.getCurrentSync", "fin.Application.create",
+				"fin.Application.start", "fin.Application.startFromManifest",
+				"fin.Application.createFromManifest" }) {
+			staticTargetTypes.put(method, TargetType.APPLICATION);
+		}
+		windowTargetTypes.put("getParentApplication", TargetType.APPLICATION);
+		applicationTargetTypes.put("getWindow", TargetType.WINDOW);
+	}
+
+	private final LongAdder directCount;
+	private final LongAdder fallbackCount;
+
+	DirectApiFastPath() {
+		this.directCount = new LongAdder();
+		this.fallbackCount = new LongAdder();
+	}
+
+	/**
+	 * @return new instance with the same routes and its own metrics.
+	 */
+	DirectApiFastPath copy() {
+		return new DirectApiFastPath();
+	}
+
+	/**
+	 * @param invoker the proxy object the method is invoked on, null for static methods.
+	 * @return type of the proxy object created by the invoke, null if not known.
+	 */
+	static TargetType getTargetType(ProxyObject invoker, String method) {
+		if (method == null) {
+			return null;
+		}
+		if (invoker == null) {
+			return staticTargetTypes.get(method);
+		}
+		TargetType invokerType = invoker.getTargetType();
+		if (invokerType == TargetType.WINDOW) {
+			return windowTargetTypes.get(method);
+		}
+		else if (invokerType == TargetType.APPLICATION) {
+			return applicationTargetTypes.get(method);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the API protocol call of the invoke, null if it's not routed.
+	 */
+	Call getCall(ProxyObject proxyObject, String method, JsonValue[] args) {
+		int argCount = EnvelopeWriter.lastNonNullIndex(args) + 1;
+		if (proxyObject == null) {
+			Route route = staticRoutes.get(method);
+			return route == null || argCount > 0 ? null
+					: new Call(route.action, JsonValue.EMPTY_JSON_OBJECT, route.returnsValue);
+		}
+		TargetType targetType = proxyObject.getTargetType();
+		Route route = targetType == TargetType.WINDOW ? windowRoutes.get(method)
+				: targetType == TargetType.APPLICATION ? applicationRoutes.get(method) : null;
+		if (route == null) {
+			return null;
+		}
+		JsonObject identity = proxyObject.getIdentity();
+		if (identity == null) {
+			return null;
+		}
+		boolean window = targetType == TargetType.WINDOW;
+		if (!identity.containsKey("uuid") || (window && !identity.containsKey("name"))) {
+			return null;
+		}
+		FastJsonValues.FastJsonObject payload = new FastJsonValues.FastJsonObject(6);
+		payload.add("uuid", identity.get("uuid"));
+		if (window) {
+			payload.add("name", identity.get("name"));
+		}
+		if (route.boundsArgument) {
+			if (argCount != 1 || args[0].getValueType() != JsonValue.ValueType.OBJECT) {
+				return null;
+			}
+			for (Map.Entry<String, JsonValue> e : args[0].asJsonObject().entrySet()) {
+				payload.add(e.getKey(), e.getValue());
+			}
+		}
+		else if (argCount > 0) {
+			return null;
+		}
+		return new Call(route.action, payload, route.returnsValue);
+	}
+
+	void directCompleted() {
+		this.directCount.increment();
+	}
+
+	void fellBack() {
+		this.fallbackCount.increment();
+	}
+
+	/**
+	 * @return number of invokes completed by the API protocol directly.
+	 */
+	public long getDirectCount() {
+		return this.directCount.sum();
+	}
+
+	/**
+	 * @return number of routed reads that failed and were sent through gateway.js.
+	 */
+	public long getFallbackCount() {
+		return this.fallbackCount.sum();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct buffers for binary payloads, pooled in power of two size classes so
+ * repeated transfers of similar size don't allocate native memory each time.
+ *
+ * @author Anthony
+ *
+ */
+class DirectBufferPool {
+	final static int MIN_CAPACITY = 4 * 1024;
+	/**
+	 * larger buffers are allocated and dropped every time.
+	 */
+	final static int MAX_POOLED_CAPACITY = 32 * 1024 * 1024;
+	final static int MAX_BUFFERS_PER_CLASS = 4;
+	/**
+	 * total capacity of the pooled buffers, buffers released beyond it are dropped.
+	 */
+	final static long MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+	private final List<ConcurrentLinkedQueue<ByteBuffer>> pools;
+	private final AtomicInteger[] pooledCounts;
+	private final long maxPooledBytes;
+	private final AtomicLong pooledBytes;
+	private final LongAdder allocatedCount;
+	private final LongAdder reusedCount;
+
+	DirectBufferPool() {
+		this(MAX_POOLED_BYTES);
+	}
+
+	DirectBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		this.pooledBytes = new AtomicLong(0);
+		int classes = sizeClass(MAX_POOLED_CAPACITY) + 1;
+		this.pools = new ArrayList<>(classes);
+		this.pooledCounts = new AtomicInteger[classes];
+		for (int i = 0; i < classes; i++) {
+			this.pools.add(new ConcurrentLinkedQueue<>());
+			this.pooledCounts[i] = new AtomicInteger(0);
+		}
+		this.allocatedCount = new LongAdder();
+		this.reusedCount = new LongAdder();
+	}
+
+	private static int sizeClass(int capacity) {
+		int size = Math.max(MIN_CAPACITY, capacity);
+		// log2 of the capacity rounded up to power of two, relative to MIN_CAPACITY
+		return Integer.numberOfLeadingZeros(MIN_CAPACITY - 1) - Integer.numberOfLeadingZeros(size - 1);
+	}
+
+	/**
+	 * @return a cleared buffer with at least the capacity.
+	 */
+	ByteBuffer acquire(int capacity) {
+		if (capacity > MAX_POOLED_CAPACITY) {
+			this.allocatedCount.increment();
+			return ByteBuffer.allocateDirect(capacity);
+		}
+		int sizeClass = sizeClass(capacity);
+		ByteBuffer buffer = this.pools.get(sizeClass).poll();
+		if (buffer != null) {
+			this.pooledCounts[sizeClass].decrementAndGet();
+			this.pooledBytes.addAndGet(-buffer.capacity());
+			this.reusedCount.increment();
+			return buffer.clear();
+		}
+		this.allocatedCount.increment();
+		return ByteBuffer.allocateDirect(MIN_CAPACITY << sizeClass);
+	}
+
+	/**
+	 * Returns the buffer to the pool, it must not be used afterwards.
+	 */
+	void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect() || buffer.capacity() > MAX_POOLED_CAPACITY
+				|| Integer.bitCount(buffer.capacity()) != 1 || buffer.capacity() < MIN_CAPACITY) {
+			return;
+		}
+		int sizeClass = sizeClass(buffer.capacity());
+		if (this.pooledCounts[sizeClass].incrementAndGet() > MAX_BUFFERS_PER_CLASS) {
+			this.pooledCounts[sizeClass].decrementAndGet();
+		}
+		else if (this.pooledBytes.addAndGet(buffer.capacity()) > this.maxPooledBytes) {
+			this.pooledBytes.addAndGet(-buffer.capacity());
+			this.pooledCounts[sizeClass].decrementAndGet();
+		}
+		else {
+			this.pools.get(sizeClass).offer(buffer);
+		}
+	}
+
+	long getAllocatedCount() {
+		return this.allocatedCount.sum();
+	}
+
+	long getReusedCount() {
+		return this.reusedCount.sum();
+	}
+
+	/**
+	 * @return total capacity of the buffers in the pool.
+	 */
+	long getPooledBytes() {
+		return this.pooledBytes.get();
+	}
+}
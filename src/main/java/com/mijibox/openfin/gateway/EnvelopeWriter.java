@@ -0,0 +1,183 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.json.Json;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+
+/**
+ * Writes the outgoing websocket message in one pass, nested payloads stream
+ * into the same per-thread buffer instead of being built as JsonObjects and
+ * copied into each enclosing envelope.
+ *
+ * @author Anthony
+ *
+ */
+class EnvelopeWriter {
+
+	/**
+	 * Writes a JSON value at the current value position of the generator.
+	 */
+	@FunctionalInterface
+	interface PayloadWriter {
+		void write(JsonGenerator generator);
+	}
+
+	/**
+	 * Buffers larger than this are not kept for reuse.
+	 */
+	private final static int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+	private final static JsonGeneratorFactory generatorFactory = Json.createGeneratorFactory(null);
+	private final static ThreadLocal<FrameBuffer> frameBuffers = ThreadLocal.withInitial(FrameBuffer::new);
+
+	private static class FrameBuffer extends Writer {
+		private StringBuilder builder = new StringBuilder(1024);
+
+		StringBuilder reset() {
+			if (this.builder.capacity() > MAX_RETAINED_CAPACITY) {
+				this.builder = new StringBuilder(1024);
+			}
+			else {
+				this.builder.setLength(0);
+			}
+			return this.builder;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			this.builder.append(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) {
+			this.builder.append(str, off, off + len);
+		}
+
+		@Override
+		public void write(int c) {
+			this.builder.append((char) c);
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Writes {"action": action, "messageId": messageId, "payload": payload} into
+	 * the buffer of the current thread.
+	 * @return the message text, only valid until the next write on the same thread.
+	 */
+	static CharSequence writeMessage(String action, int messageId, PayloadWriter payload) {
+		FrameBuffer buffer = frameBuffers.get();
+		StringBuilder text = buffer.reset();
+		JsonGenerator generator = generatorFactory.createGenerator(buffer);
+		generator.writeStartObject()
+				.write("action", action)
+				.write("messageId", messageId)
+				.writeKey("payload");
+		payload.write(generator);
+		generator.writeEnd();
+		generator.close();
+		return text;
+	}
+
+	/**
+	 * Materializes the output of a payload writer, for code paths that need the tree.
+	 */
+	static JsonValue toJsonValue(PayloadWriter payload) {
+		FrameBuffer buffer = frameBuffers.get();
+		StringBuilder text = buffer.reset();
+		JsonGenerator generator = generatorFactory.createGenerator(buffer);
+		payload.write(generator);
+		generator.close();
+		return JsonParsers.parse(text);
+	}
+
+	/**
+	 * Writes the output of a payload writer as text, it does not use the buffer
+	 * of the current thread so it can be called while a message is written.
+	 */
+	static String toText(PayloadWriter payload) {
+		StringWriter text = new StringWriter();
+		JsonGenerator generator = generatorFactory.createGenerator(text);
+		payload.write(generator);
+		generator.close();
+		return text.toString();
+	}
+
+	/**
+	 * Writes the arguments as JSON array, trailing nulls are stripped and
+	 * nothing is written if there are no arguments left.
+	 */
+	static void writeArgs(JsonGenerator generator, String name, JsonValue[] args) {
+		int lastNonNullIndex = lastNonNullIndex(args);
+		if (lastNonNullIndex >= 0) {
+			//anything beyond can be stripped.
+			generator.writeStartArray(name);
+			writeArgValues(generator, args, lastNonNullIndex);
+		}
+	}
+
+	/**
+	 * Writes the arguments as JSON array at the current value position,
+	 * trailing nulls are stripped.
+	 */
+	static void writeArgs(JsonGenerator generator, JsonValue[] args) {
+		generator.writeStartArray();
+		writeArgValues(generator, args, lastNonNullIndex(args));
+	}
+
+	static int lastNonNullIndex(JsonValue[] args) {
+		int lastNonNullIndex = -1;
+		if (args != null) {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i] != null) {
+					lastNonNullIndex = i;
+				}
+			}
+		}
+		return lastNonNullIndex;
+	}
+
+	private static void writeArgValues(JsonGenerator generator, JsonValue[] args, int lastNonNullIndex) {
+		for (int i = 0; i <= lastNonNullIndex; i++) {
+			if (args[i] == null) {
+				generator.writeNull();
+			}
+			else if (args[i] instanceof CodecValue) {
+				// typed invoke argument, written by its codec
+				((CodecValue) args[i]).write(generator);
+			}
+			else {
+				generator.write(args[i]);
+			}
+		}
+		generator.writeEnd();
+	}
+}
@@ -0,0 +1,441 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.Arrays;
+
+import javax.json.JsonException;
+import javax.json.JsonValue;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParsingException;
+
+import com.mijibox.openfin.gateway.FastJsonValues.FastJsonArray;
+import com.mijibox.openfin.gateway.FastJsonValues.FastJsonNumber;
+import com.mijibox.openfin.gateway.FastJsonValues.FastJsonObject;
+import com.mijibox.openfin.gateway.FastJsonValues.FastJsonString;
+
+/**
+ * Recursive descent parser over a per-thread char array. Member names are
+ * interned in a small per-thread cache since the protocol repeats the same
+ * few names in every message, integers are parsed into longs directly.
+ *
+ * @author Anthony
+ *
+ */
+class FastJsonParser implements OpenFinJsonParser {
+
+	/**
+	 * Buffers larger than this are not kept for reuse.
+	 */
+	private final static int MAX_RETAINED_CAPACITY = 1024 * 1024;
+	private final static int KEY_CACHE_SIZE = 256;
+	private final static int MAX_CACHED_KEY_LENGTH = 32;
+	private final static JsonValue[] EMPTY_ARRAY = new JsonValue[0];
+	/**
+	 * maximum nesting of objects and arrays, deeper text is rejected instead of
+	 * overflowing the stack.
+	 */
+	final static int MAX_DEPTH = 512;
+
+	private final static ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+	private static class State {
+		char[] buffer = new char[1024];
+		final String[] keyCache = new String[KEY_CACHE_SIZE];
+		JsonValue[][] arrayStack = new JsonValue[8][];
+	}
+
+	private static class Cursor {
+		final char[] buf;
+		final int end;
+		final State state;
+		int pos;
+
+		Cursor(char[] buf, int end, State state) {
+			this.buf = buf;
+			this.end = end;
+			this.state = state;
+		}
+	}
+
+	@Override
+	public JsonValue parse(CharSequence text) {
+		State state = states.get();
+		int len = text.length();
+		char[] buf = state.buffer;
+		if (buf.length < len) {
+			buf = new char[Math.max(len, buf.length * 2)];
+			if (buf.length <= MAX_RETAINED_CAPACITY) {
+				state.buffer = buf;
+			}
+		}
+		if (text instanceof String) {
+			((String) text).getChars(0, len, buf, 0);
+		}
+		else if (text instanceof StringBuilder) {
+			((StringBuilder) text).getChars(0, len, buf, 0);
+		}
+		else {
+			for (int i = 0; i < len; i++) {
+				buf[i] = text.charAt(i);
+			}
+		}
+		Cursor cursor = new Cursor(buf, len, state);
+		JsonValue value = this.readValue(cursor, 0);
+		this.skipWhitespace(cursor);
+		if (cursor.pos != len) {
+			throw this.error(cursor, "unexpected character after JSON value");
+		}
+		return value;
+	}
+
+	private JsonException error(Cursor cursor, String message) {
+		return new JsonException(message + " at position " + cursor.pos);
+	}
+
+	private JsonParsingException depthError(Cursor cursor) {
+		long offset = cursor.pos;
+		return new JsonParsingException("JSON text nested deeper than " + MAX_DEPTH + " at position " + offset,
+				new JsonLocation() {
+					@Override
+					public long getLineNumber() {
+						return -1;
+					}
+
+					@Override
+					public long getColumnNumber() {
+						return -1;
+					}
+
+					@Override
+					public long getStreamOffset() {
+						return offset;
+					}
+				});
+	}
+
+	private void skipWhitespace(Cursor cursor) {
+		char[] buf = cursor.buf;
+		int pos = cursor.pos;
+		while (pos < cursor.end) {
+			char c = buf[pos];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				break;
+			}
+			pos++;
+		}
+		cursor.pos = pos;
+	}
+
+	private JsonValue readValue(Cursor cursor, int depth) {
+		this.skipWhitespace(cursor);
+		if (cursor.pos >= cursor.end) {
+			throw this.error(cursor, "unexpected end of JSON text");
+		}
+		char c = cursor.buf[cursor.pos];
+		switch (c) {
+		case '{':
+			if (depth >= MAX_DEPTH) {
+				throw this.depthError(cursor);
+			}
+			return this.readObject(cursor, depth);
+		case '[':
+			if (depth >= MAX_DEPTH) {
+				throw this.depthError(cursor);
+			}
+			return this.readArray(cursor, depth);
+		case '"':
+			return new FastJsonString(this.readString(cursor, false));
+		case 't':
+			this.expectLiteral(cursor, "true");
+			return JsonValue.TRUE;
+		case 'f':
+			this.expectLiteral(cursor, "false");
+			return JsonValue.FALSE;
+		case 'n':
+			this.expectLiteral(cursor, "null");
+			return JsonValue.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return this.readNumber(cursor);
+			}
+			throw this.error(cursor, "unexpected character '" + c + "'");
+		}
+	}
+
+	private void expectLiteral(Cursor cursor, String literal) {
+		int len = literal.length();
+		if (cursor.pos + len > cursor.end) {
+			throw this.error(cursor, "unexpected end of JSON text");
+		}
+		for (int i = 0; i < len; i++) {
+			if (cursor.buf[cursor.pos + i] != literal.charAt(i)) {
+				throw this.error(cursor, "invalid literal");
+			}
+		}
+		cursor.pos += len;
+	}
+
+	private FastJsonObject readObject(Cursor cursor, int depth) {
+		cursor.pos++;
+		FastJsonObject obj = new FastJsonObject(4);
+		this.skipWhitespace(cursor);
+		if (cursor.pos < cursor.end && cursor.buf[cursor.pos] == '}') {
+			cursor.pos++;
+			return obj;
+		}
+		while (true) {
+			this.skipWhitespace(cursor);
+			if (cursor.pos >= cursor.end || cursor.buf[cursor.pos] != '"') {
+				throw this.error(cursor, "expecting member name");
+			}
+			String key = this.readString(cursor, true);
+			this.skipWhitespace(cursor);
+			if (cursor.pos >= cursor.end || cursor.buf[cursor.pos] != ':') {
+				throw this.error(cursor, "expecting ':'");
+			}
+			cursor.pos++;
+			obj.add(key, this.readValue(cursor, depth + 1));
+			this.skipWhitespace(cursor);
+			if (cursor.pos >= cursor.end) {
+				throw this.error(cursor, "unexpected end of JSON text");
+			}
+			char c = cursor.buf[cursor.pos++];
+			if (c == '}') {
+				return obj;
+			}
+			else if (c != ',') {
+				throw this.error(cursor, "expecting ',' or '}'");
+			}
+		}
+	}
+
+	private FastJsonArray readArray(Cursor cursor, int depth) {
+		cursor.pos++;
+		this.skipWhitespace(cursor);
+		if (cursor.pos < cursor.end && cursor.buf[cursor.pos] == ']') {
+			cursor.pos++;
+			return new FastJsonArray(EMPTY_ARRAY);
+		}
+		// elements are collected in a per-depth scratch array and copied out at the end
+		State state = cursor.state;
+		if (depth >= state.arrayStack.length) {
+			state.arrayStack = Arrays.copyOf(state.arrayStack, depth * 2);
+		}
+		JsonValue[] scratch = state.arrayStack[depth];
+		if (scratch == null) {
+			scratch = new JsonValue[16];
+		}
+		state.arrayStack[depth] = null;
+		int size = 0;
+		while (true) {
+			JsonValue value = this.readValue(cursor, depth + 1);
+			if (size == scratch.length) {
+				scratch = Arrays.copyOf(scratch, size * 2);
+			}
+			scratch[size++] = value;
+			this.skipWhitespace(cursor);
+			if (cursor.pos >= cursor.end) {
+				throw this.error(cursor, "unexpected end of JSON text");
+			}
+			char c = cursor.buf[cursor.pos++];
+			if (c == ']') {
+				break;
+			}
+			else if (c != ',') {
+				throw this.error(cursor, "expecting ',' or ']'");
+			}
+		}
+		JsonValue[] values = Arrays.copyOf(scratch, size);
+		Arrays.fill(scratch, 0, size, null);
+		if (scratch.length <= 1024) {
+			state.arrayStack[depth] = scratch;
+		}
+		return new FastJsonArray(values);
+	}
+
+	private String readString(Cursor cursor, boolean intern) {
+		char[] buf = cursor.buf;
+		int start = cursor.pos + 1;
+		int pos = start;
+		int hash = 0;
+		while (pos < cursor.end) {
+			char c = buf[pos];
+			if (c == '"') {
+				cursor.pos = pos + 1;
+				int len = pos - start;
+				if (intern && len <= MAX_CACHED_KEY_LENGTH) {
+					return this.intern(cursor.state.keyCache, buf, start, len, hash);
+				}
+				return new String(buf, start, len);
+			}
+			else if (c == '\\') {
+				return this.readEscapedString(cursor, start, pos);
+			}
+			else if (c < 0x20) {
+				cursor.pos = pos;
+				throw this.error(cursor, "unescaped control character in string");
+			}
+			hash = 31 * hash + c;
+			pos++;
+		}
+		cursor.pos = pos;
+		throw this.error(cursor, "unterminated string");
+	}
+
+	private String intern(String[] cache, char[] buf, int start, int len, int hash) {
+		int slot = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+		String cached = cache[slot];
+		if (cached != null && cached.length() == len) {
+			boolean same = true;
+			for (int i = 0; i < len; i++) {
+				if (cached.charAt(i) != buf[start + i]) {
+					same = false;
+					break;
+				}
+			}
+			if (same) {
+				return cached;
+			}
+		}
+		String key = new String(buf, start, len);
+		cache[slot] = key;
+		return key;
+	}
+
+	private String readEscapedString(Cursor cursor, int start, int escape) {
+		char[] buf = cursor.buf;
+		StringBuilder sb = new StringBuilder(escape - start + 16);
+		sb.append(buf, start, escape - start);
+		int pos = escape;
+		while (pos < cursor.end) {
+			char c = buf[pos++];
+			if (c == '"') {
+				cursor.pos = pos;
+				return sb.toString();
+			}
+			else if (c == '\\') {
+				if (pos >= cursor.end) {
+					break;
+				}
+				c = buf[pos++];
+				switch (c) {
+				case '"':
+				case '\\':
+				case '/':
+					sb.append(c);
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > cursor.end) {
+						cursor.pos = pos;
+						throw this.error(cursor, "invalid unicode escape");
+					}
+					int code = 0;
+					for (int i = 0; i < 4; i++) {
+						int digit = Character.digit(buf[pos++], 16);
+						if (digit < 0) {
+							cursor.pos = pos;
+							throw this.error(cursor, "invalid unicode escape");
+						}
+						code = (code << 4) | digit;
+					}
+					sb.append((char) code);
+					break;
+				default:
+					cursor.pos = pos;
+					throw this.error(cursor, "invalid escape character '" + c + "'");
+				}
+			}
+			else if (c < 0x20) {
+				cursor.pos = pos;
+				throw this.error(cursor, "unescaped control character in string");
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		cursor.pos = pos;
+		throw this.error(cursor, "unterminated string");
+	}
+
+	private FastJsonNumber readNumber(Cursor cursor) {
+		char[] buf = cursor.buf;
+		int start = cursor.pos;
+		int pos = start;
+		boolean negative = buf[pos] == '-';
+		if (negative) {
+			pos++;
+		}
+		int digitsStart = pos;
+		long value = 0;
+		while (pos < cursor.end && buf[pos] >= '0' && buf[pos] <= '9') {
+			value = value * 10 + (buf[pos] - '0');
+			pos++;
+		}
+		int digits = pos - digitsStart;
+		if (digits == 0 || (digits > 1 && buf[digitsStart] == '0')) {
+			throw this.error(cursor, "invalid number");
+		}
+		boolean integral = true;
+		if (pos < cursor.end && buf[pos] == '.') {
+			integral = false;
+			pos++;
+			int fractionStart = pos;
+			while (pos < cursor.end && buf[pos] >= '0' && buf[pos] <= '9') {
+				pos++;
+			}
+			if (pos == fractionStart) {
+				throw this.error(cursor, "invalid number");
+			}
+		}
+		if (pos < cursor.end && (buf[pos] == 'e' || buf[pos] == 'E')) {
+			integral = false;
+			pos++;
+			if (pos < cursor.end && (buf[pos] == '+' || buf[pos] == '-')) {
+				pos++;
+			}
+			int exponentStart = pos;
+			while (pos < cursor.end && buf[pos] >= '0' && buf[pos] <= '9') {
+				pos++;
+			}
+			if (pos == exponentStart) {
+				throw this.error(cursor, "invalid number");
+			}
+		}
+		cursor.pos = pos;
+		if (integral && digits <= 18) {
+			return new FastJsonNumber(negative ? -value : value);
+		}
+		return new FastJsonNumber(new String(buf, start, pos - start));
+	}
+}
@@ -0,0 +1,597 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * Immutable javax.json values created by {@link FastJsonParser}, they compare
+ * equal to the values of any other javax.json implementation.
+ *
+ * @author Anthony
+ *
+ */
+class FastJsonValues {
+
+	private FastJsonValues() {
+	}
+
+	static class FastJsonString implements JsonString {
+		private final String value;
+
+		FastJsonString(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public ValueType getValueType() {
+			return ValueType.STRING;
+		}
+
+		@Override
+		public String getString() {
+			return this.value;
+		}
+
+		@Override
+		public CharSequence getChars() {
+			return this.value;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.value.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			return obj instanceof JsonString && this.value.equals(((JsonString) obj).getString());
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(this.value.length() + 2);
+			writeString(sb, this.value);
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Integers that fit in a long are kept as long, anything else keeps its text
+	 * and is converted on demand.
+	 */
+	static class FastJsonNumber implements JsonNumber {
+		private final long longValue;
+		private final String text;
+		private BigDecimal bigDecimal;
+
+		FastJsonNumber(long value) {
+			this.longValue = value;
+			this.text = null;
+		}
+
+		FastJsonNumber(String text) {
+			this.longValue = 0;
+			this.text = text;
+		}
+
+		@Override
+		public ValueType getValueType() {
+			return ValueType.NUMBER;
+		}
+
+		@Override
+		public boolean isIntegral() {
+			return this.text == null || this.bigDecimalValue().scale() == 0;
+		}
+
+		@Override
+		public int intValue() {
+			return this.text == null ? (int) this.longValue : this.bigDecimalValue().intValue();
+		}
+
+		@Override
+		public int intValueExact() {
+			return this.text == null ? Math.toIntExact(this.longValue) : this.bigDecimalValue().intValueExact();
+		}
+
+		@Override
+		public long longValue() {
+			return this.text == null ? this.longValue : this.bigDecimalValue().longValue();
+		}
+
+		@Override
+		public long longValueExact() {
+			return this.text == null ? this.longValue : this.bigDecimalValue().longValueExact();
+		}
+
+		@Override
+		public BigInteger bigIntegerValue() {
+			return this.text == null ? BigInteger.valueOf(this.longValue) : this.bigDecimalValue().toBigInteger();
+		}
+
+		@Override
+		public BigInteger bigIntegerValueExact() {
+			return this.text == null ? BigInteger.valueOf(this.longValue)
+					: this.bigDecimalValue().toBigIntegerExact();
+		}
+
+		@Override
+		public double doubleValue() {
+			return this.text == null ? this.longValue : Double.parseDouble(this.text);
+		}
+
+		@Override
+		public BigDecimal bigDecimalValue() {
+			if (this.text == null) {
+				return BigDecimal.valueOf(this.longValue);
+			}
+			BigDecimal value = this.bigDecimal;
+			if (value == null) {
+				value = new BigDecimal(this.text);
+				this.bigDecimal = value;
+			}
+			return value;
+		}
+
+		@Override
+		public Number numberValue() {
+			return this.text == null ? (Number) this.longValue : this.bigDecimalValue();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.bigDecimalValue().hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			else if (obj instanceof FastJsonNumber && this.text == null && ((FastJsonNumber) obj).text == null) {
+				return this.longValue == ((FastJsonNumber) obj).longValue;
+			}
+			return obj instanceof JsonNumber && this.bigDecimalValue().equals(((JsonNumber) obj).bigDecimalValue());
+		}
+
+		@Override
+		public String toString() {
+			return this.text == null ? Long.toString(this.longValue) : this.text;
+		}
+	}
+
+	/**
+	 * Members are kept in insertion order in arrays, lookups are linear for small
+	 * objects and go through a hash index for larger ones.
+	 */
+	static class FastJsonObject extends AbstractMap<String, JsonValue> implements JsonObject {
+		private final static int INDEX_THRESHOLD = 8;
+
+		private String[] keys;
+		private JsonValue[] values;
+		private int size;
+		private HashMap<String, Integer> index;
+
+		FastJsonObject(int capacity) {
+			this.keys = new String[capacity];
+			this.values = new JsonValue[capacity];
+		}
+
+		/**
+		 * only used by the parser while building, later members replace earlier ones of the same name.
+		 */
+		void add(String key, JsonValue value) {
+			int i = this.indexOf(key);
+			if (i >= 0) {
+				this.values[i] = value;
+				return;
+			}
+			if (this.size == this.keys.length) {
+				int capacity = Math.max(4, this.size * 2);
+				String[] newKeys = new String[capacity];
+				JsonValue[] newValues = new JsonValue[capacity];
+				System.arraycopy(this.keys, 0, newKeys, 0, this.size);
+				System.arraycopy(this.values, 0, newValues, 0, this.size);
+				this.keys = newKeys;
+				this.values = newValues;
+			}
+			this.keys[this.size] = key;
+			this.values[this.size] = value;
+			if (this.index != null) {
+				this.index.put(key, this.size);
+			}
+			else if (this.size == INDEX_THRESHOLD) {
+				this.index = new HashMap<>();
+				for (int j = 0; j <= this.size; j++) {
+					this.index.put(this.keys[j], j);
+				}
+			}
+			this.size++;
+		}
+
+		private int indexOf(Object key) {
+			if (this.index != null) {
+				Integer i = this.index.get(key);
+				return i == null ? -1 : i;
+			}
+			for (int i = 0; i < this.size; i++) {
+				if (this.keys[i].equals(key)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		public ValueType getValueType() {
+			return ValueType.OBJECT;
+		}
+
+		@Override
+		public int size() {
+			return this.size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return this.indexOf(key) >= 0;
+		}
+
+		@Override
+		public JsonValue get(Object key) {
+			int i = this.indexOf(key);
+			return i < 0 ? null : this.values[i];
+		}
+
+		@Override
+		public Set<Entry<String, JsonValue>> entrySet() {
+			return new AbstractSet<Entry<String, JsonValue>>() {
+				@Override
+				public Iterator<Entry<String, JsonValue>> iterator() {
+					return new Iterator<Entry<String, JsonValue>>() {
+						private int i = 0;
+
+						@Override
+						public boolean hasNext() {
+							return this.i < FastJsonObject.this.size;
+						}
+
+						@Override
+						public Entry<String, JsonValue> next() {
+							if (this.i >= FastJsonObject.this.size) {
+								throw new NoSuchElementException();
+							}
+							Entry<String, JsonValue> entry = new SimpleImmutableEntry<>(FastJsonObject.this.keys[this.i],
+									FastJsonObject.this.values[this.i]);
+							this.i++;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return FastJsonObject.this.size;
+				}
+			};
+		}
+
+		@Override
+		public JsonArray getJsonArray(String name) {
+			return (JsonArray) this.get(name);
+		}
+
+		@Override
+		public JsonObject getJsonObject(String name) {
+			return (JsonObject) this.get(name);
+		}
+
+		@Override
+		public JsonNumber getJsonNumber(String name) {
+			return (JsonNumber) this.get(name);
+		}
+
+		@Override
+		public JsonString getJsonString(String name) {
+			return (JsonString) this.get(name);
+		}
+
+		@Override
+		public String getString(String name) {
+			return this.getJsonString(name).getString();
+		}
+
+		@Override
+		public String getString(String name, String defaultValue) {
+			JsonValue value = this.get(name);
+			return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+		}
+
+		@Override
+		public int getInt(String name) {
+			return this.getJsonNumber(name).intValue();
+		}
+
+		@Override
+		public int getInt(String name, int defaultValue) {
+			JsonValue value = this.get(name);
+			return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+		}
+
+		@Override
+		public boolean getBoolean(String name) {
+			JsonValue value = this.get(name);
+			if (value == null) {
+				throw new NullPointerException();
+			}
+			else if (value == JsonValue.TRUE) {
+				return true;
+			}
+			else if (value == JsonValue.FALSE) {
+				return false;
+			}
+			else {
+				throw new ClassCastException();
+			}
+		}
+
+		@Override
+		public boolean getBoolean(String name, boolean defaultValue) {
+			JsonValue value = this.get(name);
+			if (value == JsonValue.TRUE) {
+				return true;
+			}
+			else if (value == JsonValue.FALSE) {
+				return false;
+			}
+			else {
+				return defaultValue;
+			}
+		}
+
+		@Override
+		public boolean isNull(String name) {
+			JsonValue value = this.get(name);
+			if (value == null) {
+				throw new NullPointerException();
+			}
+			return value == JsonValue.NULL;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			write(sb, this);
+			return sb.toString();
+		}
+	}
+
+	static class FastJsonArray extends AbstractList<JsonValue> implements JsonArray {
+		private final JsonValue[] values;
+
+		FastJsonArray(JsonValue[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public ValueType getValueType() {
+			return ValueType.ARRAY;
+		}
+
+		@Override
+		public JsonValue get(int index) {
+			return this.values[index];
+		}
+
+		@Override
+		public int size() {
+			return this.values.length;
+		}
+
+		@Override
+		public JsonObject getJsonObject(int index) {
+			return (JsonObject) this.values[index];
+		}
+
+		@Override
+		public JsonArray getJsonArray(int index) {
+			return (JsonArray) this.values[index];
+		}
+
+		@Override
+		public JsonNumber getJsonNumber(int index) {
+			return (JsonNumber) this.values[index];
+		}
+
+		@Override
+		public JsonString getJsonString(int index) {
+			return (JsonString) this.values[index];
+		}
+
+		/**
+		 * @throws ClassCastException if an element is not of the type.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends JsonValue> List<T> getValuesAs(Class<T> clazz) {
+			// the array is immutable, once checked it can be viewed as the list of the type.
+			for (JsonValue value : this.values) {
+				clazz.cast(value);
+			}
+			return (List<T>) this;
+		}
+
+		@Override
+		public String getString(int index) {
+			return this.getJsonString(index).getString();
+		}
+
+		@Override
+		public String getString(int index, String defaultValue) {
+			JsonValue value = index < this.values.length ? this.values[index] : null;
+			return value instanceof JsonString ? ((JsonString) value).getString() : defaultValue;
+		}
+
+		@Override
+		public int getInt(int index) {
+			return this.getJsonNumber(index).intValue();
+		}
+
+		@Override
+		public int getInt(int index, int defaultValue) {
+			JsonValue value = index < this.values.length ? this.values[index] : null;
+			return value instanceof JsonNumber ? ((JsonNumber) value).intValue() : defaultValue;
+		}
+
+		@Override
+		public boolean getBoolean(int index) {
+			JsonValue value = this.values[index];
+			if (value == JsonValue.TRUE) {
+				return true;
+			}
+			else if (value == JsonValue.FALSE) {
+				return false;
+			}
+			else {
+				throw new ClassCastException();
+			}
+		}
+
+		@Override
+		public boolean getBoolean(int index, boolean defaultValue) {
+			JsonValue value = index < this.values.length ? this.values[index] : null;
+			if (value == JsonValue.TRUE) {
+				return true;
+			}
+			else if (value == JsonValue.FALSE) {
+				return false;
+			}
+			else {
+				return defaultValue;
+			}
+		}
+
+		@Override
+		public boolean isNull(int index) {
+			return this.values[index] == JsonValue.NULL;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			write(sb, this);
+			return sb.toString();
+		}
+	}
+
+	static void write(StringBuilder sb, JsonValue value) {
+		switch (value.getValueType()) {
+		case OBJECT:
+			sb.append('{');
+			boolean first = true;
+			for (Map.Entry<String, JsonValue> e : ((JsonObject) value).entrySet()) {
+				if (!first) {
+					sb.append(',');
+				}
+				first = false;
+				writeString(sb, e.getKey());
+				sb.append(':');
+				write(sb, e.getValue());
+			}
+			sb.append('}');
+			break;
+		case ARRAY:
+			sb.append('[');
+			JsonArray array = (JsonArray) value;
+			for (int i = 0; i < array.size(); i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				write(sb, array.get(i));
+			}
+			sb.append(']');
+			break;
+		case STRING:
+			writeString(sb, ((JsonString) value).getString());
+			break;
+		default:
+			sb.append(value.toString());
+		}
+	}
+
+	static void writeString(StringBuilder sb, String s) {
+		sb.append('"');
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\b':
+				sb.append("\\b");
+				break;
+			case '\f':
+				sb.append("\\f");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append("\\u00");
+					sb.append(Character.forDigit(c >> 4, 16));
+					sb.append(Character.forDigit(c & 0xf, 16));
+				}
+				else {
+					sb.append(c);
+				}
+			}
+		}
+		sb.append('"');
+	}
+}
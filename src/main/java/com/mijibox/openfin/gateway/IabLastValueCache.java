@@ -0,0 +1,140 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * Bounded LRU cache of the most recent message received for each (source,
+ * topic), used to replay to late subscribers.
+ *
+ * @author Anthony
+ *
+ */
+class IabLastValueCache {
+
+	static class Entry {
+		final String uuid;
+		final String name;
+		final String topic;
+		final JsonObject identity;
+		final JsonValue message;
+		final long sequence;
+
+		Entry(String uuid, String name, String topic, JsonObject identity, JsonValue message, long sequence) {
+			this.uuid = uuid;
+			this.name = name;
+			this.topic = topic;
+			this.identity = identity;
+			this.message = message;
+			this.sequence = sequence;
+		}
+
+		boolean matches(String uuid, String name, String topic) {
+			return this.topic.equals(topic)
+					&& ("*".equals(uuid) || this.uuid.equals(uuid))
+					&& ("*".equals(name) || this.name.equals(name));
+		}
+	}
+
+	private final int maxEntries;
+	private final LinkedHashMap<String, Entry> entries;
+	private final HashMap<String, Entry> latestByTopic;
+	private long sequence;
+
+	IabLastValueCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("invalid maxEntries: " + maxEntries);
+		}
+		this.maxEntries = maxEntries;
+		this.latestByTopic = new HashMap<>();
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, IabLastValueCache.Entry> eldest) {
+				if (this.size() > IabLastValueCache.this.maxEntries) {
+					evicted(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	synchronized void put(String uuid, String name, String topic, JsonObject identity, JsonValue message) {
+		Entry entry = new Entry(uuid, name, topic, identity, message, this.sequence++);
+		this.entries.put(uuid + "::" + name + "::" + topic, entry);
+		this.latestByTopic.put(topic, entry);
+	}
+
+	private void evicted(Entry entry) {
+		if (this.latestByTopic.get(entry.topic) == entry) {
+			// find the next most recent one of the topic
+			Entry latest = null;
+			for (Entry e : this.entries.values()) {
+				if (e != entry && e.topic.equals(entry.topic) && (latest == null || e.sequence > latest.sequence)) {
+					latest = e;
+				}
+			}
+			if (latest == null) {
+				this.latestByTopic.remove(entry.topic);
+			}
+			else {
+				this.latestByTopic.put(entry.topic, latest);
+			}
+		}
+	}
+
+	synchronized Entry getLast(String topic) {
+		return this.latestByTopic.get(topic);
+	}
+
+	synchronized Entry getLast(String uuid, String name, String topic) {
+		return this.entries.get(uuid + "::" + name + "::" + topic);
+	}
+
+	/**
+	 * @return cached entries matching the subscription, oldest first.
+	 */
+	synchronized List<Entry> getMatches(String uuid, String name, String topic) {
+		List<Entry> matches = new ArrayList<>();
+		for (Entry e : this.entries.values()) {
+			if (e.matches(uuid, name, topic)) {
+				matches.add(e);
+			}
+		}
+		matches.sort((e1, e2) -> Long.compare(e1.sequence, e2.sequence));
+		return matches;
+	}
+
+	synchronized int size() {
+		return this.entries.size();
+	}
+
+	int getMaxEntries() {
+		return this.maxEntries;
+	}
+}
@@ -0,0 +1,256 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * Coalesces outbound InterApplicationBus messages to the same destination and
+ * topic into a single array envelope. A batch is flushed when the batching
+ * window expires or when it reaches the maximum batch size, whichever comes
+ * first.
+ *
+ * @author Anthony
+ *
+ */
+public class IabMessageBatcher {
+
+	/**
+	 * Property name of the envelope that wraps batched messages.
+	 */
+	final static String BATCH = "iabBatch";
+
+	interface BatchSender {
+		CompletionStage<Void> send(JsonObject destination, String topic, JsonValue message, OpenFinPriority priority);
+	}
+
+	private static class Batch {
+		final JsonObject destination;
+		final String topic;
+		final OpenFinPriority priority;
+		final List<JsonValue> messages;
+		final List<CompletableFuture<Void>> futures;
+		final List<Long> enqueueTimes;
+		ScheduledFuture<?> flushTask;
+
+		Batch(JsonObject destination, String topic, OpenFinPriority priority) {
+			this.destination = destination;
+			this.topic = topic;
+			this.priority = priority;
+			this.messages = new ArrayList<>();
+			this.futures = new ArrayList<>();
+			this.enqueueTimes = new ArrayList<>();
+		}
+	}
+
+	private final long windowNanos;
+	private final int maxBatchSize;
+	private final ScheduledExecutorService scheduler;
+	private final BatchSender sender;
+	private final ConcurrentHashMap<String, Batch> pendingBatches;
+
+	private final LongAdder batchCount;
+	private final LongAdder messageCount;
+	private final LongAdder totalDelayNanos;
+
+	IabMessageBatcher(Duration window, int maxBatchSize, ScheduledExecutorService scheduler, BatchSender sender) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("invalid maxBatchSize: " + maxBatchSize);
+		}
+		this.windowNanos = window.toNanos();
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = scheduler;
+		this.sender = sender;
+		this.pendingBatches = new ConcurrentHashMap<>();
+		this.batchCount = new LongAdder();
+		this.messageCount = new LongAdder();
+		this.totalDelayNanos = new LongAdder();
+	}
+
+	static boolean isBatch(JsonValue message) {
+		if (message != null && message.getValueType() == JsonValue.ValueType.OBJECT) {
+			JsonObject obj = (JsonObject) message;
+			return obj.size() == 1 && obj.containsKey(BATCH)
+					&& obj.get(BATCH).getValueType() == JsonValue.ValueType.ARRAY;
+		}
+		return false;
+	}
+
+	/**
+	 * Raw text counterpart of {@link #isBatch(JsonValue)}.
+	 * @return start index of the batch array if the object starting at objStart
+	 *         has the batch array as its only member, or -1.
+	 */
+	static int findBatch(CharSequence text, int objStart) {
+		int pos = JsonScanner.skipWhitespace(text, objStart);
+		if (pos >= text.length() || text.charAt(pos) != '{') {
+			return -1;
+		}
+		pos = JsonScanner.skipWhitespace(text, pos + 1);
+		if (pos >= text.length() || text.charAt(pos) != '"') {
+			return -1;
+		}
+		int keyEnd = JsonScanner.skipString(text, pos);
+		if (!text.subSequence(pos + 1, keyEnd - 1).toString().equals(BATCH)) {
+			return -1;
+		}
+		int batchStart = JsonScanner.skipWhitespace(text, JsonScanner.skipWhitespace(text, keyEnd) + 1);
+		if (batchStart >= text.length() || text.charAt(batchStart) != '[') {
+			return -1;
+		}
+		int end = JsonScanner.skipWhitespace(text, JsonScanner.skipValue(text, batchStart));
+		return end < text.length() && text.charAt(end) == '}' ? batchStart : -1;
+	}
+
+	CompletionStage<Void> enqueue(JsonObject destination, String topic, JsonValue message,
+			OpenFinPriority priority) {
+		// messages of different priorities go out separately in their own lanes.
+		String key = (destination == null ? "::" + topic
+				: destination.getString("uuid") + "::" + destination.getString("name") + "::" + topic)
+				+ "::" + priority;
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		Batch[] fullBatch = new Batch[1];
+		this.pendingBatches.compute(key, (k, batch) -> {
+			if (batch == null) {
+				Batch newBatch = new Batch(destination, topic, priority);
+				newBatch.flushTask = this.scheduler.schedule(() -> {
+					this.flush(k, newBatch);
+				}, this.windowNanos, TimeUnit.NANOSECONDS);
+				batch = newBatch;
+			}
+			batch.messages.add(message);
+			batch.futures.add(future);
+			batch.enqueueTimes.add(System.nanoTime());
+			if (batch.messages.size() >= this.maxBatchSize) {
+				fullBatch[0] = batch;
+				return null;
+			}
+			return batch;
+		});
+		if (fullBatch[0] != null) {
+			fullBatch[0].flushTask.cancel(false);
+			this.send(fullBatch[0]);
+		}
+		return future;
+	}
+
+	/**
+	 * Sends out all pending batches immediately.
+	 */
+	void flushAll() {
+		for (String key : this.pendingBatches.keySet()) {
+			Batch batch = this.pendingBatches.get(key);
+			if (batch != null) {
+				batch.flushTask.cancel(false);
+				this.flush(key, batch);
+			}
+		}
+	}
+
+	private void flush(String key, Batch batch) {
+		if (this.pendingBatches.remove(key, batch)) {
+			this.send(batch);
+		}
+	}
+
+	private void send(Batch batch) {
+		JsonValue message;
+		if (batch.messages.size() == 1) {
+			// nothing to coalesce, keep the original message as is.
+			message = batch.messages.get(0);
+		}
+		else {
+			JsonArrayBuilder messages = Json.createArrayBuilder();
+			batch.messages.forEach(messages::add);
+			message = Json.createObjectBuilder().add(BATCH, messages).build();
+		}
+		long now = System.nanoTime();
+		for (long t : batch.enqueueTimes) {
+			this.totalDelayNanos.add(now - t);
+		}
+		this.batchCount.increment();
+		this.messageCount.add(batch.messages.size());
+		this.sender.send(batch.destination, batch.topic, message, batch.priority).whenComplete((v, e) -> {
+			for (CompletableFuture<Void> f : batch.futures) {
+				if (e == null) {
+					f.complete(null);
+				}
+				else {
+					f.completeExceptionally(e);
+				}
+			}
+		});
+	}
+
+	public Duration getWindow() {
+		return Duration.ofNanos(this.windowNanos);
+	}
+
+	public int getMaxBatchSize() {
+		return this.maxBatchSize;
+	}
+
+	/**
+	 * @return number of websocket messages sent out by the batcher.
+	 */
+	public long getBatchCount() {
+		return this.batchCount.sum();
+	}
+
+	/**
+	 * @return number of messages that went through the batcher.
+	 */
+	public long getMessageCount() {
+		return this.messageCount.sum();
+	}
+
+	/**
+	 * @return number of websocket messages and acks saved by batching.
+	 */
+	public long getSavedMessageCount() {
+		return this.getMessageCount() - this.getBatchCount();
+	}
+
+	public double getAverageBatchSize() {
+		long batches = this.getBatchCount();
+		return batches == 0 ? 0 : (double) this.getMessageCount() / batches;
+	}
+
+	/**
+	 * @return average time a message waited in the batcher before being sent
+	 *         out, in microseconds.
+	 */
+	public double getAverageDelayMicros() {
+		long messages = this.getMessageCount();
+		return messages == 0 ? 0 : this.totalDelayNanos.sum() / 1000d / messages;
+	}
+}
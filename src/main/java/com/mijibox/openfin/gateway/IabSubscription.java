@@ -0,0 +1,72 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * State of one (source uuid, source name, topic) subscription in OpenFin
+ * Runtime, shared by all the listeners registered on it. All fields other than
+ * the listener lists are guarded by the instance lock.
+ *
+ * @author Anthony
+ *
+ */
+class IabSubscription {
+	final String uuid;
+	final String name;
+	final String topic;
+	final CopyOnWriteArrayList<OpenFinIabMessageListener> listeners;
+	final CopyOnWriteArrayList<OpenFinIabRawMessageListener> rawListeners;
+
+	/**
+	 * last subscribe/unsubscribe request sent to the runtime, next request is
+	 * chained after it so they reach the runtime in order.
+	 */
+	CompletableFuture<Void> wireFuture;
+
+	/**
+	 * shared by all subscribers, null when not subscribed nor subscribing.
+	 */
+	CompletableFuture<Void> subscribeFuture;
+
+	/**
+	 * delayed unsubscribe request waiting for the grace period to expire.
+	 */
+	ScheduledFuture<?> pendingUnsubscribe;
+
+	/**
+	 * no longer in the subscription map, a new instance needs to be created.
+	 */
+	boolean retired;
+
+	IabSubscription(String uuid, String name, String topic) {
+		this.uuid = uuid;
+		this.name = name;
+		this.topic = topic;
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.rawListeners = new CopyOnWriteArrayList<>();
+		this.wireFuture = CompletableFuture.completedFuture(null);
+	}
+
+	boolean hasListeners() {
+		return this.listeners.size() > 0 || this.rawListeners.size() > 0;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.json.JsonValue;
+
+/**
+ * Single-flight of invokes of the configured methods: while an invoke is in
+ * flight, identical invokes (same method, proxy object and arguments) share
+ * its wire call and its {@link InvokeResult} instead of sending their own.
+ * Only meant for read-only methods.
+ *
+ * @author Anthony
+ *
+ */
+public class InvokeCoalescer {
+	private final String[] methodPatterns;
+	private final MethodPattern methodPattern;
+	private final ConcurrentHashMap<String, CompletableFuture<InvokeResult>> inFlight;
+	private final LongAdder invokeCount;
+	private final LongAdder wireCallCount;
+
+	InvokeCoalescer(String... methodPatterns) {
+		this.methodPatterns = methodPatterns;
+		this.methodPattern = new MethodPattern(methodPatterns);
+		this.inFlight = new ConcurrentHashMap<>();
+		this.invokeCount = new LongAdder();
+		this.wireCallCount = new LongAdder();
+	}
+
+	/**
+	 * @return a coalescer of the same methods with its own state.
+	 */
+	InvokeCoalescer copy() {
+		return new InvokeCoalescer(this.methodPatterns);
+	}
+
+	public String[] getMethodPatterns() {
+		return this.methodPatterns.clone();
+	}
+
+	boolean isCoalesced(String method) {
+		return this.methodPattern.matches(method);
+	}
+
+	static String getKey(String method, JsonValue proxyId, JsonValue[] args) {
+		return getKey(method, 0, proxyId, args);
+	}
+
+	/**
+	 * Proxy object ids are per gateway application, the shard index keeps the
+	 * proxy objects of the shards apart. Static calls get the same key on every
+	 * shard.
+	 */
+	static String getKey(String method, int shardIndex, JsonValue proxyId, JsonValue[] args) {
+		StringBuilder key = new StringBuilder(method);
+		key.append('\u0000');
+		if (proxyId != null) {
+			key.append(shardIndex).append(':').append(proxyId.toString());
+		}
+		if (args != null) {
+			int lastNonNullIndex = args.length - 1;
+			while (lastNonNullIndex >= 0 && args[lastNonNullIndex] == null) {
+				lastNonNullIndex--;
+			}
+			for (int i = 0; i <= lastNonNullIndex; i++) {
+				key.append('\u0000').append(args[i] == null ? "null" : args[i].toString());
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return a future of the shared invoke, each caller should take a copy so
+	 *         cancelling it doesn't affect the others.
+	 */
+	CompletableFuture<InvokeResult> invoke(String key, Supplier<CompletableFuture<InvokeResult>> wireCall) {
+		this.invokeCount.increment();
+		CompletableFuture<InvokeResult> newFlight = new CompletableFuture<>();
+		CompletableFuture<InvokeResult> flight = this.inFlight.putIfAbsent(key, newFlight);
+		if (flight != null) {
+			return flight;
+		}
+		this.wireCallCount.increment();
+		newFlight.whenComplete((r, e) -> {
+			this.inFlight.remove(key, newFlight);
+		});
+		try {
+			wireCall.get().whenComplete((r, e) -> {
+				if (e != null) {
+					newFlight.completeExceptionally(e);
+				}
+				else {
+					newFlight.complete(r);
+				}
+			});
+		}
+		catch (Exception e) {
+			newFlight.completeExceptionally(e);
+		}
+		return newFlight;
+	}
+
+	/**
+	 * @return number of invokes of the configured methods.
+	 */
+	public long getInvokeCount() {
+		return this.invokeCount.sum();
+	}
+
+	/**
+	 * @return number of invokes actually sent to the gateway.
+	 */
+	public long getWireCallCount() {
+		return this.wireCallCount.sum();
+	}
+
+	/**
+	 * @return number of invokes that joined an invoke in flight.
+	 */
+	public long getCoalescedCount() {
+		return this.getInvokeCount() - this.getWireCallCount();
+	}
+
+	/**
+	 * @return invokes per wire call, 1 means nothing was coalesced.
+	 */
+	public double getCoalescingRatio() {
+		long wireCalls = this.getWireCallCount();
+		return wireCalls == 0 ? 0 : (double) this.getInvokeCount() / wireCalls;
+	}
+
+	int getInFlightCount() {
+		return this.inFlight.size();
+	}
+}
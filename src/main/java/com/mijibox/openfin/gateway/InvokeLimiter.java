@@ -0,0 +1,401 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Admission control of the invokes sent to a gateway. At most maxInFlight
+ * invokes are outstanding at the same time, optionally limited further by a
+ * token bucket rate limit. Invokes that cannot start right away wait in a
+ * queue, served in arrival order or by {@link OpenFinPriority}, and are
+ * rejected with {@link RejectedExecutionException} when the queue is full.
+ *
+ * @author Anthony
+ *
+ */
+public class InvokeLimiter {
+
+	public enum QueueOrder {
+		FIFO, PRIORITY
+	}
+
+	private static class Waiter {
+		final OpenFinPriority priority;
+		final long sequence;
+		final long enqueueTime;
+		final Runnable task;
+		final CompletableFuture<?> result;
+		final CompletableFuture<?> cancelSignal;
+
+		Waiter(OpenFinPriority priority, long sequence, Runnable task, CompletableFuture<?> result,
+				CompletableFuture<?> cancelSignal) {
+			this.priority = priority;
+			this.sequence = sequence;
+			this.enqueueTime = System.nanoTime();
+			this.task = task;
+			this.result = result;
+			this.cancelSignal = cancelSignal;
+		}
+
+		boolean isCancelled() {
+			return this.cancelSignal != null && this.cancelSignal.isDone();
+		}
+
+		void cancelled() {
+			this.result.completeExceptionally(new CancellationException("cancelled while waiting for admission"));
+		}
+	}
+
+	private final int maxInFlight;
+	private final double permitsPerSecond;
+	private final int burst;
+	private final int maxQueued;
+	private final QueueOrder queueOrder;
+	private final ScheduledExecutorService scheduler;
+
+	private final PriorityQueue<Waiter> queue;
+	private long sequence;
+	private int inFlight;
+	private double tokens;
+	private long lastRefillTime;
+	private ScheduledFuture<?> refillTask;
+	/**
+	 * a thread is running queued tasks, others only give back their permits.
+	 */
+	private boolean draining;
+
+	private long admittedCount;
+	private long queuedCount;
+	private long rejectedCount;
+	private long cancelledCount;
+	private long totalWaitNanos;
+	private long maxWaitNanos;
+
+	/**
+	 * @param maxInFlight       maximum outstanding invokes, 0 for no limit.
+	 * @param permitsPerSecond  rate limit, 0 for no limit.
+	 * @param burst             token bucket size, invokes allowed back to back
+	 *                          after being idle.
+	 * @param maxQueued         maximum waiting invokes, further invokes are
+	 *                          rejected.
+	 * @param queueOrder        order of serving the waiting invokes.
+	 * @param scheduler         used to wait for the rate limit.
+	 */
+	InvokeLimiter(int maxInFlight, double permitsPerSecond, int burst, int maxQueued, QueueOrder queueOrder,
+			ScheduledExecutorService scheduler) {
+		if (maxInFlight < 0) {
+			throw new IllegalArgumentException("invalid maxInFlight: " + maxInFlight);
+		}
+		if (permitsPerSecond < 0 || (permitsPerSecond > 0 && burst < 1)) {
+			throw new IllegalArgumentException("invalid rate limit: " + permitsPerSecond + "/s, burst " + burst);
+		}
+		if (maxQueued < 0) {
+			throw new IllegalArgumentException("invalid maxQueued: " + maxQueued);
+		}
+		this.maxInFlight = maxInFlight;
+		this.permitsPerSecond = permitsPerSecond;
+		this.burst = burst;
+		this.maxQueued = maxQueued;
+		this.queueOrder = queueOrder;
+		this.scheduler = scheduler;
+		Comparator<Waiter> fifo = Comparator.comparingLong(w -> w.sequence);
+		this.queue = new PriorityQueue<>(queueOrder == QueueOrder.PRIORITY
+				? Comparator.<Waiter, OpenFinPriority>comparing(w -> w.priority).thenComparing(fifo)
+				: fifo);
+		this.tokens = burst;
+		this.lastRefillTime = System.nanoTime();
+	}
+
+	/**
+	 * @return a limiter with the same settings and its own state.
+	 */
+	InvokeLimiter copy() {
+		return new InvokeLimiter(this.maxInFlight, this.permitsPerSecond, this.burst, this.maxQueued,
+				this.queueOrder, this.scheduler);
+	}
+
+	/**
+	 * Runs the task when admitted.
+	 * @param <T> result type
+	 * @param priority priority of the task when it has to wait
+	 * @param task starts the invoke, the permit is held until the returned stage completes.
+	 * @return the result of the task, or completes exceptionally with
+	 *         RejectedExecutionException if the queue is full.
+	 */
+	<T> CompletionStage<T> submit(OpenFinPriority priority, Supplier<CompletionStage<T>> task) {
+		return this.submit(priority, task, null);
+	}
+
+	/**
+	 * Runs the task when admitted, unless cancelled while waiting.
+	 * @param <T> result type
+	 * @param priority priority of the task when it has to wait
+	 * @param task starts the invoke, the permit is held until the returned stage completes.
+	 * @param cancelSignal when completed while waiting, the task is dropped from
+	 *                     the queue without taking a permit, null if not cancellable.
+	 * @return the result of the task, or completes exceptionally with
+	 *         RejectedExecutionException if the queue is full, or
+	 *         CancellationException if cancelled while waiting.
+	 */
+	<T> CompletionStage<T> submit(OpenFinPriority priority, Supplier<CompletionStage<T>> task,
+			CompletableFuture<?> cancelSignal) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Runnable runTask = () -> {
+			CompletionStage<T> stage;
+			try {
+				stage = task.get();
+			}
+			catch (Exception e) {
+				stage = CompletableFuture.failedStage(e);
+			}
+			stage.whenComplete((v, e) -> {
+				this.release();
+				if (e != null) {
+					result.completeExceptionally(e);
+				}
+				else {
+					result.complete(v);
+				}
+			});
+		};
+		boolean runNow = false;
+		Waiter waiter = null;
+		synchronized (this) {
+			if (this.queue.isEmpty() && this.tryAcquire()) {
+				this.admittedCount++;
+				runNow = true;
+			}
+			else if (this.queue.size() >= this.maxQueued) {
+				this.rejectedCount++;
+				result.completeExceptionally(new RejectedExecutionException(
+						"invoke queue is full, in-flight: " + this.inFlight + ", queued: " + this.queue.size()));
+			}
+			else {
+				this.queuedCount++;
+				waiter = new Waiter(priority == null ? OpenFinPriority.INTERACTIVE : priority, this.sequence++,
+						runTask, result, cancelSignal);
+				this.queue.add(waiter);
+				this.scheduleRefill();
+			}
+		}
+		if (runNow) {
+			runTask.run();
+		}
+		else if (waiter != null && cancelSignal != null) {
+			Waiter queued = waiter;
+			cancelSignal.whenComplete((v, e) -> {
+				boolean removed;
+				synchronized (this) {
+					removed = this.queue.remove(queued);
+					if (removed) {
+						this.cancelledCount++;
+					}
+				}
+				if (removed) {
+					queued.cancelled();
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * caller holds the lock.
+	 */
+	private boolean tryAcquire() {
+		if (this.maxInFlight > 0 && this.inFlight >= this.maxInFlight) {
+			return false;
+		}
+		if (this.permitsPerSecond > 0) {
+			long now = System.nanoTime();
+			this.tokens = Math.min(this.burst,
+					this.tokens + (now - this.lastRefillTime) * this.permitsPerSecond / 1_000_000_000d);
+			this.lastRefillTime = now;
+			if (this.tokens < 1) {
+				return false;
+			}
+			this.tokens--;
+		}
+		this.inFlight++;
+		return true;
+	}
+
+	/**
+	 * when the queue is blocked by the rate limit rather than by in-flight
+	 * invokes, nothing completes to drain it, so wait for the next token.
+	 * caller holds the lock.
+	 */
+	private void scheduleRefill() {
+		if (this.permitsPerSecond > 0 && this.refillTask == null && !this.queue.isEmpty()
+				&& (this.maxInFlight == 0 || this.inFlight < this.maxInFlight)) {
+			long delay = (long) ((1 - this.tokens) * 1_000_000_000d / this.permitsPerSecond);
+			this.refillTask = this.scheduler.schedule(() -> {
+				synchronized (this) {
+					this.refillTask = null;
+				}
+				this.drain();
+			}, Math.max(delay, 0), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void release() {
+		synchronized (this) {
+			this.inFlight--;
+			if (this.draining) {
+				// picked up by the next round of the running drain
+				return;
+			}
+		}
+		this.drain();
+	}
+
+	/**
+	 * Runs queued tasks while permits are available. Tasks that complete right
+	 * away give back their permits to this loop instead of draining again, so
+	 * the stack does not grow with the queue.
+	 */
+	private void drain() {
+		synchronized (this) {
+			if (this.draining) {
+				return;
+			}
+			this.draining = true;
+		}
+		while (true) {
+			Waiter waiter;
+			List<Waiter> cancelled = null;
+			synchronized (this) {
+				while (!this.queue.isEmpty() && this.queue.peek().isCancelled()) {
+					// its cancel signal handler finds it gone
+					if (cancelled == null) {
+						cancelled = new ArrayList<>();
+					}
+					cancelled.add(this.queue.poll());
+					this.cancelledCount++;
+				}
+				if (this.queue.isEmpty() || !this.tryAcquire()) {
+					this.draining = false;
+					this.scheduleRefill();
+					waiter = null;
+				}
+				else {
+					waiter = this.queue.poll();
+					long waitNanos = System.nanoTime() - waiter.enqueueTime;
+					this.admittedCount++;
+					this.totalWaitNanos += waitNanos;
+					this.maxWaitNanos = Math.max(this.maxWaitNanos, waitNanos);
+				}
+			}
+			if (cancelled != null) {
+				cancelled.forEach(Waiter::cancelled);
+			}
+			if (waiter == null) {
+				return;
+			}
+			try {
+				waiter.task.run();
+			}
+			catch (RuntimeException e) {
+				synchronized (this) {
+					this.draining = false;
+				}
+				throw e;
+			}
+		}
+	}
+
+	public int getMaxInFlight() {
+		return this.maxInFlight;
+	}
+
+	public double getPermitsPerSecond() {
+		return this.permitsPerSecond;
+	}
+
+	public int getBurst() {
+		return this.burst;
+	}
+
+	public int getMaxQueued() {
+		return this.maxQueued;
+	}
+
+	public QueueOrder getQueueOrder() {
+		return this.queueOrder;
+	}
+
+	public synchronized int getInFlight() {
+		return this.inFlight;
+	}
+
+	public synchronized int getQueued() {
+		return this.queue.size();
+	}
+
+	/**
+	 * @return number of invokes sent out, with or without waiting.
+	 */
+	public synchronized long getAdmittedCount() {
+		return this.admittedCount;
+	}
+
+	/**
+	 * @return number of invokes that had to wait in the queue.
+	 */
+	public synchronized long getQueuedCount() {
+		return this.queuedCount;
+	}
+
+	/**
+	 * @return number of invokes rejected because the queue was full.
+	 */
+	public synchronized long getRejectedCount() {
+		return this.rejectedCount;
+	}
+
+	/**
+	 * @return number of invokes dropped from the queue because they were cancelled while waiting.
+	 */
+	public synchronized long getCancelledCount() {
+		return this.cancelledCount;
+	}
+
+	/**
+	 * @return average time the queued invokes waited before being sent out, in microseconds.
+	 */
+	public synchronized double getAverageWaitMicros() {
+		long waited = this.queuedCount - this.queue.size() - this.cancelledCount;
+		return waited == 0 ? 0 : this.totalWaitNanos / 1000d / waited;
+	}
+
+	public synchronized double getMaxWaitMicros() {
+		return this.maxWaitNanos / 1000d;
+	}
+}
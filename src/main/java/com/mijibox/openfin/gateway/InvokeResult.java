@@ -19,6 +19,7 @@ package com.mijibox.openfin.gateway;
 
 import static com.mijibox.openfin.gateway.OpenFinGatewayImpl.PROXY_ID;
 import static com.mijibox.openfin.gateway.OpenFinGatewayImpl.RESULT;
+import static com.mijibox.openfin.gateway.OpenFinGatewayImpl.RESULT_JSON;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -29,33 +30,127 @@ import javax.json.JsonObject;
 import javax.json.JsonString;
 import javax.json.JsonValue;
 
+/**
+ * Result of an invoke. The gateway sends the result as JSON text, it is only
+ * parsed when the result is accessed, and the scalar accessors parse just the
+ * scalar.
+ */
 public class InvokeResult {
 	private JsonValue proxyId;
-	private JsonValue result;
+	private String rawResult;
+	private volatile JsonValue result;
 	private ProxyObject proxyObject;
 	private OpenFinGatewayImpl gateway;
 	private ProxyObject invoker;
+	private String method;
 
 	InvokeResult(ProxyObject invoker, JsonObject invokeResult, OpenFinGatewayImpl gateway) {
+		this(invoker, null, invokeResult, gateway);
+	}
+
+	InvokeResult(ProxyObject invoker, String method, JsonObject invokeResult, OpenFinGatewayImpl gateway) {
 		this.invoker = invoker;
+		this.method = method;
 		this.gateway = gateway;
 		this.proxyId = invokeResult.get(PROXY_ID);
-		this.result = invokeResult.get(RESULT);
+		if (invokeResult.containsKey(RESULT_JSON)) {
+			this.rawResult = invokeResult.getString(RESULT_JSON);
+		}
+		else {
+			this.result = invokeResult.get(RESULT);
+		}
 	}
 
-	public ProxyObject getProxyObject() {
+	public synchronized ProxyObject getProxyObject() {
 		if (this.proxyObject == null && this.proxyId != null) {
-			this.proxyObject = new ProxyObject(this.proxyId, this.getResultAsJsonObject(), this.invoker, this.gateway);
+			DirectApiFastPath.TargetType targetType = DirectApiFastPath.getTargetType(this.invoker, this.method);
+			if (!this.gateway.isRetainProxyResultJson()) {
+				// the direct API fast path still needs the identity of windows and applications
+				JsonObject identity = targetType != null && this.gateway.getDirectApiFastPath() != null
+						? this.getIdentity()
+						: null;
+				this.proxyObject = new ProxyObject(this.proxyId, null, null, this.invoker, this.gateway, targetType,
+						identity);
+			}
+			else if (this.result == null && this.rawResult != null) {
+				// keep the text, ProxyObject parses it when needed.
+				this.proxyObject = new ProxyObject(this.proxyId, null, this.rawResult, this.invoker, this.gateway,
+						targetType);
+			}
+			else {
+				this.proxyObject = new ProxyObject(this.proxyId, this.getResultAsJsonObject(), null, this.invoker,
+						this.gateway, targetType);
+			}
 		}
 		return this.proxyObject;
 	}
 
+	/**
+	 * @return identity member of the result object, only that member is parsed
+	 *         if the result is still text.
+	 */
+	private JsonObject getIdentity() {
+		JsonValue identity = null;
+		if (this.result == null && this.rawResult != null) {
+			int start = JsonScanner.skipWhitespace(this.rawResult, 0);
+			int pos = start < this.rawResult.length() && this.rawResult.charAt(start) == '{'
+					? JsonScanner.findField(this.rawResult, start, "identity")
+					: -1;
+			if (pos >= 0) {
+				identity = parse(this.rawResult.substring(pos, JsonScanner.skipValue(this.rawResult, pos)));
+			}
+		}
+		else if (this.result != null && this.result.getValueType() == JsonValue.ValueType.OBJECT) {
+			identity = this.result.asJsonObject().get("identity");
+		}
+		return identity != null && identity.getValueType() == JsonValue.ValueType.OBJECT ? identity.asJsonObject()
+				: null;
+	}
+
 	public JsonValue getResult() {
-		return this.result;
+		JsonValue r = this.result;
+		if (r == null && this.rawResult != null) {
+			r = parse(this.rawResult);
+			this.result = r;
+		}
+		return r;
+	}
+
+	/**
+	 * Gets the result as JSON text without parsing it, for forwarding the result elsewhere.
+	 * @return the result JSON text or null if the invoked method returned undefined.
+	 */
+	public String getRawResult() {
+		if (this.rawResult == null && this.result != null) {
+			this.rawResult = this.result.toString();
+		}
+		return this.rawResult;
+	}
+
+	static JsonValue parse(String json) {
+		return JsonParsers.parse(json);
+	}
+
+	/**
+	 * @return the raw text if the result is not parsed yet and is a plain number literal.
+	 */
+	private String getRawNumber() {
+		String raw = this.result == null ? this.rawResult : null;
+		if (raw != null && raw.length() > 0) {
+			char c = raw.charAt(0);
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return raw;
+			}
+		}
+		return null;
 	}
 	
 	public Boolean getResultAsBoolean() {
+		if (this.result == null && this.rawResult != null) {
+			return "true".equals(this.rawResult) ? Boolean.TRUE : Boolean.FALSE;
+		}
 		Boolean b = null;
+		JsonValue result = this.getResult();
 		if (result != null && JsonValue.TRUE.equals(result)) {
 			b = Boolean.TRUE;
 		}
@@ -66,35 +161,76 @@ public class InvokeResult {
 	}
 	
 	public Integer getResultAsInteger() {
-		return this.result== null ? null : Integer.valueOf(((JsonNumber)this.result).intValue());
+		String raw = this.getRawNumber();
+		if (raw != null) {
+			try {
+				return Integer.valueOf(raw);
+			}
+			catch (NumberFormatException e) {
+				// not an int literal, let JsonNumber convert it.
+			}
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : Integer.valueOf(((JsonNumber) result).intValue());
 	}
 
 	public Long getResultAsLong() {
-		return this.result== null ? null : Long.valueOf(((JsonNumber)this.result).longValue());
+		String raw = this.getRawNumber();
+		if (raw != null) {
+			try {
+				return Long.valueOf(raw);
+			}
+			catch (NumberFormatException e) {
+				// not a long literal, let JsonNumber convert it.
+			}
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : Long.valueOf(((JsonNumber) result).longValue());
 	}
 
 	public Double getResultAsDouble() {
-		return this.result== null ? null : Double.valueOf(((JsonNumber)this.result).doubleValue());
+		String raw = this.getRawNumber();
+		if (raw != null) {
+			return Double.valueOf(raw);
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : Double.valueOf(((JsonNumber) result).doubleValue());
 	}
 
 	public BigInteger getResultAsBigInteger() {
-		return this.result== null ? null : ((JsonNumber)this.result).bigIntegerValue();
+		String raw = this.getRawNumber();
+		if (raw != null) {
+			return new BigDecimal(raw).toBigInteger();
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : ((JsonNumber) result).bigIntegerValue();
 	}
 	
 	public BigDecimal getResultAsBigDecimal() {
-		return this.result== null ? null : ((JsonNumber)this.result).bigDecimalValue();
+		String raw = this.getRawNumber();
+		if (raw != null) {
+			return new BigDecimal(raw);
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : ((JsonNumber) result).bigDecimalValue();
 	}
 	
 	public String getResultAsString() {
-		return this.result == null ? null : ((JsonString) this.result).getString();
+		String raw = this.result == null ? this.rawResult : null;
+		if (raw != null && raw.length() >= 2 && raw.charAt(0) == '"' && raw.indexOf('\\') < 0) {
+			// nothing to unescape
+			return raw.substring(1, raw.length() - 1);
+		}
+		JsonValue result = this.getResult();
+		return result == null ? null : ((JsonString) result).getString();
 	}
 
 	public JsonObject getResultAsJsonObject() {
-		return (JsonObject) this.result;
+		return (JsonObject) this.getResult();
 	}
 	
 	public JsonArray getResultAsJsonArray() {
-		return (JsonArray) this.result;
+		return (JsonArray) this.getResult();
 	}
 
 }
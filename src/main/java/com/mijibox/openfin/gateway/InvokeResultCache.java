@@ -0,0 +1,236 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the results of idempotent invokes, configured per method pattern with
+ * time to live, maximum entries evicted in LRU order, and the OpenFin System
+ * events that invalidate all the entries of the pattern. Invokes creating
+ * proxy objects are never cached.
+ *
+ * @author Anthony
+ *
+ */
+public class InvokeResultCache {
+
+	static class Rule {
+		final String methodPattern;
+		final Duration ttl;
+		final int maxEntries;
+		final String[] invalidatingEvents;
+
+		Rule(String methodPattern, Duration ttl, int maxEntries, String[] invalidatingEvents) {
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("invalid maxEntries: " + maxEntries);
+			}
+			this.methodPattern = methodPattern;
+			this.ttl = ttl;
+			this.maxEntries = maxEntries;
+			this.invalidatingEvents = invalidatingEvents == null ? new String[0] : invalidatingEvents;
+		}
+	}
+
+	private static class Entry {
+		final InvokeResult result;
+		final long expireTime;
+
+		Entry(InvokeResult result, long expireTime) {
+			this.result = result;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/**
+	 * Entries of one rule, guarded by the instance lock.
+	 */
+	class Region {
+		final Rule rule;
+		final MethodPattern methodPattern;
+		final long ttlNanos;
+		final LinkedHashMap<String, Entry> entries;
+		/**
+		 * incremented on invalidation, results of invokes started before are not stored.
+		 */
+		long generation;
+
+		Region(Rule rule) {
+			this.rule = rule;
+			this.methodPattern = new MethodPattern(rule.methodPattern);
+			this.ttlNanos = rule.ttl.toNanos();
+			this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, InvokeResultCache.Entry> eldest) {
+					if (this.size() > Region.this.rule.maxEntries) {
+						evictionCount.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized InvokeResult get(String key) {
+			Entry entry = this.entries.get(key);
+			if (entry == null) {
+				missCount.increment();
+				return null;
+			}
+			else if (entry.expireTime - System.nanoTime() <= 0) {
+				this.entries.remove(key);
+				missCount.increment();
+				return null;
+			}
+			hitCount.increment();
+			return entry.result;
+		}
+
+		synchronized long getGeneration() {
+			return this.generation;
+		}
+
+		synchronized void put(String key, InvokeResult result, long generation) {
+			if (this.generation == generation) {
+				this.entries.put(key, new Entry(result, System.nanoTime() + this.ttlNanos));
+			}
+		}
+
+		synchronized void invalidate() {
+			this.generation++;
+			this.entries.clear();
+		}
+
+		synchronized int size() {
+			return this.entries.size();
+		}
+	}
+
+	private final List<Rule> rules;
+	private final List<Region> regions;
+	private final LongAdder hitCount;
+	private final LongAdder missCount;
+	private final LongAdder evictionCount;
+	private final LongAdder invalidationCount;
+
+	InvokeResultCache(List<Rule> rules) {
+		this.rules = rules;
+		this.hitCount = new LongAdder();
+		this.missCount = new LongAdder();
+		this.evictionCount = new LongAdder();
+		this.invalidationCount = new LongAdder();
+		this.regions = new ArrayList<>();
+		for (Rule rule : rules) {
+			this.regions.add(new Region(rule));
+		}
+	}
+
+	/**
+	 * @return a cache of the same rules with its own entries.
+	 */
+	InvokeResultCache copy() {
+		return new InvokeResultCache(this.rules);
+	}
+
+	/**
+	 * @return region of the first rule matching the method, null if the method is not cached.
+	 */
+	Region getRegion(String method) {
+		for (Region region : this.regions) {
+			if (region.methodPattern.matches(method)) {
+				return region;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return names of the System events that invalidate cached results.
+	 */
+	Set<String> getInvalidatingEvents() {
+		Set<String> events = new LinkedHashSet<>();
+		for (Rule rule : this.rules) {
+			for (String event : rule.invalidatingEvents) {
+				events.add(event);
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * Drops the results of all the rules invalidated by the event.
+	 * @param event name of the event
+	 */
+	public void invalidate(String event) {
+		for (Region region : this.regions) {
+			for (String e : region.rule.invalidatingEvents) {
+				if (e.equals(event)) {
+					region.invalidate();
+					this.invalidationCount.increment();
+					break;
+				}
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		for (Region region : this.regions) {
+			region.invalidate();
+		}
+		this.invalidationCount.increment();
+	}
+
+	public long getHitCount() {
+		return this.hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return this.missCount.sum();
+	}
+
+	/**
+	 * @return number of entries dropped to keep within maxEntries.
+	 */
+	public long getEvictionCount() {
+		return this.evictionCount.sum();
+	}
+
+	/**
+	 * @return number of times cached results were dropped by events or invalidateAll().
+	 */
+	public long getInvalidationCount() {
+		return this.invalidationCount.sum();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Region region : this.regions) {
+			size += region.size();
+		}
+		return size;
+	}
+}
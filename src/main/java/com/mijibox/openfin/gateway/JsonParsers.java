@@ -0,0 +1,86 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.io.StringReader;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link OpenFinJsonParser} used for incoming messages.
+ *
+ * @author Anthony
+ *
+ */
+class JsonParsers {
+	final static Logger logger = LoggerFactory.getLogger(JsonParsers.class);
+
+	final static String PROPERTY = "com.mijibox.openfin.gateway.jsonParser";
+
+	private final static OpenFinJsonParser parser = createParser(System.getProperty(PROPERTY, "fast"));
+
+	private JsonParsers() {
+	}
+
+	static class JavaxJsonParser implements OpenFinJsonParser {
+		@Override
+		public JsonValue parse(CharSequence text) {
+			return Json.createReader(new StringReader(text.toString())).readValue();
+		}
+	}
+
+	static OpenFinJsonParser createParser(String name) {
+		if ("fast".equals(name)) {
+			return new FastJsonParser();
+		}
+		else if ("javax".equals(name)) {
+			return new JavaxJsonParser();
+		}
+		else {
+			try {
+				return (OpenFinJsonParser) Class.forName(name).getConstructor().newInstance();
+			}
+			catch (ReflectiveOperationException | ClassCastException e) {
+				logger.error("unable to create JSON parser: {}, using the built-in one", name, e);
+				return new FastJsonParser();
+			}
+		}
+	}
+
+	static OpenFinJsonParser get() {
+		return parser;
+	}
+
+	static JsonValue parse(CharSequence text) {
+		return parser.parse(text);
+	}
+
+	static JsonObject parseObject(CharSequence text) {
+		JsonValue value = parser.parse(text);
+		if (value.getValueType() != JsonValue.ValueType.OBJECT) {
+			throw new JsonException("not a JSON object: " + text);
+		}
+		return value.asJsonObject();
+	}
+}
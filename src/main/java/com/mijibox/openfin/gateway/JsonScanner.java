@@ -0,0 +1,213 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import javax.json.JsonException;
+
+/**
+ * Locates values in JSON text without building any tree, used to pick the
+ * envelope fields out of incoming messages. Positions are char indexes into
+ * the text, the text is expected to be well-formed JSON.
+ *
+ * @author Anthony
+ *
+ */
+class JsonScanner {
+
+	private JsonScanner() {
+	}
+
+	static int skipWhitespace(CharSequence text, int pos) {
+		int len = text.length();
+		while (pos < len) {
+			char c = text.charAt(pos);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return index right after the value starting at pos (whitespace skipped).
+	 */
+	static int skipValue(CharSequence text, int pos) {
+		pos = skipWhitespace(text, pos);
+		if (pos >= text.length()) {
+			throw new JsonException("unexpected end of JSON text");
+		}
+		char c = text.charAt(pos);
+		if (c == '"') {
+			return skipString(text, pos);
+		}
+		else if (c == '{' || c == '[') {
+			int depth = 0;
+			int len = text.length();
+			while (pos < len) {
+				c = text.charAt(pos);
+				if (c == '"') {
+					pos = skipString(text, pos);
+					continue;
+				}
+				else if (c == '{' || c == '[') {
+					depth++;
+				}
+				else if (c == '}' || c == ']') {
+					depth--;
+					if (depth == 0) {
+						return pos + 1;
+					}
+				}
+				pos++;
+			}
+			throw new JsonException("unexpected end of JSON text");
+		}
+		else {
+			// number, true, false or null
+			int len = text.length();
+			while (pos < len) {
+				c = text.charAt(pos);
+				if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+					break;
+				}
+				pos++;
+			}
+			return pos;
+		}
+	}
+
+	/**
+	 * @return index right after the closing quote of the string starting at pos.
+	 */
+	static int skipString(CharSequence text, int pos) {
+		int len = text.length();
+		pos++;
+		while (pos < len) {
+			char c = text.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+				continue;
+			}
+			else if (c == '"') {
+				return pos + 1;
+			}
+			pos++;
+		}
+		throw new JsonException("unterminated string");
+	}
+
+	/**
+	 * Finds a member of the object starting at objStart, nested objects are not searched.
+	 * @return start index of the member value, or -1 if not found.
+	 */
+	static int findField(CharSequence text, int objStart, String name) {
+		int pos = skipWhitespace(text, objStart);
+		if (pos >= text.length() || text.charAt(pos) != '{') {
+			return -1;
+		}
+		pos++;
+		while (true) {
+			pos = skipWhitespace(text, pos);
+			if (pos >= text.length() || text.charAt(pos) != '"') {
+				return -1;
+			}
+			int keyEnd = skipString(text, pos);
+			boolean match = keyEnd - pos - 2 == name.length() && regionMatches(text, pos + 1, name);
+			pos = skipWhitespace(text, keyEnd);
+			// colon
+			pos = skipWhitespace(text, pos + 1);
+			if (match) {
+				return pos;
+			}
+			pos = skipWhitespace(text, skipValue(text, pos));
+			if (pos >= text.length() || text.charAt(pos) != ',') {
+				return -1;
+			}
+			pos++;
+		}
+	}
+
+	private static boolean regionMatches(CharSequence text, int pos, String name) {
+		for (int i = 0; i < name.length(); i++) {
+			if (text.charAt(pos + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the string member of the object, or null if not found or not a string.
+	 */
+	static String getString(CharSequence text, int objStart, String name) {
+		int pos = findField(text, objStart, name);
+		if (pos < 0 || text.charAt(pos) != '"') {
+			return null;
+		}
+		return readString(text, pos);
+	}
+
+	/**
+	 * @return the unescaped string starting at pos.
+	 */
+	static String readString(CharSequence text, int pos) {
+		int end = skipString(text, pos);
+		boolean escaped = false;
+		for (int i = pos + 1; i < end - 1 && !escaped; i++) {
+			escaped = text.charAt(i) == '\\';
+		}
+		if (!escaped) {
+			return text.subSequence(pos + 1, end - 1).toString();
+		}
+		StringBuilder sb = new StringBuilder(end - pos);
+		for (int i = pos + 1; i < end - 1; i++) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				c = text.charAt(++i);
+				switch (c) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					sb.append((char) Integer.parseInt(text, i + 1, i + 5, 16));
+					i += 4;
+					break;
+				default:
+					sb.append(c);
+				}
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
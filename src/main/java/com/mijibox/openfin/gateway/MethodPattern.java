@@ -0,0 +1,62 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Matches method names against glob patterns, where <code>*</code> matches
+ * any characters, e.g. <code>fin.System.get*</code> or
+ * <code>getInfo</code>. Results are cached per method name.
+ *
+ * @author Anthony
+ *
+ */
+class MethodPattern {
+	private final List<Pattern> patterns;
+	private final ConcurrentHashMap<String, Boolean> matchCache;
+
+	MethodPattern(String... globs) {
+		this.patterns = new ArrayList<>();
+		for (String glob : globs) {
+			StringBuilder regex = new StringBuilder();
+			for (String part : glob.split("\\*", -1)) {
+				if (regex.length() > 0) {
+					regex.append(".*");
+				}
+				regex.append(Pattern.quote(part));
+			}
+			this.patterns.add(Pattern.compile(regex.toString()));
+		}
+		this.matchCache = new ConcurrentHashMap<>();
+	}
+
+	boolean matches(String method) {
+		return this.matchCache.computeIfAbsent(method, m -> {
+			for (Pattern p : this.patterns) {
+				if (p.matcher(m).matches()) {
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+}
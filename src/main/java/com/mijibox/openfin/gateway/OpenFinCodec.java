@@ -0,0 +1,47 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Binds a Java type to its JSON wire format. Codecs of POJOs and records are
+ * generated once per class by {@link OpenFinCodecs}, custom codecs can be
+ * registered with {@link OpenFinCodecs#register(Class, OpenFinCodec)}.
+ *
+ * @author Anthony
+ *
+ * @param <T> the Java type
+ */
+public interface OpenFinCodec<T> {
+
+	JsonValue encode(T value);
+
+	T decode(JsonValue json);
+
+	/**
+	 * Writes the value at the current value position of the generator, that is
+	 * at the root, in an array or right after writeKey().
+	 * @param value the value to be written
+	 * @param generator the generator of the outgoing message
+	 */
+	default void write(T value, JsonGenerator generator) {
+		generator.write(this.encode(value));
+	}
+}
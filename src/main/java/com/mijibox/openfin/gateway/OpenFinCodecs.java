@@ -0,0 +1,636 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Registry of {@link OpenFinCodec}s. Codecs of POJOs (public no-arg
+ * constructor with public fields or getter/setter pairs) and records are
+ * generated on first use with method handles and cached per class, so no
+ * reflection happens per message.
+ *
+ * @author Anthony
+ *
+ */
+public final class OpenFinCodecs {
+
+	private final static ConcurrentHashMap<Class<?>, OpenFinCodec<?>> registeredCodecs = new ConcurrentHashMap<>();
+	private final static Map<Class<?>, OpenFinCodec<?>> builtInCodecs = new HashMap<>();
+
+	private final static ClassValue<OpenFinCodec<?>> generatedCodecs = new ClassValue<>() {
+		@Override
+		protected OpenFinCodec<?> computeValue(Class<?> type) {
+			return createCodec(type);
+		}
+	};
+
+	static {
+		OpenFinCodec<String> stringCodec = scalar(v -> Json.createValue(v), j -> ((JsonString) j).getString(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Boolean> booleanCodec = scalar(v -> v ? JsonValue.TRUE : JsonValue.FALSE,
+				j -> JsonValue.TRUE.equals(j), (v, g) -> g.write(v));
+		OpenFinCodec<Integer> intCodec = scalar(v -> Json.createValue(v), j -> ((JsonNumber) j).intValue(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Long> longCodec = scalar(v -> Json.createValue(v), j -> ((JsonNumber) j).longValue(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Short> shortCodec = scalar(v -> Json.createValue(v), j -> (short) ((JsonNumber) j).intValue(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Byte> byteCodec = scalar(v -> Json.createValue(v), j -> (byte) ((JsonNumber) j).intValue(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Double> doubleCodec = scalar(v -> Json.createValue(v), j -> ((JsonNumber) j).doubleValue(),
+				(v, g) -> g.write(v));
+		OpenFinCodec<Float> floatCodec = scalar(v -> Json.createValue(v), j -> (float) ((JsonNumber) j).doubleValue(),
+				(v, g) -> g.write(v));
+		builtInCodecs.put(String.class, stringCodec);
+		builtInCodecs.put(Boolean.class, booleanCodec);
+		builtInCodecs.put(boolean.class, booleanCodec);
+		builtInCodecs.put(Integer.class, intCodec);
+		builtInCodecs.put(int.class, intCodec);
+		builtInCodecs.put(Long.class, longCodec);
+		builtInCodecs.put(long.class, longCodec);
+		builtInCodecs.put(Short.class, shortCodec);
+		builtInCodecs.put(short.class, shortCodec);
+		builtInCodecs.put(Byte.class, byteCodec);
+		builtInCodecs.put(byte.class, byteCodec);
+		builtInCodecs.put(Double.class, doubleCodec);
+		builtInCodecs.put(double.class, doubleCodec);
+		builtInCodecs.put(Float.class, floatCodec);
+		builtInCodecs.put(float.class, floatCodec);
+		builtInCodecs.put(BigDecimal.class, scalar(v -> Json.createValue(v), j -> ((JsonNumber) j).bigDecimalValue(),
+				(v, g) -> g.write(v)));
+		builtInCodecs.put(BigInteger.class, scalar(v -> Json.createValue(v), j -> ((JsonNumber) j).bigIntegerValue(),
+				(v, g) -> g.write(v)));
+	}
+
+	private OpenFinCodecs() {
+	}
+
+	/**
+	 * Registers a custom codec, it takes precedence over generated ones.
+	 * @param <T> the Java type
+	 * @param type class of the Java type
+	 * @param codec the codec
+	 */
+	public static <T> void register(Class<T> type, OpenFinCodec<T> codec) {
+		registeredCodecs.put(type, codec);
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> OpenFinCodec<T> get(Class<T> type) {
+		OpenFinCodec<?> codec = registeredCodecs.get(type);
+		if (codec == null) {
+			codec = builtInCodecs.get(type);
+		}
+		if (codec == null) {
+			codec = generatedCodecs.get(type);
+		}
+		return (OpenFinCodec<T>) codec;
+	}
+
+	/**
+	 * Encodes the value with the codec of its runtime class.
+	 * @param value the value, can be null or a JsonValue
+	 * @return the JSON value
+	 */
+	@SuppressWarnings("unchecked")
+	public static JsonValue encode(Object value) {
+		if (value == null) {
+			return JsonValue.NULL;
+		}
+		else if (value instanceof JsonValue) {
+			return (JsonValue) value;
+		}
+		return ((OpenFinCodec<Object>) get(value.getClass())).encode(value);
+	}
+
+	/**
+	 * Writes the value with the codec of its runtime class.
+	 * @param value the value, can be null or a JsonValue
+	 * @param generator the generator of the outgoing message
+	 */
+	@SuppressWarnings("unchecked")
+	public static void write(Object value, JsonGenerator generator) {
+		if (value == null) {
+			generator.writeNull();
+		}
+		else if (value instanceof JsonValue) {
+			generator.write((JsonValue) value);
+		}
+		else {
+			((OpenFinCodec<Object>) get(value.getClass())).write(value, generator);
+		}
+	}
+
+	public static <T> T decode(JsonValue json, Class<T> type) {
+		return get(type).decode(json);
+	}
+
+	private interface Writer<T> {
+		void write(T value, JsonGenerator generator);
+	}
+
+	private static <T> OpenFinCodec<T> scalar(Function<T, JsonValue> encoder, Function<JsonValue, T> decoder,
+			Writer<T> writer) {
+		return new OpenFinCodec<T>() {
+			@Override
+			public JsonValue encode(T value) {
+				return value == null ? JsonValue.NULL : encoder.apply(value);
+			}
+
+			@Override
+			public T decode(JsonValue json) {
+				return json == null || json == JsonValue.NULL ? null : decoder.apply(json);
+			}
+
+			@Override
+			public void write(T value, JsonGenerator generator) {
+				if (value == null) {
+					generator.writeNull();
+				}
+				else {
+					writer.write(value, generator);
+				}
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	static OpenFinCodec<Object> get(Type type) {
+		if (type instanceof Class) {
+			return (OpenFinCodec<Object>) get((Class<?>) type);
+		}
+		else if (type instanceof ParameterizedType) {
+			ParameterizedType pType = (ParameterizedType) type;
+			Class<?> rawType = (Class<?>) pType.getRawType();
+			Type[] typeArgs = pType.getActualTypeArguments();
+			if (Map.class.isAssignableFrom(rawType)) {
+				return new MapCodec(typeArgs[1]);
+			}
+			else if (Collection.class.isAssignableFrom(rawType)) {
+				return new CollectionCodec(rawType, typeArgs[0]);
+			}
+			return (OpenFinCodec<Object>) get(rawType);
+		}
+		else if (type instanceof GenericArrayType) {
+			Type componentType = ((GenericArrayType) type).getGenericComponentType();
+			Class<?> rawComponentType = componentType instanceof ParameterizedType
+					? (Class<?>) ((ParameterizedType) componentType).getRawType()
+					: Object.class;
+			return new ArrayCodec(rawComponentType, componentType);
+		}
+		throw new IllegalArgumentException("unsupported type: " + type);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static OpenFinCodec<?> createCodec(Class<?> type) {
+		if (JsonValue.class.isAssignableFrom(type)) {
+			return scalar(v -> (JsonValue) v, j -> type.cast(j), (v, g) -> g.write((JsonValue) v));
+		}
+		else if (type.isEnum()) {
+			return scalar(v -> Json.createValue(((Enum<?>) v).name()),
+					j -> Enum.valueOf((Class) type, ((JsonString) j).getString()),
+					(v, g) -> g.write(((Enum<?>) v).name()));
+		}
+		else if (type.isArray()) {
+			return new ArrayCodec(type.getComponentType(), type.getComponentType());
+		}
+		else if (Map.class.isAssignableFrom(type)) {
+			return new MapCodec(Object.class);
+		}
+		else if (Collection.class.isAssignableFrom(type)) {
+			return new CollectionCodec(type, Object.class);
+		}
+		else if (type == Object.class) {
+			return new OpenFinCodec<Object>() {
+				@Override
+				public JsonValue encode(Object value) {
+					return OpenFinCodecs.encode(value);
+				}
+
+				@Override
+				public Object decode(JsonValue json) {
+					return json;
+				}
+
+				@Override
+				public void write(Object value, JsonGenerator generator) {
+					OpenFinCodecs.write(value, generator);
+				}
+			};
+		}
+		else if (type.isPrimitive() || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			throw new IllegalArgumentException("no codec for type: " + type.getName());
+		}
+		return new BeanCodec<>(type);
+	}
+
+	private static class Property {
+		final String name;
+		final Type type;
+		final Class<?> rawType;
+		final MethodHandle getter;
+		final MethodHandle setter;
+		private volatile OpenFinCodec<Object> codec;
+
+		Property(String name, Type type, Class<?> rawType, MethodHandle getter, MethodHandle setter) {
+			this.name = name;
+			this.type = type;
+			this.rawType = rawType;
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		OpenFinCodec<Object> getCodec() {
+			// resolved lazily so self-referencing types work.
+			OpenFinCodec<Object> c = this.codec;
+			if (c == null) {
+				c = OpenFinCodecs.get(this.type);
+				this.codec = c;
+			}
+			return c;
+		}
+	}
+
+	private static class BeanCodec<T> implements OpenFinCodec<T> {
+		private final Class<T> type;
+		private final Property[] properties;
+		/**
+		 * (Object[])Object for records, ()Object otherwise.
+		 */
+		private final MethodHandle constructor;
+		private final boolean record;
+
+		BeanCodec(Class<T> type) {
+			this.type = type;
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			try {
+				Object[] recordComponents = getRecordComponents(type);
+				List<Property> props = new ArrayList<>();
+				if (recordComponents != null) {
+					this.record = true;
+					Class<?>[] componentTypes = new Class<?>[recordComponents.length];
+					for (int i = 0; i < recordComponents.length; i++) {
+						Object rc = recordComponents[i];
+						Class<?> rcClass = rc.getClass();
+						String name = (String) rcClass.getMethod("getName").invoke(rc);
+						Type genericType = (Type) rcClass.getMethod("getGenericType").invoke(rc);
+						Method accessor = (Method) rcClass.getMethod("getAccessor").invoke(rc);
+						componentTypes[i] = accessor.getReturnType();
+						props.add(new Property(name, genericType, accessor.getReturnType(),
+								toGetter(lookup.unreflect(accessible(accessor))), null));
+					}
+					Constructor<T> canonical = type.getDeclaredConstructor(componentTypes);
+					this.constructor = lookup.unreflectConstructor(accessible(canonical))
+							.asType(MethodType.methodType(Object.class, componentTypes))
+							.asSpreader(Object[].class, componentTypes.length)
+							.asType(MethodType.methodType(Object.class, Object[].class));
+				}
+				else {
+					this.record = false;
+					Constructor<T> noArg = type.getConstructor();
+					this.constructor = lookup.unreflectConstructor(noArg)
+							.asType(MethodType.methodType(Object.class));
+					Map<String, Method> getters = new LinkedHashMap<>();
+					Map<String, Method> setters = new HashMap<>();
+					Method[] methods = type.getMethods();
+					Arrays.sort(methods, Comparator.comparing(Method::getName));
+					for (Method m : methods) {
+						if (Modifier.isStatic(m.getModifiers()) || m.getDeclaringClass() == Object.class) {
+							continue;
+						}
+						String name = m.getName();
+						if (m.getParameterCount() == 0 && name.length() > 3 && name.startsWith("get")
+								&& m.getReturnType() != void.class) {
+							getters.put(propertyName(name.substring(3)), m);
+						}
+						else if (m.getParameterCount() == 0 && name.length() > 2 && name.startsWith("is")
+								&& m.getReturnType() == boolean.class) {
+							getters.put(propertyName(name.substring(2)), m);
+						}
+						else if (m.getParameterCount() == 1 && name.length() > 3 && name.startsWith("set")) {
+							setters.put(propertyName(name.substring(3)), m);
+						}
+					}
+					for (Field f : type.getFields()) {
+						int modifiers = f.getModifiers();
+						if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+							props.add(new Property(f.getName(), f.getGenericType(), f.getType(),
+									toGetter(lookup.unreflectGetter(f)),
+									Modifier.isFinal(modifiers) ? null : toSetter(lookup.unreflectSetter(f))));
+						}
+					}
+					for (Map.Entry<String, Method> entry : getters.entrySet()) {
+						Method getter = entry.getValue();
+						Method setter = setters.get(entry.getKey());
+						if (setter != null && setter.getParameterTypes()[0] == getter.getReturnType()) {
+							props.add(new Property(entry.getKey(), getter.getGenericReturnType(), getter.getReturnType(),
+									toGetter(lookup.unreflect(getter)), toSetter(lookup.unreflect(setter))));
+						}
+					}
+				}
+				this.properties = props.toArray(new Property[props.size()]);
+			}
+			catch (ReflectiveOperationException | RuntimeException e) {
+				throw new IllegalArgumentException("unable to create codec for type: " + type.getName(), e);
+			}
+		}
+
+		private static Object[] getRecordComponents(Class<?> type) throws ReflectiveOperationException {
+			// records are not available in the java version this library targets, use reflection.
+			Method isRecord;
+			try {
+				isRecord = Class.class.getMethod("isRecord");
+			}
+			catch (NoSuchMethodException e) {
+				return null;
+			}
+			if ((Boolean) isRecord.invoke(type)) {
+				return (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+			}
+			return null;
+		}
+
+		private static <A extends AccessibleObject> A accessible(A member) {
+			member.setAccessible(true);
+			return member;
+		}
+
+		private static String propertyName(String name) {
+			return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+		}
+
+		private static MethodHandle toGetter(MethodHandle handle) {
+			return handle.asType(MethodType.methodType(Object.class, Object.class));
+		}
+
+		private static MethodHandle toSetter(MethodHandle handle) {
+			return handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		}
+
+		@Override
+		public JsonValue encode(T value) {
+			if (value == null) {
+				return JsonValue.NULL;
+			}
+			JsonObjectBuilder builder = Json.createObjectBuilder();
+			try {
+				for (Property p : this.properties) {
+					builder.add(p.name, p.getCodec().encode((Object) p.getter.invokeExact((Object) value)));
+				}
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException("error encoding " + this.type.getName(), e);
+			}
+			return builder.build();
+		}
+
+		@Override
+		public void write(T value, JsonGenerator generator) {
+			if (value == null) {
+				generator.writeNull();
+				return;
+			}
+			generator.writeStartObject();
+			try {
+				for (Property p : this.properties) {
+					generator.writeKey(p.name);
+					p.getCodec().write((Object) p.getter.invokeExact((Object) value), generator);
+				}
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException("error encoding " + this.type.getName(), e);
+			}
+			generator.writeEnd();
+		}
+
+		@Override
+		public T decode(JsonValue json) {
+			if (json == null || json == JsonValue.NULL) {
+				return null;
+			}
+			JsonObject obj = (JsonObject) json;
+			try {
+				if (this.record) {
+					Object[] args = new Object[this.properties.length];
+					for (int i = 0; i < this.properties.length; i++) {
+						Property p = this.properties[i];
+						Object v = p.getCodec().decode(obj.get(p.name));
+						if (v == null && p.rawType.isPrimitive()) {
+							v = Array.get(Array.newInstance(p.rawType, 1), 0);
+						}
+						args[i] = v;
+					}
+					return this.type.cast((Object) this.constructor.invokeExact(args));
+				}
+				else {
+					Object instance = (Object) this.constructor.invokeExact();
+					for (Property p : this.properties) {
+						if (p.setter != null && obj.containsKey(p.name)) {
+							Object v = p.getCodec().decode(obj.get(p.name));
+							if (v != null || !p.rawType.isPrimitive()) {
+								p.setter.invokeExact(instance, v);
+							}
+						}
+					}
+					return this.type.cast(instance);
+				}
+			}
+			catch (Throwable e) {
+				throw new IllegalStateException("error decoding " + this.type.getName(), e);
+			}
+		}
+	}
+
+	private static class ArrayCodec implements OpenFinCodec<Object> {
+		private final Class<?> componentType;
+		private final OpenFinCodec<Object> componentCodec;
+
+		ArrayCodec(Class<?> componentType, Type genericComponentType) {
+			this.componentType = componentType;
+			this.componentCodec = OpenFinCodecs.get(genericComponentType);
+		}
+
+		@Override
+		public JsonValue encode(Object value) {
+			if (value == null) {
+				return JsonValue.NULL;
+			}
+			JsonArrayBuilder builder = Json.createArrayBuilder();
+			for (int i = 0, n = Array.getLength(value); i < n; i++) {
+				builder.add(this.componentCodec.encode(Array.get(value, i)));
+			}
+			return builder.build();
+		}
+
+		@Override
+		public void write(Object value, JsonGenerator generator) {
+			if (value == null) {
+				generator.writeNull();
+				return;
+			}
+			generator.writeStartArray();
+			for (int i = 0, n = Array.getLength(value); i < n; i++) {
+				this.componentCodec.write(Array.get(value, i), generator);
+			}
+			generator.writeEnd();
+		}
+
+		@Override
+		public Object decode(JsonValue json) {
+			if (json == null || json == JsonValue.NULL) {
+				return null;
+			}
+			JsonArray array = (JsonArray) json;
+			Object value = Array.newInstance(this.componentType, array.size());
+			for (int i = 0; i < array.size(); i++) {
+				Array.set(value, i, this.componentCodec.decode(array.get(i)));
+			}
+			return value;
+		}
+	}
+
+	private static class CollectionCodec implements OpenFinCodec<Object> {
+		private final boolean set;
+		private final OpenFinCodec<Object> elementCodec;
+
+		CollectionCodec(Class<?> collectionType, Type elementType) {
+			this.set = Set.class.isAssignableFrom(collectionType);
+			this.elementCodec = OpenFinCodecs.get(elementType);
+		}
+
+		@Override
+		public JsonValue encode(Object value) {
+			if (value == null) {
+				return JsonValue.NULL;
+			}
+			JsonArrayBuilder builder = Json.createArrayBuilder();
+			for (Object e : (Collection<?>) value) {
+				builder.add(this.elementCodec.encode(e));
+			}
+			return builder.build();
+		}
+
+		@Override
+		public void write(Object value, JsonGenerator generator) {
+			if (value == null) {
+				generator.writeNull();
+				return;
+			}
+			generator.writeStartArray();
+			for (Object e : (Collection<?>) value) {
+				this.elementCodec.write(e, generator);
+			}
+			generator.writeEnd();
+		}
+
+		@Override
+		public Object decode(JsonValue json) {
+			if (json == null || json == JsonValue.NULL) {
+				return null;
+			}
+			JsonArray array = (JsonArray) json;
+			Collection<Object> value = this.set ? new LinkedHashSet<>() : new ArrayList<>(array.size());
+			for (JsonValue e : array) {
+				value.add(this.elementCodec.decode(e));
+			}
+			return value;
+		}
+	}
+
+	private static class MapCodec implements OpenFinCodec<Object> {
+		private final OpenFinCodec<Object> valueCodec;
+
+		MapCodec(Type valueType) {
+			this.valueCodec = OpenFinCodecs.get(valueType);
+		}
+
+		@Override
+		public JsonValue encode(Object value) {
+			if (value == null) {
+				return JsonValue.NULL;
+			}
+			JsonObjectBuilder builder = Json.createObjectBuilder();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				builder.add(String.valueOf(e.getKey()), this.valueCodec.encode(e.getValue()));
+			}
+			return builder.build();
+		}
+
+		@Override
+		public void write(Object value, JsonGenerator generator) {
+			if (value == null) {
+				generator.writeNull();
+				return;
+			}
+			generator.writeStartObject();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				generator.writeKey(String.valueOf(e.getKey()));
+				this.valueCodec.write(e.getValue(), generator);
+			}
+			generator.writeEnd();
+		}
+
+		@Override
+		public Object decode(JsonValue json) {
+			if (json == null || json == JsonValue.NULL) {
+				return null;
+			}
+			Map<String, Object> value = new LinkedHashMap<>();
+			for (Map.Entry<String, JsonValue> e : ((JsonObject) json).entrySet()) {
+				value.put(e.getKey(), this.valueCodec.decode(e.getValue()));
+			}
+			return value;
+		}
+	}
+}
@@ -19,7 +19,6 @@ package com.mijibox.openfin.gateway;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -35,15 +34,16 @@ import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.json.Json;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
-import javax.json.JsonReader;
 import javax.json.JsonValue;
 
 import org.slf4j.Logger;
@@ -52,6 +52,18 @@ import org.slf4j.LoggerFactory;
 public class OpenFinConnection implements Listener {
 	private final static Logger logger = LoggerFactory.getLogger(OpenFinConnection.class);
 
+	private static class OutboundMessage {
+		final String action;
+		final EnvelopeWriter.PayloadWriter payloadWriter;
+		final CompletableFuture<JsonObject> ackFuture;
+
+		OutboundMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter) {
+			this.action = action;
+			this.payloadWriter = payloadWriter;
+			this.ackFuture = new CompletableFuture<>();
+		}
+	}
+
 	private StringBuilder receivedMessage;
 	private CompletableFuture<?> accumulatedMessage;
 	private AtomicInteger messageId;
@@ -62,6 +74,9 @@ public class OpenFinConnection implements Listener {
 	private CompletableFuture<OpenFinConnection> authFuture;
 	private ExecutorService processMessageThreadPool;
 	private ExecutorService sendMessageThreadPool;
+	private ScheduledExecutorService scheduler;
+	private List<ConcurrentLinkedQueue<OutboundMessage>> outboundLanes;
+	private AtomicBoolean draining;
 	private OpenFinInterApplicationBus interAppBus;
 	private List<Listener> webSocketListeners;
 	private boolean connected;
@@ -80,10 +95,25 @@ public class OpenFinConnection implements Listener {
 		this.authFuture = new CompletableFuture<>();
 		this.processMessageThreadPool = Executors.newFixedThreadPool(10);
 		this.sendMessageThreadPool = Executors.newFixedThreadPool(10);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "OpenFinConnection-scheduler-" + connectionUuid);
+			t.setDaemon(true);
+			return t;
+		});
+		this.outboundLanes = newOutboundLanes();
+		this.draining = new AtomicBoolean(false);
 		this.interAppBus = new OpenFinInterApplicationBus(this);
 		this.webSocketListeners = new ArrayList<>();
 	}
 
+	private static List<ConcurrentLinkedQueue<OutboundMessage>> newOutboundLanes() {
+		List<ConcurrentLinkedQueue<OutboundMessage>> lanes = new ArrayList<>(OpenFinPriority.values().length);
+		for (int i = 0; i < OpenFinPriority.values().length; i++) {
+			lanes.add(new ConcurrentLinkedQueue<>());
+		}
+		return lanes;
+	}
+
 	public String getUuid() {
 		return this.connectionUuid;
 	}
@@ -194,6 +224,7 @@ public class OpenFinConnection implements Listener {
 			}
 		}
 		this.processMessageThreadPool.shutdown();
+		this.scheduler.shutdownNow();
 		return null;
 	}
 
@@ -210,6 +241,7 @@ public class OpenFinConnection implements Listener {
 			}
 		}
 		this.processMessageThreadPool.shutdown();
+		this.scheduler.shutdownNow();
 	}
 
 	/**
@@ -219,28 +251,95 @@ public class OpenFinConnection implements Listener {
 	 * @return
 	 */
 	public CompletionStage<JsonObject> sendMessage(String action, JsonObject payload) {
-		return CompletableFuture.supplyAsync(()->{
-			return null;
-		}, this.sendMessageThreadPool).thenCompose(v->{
+		return this.sendMessage(action, generator -> {
+			generator.write(payload);
+		});
+	}
+
+	CompletionStage<JsonObject> sendMessage(String action, JsonObject payload, OpenFinPriority priority) {
+		return this.sendMessage(action, generator -> {
+			generator.write(payload);
+		}, priority);
+	}
+
+	/**
+	 * Same as sendMessage(String, JsonObject) but the payload is streamed into the outgoing message.
+	 * @param action
+	 * @param payloadWriter
+	 * @return
+	 */
+	CompletionStage<JsonObject> sendMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter) {
+		return this.sendMessage(action, payloadWriter, OpenFinPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Queues the message in the lane of the priority, the writer always sends
+	 * out the message of the highest non-empty lane next.
+	 * @param action
+	 * @param payloadWriter
+	 * @param priority
+	 * @return
+	 */
+	CompletionStage<JsonObject> sendMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter,
+			OpenFinPriority priority) {
+		OutboundMessage outboundMessage = new OutboundMessage(action, payloadWriter);
+		this.outboundLanes.get(priority.ordinal()).add(outboundMessage);
+		if (this.draining.compareAndSet(false, true)) {
+			this.sendMessageThreadPool.submit(this::drainOutboundLanes);
+		}
+		return outboundMessage.ackFuture;
+	}
+
+	private void drainOutboundLanes() {
+		while (true) {
+			OutboundMessage outboundMessage = this.pollOutboundLanes();
+			if (outboundMessage == null) {
+				this.draining.set(false);
+				// anything added after the last poll but before draining is cleared would be stuck
+				if (this.isOutboundLanesEmpty() || !this.draining.compareAndSet(false, true)) {
+					return;
+				}
+				continue;
+			}
 			if (this.connected) {
 				int msgId = this.messageId.getAndIncrement();
-				CompletableFuture<JsonObject> ackFuture = new CompletableFuture<>();
-				this.ackMap.put(msgId, ackFuture);
-				JsonObjectBuilder json = Json.createObjectBuilder();
-				JsonObject msgJson = json.add("action", action)
-						.add("messageId", msgId)
-						.add("payload", payload).build();
-				String msg = msgJson.toString();
-				this.sendWebSocketMessage(msg);
-				return ackFuture;
+				this.ackMap.put(msgId, outboundMessage.ackFuture);
+				try {
+					CharSequence msg = EnvelopeWriter.writeMessage(outboundMessage.action, msgId,
+							outboundMessage.payloadWriter);
+					this.sendWebSocketMessage(msg);
+				}
+				catch (Exception e) {
+					this.ackMap.remove(msgId);
+					outboundMessage.ackFuture.completeExceptionally(e);
+				}
 			}
 			else {
-				throw new RuntimeException("not connected");
+				outboundMessage.ackFuture.completeExceptionally(new RuntimeException("not connected"));
 			}
-		});
+		}
+	}
+
+	private OutboundMessage pollOutboundLanes() {
+		for (ConcurrentLinkedQueue<OutboundMessage> lane : this.outboundLanes) {
+			OutboundMessage outboundMessage = lane.poll();
+			if (outboundMessage != null) {
+				return outboundMessage;
+			}
+		}
+		return null;
+	}
+
+	private boolean isOutboundLanesEmpty() {
+		for (ConcurrentLinkedQueue<OutboundMessage> lane : this.outboundLanes) {
+			if (!lane.isEmpty()) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
-	private synchronized void sendWebSocketMessage(String msg) {
+	private synchronized void sendWebSocketMessage(CharSequence msg) {
 		try {
 			logger.debug("sending: {}", msg);
 			this.webSocket.sendText(msg, true)
@@ -256,8 +355,16 @@ public class OpenFinConnection implements Listener {
 
 	private void processMessage(String message) {
 		logger.debug("processMessage: {}", message);
-		JsonReader jsonReader = Json.createReader(new StringReader(message));
-		JsonObject receivedJson = jsonReader.readObject();
+		if (this.interAppBus.hasRawListeners()
+				&& "process-message".equals(JsonScanner.getString(message, 0, "action"))) {
+			int payloadStart = JsonScanner.findField(message, 0, "payload");
+			if (payloadStart >= 0) {
+				// skip the tree, raw listeners take slices of the frame.
+				this.interAppBus.processRawMessage(message, payloadStart);
+				return;
+			}
+		}
+		JsonObject receivedJson = JsonParsers.parseObject(message);
 		String action = receivedJson.getString("action");
 		JsonObject payload = receivedJson.getJsonObject("payload");
 		if ("external-authorization-response".equals(action)) {
@@ -293,6 +400,10 @@ public class OpenFinConnection implements Listener {
 		}
 	}
 
+	ScheduledExecutorService getScheduler() {
+		return this.scheduler;
+	}
+
 	public OpenFinInterApplicationBus getInterAppBus() {
 		return this.interAppBus;
 	}
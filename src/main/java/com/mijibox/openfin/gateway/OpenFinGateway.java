@@ -17,6 +17,8 @@ limitations under the License.
 
 package com.mijibox.openfin.gateway;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletionStage;
 
 import javax.json.JsonValue;
@@ -42,6 +44,50 @@ public interface OpenFinGateway {
 
 	CompletionStage<InvokeResult> invoke(boolean createProxyObject, String method, JsonValue... args);
 
+	/**
+	 * Invokes the method, the priority decides the order when it has to wait for admission.
+	 * @param priority priority of the invoke
+	 * @param createProxyObject true to create proxy object of the result
+	 * @param method the method to be invoked
+	 * @param args arguments
+	 * @return the new CompletionStage
+	 */
+	CompletionStage<InvokeResult> invoke(OpenFinPriority priority, boolean createProxyObject, String method,
+			JsonValue... args);
+
+	/**
+	 * Invokes the method with a deadline. The returned CompletionStage completes
+	 * exceptionally with TimeoutException when the deadline passes, and can be
+	 * cancelled with toCompletableFuture().cancel(). Either way gateway.js drops
+	 * the result.
+	 * @param priority priority of the invoke
+	 * @param timeout deadline of the invoke, null for no deadline
+	 * @param createProxyObject true to create proxy object of the result
+	 * @param method the method to be invoked
+	 * @param args arguments
+	 * @return the new CompletionStage
+	 */
+	CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout, boolean createProxyObject,
+			String method, JsonValue... args);
+
+	/**
+	 * Invokes the method with arguments encoded and the result decoded by their {@link OpenFinCodec}s.
+	 * @param <T> the result type
+	 * @param resultType class of the result
+	 * @param method the method to be invoked
+	 * @param args arguments, JsonValues are passed as is
+	 * @return the new CompletionStage with the decoded result
+	 */
+	<T> CompletionStage<T> invoke(Class<T> resultType, String method, Object... args);
+
+	/**
+	 * Resolves the method once in OpenFin runtime, invokes of the returned
+	 * PreparedMethod send a small integer handle instead of the method name.
+	 * @param method the method to be prepared
+	 * @return the new CompletionStage with the prepared method
+	 */
+	CompletionStage<PreparedMethod> prepare(String method);
+
 	CompletionStage<Void> addListener(String method, OpenFinEventListener listener);
 
 	CompletionStage<ProxyListener> addListener(boolean createProxyListener, String method, OpenFinEventListener listener);
@@ -54,9 +100,92 @@ public interface OpenFinGateway {
 
 	CompletionStage<Void> removeListener(String method, String event, ProxyListener listener);
 
+	/**
+	 * Polls the method in OpenFin runtime, only the changes of the result are
+	 * sent back and applied to the value held by the poller.
+	 * @param interval polling interval
+	 * @param listener invoked when the result changes
+	 * @param method the method to be invoked
+	 * @param args arguments
+	 * @return the new CompletionStage with the started poller
+	 */
+	CompletionStage<OpenFinPoller> addPoller(Duration interval, OpenFinPollerListener listener, String method,
+			JsonValue... args);
+
+	/**
+	 * Invokes the method when the returned publisher is subscribed, the JSON
+	 * text of the result is published in chunks of
+	 * {@link OpenFinResultStream#DEFAULT_CHUNK_SIZE} chars.
+	 * @param method the method to be invoked
+	 * @param args arguments
+	 * @return the result stream
+	 */
+	OpenFinResultStream invokeStream(String method, JsonValue... args);
+
+	OpenFinResultStream invokeStream(int chunkSize, String method, JsonValue... args);
+
+	/**
+	 * Invokes the method returning binary data, like a base64 string, data URL,
+	 * ArrayBuffer or typed array, the bytes are decoded into a pooled direct
+	 * buffer without materializing the whole base64 text.
+	 * @param method the method to be invoked
+	 * @param args arguments
+	 * @return the new CompletionStage with the bytes, close it when done.
+	 */
+	CompletionStage<BinaryResult> invokeBinary(String method, JsonValue... args);
+
+	/**
+	 * Compiles the function once in OpenFin runtime, it stays registered for the
+	 * lifetime of the gateway application. The body can use await and its
+	 * result is the result of the call. Registering an existing name replaces
+	 * the procedure.
+	 * @param name procedure name, a JavaScript identifier
+	 * @param body JavaScript function body
+	 * @param parameterNames names of the function parameters
+	 * @return the new CompletionStage
+	 */
+	CompletionStage<Void> registerProcedure(String name, String body, String... parameterNames);
+
+	/**
+	 * Calls a registered procedure in a single round trip. It's an invoke of
+	 * the method "procedures.&lt;name&gt;", the invoke overloads with priority
+	 * and timeout can be used with that method as well.
+	 * @param name procedure name
+	 * @param args arguments
+	 * @return the new CompletionStage with the result of the procedure
+	 */
+	CompletionStage<InvokeResult> callProcedure(String name, JsonValue... args);
+
+	/**
+	 * @return the new CompletionStage with the names of the registered procedures.
+	 */
+	CompletionStage<List<String>> listProcedures();
+
+	CompletionStage<Void> removeProcedure(String name);
+
 	CompletionStage<OpenFinGateway> close();
 
 	OpenFinInterApplicationBus getOpenFinInterApplicationBus();
+
+	/**
+	 * @return admission control of the invokes, null if invokes are not limited.
+	 */
+	InvokeLimiter getInvokeLimiter();
+
+	/**
+	 * @return single-flight of the invokes, null if not enabled.
+	 */
+	InvokeCoalescer getInvokeCoalescer();
+
+	/**
+	 * @return cache of invoke results, null if not enabled.
+	 */
+	InvokeResultCache getInvokeResultCache();
+
+	/**
+	 * @return direct API protocol routing of invokes, null if not enabled.
+	 */
+	DirectApiFastPath getDirectApiFastPath();
 	
 	CompletionStage<OpenFinGateway> getApplicationGateway(String appUuid);
 }
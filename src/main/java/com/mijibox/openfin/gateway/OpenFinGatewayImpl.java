@@ -26,18 +26,26 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import javax.json.Json;
 import javax.json.JsonArray;
-import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,25 +54,57 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 	final static Logger logger = LoggerFactory.getLogger(OpenFinGatewayImpl.class);
 
 	final static String ACTION_ADD_LISTENER = "add-listener";
+	final static String ACTION_ADD_POLLER = "add-poller";
+	final static String ACTION_CANCEL = "cancel";
 	final static String ACTION_DELETE = "delete";
 	final static String ACTION_ERROR = "error";
+	final static String ACTION_HELLO = "hello";
 	final static String ACTION_INVOKE = "invoke";
+	final static String ACTION_INVOKE_STREAM = "invoke-stream";
+	final static String ACTION_LIST_PROCEDURES = "list-procedures";
 	final static String ACTION_PING = "ping";
+	final static String ACTION_PREPARE = "prepare";
 	final static String ACTION_QUIT = "quit";
+	final static String ACTION_REGISTER_PROCEDURE = "register-procedure";
+	final static String ACTION_RELEASE = "release";
 	final static String ACTION_REMOVE_LISTENER = "remove-listener";
+	final static String ACTION_REMOVE_POLLER = "remove-poller";
+	final static String ACTION_REMOVE_PROCEDURE = "remove-procedure";
+	final static String ACTION_RESYNC_POLLER = "resync-poller";
+	final static String ACTION_STREAM_CANCEL = "stream-cancel";
+	final static String ACTION_STREAM_CREDIT = "stream-credit";
 
 	// JSON property names
 	final static String ACTION = "action";
+	final static String ACTIONS = "actions";
 	final static String ARGUMENTS = "args";
 	final static String PROXY_LISTENER_ID = "proxyListenerId";
+	final static String POLLER_ID = "pollerId";
 	final static String PROXY_ID = "proxyObjId";
 	final static String PROXY_RESULT_OBJECT = "proxyResult";
+	final static String PRIORITY = "priority";
 	final static String EVENT = "event";
+	final static String HANDLE = "handle";
+	final static int NO_HANDLE = -1;
 	final static String IAB_TOPIC = "iabTopic";
+	final static String INTERVAL = "interval";
 	final static String MESSAGE_ID = "messageId";
 	final static String METHOD = "method";
+	final static String NAME = "name";
+	final static String NAMES = "names";
+	final static String PARAMETERS = "params";
+	final static String BODY = "body";
 	final static String PAYLOAD = "payload";
+	/**
+	 * registered procedures are members of this object in gateway.js, so they
+	 * are invoked like any other method.
+	 */
+	final static String PROCEDURE_PREFIX = "procedures.";
+	final static Pattern PROCEDURE_NAME = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
 	final static String RESULT = "result";
+	final static String RESULT_JSON = "resultJson";
+	final static String VERSION = "version";
+	final static Duration HELLO_TIMEOUT = Duration.ofSeconds(2);
 	final static String LINSTENER_ARG_INDEX = "listenerArgIdx";
 
 	private OpenFinInterApplicationBus iab;
@@ -78,17 +118,93 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 	private OpenFinConnection connection;
 	private OpenFinGatewayListener gatewayListener;
 	private String gatewayScriptUrl;
+	private boolean retainProxyResultJson;
+	private InvokeLimiter invokeLimiter;
+	private Duration invokeTimeout;
+	/**
+	 * null until protocol version 2 is negotiated.
+	 */
+	private volatile CompactProtocol compactProtocol;
+	private DirectApiFastPath directApiFastPath;
+	private InvokeCoalescer invokeCoalescer;
+	private InvokeResultCache invokeResultCache;
+	/**
+	 * index of the gateway application when sharded, 0 otherwise.
+	 */
+	private int shardIndex;
+	private final AtomicInteger inFlightInvokes;
+	private final LongAdder invokeCount;
 
 	public static CompletionStage<OpenFinGateway> newInstance(OpenFinGatewayLauncherImpl launcher,
 			OpenFinConnection connection,
 			OpenFinGatewayListener listener) {
-		return new OpenFinGatewayImpl(null, connection, listener)
-				.createGatewayApplication(launcher.getStartupApp(), launcher.isInjectGatewayScript())
+		OpenFinGatewayImpl gatewayImpl = new OpenFinGatewayImpl(null, connection, listener);
+		gatewayImpl.retainProxyResultJson = launcher.isRetainProxyResultJson();
+		gatewayImpl.invokeLimiter = launcher.createInvokeLimiter(connection.getScheduler());
+		gatewayImpl.invokeTimeout = launcher.getInvokeTimeout();
+		gatewayImpl.directApiFastPath = launcher.createDirectApiFastPath();
+		gatewayImpl.invokeCoalescer = launcher.createInvokeCoalescer();
+		gatewayImpl.invokeResultCache = launcher.createInvokeResultCache();
+		int shardCount = launcher.getGatewayShards();
+		if (shardCount > 1) {
+			gatewayImpl.gatewayListener = null;
+			List<CompletableFuture<OpenFinGatewayImpl>> shardFutures = new ArrayList<>(shardCount);
+			for (int i = 0; i < shardCount; i++) {
+				OpenFinGatewayImpl shard = i == 0 ? gatewayImpl : gatewayImpl.newShard(i);
+				shardFutures.add(shard.createGatewayApplication(i == 0 ? launcher.getStartupApp() : null,
+						launcher.isInjectGatewayScript()).thenCompose(gateway -> {
+							return gateway.init();
+						}).thenApply(gateway -> shard).toCompletableFuture());
+			}
+			return CompletableFuture.allOf(shardFutures.toArray(new CompletableFuture<?>[shardCount])).thenApply(v -> {
+				List<OpenFinGatewayImpl> shards = new ArrayList<>(shardCount);
+				for (CompletableFuture<OpenFinGatewayImpl> f : shardFutures) {
+					shards.add(f.join());
+				}
+				ShardedOpenFinGateway gateway = new ShardedOpenFinGateway(shards, launcher.getShardRouting());
+				addGatewayListener(connection, listener, gateway);
+				return gateway;
+			});
+		}
+		return gatewayImpl.createGatewayApplication(launcher.getStartupApp(), launcher.isInjectGatewayScript())
 				.thenCompose(gateway -> {
 					return gateway.init();
 				});
 	}
 
+	/**
+	 * Creates the gateway of another gateway application of the same connection,
+	 * the invoke limiter, coalescer, cache and fast path are shared.
+	 */
+	private OpenFinGatewayImpl newShard(int shardIndex) {
+		OpenFinGatewayImpl shard = new OpenFinGatewayImpl(null, this.connection, null);
+		shard.shardIndex = shardIndex;
+		shard.retainProxyResultJson = this.retainProxyResultJson;
+		shard.invokeLimiter = this.invokeLimiter;
+		shard.invokeTimeout = this.invokeTimeout;
+		shard.directApiFastPath = this.directApiFastPath;
+		shard.invokeCoalescer = this.invokeCoalescer;
+		shard.invokeResultCache = this.invokeResultCache;
+		return shard;
+	}
+
+	private static void addGatewayListener(OpenFinConnection connection, OpenFinGatewayListener gatewayListener,
+			OpenFinGateway gateway) {
+		if (gatewayListener != null) {
+			connection.addWebSocketListener(new Listener() {
+				public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+					gatewayListener.onClose();
+					return null;
+				}
+
+				public void onError(WebSocket webSocket, Throwable error) {
+					gatewayListener.onError();
+				}
+			});
+			gatewayListener.onOpen(gateway);
+		}
+	}
+
 	private OpenFinGatewayImpl(String appUuid, OpenFinConnection connection, OpenFinGatewayListener listener) {
 		this.gatewayId = appUuid;
 		this.connection = connection;
@@ -97,6 +213,9 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 		this.listenerId = new AtomicInteger(0);
 		this.execCorrelationMap = new ConcurrentHashMap<>();
 		this.iab = connection.getInterAppBus();
+		this.retainProxyResultJson = true;
+		this.inFlightInvokes = new AtomicInteger(0);
+		this.invokeCount = new LongAdder();
 	}
 
 	@Override
@@ -105,15 +224,65 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 	}
 
 	private void processIncomingMessage(JsonValue srcIdentity, JsonValue message) {
-		JsonObject msg = ((JsonObject) message);
-		String action = msg.getString(ACTION);
-		CompletableFuture<JsonObject> resultFuture = this.execCorrelationMap.get(msg.getInt(MESSAGE_ID));
-		if (ACTION_ERROR.equals(action)) {
-			resultFuture.completeExceptionally(new RuntimeException("error: " + msg));
+		CompactProtocol compact = this.compactProtocol;
+		String action;
+		JsonObject payload;
+		int msgId;
+		if (compact != null && message.getValueType() == JsonValue.ValueType.ARRAY) {
+			JsonArray msg = message.asJsonArray();
+			action = compact.getAction(msg);
+			msgId = msg.getInt(1);
+			payload = compact.getPayload(msg);
 		}
 		else {
-			resultFuture.complete(msg);
+			JsonObject msg = ((JsonObject) message);
+			action = msg.getString(ACTION);
+			msgId = msg.getInt(MESSAGE_ID);
+			payload = msg.getJsonObject(PAYLOAD);
 		}
+		CompletableFuture<JsonObject> resultFuture = this.execCorrelationMap.remove(msgId);
+		if (resultFuture == null) {
+			// cancelled or timed out already
+			logger.debug("dropping response of unknown message: {}", message);
+		}
+		else if (ACTION_ERROR.equals(action)) {
+			resultFuture.completeExceptionally(new RuntimeException("error: " + message));
+		}
+		else {
+			resultFuture.complete(payload);
+		}
+	}
+
+	/**
+	 * Asks gateway.js for the compact protocol, gateway.js of older versions
+	 * does not answer and protocol version 1 is kept.
+	 */
+	private CompletionStage<Void> negotiateProtocol() {
+		int maxVersion = Integer.getInteger("com.mijibox.openfin.gateway.protocolVersion", CompactProtocol.VERSION);
+		if (maxVersion < CompactProtocol.VERSION) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<JsonObject> responseFuture = new CompletableFuture<>();
+		responseFuture.orTimeout(HELLO_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		return this.sendMessage(this.messageId.getAndIncrement(), ACTION_HELLO, generator -> {
+			generator.writeStartObject().write(VERSION, maxVersion).writeEnd();
+		}, OpenFinPriority.CONTROL, responseFuture).handle((payload, e) -> {
+			if (e != null) {
+				logger.info("no protocol handshake response from gateway.js, using protocol version 1");
+			}
+			else if (payload.getInt(VERSION, 1) >= CompactProtocol.VERSION) {
+				this.compactProtocol = new CompactProtocol(payload.getJsonArray(ACTIONS));
+				logger.debug("using protocol version {}", CompactProtocol.VERSION);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * @return the negotiated protocol version.
+	 */
+	public int getProtocolVersion() {
+		return this.compactProtocol == null ? 1 : CompactProtocol.VERSION;
 	}
 
 	protected CompletionStage<OpenFinGateway> init() {
@@ -125,6 +294,10 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 
 		return this.iab.subscribe(this.gatewayIdentity, this.topicExec, (srcIdentity, message) -> {
 			processIncomingMessage(srcIdentity, message);
+		}).thenCompose(v -> {
+			return this.negotiateProtocol();
+		}).thenCompose(v -> {
+			return this.addCacheInvalidationListeners();
 		}).thenCompose(v -> {
 			boolean showConsole = Boolean
 					.parseBoolean(System.getProperty("com.mijibox.openfin.gateway.showConsole", "false"));
@@ -135,23 +308,15 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 				return CompletableFuture.completedFuture(null);
 			}
 		}).thenApply(v -> {
-			if (this.gatewayListener != null) {
-				this.connection.addWebSocketListener(new Listener() {
-					public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
-						gatewayListener.onClose();
-						return null;
-					}
-
-					public void onError(WebSocket webSocket, Throwable error) {
-						gatewayListener.onError();
-					}
-				});
-				this.gatewayListener.onOpen(this);
-			}
+			addGatewayListener(this.connection, this.gatewayListener, this);
 			return this;
 		});
 	}
 
+	boolean isRetainProxyResultJson() {
+		return this.retainProxyResultJson;
+	}
+
 	@Override
 	public String getGatewayScriptUrl() {
 		return this.gatewayScriptUrl;
@@ -176,7 +341,7 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 			boolean injectScript = injectGatewayScript;
 			this.gatewayScriptUrl = this.extractResource("gateway.js").toUri().toString();
 			if (appOpts == null) {
-				this.gatewayId = connection.getUuid() + "-gateway";
+				this.gatewayId = connection.getUuid() + "-gateway" + (this.shardIndex > 0 ? "-" + this.shardIndex : "");
 				injectScript = true;
 				appOpts = Json.createObjectBuilder()
 						.add("uuid", this.gatewayId)
@@ -217,21 +382,119 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 	}
 
 	private CompletionStage<JsonObject> sendMessage(String action, JsonValue payload) {
-		int msgId = this.messageId.getAndIncrement();
-		CompletableFuture<JsonObject> responseFuture = new CompletableFuture<>();
+		return this.sendMessage(action, payload, OpenFinPriority.INTERACTIVE);
+	}
+
+	private CompletionStage<JsonObject> sendMessage(String action, JsonValue payload, OpenFinPriority priority) {
+		return this.sendMessage(action, generator -> {
+			generator.write(payload);
+		}, priority);
+	}
+
+	private CompletionStage<JsonObject> sendMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter) {
+		return this.sendMessage(action, payloadWriter, OpenFinPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Sends the message in the lane of the priority, gateway.js also processes
+	 * control messages ahead of the queued interactive and bulk ones.
+	 */
+	private CompletionStage<JsonObject> sendMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter,
+			OpenFinPriority priority) {
+		return this.sendMessage(this.messageId.getAndIncrement(), action, payloadWriter, priority,
+				new CompletableFuture<>());
+	}
+
+	/**
+	 * The correlation entry is removed once the response future completes, by the response or otherwise.
+	 */
+	private CompletionStage<JsonObject> sendMessage(int msgId, String action,
+			EnvelopeWriter.PayloadWriter payloadWriter, OpenFinPriority priority,
+			CompletableFuture<JsonObject> responseFuture) {
 		this.execCorrelationMap.put(msgId, responseFuture);
-		JsonObject message = Json.createObjectBuilder().add(MESSAGE_ID, msgId)
-				.add(ACTION, action)
-				.add(PAYLOAD, payload).build();
-		return this.iab.send(this.gatewayIdentity, this.topicExec, message).thenCombineAsync(responseFuture,
-				(r1, r2) -> {
-					return r2.getJsonObject(PAYLOAD);
+		responseFuture.whenComplete((r, e) -> {
+			this.execCorrelationMap.remove(msgId, responseFuture);
+		});
+		CompactProtocol compact = this.compactProtocol;
+		CompletionStage<Void> sendFuture = this.iab.send(this.gatewayIdentity, this.topicExec, generator -> {
+			if (compact != null) {
+				compact.writeMessage(generator, msgId, action, priority, payloadWriter);
+				return;
+			}
+			generator.writeStartObject()
+					.write(MESSAGE_ID, msgId)
+					.write(ACTION, action);
+			if (priority != OpenFinPriority.INTERACTIVE) {
+				generator.write(PRIORITY, priority.name().toLowerCase());
+			}
+			generator.writeKey(PAYLOAD);
+			payloadWriter.write(generator);
+			generator.writeEnd();
+		}, priority);
+		sendFuture.whenComplete((v, e) -> {
+			if (e != null) {
+				// no response is coming
+				responseFuture.completeExceptionally(e);
+			}
+		});
+		return sendFuture.thenCombineAsync(responseFuture, (r1, r2) -> {
+			return r2;
+		});
+	}
+
+	/**
+	 * Tells gateway.js to drop the result of the message. It's sent in the lane
+	 * of the message so it cannot overtake it, and processed as control message
+	 * by gateway.js.
+	 */
+	private void sendCancel(int msgId, OpenFinPriority priority) {
+		CompactProtocol compact = this.compactProtocol;
+		this.iab.send(this.gatewayIdentity, this.topicExec, generator -> {
+			if (compact != null) {
+				compact.writeMessage(generator, msgId, ACTION_CANCEL, OpenFinPriority.CONTROL, g -> {
+					g.write(msgId);
 				});
+				return;
+			}
+			generator.writeStartObject()
+					.write(MESSAGE_ID, msgId)
+					.write(ACTION, ACTION_CANCEL)
+					.write(PRIORITY, OpenFinPriority.CONTROL.name().toLowerCase())
+					.write(PAYLOAD, msgId)
+					.writeEnd();
+		}, priority).exceptionally(e -> {
+			logger.debug("error sending cancel of message {}", msgId, e);
+			return null;
+		});
+	}
+
+	/**
+	 * Sends a message gateway.js does not respond to.
+	 */
+	private void sendNotification(String action, EnvelopeWriter.PayloadWriter payloadWriter) {
+		int msgId = this.messageId.getAndIncrement();
+		CompactProtocol compact = this.compactProtocol;
+		this.iab.send(this.gatewayIdentity, this.topicExec, generator -> {
+			if (compact != null) {
+				compact.writeMessage(generator, msgId, action, OpenFinPriority.CONTROL, payloadWriter);
+				return;
+			}
+			generator.writeStartObject()
+					.write(MESSAGE_ID, msgId)
+					.write(ACTION, action)
+					.write(PRIORITY, OpenFinPriority.CONTROL.name().toLowerCase())
+					.writeKey(PAYLOAD);
+			payloadWriter.write(generator);
+			generator.writeEnd();
+		}, OpenFinPriority.CONTROL).exceptionally(e -> {
+			logger.debug("error sending {}", action, e);
+			return null;
+		});
 	}
 
 	public CompletionStage<Void> ping() {
 		long value = System.currentTimeMillis();
-		return this.sendMessage(ACTION_PING, Json.createValue(value)).thenAccept(pongMsg -> {
+		return this.sendMessage(ACTION_PING, Json.createValue(value), OpenFinPriority.CONTROL).thenAccept(pongMsg -> {
 		});
 	}
 
@@ -245,47 +508,274 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 		return this.invoke(createProxyObject, null, method, args);
 	}
 
+	@Override
+	public CompletionStage<InvokeResult> invoke(OpenFinPriority priority, boolean createProxyObject, String method,
+			JsonValue... args) {
+		return this.invoke(priority, createProxyObject, null, method, args);
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, String method, JsonValue... args) {
+		return this.invoke(priority, timeout, createProxyObject, null, method, args);
+	}
+
+	@Override
+	public <T> CompletionStage<T> invoke(Class<T> resultType, String method, Object... args) {
+		OpenFinCodec<T> codec = OpenFinCodecs.get(resultType);
+		JsonValue[] jsonArgs = null;
+		if (args != null) {
+			jsonArgs = new JsonValue[args.length];
+			for (int i = 0; i < args.length; i++) {
+				// keep null so trailing nulls can still be stripped, written by the codec when sent.
+				jsonArgs[i] = CodecValue.of(args[i]);
+			}
+		}
+		return this.invoke(false, null, method, jsonArgs).thenApply(r -> {
+			return codec.decode(r.getResult());
+		});
+	}
+
 	CompletionStage<InvokeResult> invoke(ProxyObject proxyObject, String method, JsonValue... args) {
 		return this.invoke(false, proxyObject, method, args);
 	}
 
 	CompletionStage<InvokeResult> invoke(boolean createProxyObject, ProxyObject proxyObject, String method,
 			JsonValue... args) {
-		JsonObjectBuilder builder = Json.createObjectBuilder()
-				.add(PROXY_RESULT_OBJECT, createProxyObject)
-				.add(METHOD, method);
-		if (proxyObject != null) {
-			builder.add(PROXY_ID, proxyObject.getProxyId());
+		return this.invoke(OpenFinPriority.INTERACTIVE, createProxyObject, proxyObject, method, args);
+	}
+
+	CompletionStage<InvokeResult> invoke(OpenFinPriority priority, boolean createProxyObject, ProxyObject proxyObject,
+			String method, JsonValue... args) {
+		return this.invoke(priority, this.invokeTimeout, createProxyObject, proxyObject, method, args);
+	}
+
+	/**
+	 * The returned future can be cancelled, or times out after the timeout.
+	 * Either way the correlation entry is freed right away and gateway.js is
+	 * told to drop the result.
+	 */
+	CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout, boolean createProxyObject,
+			ProxyObject proxyObject, String method, JsonValue... args) {
+		return this.invoke(priority, timeout, createProxyObject, proxyObject, method, NO_HANDLE, args);
+	}
+
+	CompletionStage<InvokeResult> invoke(PreparedMethod prepared, OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, JsonValue... args) {
+		return this.invoke(priority, timeout, createProxyObject, prepared.getProxyObject(), prepared.getMethod(),
+				prepared.getHandle(), args);
+	}
+
+	/**
+	 * @param handle handle of the prepared method, NO_HANDLE to send the method name.
+	 */
+	private CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, ProxyObject proxyObject, String method, int handle, JsonValue... args) {
+		InvokeResultCache cache = this.invokeResultCache;
+		InvokeResultCache.Region region = cache == null || createProxyObject ? null : cache.getRegion(method);
+		if (region != null) {
+			String key = InvokeCoalescer.getKey(method, this.shardIndex,
+					proxyObject == null ? null : proxyObject.getProxyId(), args);
+			InvokeResult cached = region.get(key);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+			long generation = region.getGeneration();
+			return this.coalesceInvoke(priority, timeout, createProxyObject, proxyObject, method, handle, args)
+					.thenApply(r -> {
+						region.put(key, r, generation);
+						return r;
+					});
 		}
-		if (args != null) {
-			int lastNonNullIndex = -1;
-			for (int i = 0; i < args.length; i++) {
-				if (args[i] != null) {
-					lastNonNullIndex = i;
-				}
+		return this.coalesceInvoke(priority, timeout, createProxyObject, proxyObject, method, handle, args);
+	}
+
+	private CompletionStage<InvokeResult> coalesceInvoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, ProxyObject proxyObject, String method, int handle, JsonValue... args) {
+		InvokeCoalescer coalescer = this.invokeCoalescer;
+		if (coalescer != null && !createProxyObject && coalescer.isCoalesced(method)) {
+			String key = InvokeCoalescer.getKey(method, this.shardIndex,
+					proxyObject == null ? null : proxyObject.getProxyId(), args);
+			// the shared call gets the default deadline, the caller's own deadline applies to its copy only.
+			CompletableFuture<InvokeResult> result = coalescer.invoke(key, () -> {
+				return this.startInvoke(priority, this.invokeTimeout, false, proxyObject, method, handle, args);
+			}).copy();
+			if (timeout != null) {
+				result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
 			}
-			if (lastNonNullIndex >= 0) {
-				//anything beyond can be stripped.
-				JsonArrayBuilder argsBuilder = Json.createArrayBuilder();
-				for (int i = 0; i <= lastNonNullIndex; i++) {
-					if (args[i] == null) {
-						argsBuilder.addNull();
-					}
-					else {
-						argsBuilder.add(args[i]);
-					}
+			return result;
+		}
+		return this.startInvoke(priority, timeout, createProxyObject, proxyObject, method, handle, args);
+	}
+
+	private CompletableFuture<InvokeResult> startInvoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, ProxyObject proxyObject, String method, int handle, JsonValue... args) {
+		CompletableFuture<InvokeResult> result = new CompletableFuture<>();
+		if (timeout != null) {
+			result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		this.invokeCount.increment();
+		this.inFlightInvokes.incrementAndGet();
+		result.whenComplete((r, e) -> {
+			this.inFlightInvokes.decrementAndGet();
+		});
+		Supplier<CompletionStage<InvokeResult>> send = () -> {
+			if (result.isDone()) {
+				// cancelled or timed out while waiting for admission
+				return result;
+			}
+			this.sendInvoke(result, priority, createProxyObject, proxyObject, method, handle, args);
+			return result;
+		};
+		InvokeLimiter limiter = this.invokeLimiter;
+		// a queued invoke that times out or is cancelled leaves the queue without taking a permit
+		CompletionStage<InvokeResult> admitted = limiter == null ? send.get() : limiter.submit(priority, send, result);
+		admitted.whenComplete((v, e) -> {
+			if (e != null) {
+				// rejected by the limiter
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+
+	private void sendInvoke(CompletableFuture<InvokeResult> result, OpenFinPriority priority,
+			boolean createProxyObject, ProxyObject proxyObject, String method, int handle, JsonValue... args) {
+		DirectApiFastPath fastPath = this.directApiFastPath;
+		if (fastPath != null && handle == NO_HANDLE && !createProxyObject) {
+			DirectApiFastPath.Call call = fastPath.getCall(proxyObject, method, args);
+			if (call != null) {
+				this.sendDirect(fastPath, call, result, priority, proxyObject, method, args);
+				return;
+			}
+		}
+		this.sendGatewayInvoke(result, priority, createProxyObject, proxyObject, method, handle, args);
+	}
+
+	/**
+	 * Sends the invoke as API protocol action. A failed read is sent to
+	 * gateway.js, a failed state-changing call fails, it may have been applied.
+	 */
+	private void sendDirect(DirectApiFastPath fastPath, DirectApiFastPath.Call call,
+			CompletableFuture<InvokeResult> result, OpenFinPriority priority, ProxyObject proxyObject, String method,
+			JsonValue[] args) {
+		this.connection.sendMessage(call.action, call.payload, priority).whenComplete((ack, e) -> {
+			if (result.isDone()) {
+				// cancelled or timed out
+				return;
+			}
+			if (e == null && ack.getBoolean("success", false)) {
+				fastPath.directCompleted();
+				FastJsonValues.FastJsonObject invokeResult = new FastJsonValues.FastJsonObject(1);
+				JsonValue data = ack.get("data");
+				if (call.returnsValue && data != null) {
+					invokeResult.add(RESULT, data);
 				}
-				builder.add(ARGUMENTS, argsBuilder.build());
+				result.complete(new InvokeResult(proxyObject, method, invokeResult, this));
+			}
+			else if (call.isReadOnly()) {
+				logger.debug("{} failed, sending {} to gateway, ack: {}", call.action, method, ack, e);
+				fastPath.fellBack();
+				this.sendGatewayInvoke(result, priority, false, proxyObject, method, NO_HANDLE, args);
+			}
+			else if (e != null) {
+				result.completeExceptionally(e);
+			}
+			else {
+				result.completeExceptionally(
+						new RuntimeException("error " + call.action + ", reason: " + ack.getString("reason", null)));
+			}
+		});
+	}
+
+	private void sendGatewayInvoke(CompletableFuture<InvokeResult> result, OpenFinPriority priority,
+			boolean createProxyObject, ProxyObject proxyObject, String method, int handle, JsonValue... args) {
+		int msgId = this.messageId.getAndIncrement();
+		CompletableFuture<JsonObject> responseFuture = new CompletableFuture<>();
+		result.whenComplete((r, e) -> {
+			if (!responseFuture.isDone()) {
+				responseFuture.cancel(false);
+				this.sendCancel(msgId, priority);
+			}
+		});
+		CompactProtocol compact = this.compactProtocol;
+		this.sendMessage(msgId, ACTION_INVOKE, generator -> {
+			if (compact != null) {
+				CompactProtocol.writeInvokePayload(generator, createProxyObject, proxyObject, method, handle, args);
+			}
+			else {
+				writeInvokePayload(generator, createProxyObject, proxyObject, method, handle, args);
+			}
+		}, priority, responseFuture).thenApply(resultObj -> {
+			return new InvokeResult(proxyObject, method, resultObj, this);
+		}).whenComplete((r, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			}
+			else {
+				result.complete(r);
+			}
+		});
+	}
+
+	/**
+	 * Prepared methods are sent as handle only, the target object was bound to
+	 * it when it was prepared.
+	 */
+	static void writeInvokePayload(JsonGenerator generator, boolean createProxyObject, ProxyObject proxyObject,
+			String method, int handle, JsonValue[] args) {
+		generator.writeStartObject();
+		if (handle == NO_HANDLE) {
+			generator.write(PROXY_RESULT_OBJECT, createProxyObject)
+					.write(METHOD, method);
+			if (proxyObject != null) {
+				generator.write(PROXY_ID, proxyObject.getProxyId());
 			}
 		}
+		else {
+			generator.write(HANDLE, handle);
+			if (createProxyObject) {
+				generator.write(PROXY_RESULT_OBJECT, true);
+			}
+		}
+		EnvelopeWriter.writeArgs(generator, ARGUMENTS, args);
+		generator.writeEnd();
+	}
 
-		return this.sendMessage(ACTION_INVOKE, builder.build()).thenApply(resultObj -> {
-			return new InvokeResult(proxyObject, resultObj, this);
+	@Override
+	public CompletionStage<PreparedMethod> prepare(String method) {
+		return this.prepare(null, method);
+	}
+
+	/**
+	 * Resolves the method once in gateway.js, later invokes send the handle
+	 * instead of the method name.
+	 */
+	CompletionStage<PreparedMethod> prepare(ProxyObject proxyObject, String method) {
+		return this.sendMessage(ACTION_PREPARE, generator -> {
+			generator.writeStartObject()
+					.write(METHOD, method);
+			if (proxyObject != null) {
+				generator.write(PROXY_ID, proxyObject.getProxyId());
+			}
+			generator.writeEnd();
+		}).thenApply(resp -> {
+			return new PreparedMethod(this, proxyObject, method, resp.getInt(HANDLE));
 		});
 	}
 
+	CompletionStage<Void> releasePreparedMethod(PreparedMethod prepared) {
+		return this.sendMessage(ACTION_RELEASE, Json.createValue(prepared.getHandle()), OpenFinPriority.CONTROL)
+				.thenAccept(resp -> {
+				});
+	}
+
+	Duration getInvokeTimeout() {
+		return this.invokeTimeout;
+	}
+
 	CompletionStage<Void> deleteProxyObject(JsonValue proxyObjId) {
-		return this.sendMessage(ACTION_DELETE, proxyObjId).thenAccept(resp -> {
+		return this.sendMessage(ACTION_DELETE, proxyObjId, OpenFinPriority.CONTROL).thenAccept(resp -> {
 		});
 	}
 
@@ -363,37 +853,24 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 			}
 		};
 		return this.iab.subscribe(this.gatewayIdentity, iabTopic, iabListener).thenCompose(v -> {
-			JsonObjectBuilder builder = Json.createObjectBuilder()
-					.add(PROXY_RESULT_OBJECT, createProxyListener)
-					.add(IAB_TOPIC, iabTopic)
-					.add(METHOD, method)
-					.add(LINSTENER_ARG_INDEX, listenerArgIndex);
-			if (proxyObject != null) {
-				builder.add(PROXY_ID, proxyObject.getProxyId());
-			}
-			if (args != null) {
-				int lastNonNullIndex = -1;
-				for (int i = 0; i < args.length; i++) {
-					if (args[i] != null) {
-						lastNonNullIndex = i;
-					}
+			CompactProtocol compact = this.compactProtocol;
+			return this.sendMessage(ACTION_ADD_LISTENER, generator -> {
+				if (compact != null) {
+					CompactProtocol.writeAddListenerPayload(generator, iabTopic, method, listenerArgIndex,
+							createProxyListener, proxyObject, args);
+					return;
 				}
-				if (lastNonNullIndex >= 0) {
-					//anything beyond can be stripped.
-					JsonArrayBuilder argsBuilder = Json.createArrayBuilder();
-					for (int i = 0; i <= lastNonNullIndex; i++) {
-						if (args[i] == null) {
-							argsBuilder.addNull();
-						}
-						else {
-							argsBuilder.add(args[i]);
-						}
-					}
-					builder.add(ARGUMENTS, argsBuilder.build());
+				generator.writeStartObject()
+						.write(PROXY_RESULT_OBJECT, createProxyListener)
+						.write(IAB_TOPIC, iabTopic)
+						.write(METHOD, method)
+						.write(LINSTENER_ARG_INDEX, listenerArgIndex);
+				if (proxyObject != null) {
+					generator.write(PROXY_ID, proxyObject.getProxyId());
 				}
-			}
-
-			return this.sendMessage(ACTION_ADD_LISTENER, builder.build());
+				EnvelopeWriter.writeArgs(generator, ARGUMENTS, args);
+				generator.writeEnd();
+			});
 		}).thenApply(result -> {
 			if (result.containsKey(PROXY_ID)) {
 				ProxyListener proxyListener = new ProxyListener(result.get(PROXY_ID), proxyObject, iabTopic,
@@ -422,25 +899,349 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 					if (proxyObject != null) {
 						payloadBuilder.add(PROXY_ID, proxyObject.getProxyId());
 					}
-					return this.sendMessage(ACTION_REMOVE_LISTENER, payloadBuilder.build());
+					return this.sendMessage(ACTION_REMOVE_LISTENER, payloadBuilder.build(), OpenFinPriority.CONTROL);
 				}).thenCompose(r -> {
 					return proxyListener.dispose();
 				});
 	}
 
+	@Override
+	public CompletionStage<OpenFinPoller> addPoller(Duration interval, OpenFinPollerListener listener, String method,
+			JsonValue... args) {
+		return this.addPoller(null, interval, listener, method, args);
+	}
+
+	/**
+	 * Starts polling the method in gateway.js, the changes of the result are
+	 * pushed to the IAB topic of the poller.
+	 */
+	CompletionStage<OpenFinPoller> addPoller(ProxyObject proxyObject, Duration interval,
+			OpenFinPollerListener listener, String method, JsonValue... args) {
+		String iabTopic = this.topicListener + "-" + this.listenerId.getAndIncrement();
+		OpenFinPoller poller = new OpenFinPoller(this, iabTopic, listener);
+		return this.iab.subscribe(this.gatewayIdentity, iabTopic, poller.getIabListener()).thenCompose(v -> {
+			return this.sendMessage(ACTION_ADD_POLLER, generator -> {
+				generator.writeStartObject()
+						.write(IAB_TOPIC, iabTopic)
+						.write(METHOD, method)
+						.write(INTERVAL, interval.toMillis());
+				if (proxyObject != null) {
+					generator.write(PROXY_ID, proxyObject.getProxyId());
+				}
+				EnvelopeWriter.writeArgs(generator, ARGUMENTS, args);
+				generator.writeEnd();
+			});
+		}).thenApply(result -> {
+			poller.pollerId = result.get(POLLER_ID);
+			return poller;
+		});
+	}
+
+	@Override
+	public OpenFinResultStream invokeStream(String method, JsonValue... args) {
+		return this.invokeStream(null, OpenFinResultStream.DEFAULT_CHUNK_SIZE, method, args);
+	}
+
+	@Override
+	public OpenFinResultStream invokeStream(int chunkSize, String method, JsonValue... args) {
+		return this.invokeStream(null, chunkSize, method, args);
+	}
+
+	OpenFinResultStream invokeStream(ProxyObject proxyObject, int chunkSize, String method, JsonValue... args) {
+		String iabTopic = this.topicListener + "-" + this.listenerId.getAndIncrement();
+		return new OpenFinResultStream(this, iabTopic, proxyObject, chunkSize, method, args);
+	}
+
+	/**
+	 * Invokes the method of the stream, gateway.js holds the result until the
+	 * chunks are asked for.
+	 * @return the new CompletionStage with the stream id
+	 */
+	CompletionStage<JsonValue> startStream(OpenFinResultStream stream) {
+		return this.iab.subscribe(this.gatewayIdentity, stream.getIabTopic(), stream.getIabListener())
+				.thenCompose(v -> {
+					return this.sendInvokeStream(stream.getIabTopic(), stream.getProxyObject(), stream.getMethod(),
+							stream.getChunkSize(), false, stream.getArgs());
+				});
+	}
+
+	private CompletionStage<JsonValue> sendInvokeStream(String iabTopic, ProxyObject proxyObject, String method,
+			int chunkSize, boolean binary, JsonValue[] args) {
+		return this.sendMessage(ACTION_INVOKE_STREAM, generator -> {
+			generator.writeStartObject()
+					.write(IAB_TOPIC, iabTopic)
+					.write(METHOD, method)
+					.write(OpenFinResultStream.CHUNK_SIZE, chunkSize);
+			if (binary) {
+				generator.write(BinaryTransfer.BINARY, true);
+			}
+			if (proxyObject != null) {
+				generator.write(PROXY_ID, proxyObject.getProxyId());
+			}
+			EnvelopeWriter.writeArgs(generator, ARGUMENTS, args);
+			generator.writeEnd();
+		}).thenApply(result -> {
+			return result.get(OpenFinResultStream.STREAM_ID);
+		});
+	}
+
+	void sendStreamCredit(JsonValue streamId, long credit) {
+		this.sendNotification(ACTION_STREAM_CREDIT, generator -> {
+			generator.writeStartObject()
+					.write(OpenFinResultStream.STREAM_ID, streamId)
+					.write(OpenFinResultStream.CREDIT, credit)
+					.writeEnd();
+		});
+	}
+
+	/**
+	 * Has gateway.js drop the rest of the result.
+	 */
+	private void cancelStream(JsonValue streamId) {
+		this.sendNotification(ACTION_STREAM_CANCEL, generator -> {
+			generator.write(streamId);
+		});
+	}
+
+	/**
+	 * Stops listening to the chunks of the stream.
+	 * @param cancel true to have gateway.js drop the rest of the result.
+	 */
+	void closeStream(OpenFinResultStream stream, boolean cancel) {
+		if (cancel) {
+			this.cancelStream(stream.getStreamId());
+		}
+		this.iab.unsubscribe(this.gatewayIdentity, stream.getIabTopic(), stream.getIabListener()).exceptionally(e -> {
+			logger.debug("error unsubscribing result stream topic {}", stream.getIabTopic(), e);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletionStage<BinaryResult> invokeBinary(String method, JsonValue... args) {
+		return this.invokeBinary(null, method, args);
+	}
+
+	/**
+	 * Invokes the method returning binary data, a base64 string or data URL,
+	 * ArrayBuffer or typed array. gateway.js sends it as base64 chunks that are
+	 * decoded from the incoming frames into a pooled direct buffer.
+	 */
+	CompletionStage<BinaryResult> invokeBinary(ProxyObject proxyObject, String method, JsonValue... args) {
+		String iabTopic = this.topicListener + "-" + this.listenerId.getAndIncrement();
+		DirectBufferPool pool = this.iab.getBufferPool();
+		BinaryTransfer transfer = new BinaryTransfer(pool);
+		CompletableFuture<JsonValue> streamIdFuture = new CompletableFuture<>();
+		CompletableFuture<BinaryResult> result = new CompletableFuture<>();
+		if (this.invokeTimeout != null) {
+			result.orTimeout(this.invokeTimeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		int halfWindow = OpenFinResultStream.MAX_WINDOW / 2;
+		OpenFinIabRawMessageListener listener = (uuid, name, topic, message) -> {
+			synchronized (transfer) {
+				if (result.isDone()) {
+					return;
+				}
+				try {
+					long previous = transfer.getSequence();
+					if (transfer.onMessage(message)) {
+						result.complete(new BinaryResult(transfer.finish(), pool));
+					}
+					else {
+						// a late chunk can complete several at once
+						long credit = (transfer.getSequence() / halfWindow - previous / halfWindow) * halfWindow;
+						if (credit > 0) {
+							this.sendStreamCredit(streamIdFuture.getNow(null), credit);
+						}
+					}
+				}
+				catch (RuntimeException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		};
+		result.whenComplete((r, e) -> {
+			if (e != null) {
+				synchronized (transfer) {
+					transfer.release();
+				}
+				JsonValue streamId = streamIdFuture.getNow(null);
+				if (streamId != null) {
+					this.cancelStream(streamId);
+				}
+			}
+			this.iab.unsubscribeRaw(this.gatewayIdentity, iabTopic, listener);
+		});
+		// chunks of 64K chars, a multiple of 4 so each decodes on its own.
+		int chunkSize = BinaryTransfer.CHUNK_BYTES / 3 * 4;
+		this.iab.subscribeRaw(this.gatewayIdentity, iabTopic, listener).thenCompose(v -> {
+			return this.sendInvokeStream(iabTopic, proxyObject, method, chunkSize, true, args);
+		}).whenComplete((streamId, e) -> {
+			if (e != null) {
+				result.completeExceptionally(e);
+			}
+			else {
+				streamIdFuture.complete(streamId);
+				this.sendStreamCredit(streamId, OpenFinResultStream.MAX_WINDOW);
+			}
+		});
+		return result;
+	}
+
+	CompletionStage<Void> resyncPoller(OpenFinPoller poller) {
+		return this.sendMessage(ACTION_RESYNC_POLLER, poller.getPollerId(), OpenFinPriority.CONTROL)
+				.thenAccept(resp -> {
+				});
+	}
+
+	CompletionStage<Void> removePoller(OpenFinPoller poller) {
+		return this.sendMessage(ACTION_REMOVE_POLLER, poller.getPollerId(), OpenFinPriority.CONTROL)
+				.thenCompose(resp -> {
+					return this.iab.unsubscribe(this.gatewayIdentity, poller.getIabTopic(), poller.getIabListener());
+				});
+	}
+
+	@Override
+	public CompletionStage<Void> registerProcedure(String name, String body, String... parameterNames) {
+		checkProcedureName(name);
+		return this.sendMessage(ACTION_REGISTER_PROCEDURE, generator -> {
+			writeRegisterProcedurePayload(generator, name, body, parameterNames);
+		}).thenAccept(resp -> {
+		});
+	}
+
+	static void writeRegisterProcedurePayload(JsonGenerator generator, String name, String body,
+			String... parameterNames) {
+		generator.writeStartObject()
+				.write(NAME, name)
+				.write(BODY, body)
+				.writeStartArray(PARAMETERS);
+		for (String p : parameterNames) {
+			generator.write(p);
+		}
+		generator.writeEnd().writeEnd();
+	}
+
+	/**
+	 * Procedures are properties of an object in gateway.js, so the name must be
+	 * a JavaScript identifier.
+	 */
+	static void checkProcedureName(String name) {
+		if (name == null || !PROCEDURE_NAME.matcher(name).matches()) {
+			throw new IllegalArgumentException("invalid procedure name: " + name);
+		}
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> callProcedure(String name, JsonValue... args) {
+		checkProcedureName(name);
+		return this.invoke(PROCEDURE_PREFIX + name, args);
+	}
+
+	@Override
+	public CompletionStage<List<String>> listProcedures() {
+		return this.sendMessage(ACTION_LIST_PROCEDURES, JsonValue.EMPTY_JSON_OBJECT).thenApply(resp -> {
+			List<String> names = new ArrayList<>();
+			JsonArray nameArray = resp.getJsonArray(NAMES);
+			for (int i = 0; i < nameArray.size(); i++) {
+				names.add(nameArray.getString(i));
+			}
+			return names;
+		});
+	}
+
+	@Override
+	public CompletionStage<Void> removeProcedure(String name) {
+		checkProcedureName(name);
+		return this.sendMessage(ACTION_REMOVE_PROCEDURE, Json.createValue(name)).thenAccept(resp -> {
+		});
+	}
+
 	@Override
 	public CompletionStage<OpenFinGateway> close() {
-		return this.sendMessage(ACTION_QUIT, JsonValue.EMPTY_JSON_OBJECT).thenApply(o -> {
+		return this.quit().thenApply(o -> {
 			this.connection.disconnect();
 			return this;
 		});
 	}
 
+	/**
+	 * Closes the gateway application only, the connection is kept.
+	 */
+	CompletionStage<JsonObject> quit() {
+		return this.sendMessage(ACTION_QUIT, JsonValue.EMPTY_JSON_OBJECT, OpenFinPriority.CONTROL);
+	}
+
+	/**
+	 * @return invokes sent or waiting in the invoke queue, not completed yet.
+	 */
+	public int getInFlightInvokes() {
+		return this.inFlightInvokes.get();
+	}
+
+	/**
+	 * @return messages sent to gateway.js waiting for their response.
+	 */
+	int getPendingResponseCount() {
+		return this.execCorrelationMap.size();
+	}
+
+	/**
+	 * @return invokes started by this gateway, cache hits and coalesced invokes are not counted.
+	 */
+	public long getInvokeCount() {
+		return this.invokeCount.sum();
+	}
+
 	@Override
 	public OpenFinInterApplicationBus getOpenFinInterApplicationBus() {
 		return this.iab;
 	}
 
+	@Override
+	public InvokeLimiter getInvokeLimiter() {
+		return this.invokeLimiter;
+	}
+
+	@Override
+	public InvokeCoalescer getInvokeCoalescer() {
+		return this.invokeCoalescer;
+	}
+
+	@Override
+	public InvokeResultCache getInvokeResultCache() {
+		return this.invokeResultCache;
+	}
+
+	@Override
+	public DirectApiFastPath getDirectApiFastPath() {
+		return this.directApiFastPath;
+	}
+
+	ScheduledExecutorService getScheduler() {
+		return this.connection.getScheduler();
+	}
+
+	/**
+	 * Listens to the System events that invalidate cached invoke results.
+	 */
+	private CompletionStage<Void> addCacheInvalidationListeners() {
+		InvokeResultCache cache = this.invokeResultCache;
+		CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+		if (cache != null && this.shardIndex == 0) {
+			// the cache is shared by all shards, listened by the first one.
+			for (String event : cache.getInvalidatingEvents()) {
+				future = future.thenCompose(v -> {
+					return this.addListener("fin.System.addListener", event, e -> {
+						cache.invalidate(event);
+						return null;
+					});
+				});
+			}
+		}
+		return future;
+	}
+
 	public CompletionStage<ProxyListener> addEventHandler(Consumer<? extends JsonValue> action) {
 		return null;
 	}
@@ -454,6 +1255,12 @@ public class OpenFinGatewayImpl implements OpenFinGateway {
 			}
 		};
 		appGateway.gatewayScriptUrl = this.gatewayScriptUrl;
+		appGateway.retainProxyResultJson = this.retainProxyResultJson;
+		appGateway.invokeLimiter = this.invokeLimiter == null ? null : this.invokeLimiter.copy();
+		appGateway.invokeTimeout = this.invokeTimeout;
+		appGateway.invokeCoalescer = this.invokeCoalescer == null ? null : this.invokeCoalescer.copy();
+		appGateway.invokeResultCache = this.invokeResultCache == null ? null : this.invokeResultCache.copy();
+		appGateway.directApiFastPath = this.directApiFastPath == null ? null : this.directApiFastPath.copy();
 		return appGateway.init();
 	}
 }
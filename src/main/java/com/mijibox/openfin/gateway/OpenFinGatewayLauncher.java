@@ -1,6 +1,7 @@
 package com.mijibox.openfin.gateway;
 
 import java.net.URL;
+import java.time.Duration;
 import java.util.concurrent.CompletionStage;
 
 import javax.json.JsonObject;
@@ -23,6 +24,84 @@ public interface OpenFinGatewayLauncher {
 	OpenFinGatewayLauncher injectGatewayScript(boolean injectGatewayScript);
 
 	OpenFinGatewayLauncher gatewayListener(OpenFinGatewayListener listener);
+
+	/**
+	 * Whether ProxyObjects keep the invoke result that created them, available from ProxyObject.getResultJson(). Default is true.
+	 * With the direct API fast path enabled, window and application ProxyObjects still keep the identity of their result.
+	 * @param retainProxyResultJson false to not keep the result in ProxyObjects.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher retainProxyResultJson(boolean retainProxyResultJson);
+
+	/**
+	 * Limits the number of outstanding invokes, further invokes wait in the invoke queue. Default is 0, no limit.
+	 * @param maxInFlightInvokes maximum outstanding invokes, 0 for no limit.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher maxInFlightInvokes(int maxInFlightInvokes);
+
+	/**
+	 * Limits the rate of invokes with a token bucket, further invokes wait in the invoke queue. Default is no limit.
+	 * @param invokesPerSecond sustained rate, 0 for no limit.
+	 * @param burst invokes allowed back to back after being idle.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher invokeRateLimit(double invokesPerSecond, int burst);
+
+	/**
+	 * Sets up the queue of invokes waiting for the in-flight or rate limit. Default is unbounded FIFO.
+	 * @param maxQueuedInvokes invokes beyond this are rejected with RejectedExecutionException.
+	 * @param queueOrder order of serving the waiting invokes.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher invokeQueue(int maxQueuedInvokes, InvokeLimiter.QueueOrder queueOrder);
+
+	/**
+	 * Default deadline of invokes that don't specify one. Default is null, no deadline.
+	 * @param invokeTimeout the deadline, null for no deadline.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher invokeTimeout(Duration invokeTimeout);
+
+	/**
+	 * Enables single-flight of invokes of read-only methods: concurrent invokes of the same method on the same
+	 * proxy object with the same arguments share one call to the gateway and one InvokeResult. Invokes creating
+	 * proxy objects are never coalesced.
+	 * @param methodPatterns method names, <code>*</code> matches any characters, e.g. <code>fin.System.get*</code>.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher singleFlight(String... methodPatterns);
+
+	/**
+	 * Sends common window, application and System invokes as OpenFin API protocol actions directly, skipping the
+	 * round trip through gateway.js. Window and application invokes are routed when the proxy object result JSON
+	 * has the identity. Failed reads are retried through gateway.js, failed state-changing calls fail with the reason.
+	 * @param enabled true to enable
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher directApiFastPath(boolean enabled);
+
+	/**
+	 * Caches the results of invokes of idempotent methods, can be called multiple times for different methods.
+	 * Invokes creating proxy objects are never cached.
+	 * @param methodPattern method names, <code>*</code> matches any characters, e.g. <code>fin.System.getMonitorInfo</code>.
+	 * @param ttl how long a result is kept.
+	 * @param maxEntries results of this pattern beyond this are evicted in LRU order.
+	 * @param invalidatingEvents fin.System events that invalidate all the results of this pattern, e.g. <code>monitor-info-changed</code>.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher cacheInvokeResults(String methodPattern, Duration ttl, int maxEntries,
+			String... invalidatingEvents);
+
+	/**
+	 * Starts multiple gateway applications, each runs gateway.js in its own renderer so a slow invoke only
+	 * stalls the invokes routed to the same shard. Invokes on proxy objects always go to the shard holding the
+	 * proxy object. The gateway opened is a {@link ShardedOpenFinGateway}. Default is 1, no sharding.
+	 * @param shards number of gateway applications.
+	 * @param routing how the invokes not on proxy objects are distributed.
+	 * @return this launcher
+	 */
+	OpenFinGatewayLauncher gatewayShards(int shards, ShardedOpenFinGateway.Routing routing);
 	
 	CompletionStage<OpenFinGateway> open();
 
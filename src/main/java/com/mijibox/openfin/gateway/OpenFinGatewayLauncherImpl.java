@@ -1,8 +1,12 @@
 package com.mijibox.openfin.gateway;
 
 import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
 
 import javax.json.JsonObject;
 
@@ -15,9 +19,27 @@ public class OpenFinGatewayLauncherImpl implements OpenFinGatewayLauncher {
 	private JsonObject starupApp;
 	private URL configUrl;
 	private OpenFinGatewayListener gatewayListener;
+	private boolean retainProxyResultJson;
+	private int maxInFlightInvokes;
+	private double invokesPerSecond;
+	private int invokeBurst;
+	private int maxQueuedInvokes;
+	private InvokeLimiter.QueueOrder invokeQueueOrder;
+	private Duration invokeTimeout;
+	private String[] singleFlightMethods;
+	private List<InvokeResultCache.Rule> cacheRules;
+	private boolean directApiFastPath;
+	private int gatewayShards;
+	private ShardedOpenFinGateway.Routing shardRouting;
 	
 	OpenFinGatewayLauncherImpl() {
 		this.injectGatewayScript = true;
+		this.retainProxyResultJson = true;
+		this.maxQueuedInvokes = Integer.MAX_VALUE;
+		this.invokeQueueOrder = InvokeLimiter.QueueOrder.FIFO;
+		this.cacheRules = new ArrayList<>();
+		this.gatewayShards = 1;
+		this.shardRouting = ShardedOpenFinGateway.Routing.ROUND_ROBIN;
 	}
 
 	@Override
@@ -38,6 +60,67 @@ public class OpenFinGatewayLauncherImpl implements OpenFinGatewayLauncher {
 		return this;
 	}
 
+	@Override
+	public OpenFinGatewayLauncher retainProxyResultJson(boolean retainProxyResultJson) {
+		this.retainProxyResultJson = retainProxyResultJson;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher maxInFlightInvokes(int maxInFlightInvokes) {
+		this.maxInFlightInvokes = maxInFlightInvokes;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher invokeRateLimit(double invokesPerSecond, int burst) {
+		this.invokesPerSecond = invokesPerSecond;
+		this.invokeBurst = burst;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher invokeQueue(int maxQueuedInvokes, InvokeLimiter.QueueOrder queueOrder) {
+		this.maxQueuedInvokes = maxQueuedInvokes;
+		this.invokeQueueOrder = queueOrder;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher invokeTimeout(Duration invokeTimeout) {
+		this.invokeTimeout = invokeTimeout;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher singleFlight(String... methodPatterns) {
+		this.singleFlightMethods = methodPatterns;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher directApiFastPath(boolean enabled) {
+		this.directApiFastPath = enabled;
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher cacheInvokeResults(String methodPattern, Duration ttl, int maxEntries,
+			String... invalidatingEvents) {
+		this.cacheRules.add(new InvokeResultCache.Rule(methodPattern, ttl, maxEntries, invalidatingEvents));
+		return this;
+	}
+
+	@Override
+	public OpenFinGatewayLauncher gatewayShards(int shards, ShardedOpenFinGateway.Routing routing) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("invalid number of gateway shards: " + shards);
+		}
+		this.gatewayShards = shards;
+		this.shardRouting = routing;
+		return this;
+	}
+
 	@Override
 	public CompletionStage<OpenFinGateway> open() {
 		return this.openGateway();
@@ -63,6 +146,57 @@ public class OpenFinGatewayLauncherImpl implements OpenFinGatewayLauncher {
 		return this.starupApp;
 	}
 	
+	boolean isRetainProxyResultJson() {
+		return this.retainProxyResultJson;
+	}
+
+	/**
+	 * @return the configured limiter, or null if invokes are not limited.
+	 */
+	InvokeLimiter createInvokeLimiter(ScheduledExecutorService scheduler) {
+		if (this.maxInFlightInvokes > 0 || this.invokesPerSecond > 0) {
+			return new InvokeLimiter(this.maxInFlightInvokes, this.invokesPerSecond, this.invokeBurst,
+					this.maxQueuedInvokes, this.invokeQueueOrder, scheduler);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the configured coalescer, or null if single-flight is not enabled.
+	 */
+	InvokeCoalescer createInvokeCoalescer() {
+		if (this.singleFlightMethods != null && this.singleFlightMethods.length > 0) {
+			return new InvokeCoalescer(this.singleFlightMethods);
+		}
+		return null;
+	}
+
+	DirectApiFastPath createDirectApiFastPath() {
+		return this.directApiFastPath ? new DirectApiFastPath() : null;
+	}
+
+	/**
+	 * @return the configured cache, or null if no results are cached.
+	 */
+	InvokeResultCache createInvokeResultCache() {
+		if (this.cacheRules.size() > 0) {
+			return new InvokeResultCache(new ArrayList<>(this.cacheRules));
+		}
+		return null;
+	}
+
+	int getGatewayShards() {
+		return this.gatewayShards;
+	}
+
+	ShardedOpenFinGateway.Routing getShardRouting() {
+		return this.shardRouting;
+	}
+
+	Duration getInvokeTimeout() {
+		return this.invokeTimeout;
+	}
+
 	URL getConfigUrl() {
 		return this.configUrl;
 	}
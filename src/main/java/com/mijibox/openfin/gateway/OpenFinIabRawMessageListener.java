@@ -0,0 +1,33 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+/**
+ * Receives IAB messages without decoding, the message is the JSON text slice
+ * of the incoming websocket frame.
+ */
+@FunctionalInterface
+public interface OpenFinIabRawMessageListener {
+	/**
+	 * @param sourceUuid uuid of the sender
+	 * @param sourceName name of the sender
+	 * @param topic The topic on which the message is sent
+	 * @param message JSON text of the message, only valid during the call.
+	 */
+	public void onMessage(String sourceUuid, String sourceName, String topic, CharSequence message);
+}
@@ -17,10 +17,24 @@ limitations under the License.
 
 package com.mijibox.openfin.gateway;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import javax.json.Json;
 import javax.json.JsonObject;
@@ -37,12 +51,70 @@ import org.slf4j.LoggerFactory;
 public class OpenFinInterApplicationBus {
 	private final static Logger logger = LoggerFactory.getLogger(OpenFinInterApplicationBus.class);
 
+	// request/reply envelope property names
+	final static String REQUEST_ID = "iabRequestId";
+	final static String REPLY_TOPIC = "iabReplyTopic";
+	final static String REQUEST_MESSAGE = "message";
+	final static String REPLY_RESULT = "result";
+	final static String REPLY_ERROR = "error";
+
+	/**
+	 * A listener on a source and topic, used for bulk subscribe and unsubscribe.
+	 */
+	public static class Subscription {
+		private final JsonObject source;
+		private final String topic;
+		private final OpenFinIabMessageListener listener;
+
+		public Subscription(JsonObject source, String topic, OpenFinIabMessageListener listener) {
+			this.source = source;
+			this.topic = topic;
+			this.listener = listener;
+		}
+
+		public JsonObject getSource() {
+			return this.source;
+		}
+
+		public String getTopic() {
+			return this.topic;
+		}
+
+		public OpenFinIabMessageListener getListener() {
+			return this.listener;
+		}
+	}
+
 	private OpenFinConnection connection;
-	private ConcurrentHashMap<String, CopyOnWriteArrayList<OpenFinIabMessageListener>> listenerMap;
+	private ConcurrentHashMap<String, IabSubscription> subscriptionMap;
+	private volatile IabMessageBatcher batcher;
+	private volatile long unsubscribeGracePeriodNanos;
+	private volatile int maxInFlightSubscriptions;
+	private volatile boolean localDelivery;
+	private JsonObject localIdentity;
+	private ConcurrentHashMap<String, AtomicInteger> expectedEchoes;
+	private volatile IabLastValueCache lastValueCache;
+	private String replyTopic;
+	private AtomicInteger requestId;
+	private ConcurrentHashMap<Integer, CompletableFuture<JsonValue>> pendingRequests;
+	private CompletableFuture<Void> replySubscription;
+	private AtomicInteger rawListenerCount;
+	private DirectBufferPool bufferPool;
+	private AtomicInteger binaryId;
 
 	OpenFinInterApplicationBus(OpenFinConnection connection) {
 		this.connection = connection;
-		this.listenerMap = new ConcurrentHashMap<>();
+		this.subscriptionMap = new ConcurrentHashMap<>();
+		this.maxInFlightSubscriptions = 32;
+		this.localIdentity = Json.createObjectBuilder().add("uuid", connection.getUuid())
+				.add("name", connection.getUuid()).build();
+		this.expectedEchoes = new ConcurrentHashMap<>();
+		this.replyTopic = connection.getUuid() + "-reply";
+		this.requestId = new AtomicInteger(0);
+		this.pendingRequests = new ConcurrentHashMap<>();
+		this.rawListenerCount = new AtomicInteger(0);
+		this.bufferPool = new DirectBufferPool();
+		this.binaryId = new AtomicInteger(0);
 	}
 
 	/**
@@ -52,15 +124,184 @@ public class OpenFinInterApplicationBus {
 	 * @return the new CompletionStage
 	 */
 	public CompletionStage<Void> publish(String topic, JsonObject message) {
-		JsonObject payload = Json.createObjectBuilder().add("topic", topic)
-				.add("message", message).build();
-		return this.connection.sendMessage("publish-message", payload).thenAcceptAsync(ack -> {
+		return this.publish(topic, message, OpenFinPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Publishes a message in the lane of the priority, control messages are not batched.
+	 * @param topic The topic on which the message is sent
+	 * @param message The message to be published. 
+	 * @param priority priority of the message
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> publish(String topic, JsonObject message, OpenFinPriority priority) {
+		String echoKey = this.localDelivery ? this.deliverLocally(topic, message) : null;
+		IabMessageBatcher batcher = this.batcher;
+		CompletionStage<Void> result;
+		if (batcher != null && priority != OpenFinPriority.CONTROL) {
+			result = batcher.enqueue(null, topic, message, priority);
+		}
+		else {
+			result = this.publishMessage(topic, message, priority);
+		}
+		if (echoKey != null) {
+			result = result.whenComplete((v, e) -> {
+				if (e != null) {
+					// not published, nothing will come back
+					this.removeExpectedEcho(echoKey);
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Publishes a Java object, written by its {@link OpenFinCodec} straight into
+	 * the outgoing message, to all applications subscribed to the topic.
+	 * @param <T> type of the message
+	 * @param topic The topic on which the message is sent
+	 * @param message The message to be published, must be encoded as JSON object
+	 * @param type class of the message
+	 * @return the new CompletionStage
+	 */
+	public <T> CompletionStage<Void> publish(String topic, T message, Class<T> type) {
+		OpenFinCodec<T> codec = OpenFinCodecs.get(type);
+		if (this.localDelivery || this.batcher != null) {
+			// local listeners and the batcher need the JsonObject
+			return this.publish(topic, (JsonObject) codec.encode(message));
+		}
+		return this.publishMessage(topic, generator -> {
+			codec.write(message, generator);
+		}, OpenFinPriority.INTERACTIVE);
+	}
+
+	private CompletionStage<Void> publishMessage(String topic, JsonValue message, OpenFinPriority priority) {
+		return this.publishMessage(topic, generator -> {
+			generator.write(message);
+		}, priority);
+	}
+
+	private CompletionStage<Void> publishMessage(String topic, EnvelopeWriter.PayloadWriter messageWriter,
+			OpenFinPriority priority) {
+		return this.connection.sendMessage("publish-message", generator -> {
+			generator.writeStartObject()
+					.write("topic", topic)
+					.writeKey("message");
+			messageWriter.write(generator);
+			generator.writeEnd();
+		}, priority).thenAcceptAsync(ack -> {
 			if (!ack.getBoolean("success", false)) {
 				throw new RuntimeException("error publish, reason: " + ack.getString("reason"));
 			}
 		});
 	}
 
+	/**
+	 * When enabled, messages published by this connection are dispatched to the
+	 * listeners of this OpenFinInterApplicationBus immediately on the calling
+	 * thread, with this connection's identity as the source, while still being
+	 * forwarded to OpenFin Runtime for other applications. The copy echoed back
+	 * by the runtime is dropped.
+	 * @param localDelivery true to enable local delivery
+	 */
+	public void setLocalDelivery(boolean localDelivery) {
+		this.localDelivery = localDelivery;
+	}
+
+	public boolean isLocalDelivery() {
+		return this.localDelivery;
+	}
+
+	/**
+	 * @return key of the expected echo, null if the runtime won't send it back.
+	 */
+	private String deliverLocally(String topic, JsonValue message) {
+		String uuid = this.localIdentity.getString("uuid");
+		String name = this.localIdentity.getString("name");
+		String echoKey = null;
+		if (this.isSubscribedInRuntime(this.getSubscriptionKey(uuid, name, topic))
+				|| this.isSubscribedInRuntime(this.getSubscriptionKey(uuid, "*", topic))
+				|| this.isSubscribedInRuntime(this.getSubscriptionKey("*", "*", topic))) {
+			// runtime will send it back to us
+			echoKey = this.getSubscriptionKey(uuid, name, topic);
+			this.expectedEchoes.computeIfAbsent(echoKey, k -> new AtomicInteger()).incrementAndGet();
+		}
+		this.dispatchMessage(uuid, name, topic, this.localIdentity, message);
+		return echoKey;
+	}
+
+	private boolean isSubscribedInRuntime(String key) {
+		IabSubscription subscription = this.subscriptionMap.get(key);
+		if (subscription != null) {
+			synchronized (subscription) {
+				CompletableFuture<Void> subscribeFuture = subscription.subscribeFuture;
+				return subscribeFuture != null && subscribeFuture.isDone()
+						&& !subscribeFuture.isCompletedExceptionally();
+			}
+		}
+		return false;
+	}
+
+	private boolean isEcho(String sourceUuid, String sourceWindowName, String topic) {
+		if (!this.expectedEchoes.isEmpty() && this.localIdentity.getString("uuid").equals(sourceUuid)
+				&& this.localIdentity.getString("name").equals(sourceWindowName)) {
+			return this.removeExpectedEcho(this.getSubscriptionKey(sourceUuid, sourceWindowName, topic));
+		}
+		return false;
+	}
+
+	private boolean removeExpectedEcho(String echoKey) {
+		AtomicInteger echoes = this.expectedEchoes.get(echoKey);
+		if (echoes != null) {
+			int cnt = echoes.getAndUpdate(c -> c > 0 ? c - 1 : 0);
+			if (cnt == 1) {
+				this.expectedEchoes.remove(echoKey, echoes);
+			}
+			return cnt > 0;
+		}
+		return false;
+	}
+
+	/**
+	 * Enables the last-value cache. The most recent message received for each
+	 * (source, topic) is kept, up to maxEntries with least recently used ones
+	 * evicted first. A listener added by subscribe() immediately receives the
+	 * cached messages that match it, request, reply, raw and binary listeners
+	 * don't. getLast() reads are served from the cache.
+	 * @param maxEntries maximum number of (source, topic) entries
+	 */
+	public void enableLastValueCache(int maxEntries) {
+		this.lastValueCache = new IabLastValueCache(maxEntries);
+	}
+
+	public void disableLastValueCache() {
+		this.lastValueCache = null;
+	}
+
+	/**
+	 * Gets the most recent message received on the topic from any source, without any call to OpenFin Runtime.
+	 * @param topic The topic on which the message is sent
+	 * @return the most recent message or null if it is not in the last-value cache.
+	 */
+	public JsonValue getLast(String topic) {
+		IabLastValueCache cache = this.lastValueCache;
+		IabLastValueCache.Entry entry = cache == null ? null : cache.getLast(topic);
+		return entry == null ? null : entry.message;
+	}
+
+	/**
+	 * Gets the most recent message received on the topic from the source, without any call to OpenFin Runtime.
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @return the most recent message or null if it is not in the last-value cache.
+	 */
+	public JsonValue getLast(JsonObject source, String topic) {
+		IabLastValueCache cache = this.lastValueCache;
+		IabLastValueCache.Entry entry = cache == null ? null
+				: cache.getLast(source.getString("uuid"), source.getString("name"), topic);
+		return entry == null ? null : entry.message;
+	}
+
 	/**
 	 * Sends a message to a specific application on a specific topic.
 	 * @param destionation The identity of the application to which the message is sent
@@ -69,94 +310,863 @@ public class OpenFinInterApplicationBus {
 	 * @return the new CompletionStage
 	 */
 	public CompletionStage<Void> send(JsonObject destionation, String topic, JsonValue message) {
-		JsonObject payload = Json.createObjectBuilder()
-				.add("destinationUuid", destionation.getString("uuid"))
-				.add("destinationWindowName", destionation.getString("name"))
-				.add("topic", topic)
-				.add("message", message).build();
-		return this.connection.sendMessage("send-message", payload).thenAcceptAsync(ack -> {
+		return this.send(destionation, topic, message, OpenFinPriority.INTERACTIVE);
+	}
+
+	/**
+	 * Sends a message in the lane of the priority, control messages are not batched.
+	 * @param destionation The identity of the application to which the message is sent
+	 * @param topic The topic on which the message is sent
+	 * @param message The message to be sent. 
+	 * @param priority priority of the message
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> send(JsonObject destionation, String topic, JsonValue message,
+			OpenFinPriority priority) {
+		IabMessageBatcher batcher = this.batcher;
+		if (batcher != null && priority != OpenFinPriority.CONTROL) {
+			return batcher.enqueue(destionation, topic, message, priority);
+		}
+		return this.sendMessage(destionation, topic, message, priority);
+	}
+
+	/**
+	 * Sends a Java object, written by its {@link OpenFinCodec} straight into the
+	 * outgoing message, to a specific application on a specific topic.
+	 * @param <T> type of the message
+	 * @param destination The identity of the application to which the message is sent
+	 * @param topic The topic on which the message is sent
+	 * @param message The message to be sent
+	 * @param type class of the message
+	 * @return the new CompletionStage
+	 */
+	public <T> CompletionStage<Void> send(JsonObject destination, String topic, T message, Class<T> type) {
+		OpenFinCodec<T> codec = OpenFinCodecs.get(type);
+		return this.send(destination, topic, generator -> {
+			codec.write(message, generator);
+		}, OpenFinPriority.INTERACTIVE);
+	}
+
+	private CompletionStage<Void> sendMessage(JsonObject destionation, String topic, JsonValue message,
+			OpenFinPriority priority) {
+		return this.sendMessage(destionation, topic, generator -> {
+			generator.write(message);
+		}, priority);
+	}
+
+	/**
+	 * Sends the message streamed by the message writer, it ends up in the
+	 * outgoing websocket message without any intermediate JsonObject unless
+	 * batching is enabled.
+	 */
+	CompletionStage<Void> send(JsonObject destination, String topic, EnvelopeWriter.PayloadWriter messageWriter,
+			OpenFinPriority priority) {
+		IabMessageBatcher batcher = this.batcher;
+		if (batcher != null && priority != OpenFinPriority.CONTROL) {
+			return batcher.enqueue(destination, topic, EnvelopeWriter.toJsonValue(messageWriter), priority);
+		}
+		return this.sendMessage(destination, topic, messageWriter, priority);
+	}
+
+	private CompletionStage<Void> sendMessage(JsonObject destionation, String topic,
+			EnvelopeWriter.PayloadWriter messageWriter, OpenFinPriority priority) {
+		String destinationUuid = destionation.getString("uuid");
+		String destinationName = destionation.getString("name");
+		return this.connection.sendMessage("send-message", generator -> {
+			generator.writeStartObject()
+					.write("destinationUuid", destinationUuid)
+					.write("destinationWindowName", destinationName)
+					.write("topic", topic)
+					.writeKey("message");
+			messageWriter.write(generator);
+			generator.writeEnd();
+		}, priority).thenAcceptAsync(ack -> {
 			if (!ack.getBoolean("success", false)) {
 				throw new RuntimeException("error send, reason: " + ack.getString("reason"));
 			}
 		});
 	}
 
+	/**
+	 * Sends the bytes between position and limit of the buffer as base64 chunks
+	 * in the bulk lane, a chunk is sent after the previous one is acknowledged
+	 * so only one chunk is encoded at a time. The receiver needs to subscribe
+	 * with subscribeBinary() or understand the chunk messages.
+	 * @param destionation The identity of the application to which the message is sent
+	 * @param topic The topic on which the message is sent
+	 * @param data The bytes to be sent, the position of the buffer is not changed.
+	 *             The chunks are encoded from it as they are sent, so its content
+	 *             must not be changed until the returned stage completes.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> sendBinary(JsonObject destionation, String topic, ByteBuffer data) {
+		return this.sendBinaryChunk(destionation, topic, this.binaryId.incrementAndGet(), data.duplicate(), null, 1);
+	}
+
+	/**
+	 * Publishes the bytes between position and limit of the buffer as base64
+	 * chunks, see {@link #sendBinary(JsonObject, String, ByteBuffer)}.
+	 * @param topic The topic on which the message is sent
+	 * @param data The bytes to be published, the position of the buffer is not changed.
+	 *             The chunks are encoded from it as they are sent, so its content
+	 *             must not be changed until the returned stage completes.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> publishBinary(String topic, ByteBuffer data) {
+		return this.sendBinaryChunk(null, topic, this.binaryId.incrementAndGet(), data.duplicate(), null, 1);
+	}
+
+	private CompletionStage<Void> sendBinaryChunk(JsonObject destination, String topic, int id, ByteBuffer src,
+			byte[] chunk, long seq) {
+		FastJsonValues.FastJsonObject msg = new FastJsonValues.FastJsonObject(5);
+		msg.add(BinaryTransfer.BINARY, new FastJsonValues.FastJsonNumber(id));
+		msg.add(BinaryTransfer.SEQUENCE, new FastJsonValues.FastJsonNumber(seq));
+		if (seq == 1) {
+			msg.add(BinaryTransfer.SIZE, new FastJsonValues.FastJsonNumber(src.remaining()));
+		}
+		if (chunk == null || chunk.length != Math.min(BinaryTransfer.CHUNK_BYTES, src.remaining())) {
+			chunk = new byte[Math.min(BinaryTransfer.CHUNK_BYTES, src.remaining())];
+		}
+		src.get(chunk);
+		msg.add(BinaryTransfer.DATA, new FastJsonValues.FastJsonString(Base64.getEncoder().encodeToString(chunk)));
+		boolean last = !src.hasRemaining();
+		if (last) {
+			msg.add(BinaryTransfer.END, JsonValue.TRUE);
+		}
+		CompletionStage<Void> sent = destination == null ? this.publish(topic, msg, OpenFinPriority.BULK)
+				: this.send(destination, topic, msg, OpenFinPriority.BULK);
+		if (last) {
+			return sent;
+		}
+		byte[] buffer = chunk;
+		return sent.thenCompose(v -> {
+			return this.sendBinaryChunk(destination, topic, id, src, buffer, seq + 1);
+		});
+	}
+
+	/**
+	 * Enables micro-batching of outgoing messages. Messages published or sent to
+	 * the same destination on the same topic within the batching window are
+	 * coalesced into one envelope, which is unpacked transparently by the
+	 * receiving OpenFinInterApplicationBus and by the gateway script. Other
+	 * subscribers of the topic would receive the envelope as is, so only enable
+	 * it when all receivers understand it.
+	 * @param window Maximum time a message waits for other messages to join its batch
+	 * @param maxBatchSize Batch is sent out immediately once it reaches this size
+	 */
+	public void enableBatching(Duration window, int maxBatchSize) {
+		IabMessageBatcher oldBatcher = this.batcher;
+		this.batcher = new IabMessageBatcher(window, maxBatchSize, this.connection.getScheduler(),
+				(destination, topic, message, priority) -> {
+					return destination == null ? this.publishMessage(topic, message, priority)
+							: this.sendMessage(destination, topic, message, priority);
+				});
+		if (oldBatcher != null) {
+			oldBatcher.flushAll();
+		}
+	}
+
+	/**
+	 * Disables micro-batching, pending batches are sent out immediately.
+	 */
+	public void disableBatching() {
+		IabMessageBatcher oldBatcher = this.batcher;
+		this.batcher = null;
+		if (oldBatcher != null) {
+			oldBatcher.flushAll();
+		}
+	}
+
+	/**
+	 * @return the message batcher with its statistics, or null if batching is not enabled.
+	 */
+	public IabMessageBatcher getMessageBatcher() {
+		return this.batcher;
+	}
+
+	/**
+	 * Sends a request to a specific application on a specific topic and waits for its reply.
+	 * The request is sent as {"iabRequestId": id, "iabReplyTopic": topic, "message": message},
+	 * the receiver replies to the sender on iabReplyTopic with {"iabRequestId": id, "result": result}
+	 * or {"iabRequestId": id, "error": reason}. Replies of all requests share one reply topic per connection.
+	 * @param destination The identity of the application to which the request is sent
+	 * @param topic The topic on which the request is sent
+	 * @param message The request message
+	 * @param timeout How long to wait for the reply, null to wait forever
+	 * @return the new CompletionStage with the reply, cancel its CompletableFuture to abandon the request.
+	 */
+	public CompletionStage<JsonValue> request(JsonObject destination, String topic, JsonValue message,
+			Duration timeout) {
+		int id = this.requestId.getAndIncrement();
+		CompletableFuture<JsonValue> replyFuture = new CompletableFuture<>();
+		this.pendingRequests.put(id, replyFuture);
+		replyFuture.whenComplete((v, e) -> {
+			this.pendingRequests.remove(id);
+		});
+		if (timeout != null) {
+			replyFuture.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+		}
+		JsonObject request = Json.createObjectBuilder()
+				.add(REQUEST_ID, id)
+				.add(REPLY_TOPIC, this.replyTopic)
+				.add(REQUEST_MESSAGE, message).build();
+		this.getReplySubscription().thenCompose(v -> {
+			return this.send(destination, topic, request);
+		}).exceptionally(e -> {
+			replyFuture.completeExceptionally(e);
+			return null;
+		});
+		return replyFuture;
+	}
+
+	/**
+	 * Replies to requests from the specified application on the specified topic with the handler.
+	 * @param source Source identity
+	 * @param topic The topic on which the request is sent
+	 * @param handler The handler that produces the reply
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> subscribeRequests(JsonObject source, String topic, OpenFinIabRequestHandler handler) {
+		return this.subscribe(source, topic, new IabRequestListener(handler), null, false);
+	}
+
+	/**
+	 * Stops replying to requests with the handler.
+	 * @param source Source identity
+	 * @param topic The topic on which the request is sent
+	 * @param handler the handler previously registered with subscribeRequests()
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> unsubscribeRequests(JsonObject source, String topic, OpenFinIabRequestHandler handler) {
+		return this.unsubscribe(source, topic, new IabRequestListener(handler));
+	}
+
+	/**
+	 * Replies to a request received by a listener of subscribe().
+	 * @param requester The identity of the application that sent the request
+	 * @param request The request received
+	 * @param result The result to reply with
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> reply(JsonObject requester, JsonValue request, JsonValue result) {
+		JsonObject requestObj = (JsonObject) request;
+		return this.send(requester, requestObj.getString(REPLY_TOPIC), Json.createObjectBuilder()
+				.add(REQUEST_ID, requestObj.getInt(REQUEST_ID))
+				.add(REPLY_RESULT, result == null ? JsonValue.NULL : result).build());
+	}
+
+	private class IabRequestListener implements OpenFinIabMessageListener {
+		private final OpenFinIabRequestHandler handler;
+
+		IabRequestListener(OpenFinIabRequestHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void onMessage(JsonObject identity, JsonValue request) {
+			if (request.getValueType() != JsonValue.ValueType.OBJECT
+					|| !request.asJsonObject().containsKey(REQUEST_ID)) {
+				logger.warn("not a request, ignored: {}", request);
+				return;
+			}
+			JsonObject requestObj = request.asJsonObject();
+			CompletionStage<JsonValue> resultFuture;
+			try {
+				resultFuture = this.handler.onRequest(identity, requestObj.get(REQUEST_MESSAGE));
+			}
+			catch (Exception e) {
+				resultFuture = CompletableFuture.failedFuture(e);
+			}
+			resultFuture.whenComplete((result, e) -> {
+				if (e == null) {
+					reply(identity, requestObj, result);
+				}
+				else {
+					Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+					send(identity, requestObj.getString(REPLY_TOPIC), Json.createObjectBuilder()
+							.add(REQUEST_ID, requestObj.getInt(REQUEST_ID))
+							.add(REPLY_ERROR, String.valueOf(cause.getMessage())).build());
+				}
+			});
+		}
+
+		@Override
+		public int hashCode() {
+			return this.handler.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof IabRequestListener && ((IabRequestListener) obj).handler.equals(this.handler);
+		}
+	}
+
+	private synchronized CompletableFuture<Void> getReplySubscription() {
+		if (this.replySubscription == null || this.replySubscription.isCompletedExceptionally()) {
+			this.replySubscription = this.subscribe(null, this.replyTopic, (src, reply) -> {
+				JsonObject replyObj = reply.asJsonObject();
+				CompletableFuture<JsonValue> replyFuture = this.pendingRequests.get(replyObj.getInt(REQUEST_ID));
+				if (replyFuture == null) {
+					logger.debug("reply of cancelled or timed out request ignored: {}", reply);
+				}
+				else if (replyObj.containsKey(REPLY_ERROR)) {
+					replyFuture.completeExceptionally(
+							new RuntimeException("request error: " + replyObj.getString(REPLY_ERROR)));
+				}
+				else {
+					replyFuture.complete(replyObj.get(REPLY_RESULT));
+				}
+			}, null, false).toCompletableFuture();
+		}
+		return this.replySubscription;
+	}
+
 	/**
 	 * Subscribes to messages from the specified application on the specified topic.
+	 * Concurrent subscriptions on the same source and topic share one subscribe request to OpenFin Runtime.
+	 * When the last-value cache is enabled, the listener first receives the cached messages that match the subscription.
 	 * @param source Source identity
 	 * @param topic The topic on which the message is sent
 	 * @param listener The listener that is called when a message has been received
 	 * @return the new CompletionStage
 	 */
 	public CompletionStage<Void> subscribe(JsonObject source, String topic, OpenFinIabMessageListener listener) {
+		return this.subscribe(source, topic, listener, null, true);
+	}
+
+	/**
+	 * Subscribes to messages from the specified application on the specified
+	 * topic without decoding them, the listener gets the JSON text of the message
+	 * as it is in the incoming frame.
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param listener The listener that is called when a message has been received
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> subscribeRaw(JsonObject source, String topic, OpenFinIabRawMessageListener listener) {
+		return this.subscribe(source, topic, null, listener, false);
+	}
+
+	private CompletionStage<Void> subscribe(JsonObject source, String topic, OpenFinIabMessageListener listener,
+			OpenFinIabRawMessageListener rawListener, boolean replay) {
 		source = source == null ? JsonValue.EMPTY_JSON_OBJECT : source;
 		String uuid = source.getString("uuid", "*");
 		String name = source.getString("name", "*");
 		String key = this.getSubscriptionKey(uuid, name, topic);
-		CopyOnWriteArrayList<OpenFinIabMessageListener> listeners = this.listenerMap.get(key);
-		if (listeners == null) {
-			CopyOnWriteArrayList<OpenFinIabMessageListener> existingListener = this.listenerMap.put(key,
-					new CopyOnWriteArrayList<>(new OpenFinIabMessageListener[] { listener }));
-			if (existingListener == null) {
-				// first one, send out the subscription
-				JsonObject payload = Json.createObjectBuilder()
-						.add("sourceUuid", uuid)
-						.add("sourceWindowName", name)
-						.add("topic", topic).build();
-				return this.connection.sendMessage("subscribe", payload).thenAcceptAsync(ack -> {
-					if (!ack.getBoolean("success", false)) {
-						throw new RuntimeException(
-								"error subscribe, reason: " + ack.getString("reason"));
+		CompletionStage<Void> result;
+		while (true) {
+			IabSubscription subscription = this.subscriptionMap.computeIfAbsent(key, k -> {
+				return new IabSubscription(uuid, name, topic);
+			});
+			synchronized (subscription) {
+				if (subscription.retired) {
+					// lost the race with the last unsubscribe, try again with a new one.
+					continue;
+				}
+				if (listener != null) {
+					subscription.listeners.add(listener);
+				}
+				else {
+					subscription.rawListeners.add(rawListener);
+					this.rawListenerCount.incrementAndGet();
+				}
+				if (subscription.pendingUnsubscribe != null) {
+					// re-subscribed within grace period, runtime subscription is still there.
+					subscription.pendingUnsubscribe.cancel(false);
+					subscription.pendingUnsubscribe = null;
+				}
+				if (subscription.subscribeFuture == null) {
+					// first one, send out the subscription
+					CompletableFuture<Void> subscribeFuture = subscription.wireFuture.handle((v, e) -> {
+						return null;
+					}).thenCompose(v -> {
+						return this.sendSubscriptionMessage("subscribe", uuid, name, topic);
+					});
+					subscribeFuture.whenComplete((v, e) -> {
+						if (e != null) {
+							synchronized (subscription) {
+								// allow the next subscribe to try again
+								if (subscription.subscribeFuture == subscribeFuture) {
+									subscription.subscribeFuture = null;
+								}
+							}
+						}
+					});
+					subscription.subscribeFuture = subscribeFuture;
+					subscription.wireFuture = subscribeFuture;
+				}
+				result = subscription.subscribeFuture.copy();
+				break;
+			}
+		}
+		// only plain message listeners get the replay, requests, replies and chunks must not be seen twice.
+		IabLastValueCache cache = this.lastValueCache;
+		if (replay && cache != null) {
+			for (IabLastValueCache.Entry entry : cache.getMatches(uuid, name, topic)) {
+				try {
+					listener.onMessage(entry.identity, entry.message);
+				}
+				catch (Exception e) {
+					logger.error("error invoking IAB message listener", e);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Subscribes to messages from the specified application on the specified topic, decoded by the {@link OpenFinCodec} of the type.
+	 * @param <T> type of the message
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param type class of the message
+	 * @param listener The listener that is called when a message has been received
+	 * @return the new CompletionStage
+	 */
+	public <T> CompletionStage<Void> subscribe(JsonObject source, String topic, Class<T> type,
+			OpenFinTypedIabMessageListener<T> listener) {
+		return this.subscribe(source, topic, new TypedIabMessageListener<>(OpenFinCodecs.get(type), listener));
+	}
+
+	/**
+	 * Unsubscribes the typed listener.
+	 * @param <T> type of the message
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param type class of the message
+	 * @param listener the listener previously registered with subscribe()
+	 * @return the new CompletionStage
+	 */
+	public <T> CompletionStage<Void> unsubscribe(JsonObject source, String topic, Class<T> type,
+			OpenFinTypedIabMessageListener<T> listener) {
+		return this.unsubscribe(source, topic, new TypedIabMessageListener<>(OpenFinCodecs.get(type), listener));
+	}
+
+	private static class TypedIabMessageListener<T> implements OpenFinIabMessageListener {
+		private final OpenFinCodec<T> codec;
+		private final OpenFinTypedIabMessageListener<T> listener;
+
+		TypedIabMessageListener(OpenFinCodec<T> codec, OpenFinTypedIabMessageListener<T> listener) {
+			this.codec = codec;
+			this.listener = listener;
+		}
+
+		@Override
+		public void onMessage(JsonObject identity, JsonValue message) {
+			this.listener.onMessage(identity, this.codec.decode(message));
+		}
+
+		@Override
+		public int hashCode() {
+			return this.listener.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TypedIabMessageListener
+					&& ((TypedIabMessageListener<?>) obj).listener.equals(this.listener);
+		}
+	}
+
+	/**
+	 * Subscribes to binary payloads sent with sendBinary() or publishBinary(),
+	 * the chunks are decoded from the incoming frames into pooled direct buffers.
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param listener The listener that is called when a whole payload has been received
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> subscribeBinary(JsonObject source, String topic,
+			OpenFinIabBinaryMessageListener listener) {
+		return this.subscribeRaw(source, topic,
+				new BinaryIabMessageListener(this.bufferPool, this.connection.getScheduler(), listener));
+	}
+
+	/**
+	 * Unsubscribes the binary listener.
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param listener the listener previously registered with subscribeBinary()
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> unsubscribeBinary(JsonObject source, String topic,
+			OpenFinIabBinaryMessageListener listener) {
+		return this.unsubscribeRaw(source, topic,
+				new BinaryIabMessageListener(this.bufferPool, this.connection.getScheduler(), listener));
+	}
+
+	static class BinaryIabMessageListener implements OpenFinIabRawMessageListener {
+		/**
+		 * a transfer without any chunk for this long is dropped, ids of ended
+		 * transfers are remembered at least as long.
+		 */
+		final static Duration IDLE_TIMEOUT = Duration.ofSeconds(30);
+
+		private final DirectBufferPool pool;
+		private final ScheduledExecutorService scheduler;
+		private final long idleTimeoutNanos;
+		private final OpenFinIabBinaryMessageListener listener;
+		/**
+		 * transfers in progress by sender and binary id.
+		 */
+		private final ConcurrentHashMap<String, BinaryTransfer> transfers;
+		/**
+		 * finished, failed and timed out transfers with the time they ended, their
+		 * late chunks are dropped instead of starting a new transfer.
+		 */
+		private final ConcurrentHashMap<String, Long> endedTransfers;
+		private volatile ScheduledFuture<?> expiryTask;
+
+		BinaryIabMessageListener(DirectBufferPool pool, ScheduledExecutorService scheduler,
+				OpenFinIabBinaryMessageListener listener) {
+			this(pool, scheduler, IDLE_TIMEOUT, listener);
+		}
+
+		BinaryIabMessageListener(DirectBufferPool pool, ScheduledExecutorService scheduler, Duration idleTimeout,
+				OpenFinIabBinaryMessageListener listener) {
+			this.pool = pool;
+			this.scheduler = scheduler;
+			this.idleTimeoutNanos = idleTimeout.toNanos();
+			this.listener = listener;
+			this.transfers = new ConcurrentHashMap<>();
+			this.endedTransfers = new ConcurrentHashMap<>();
+		}
+
+		@Override
+		public void onMessage(String sourceUuid, String sourceName, String topic, CharSequence message) {
+			int idStart = JsonScanner.findField(message, 0, BinaryTransfer.BINARY);
+			if (idStart < 0) {
+				logger.debug("dropping non-binary message on topic {}", topic);
+				return;
+			}
+			String key = sourceUuid + "::" + sourceName + "::"
+					+ message.subSequence(idStart, JsonScanner.skipValue(message, idStart));
+			if (this.endedTransfers.containsKey(key)) {
+				logger.debug("dropping late binary chunk from {} on topic {}", sourceUuid, topic);
+				return;
+			}
+			BinaryTransfer transfer = this.transfers.computeIfAbsent(key, k -> new BinaryTransfer(this.pool));
+			this.scheduleExpiry();
+			ByteBuffer data;
+			// chunks of a transfer can be processed by several message threads
+			synchronized (transfer) {
+				if (transfer.isDone() || this.endedTransfers.containsKey(key)) {
+					// ended by another thread in the meantime
+					this.transfers.remove(key, transfer);
+					transfer.release();
+					logger.debug("dropping late binary chunk from {} on topic {}", sourceUuid, topic);
+					return;
+				}
+				try {
+					if (!transfer.onMessage(message)) {
+						return;
 					}
-				});
+				}
+				catch (RuntimeException e) {
+					this.end(key, transfer);
+					transfer.release();
+					logger.error("dropping binary message from {} on topic {}", sourceUuid, topic, e);
+					return;
+				}
+				this.end(key, transfer);
+				data = transfer.finish();
 			}
-			else {
-				existingListener.add(listener);
-				return CompletableFuture.completedStage(null);
+			try {
+				this.listener.onMessage(Json.createObjectBuilder().add("uuid", sourceUuid)
+						.add("name", sourceName).build(), data);
+			}
+			finally {
+				this.pool.release(data);
 			}
 		}
-		else {
-			listeners.add(listener);
-			return CompletableFuture.completedStage(null);
+
+		private void end(String key, BinaryTransfer transfer) {
+			// remembered before it's removed, so a late chunk can't start it over.
+			this.endedTransfers.put(key, System.nanoTime());
+			this.transfers.remove(key, transfer);
+		}
+
+		private void scheduleExpiry() {
+			if (this.expiryTask == null && this.scheduler != null) {
+				synchronized (this) {
+					if (this.expiryTask == null) {
+						this.expiryTask = this.scheduler.schedule(this::expire, this.idleTimeoutNanos,
+								TimeUnit.NANOSECONDS);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Releases the transfers gone idle and forgets the ones ended long enough
+		 * ago, runs again as long as there is anything left.
+		 */
+		private void expire() {
+			long now = System.nanoTime();
+			for (Map.Entry<String, BinaryTransfer> e : this.transfers.entrySet()) {
+				BinaryTransfer transfer = e.getValue();
+				synchronized (transfer) {
+					if (!transfer.isDone() && now - transfer.getLastMessageNanos() >= this.idleTimeoutNanos) {
+						logger.warn("binary transfer {} timed out after chunk {}", e.getKey(), transfer.getSequence());
+						this.end(e.getKey(), transfer);
+						transfer.release();
+					}
+				}
+			}
+			this.endedTransfers.values().removeIf(ended -> now - ended >= this.idleTimeoutNanos);
+			synchronized (this) {
+				this.expiryTask = null;
+				if (!this.transfers.isEmpty() || !this.endedTransfers.isEmpty()) {
+					this.scheduleExpiry();
+				}
+			}
+		}
+
+		int getTransferCount() {
+			return this.transfers.size();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.listener.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof BinaryIabMessageListener
+					&& ((BinaryIabMessageListener) obj).listener.equals(this.listener);
 		}
 	}
 
 	/**
 	 * Unsubscribes to messages from the specified application on the specified topic.
+	 * When the last listener is removed, the subscription in OpenFin Runtime is released after the unsubscribe grace period.
 	 * @param source Source identity
 	 * @param topic The topic on which the message is sent
 	 * @param listener the listener previously registered with subscribe()
 	 * @return the new CompletionStage
 	 */
 	public CompletionStage<Void> unsubscribe(JsonObject source, String topic, OpenFinIabMessageListener listener) {
+		return this.unsubscribe(source, topic, listener, null);
+	}
+
+	/**
+	 * Unsubscribes the raw listener.
+	 * @param source Source identity
+	 * @param topic The topic on which the message is sent
+	 * @param listener the listener previously registered with subscribeRaw()
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> unsubscribeRaw(JsonObject source, String topic,
+			OpenFinIabRawMessageListener listener) {
+		return this.unsubscribe(source, topic, null, listener);
+	}
+
+	private CompletionStage<Void> unsubscribe(JsonObject source, String topic, OpenFinIabMessageListener listener,
+			OpenFinIabRawMessageListener rawListener) {
 		source = source == null ? JsonValue.EMPTY_JSON_OBJECT : source;
 		String uuid = source.getString("uuid", "*");
 		String name = source.getString("name", "*");
 		String key = this.getSubscriptionKey(uuid, name, topic);
-		CopyOnWriteArrayList<OpenFinIabMessageListener> listeners = this.listenerMap.get(key);
-		if (listeners != null) {
-			boolean removed = listeners.remove(listener);
-			if (removed && listeners.size() == 0) {
-				//last one, unsubscribe the topic
-				JsonObject payload = Json.createObjectBuilder()
-						.add("sourceUuid", uuid)
-						.add("sourceWindowName", name)
-						.add("topic", topic).build();
-				return this.connection.sendMessage("unsubscribe", payload).thenAcceptAsync(ack -> {
-					if (!ack.getBoolean("success", false)) {
-						throw new RuntimeException("error unsubscribe, reason: " + ack.getString("reason"));
+		IabSubscription subscription = this.subscriptionMap.get(key);
+		if (subscription != null) {
+			synchronized (subscription) {
+				boolean removed;
+				if (listener != null) {
+					removed = subscription.listeners.remove(listener);
+				}
+				else {
+					removed = subscription.rawListeners.remove(rawListener);
+					if (removed) {
+						this.rawListenerCount.decrementAndGet();
 					}
-				});
-			}
-			else {
-				return CompletableFuture.completedStage(null);
+				}
+				if (removed && !subscription.hasListeners()) {
+					//last one, unsubscribe the topic
+					long gracePeriod = this.unsubscribeGracePeriodNanos;
+					if (gracePeriod > 0) {
+						subscription.pendingUnsubscribe = this.connection.getScheduler().schedule(() -> {
+							this.releaseSubscription(key, subscription);
+						}, gracePeriod, TimeUnit.NANOSECONDS);
+						return CompletableFuture.completedStage(null);
+					}
+					else {
+						return this.releaseSubscription(key, subscription);
+					}
+				}
+				else {
+					return CompletableFuture.completedStage(null);
+				}
 			}
 		}
 		else {
 			//should be error
 			return CompletableFuture.completedStage(null);
 		}
-		
+	}
+
+	/**
+	 * Subscribes all the subscriptions, keeping up to maxInFlightSubscriptions
+	 * subscribe requests outstanding at the same time instead of waiting for each
+	 * one in turn.
+	 * @param subscriptions the subscriptions to be added
+	 * @return the new CompletionStage, completes exceptionally with the first error after all requests are done
+	 */
+	public CompletionStage<Void> subscribeAll(Collection<Subscription> subscriptions) {
+		return this.pipeline(subscriptions, s -> {
+			return this.subscribe(s.getSource(), s.getTopic(), s.getListener());
+		});
+	}
+
+	/**
+	 * Unsubscribes all the subscriptions, keeping up to maxInFlightSubscriptions
+	 * unsubscribe requests outstanding at the same time.
+	 * @param subscriptions the subscriptions previously added
+	 * @return the new CompletionStage, completes exceptionally with the first error after all requests are done
+	 */
+	public CompletionStage<Void> unsubscribeAll(Collection<Subscription> subscriptions) {
+		return this.pipeline(subscriptions, s -> {
+			return this.unsubscribe(s.getSource(), s.getTopic(), s.getListener());
+		});
+	}
+
+	/**
+	 * Sets the maximum number of outstanding requests of subscribeAll and unsubscribeAll, default is 32.
+	 * @param maxInFlight maximum number of outstanding requests
+	 */
+	public void setMaxInFlightSubscriptions(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("invalid maxInFlight: " + maxInFlight);
+		}
+		this.maxInFlightSubscriptions = maxInFlight;
+	}
+
+	public int getMaxInFlightSubscriptions() {
+		return this.maxInFlightSubscriptions;
+	}
+
+	private CompletionStage<Void> pipeline(Collection<Subscription> subscriptions,
+			Function<Subscription, CompletionStage<Void>> request) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		if (subscriptions.isEmpty()) {
+			result.complete(null);
+			return result;
+		}
+		Iterator<Subscription> iterator = new ArrayList<>(subscriptions).iterator();
+		AtomicInteger remaining = new AtomicInteger(subscriptions.size());
+		AtomicReference<Throwable> firstError = new AtomicReference<>();
+		int window = Math.min(this.maxInFlightSubscriptions, subscriptions.size());
+		for (int i = 0; i < window; i++) {
+			this.pipelineNext(iterator, request, remaining, firstError, result);
+		}
+		return result;
+	}
+
+	private void pipelineNext(Iterator<Subscription> iterator, Function<Subscription, CompletionStage<Void>> request,
+			AtomicInteger remaining, AtomicReference<Throwable> firstError, CompletableFuture<Void> result) {
+		while (true) {
+			Subscription subscription;
+			synchronized (iterator) {
+				if (!iterator.hasNext()) {
+					return;
+				}
+				subscription = iterator.next();
+			}
+			CompletableFuture<Void> requestFuture;
+			try {
+				requestFuture = request.apply(subscription).toCompletableFuture();
+			}
+			catch (Exception e) {
+				requestFuture = CompletableFuture.failedFuture(e);
+			}
+			if (requestFuture.isDone()) {
+				// already subscribed, no need to wait, move on to the next one.
+				this.pipelineDone(requestFuture.handle((v, e) -> e).join(), remaining, firstError, result);
+			}
+			else {
+				requestFuture.whenComplete((v, e) -> {
+					this.pipelineDone(e, remaining, firstError, result);
+					this.pipelineNext(iterator, request, remaining, firstError, result);
+				});
+				return;
+			}
+		}
+	}
+
+	private void pipelineDone(Throwable error, AtomicInteger remaining, AtomicReference<Throwable> firstError,
+			CompletableFuture<Void> result) {
+		if (error != null) {
+			firstError.compareAndSet(null, error);
+		}
+		if (remaining.decrementAndGet() == 0) {
+			Throwable e = firstError.get();
+			if (e == null) {
+				result.complete(null);
+			}
+			else {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	private CompletionStage<Void> releaseSubscription(String key, IabSubscription subscription) {
+		synchronized (subscription) {
+			if (subscription.retired || subscription.hasListeners()) {
+				return CompletableFuture.completedStage(null);
+			}
+			subscription.pendingUnsubscribe = null;
+			if (subscription.subscribeFuture == null) {
+				// never made it to the runtime
+				subscription.retired = true;
+				this.subscriptionMap.remove(key, subscription);
+				return CompletableFuture.completedStage(null);
+			}
+			subscription.subscribeFuture = null;
+			CompletableFuture<Void> unsubscribeFuture = subscription.wireFuture.handle((v, e) -> {
+				return null;
+			}).thenCompose(v -> {
+				return this.sendSubscriptionMessage("unsubscribe", subscription.uuid, subscription.name,
+						subscription.topic);
+			});
+			subscription.wireFuture = unsubscribeFuture;
+			unsubscribeFuture.whenComplete((v, e) -> {
+				synchronized (subscription) {
+					if (subscription.wireFuture == unsubscribeFuture && subscription.subscribeFuture == null
+							&& !subscription.hasListeners()) {
+						subscription.retired = true;
+						this.subscriptionMap.remove(key, subscription);
+					}
+				}
+			});
+			return unsubscribeFuture.copy();
+		}
+	}
+
+	private CompletableFuture<Void> sendSubscriptionMessage(String action, String uuid, String name, String topic) {
+		JsonObject payload = Json.createObjectBuilder()
+				.add("sourceUuid", uuid)
+				.add("sourceWindowName", name)
+				.add("topic", topic).build();
+		// others wait for the subscription, don't let it queue behind bulk traffic.
+		return this.connection.sendMessage(action, payload, OpenFinPriority.CONTROL).thenAcceptAsync(ack -> {
+			if (!ack.getBoolean("success", false)) {
+				throw new RuntimeException("error " + action + ", reason: " + ack.getString("reason"));
+			}
+		}).toCompletableFuture();
+	}
+
+	/**
+	 * Sets how long the subscription in OpenFin Runtime is kept after its last
+	 * listener is removed, re-subscribing within the grace period doesn't need any
+	 * round trip to the runtime. Default is zero, unsubscribe immediately.
+	 * @param gracePeriod the unsubscribe grace period
+	 */
+	public void setUnsubscribeGracePeriod(Duration gracePeriod) {
+		this.unsubscribeGracePeriodNanos = gracePeriod == null ? 0 : gracePeriod.toNanos();
+	}
+
+	public Duration getUnsubscribeGracePeriod() {
+		return Duration.ofNanos(this.unsubscribeGracePeriodNanos);
 	}
 
 	private String getSubscriptionKey(String uuid, String name, String topic) {
@@ -168,39 +1178,169 @@ public class OpenFinInterApplicationBus {
 		String sourceUuid = payload.getString("sourceUuid");
 		String sourceWindowName = payload.getString("sourceWindowName");
 		String topic = payload.getString("topic");
+		JsonValue message = payload.get("message");
 
 		JsonObject identity = Json.createObjectBuilder().add("uuid", sourceUuid).add("name", sourceWindowName)
 				.build();
 
-		//exact match
-		String key = this.getSubscriptionKey(sourceUuid, sourceWindowName, topic);
-		this.processMessage(key, identity, payload);
-		//wildcard name
-		key = this.getSubscriptionKey(sourceUuid, "*", topic);
-		this.processMessage(key, identity, payload);
-		//wildcard uuid and name
-		key = this.getSubscriptionKey("*", "*", topic);
-		this.processMessage(key, identity, payload);
-	}
-	
-	void processMessage(String key, JsonObject identity, JsonObject payload) {
-		CopyOnWriteArrayList<OpenFinIabMessageListener> listeners = this.listenerMap.get(key);
-		if (listeners != null) {
-			listeners.forEach(l -> {
-				JsonValue msg = payload.get("message");
-				try {
-					l.onMessage(identity, msg);
-				}
-				catch (Exception e) {
-					logger.error("error invoking IAB message listener", e);
+		if (IabMessageBatcher.isBatch(message)) {
+			for (JsonValue msg : ((JsonObject) message).getJsonArray(IabMessageBatcher.BATCH)) {
+				this.processMessage(sourceUuid, sourceWindowName, topic, identity, msg);
+			}
+		}
+		else {
+			this.processMessage(sourceUuid, sourceWindowName, topic, identity, message);
+		}
+	}
+
+	private void processMessage(String sourceUuid, String sourceWindowName, String topic, JsonObject identity,
+			JsonValue message) {
+		if (this.isEcho(sourceUuid, sourceWindowName, topic)) {
+			// already delivered locally
+			return;
+		}
+		this.dispatchMessage(sourceUuid, sourceWindowName, topic, identity, message);
+	}
+
+	private void dispatchMessage(String sourceUuid, String sourceWindowName, String topic, JsonObject identity,
+			JsonValue message) {
+		this.dispatchMessage(sourceUuid, sourceWindowName, topic, identity, message, true);
+	}
+
+	private void dispatchMessage(String sourceUuid, String sourceWindowName, String topic, JsonObject identity,
+			JsonValue message, boolean includeRaw) {
+		IabLastValueCache cache = this.lastValueCache;
+		if (cache != null) {
+			cache.put(sourceUuid, sourceWindowName, topic, identity, message);
+		}
+		String rawMessage = null;
+		String[] keys = this.getMatchingKeys(sourceUuid, sourceWindowName, topic);
+		for (String key : keys) {
+			IabSubscription subscription = this.subscriptionMap.get(key);
+			if (subscription != null) {
+				this.processMessage(subscription, identity, message);
+				if (includeRaw && subscription.rawListeners.size() > 0) {
+					if (rawMessage == null) {
+						rawMessage = message.toString();
+					}
+					this.processRawMessage(subscription, sourceUuid, sourceWindowName, topic, rawMessage);
 				}
-				finally {
+			}
+		}
+	}
+
+	/**
+	 * @return subscription keys of exact match, wildcard name, wildcard uuid and name.
+	 */
+	private String[] getMatchingKeys(String sourceUuid, String sourceWindowName, String topic) {
+		return new String[] { this.getSubscriptionKey(sourceUuid, sourceWindowName, topic),
+				this.getSubscriptionKey(sourceUuid, "*", topic), this.getSubscriptionKey("*", "*", topic) };
+	}
+
+	void processMessage(String key, JsonObject identity, JsonValue msg) {
+		IabSubscription subscription = this.subscriptionMap.get(key);
+		if (subscription != null) {
+			this.processMessage(subscription, identity, msg);
+		}
+	}
+
+	private void processMessage(IabSubscription subscription, JsonObject identity, JsonValue msg) {
+		subscription.listeners.forEach(l -> {
+			try {
+				l.onMessage(identity, msg);
+			}
+			catch (Exception e) {
+				logger.error("error invoking IAB message listener", e);
+			}
+		});
+	}
 
+	private void processRawMessage(IabSubscription subscription, String sourceUuid, String sourceWindowName,
+			String topic, CharSequence msg) {
+		subscription.rawListeners.forEach(l -> {
+			try {
+				l.onMessage(sourceUuid, sourceWindowName, topic, msg);
+			}
+			catch (Exception e) {
+				logger.error("error invoking IAB raw message listener", e);
+			}
+		});
+	}
+
+	boolean hasRawListeners() {
+		return this.rawListenerCount.get() > 0;
+	}
+
+	/**
+	 * Processes the process-message frame without parsing it as a whole, raw
+	 * listeners get slices of the frame, the message is parsed only when there
+	 * are other listeners or the last-value cache needs it.
+	 * @param frame the websocket message text
+	 * @param payloadStart start index of the payload object in the frame
+	 */
+	void processRawMessage(String frame, int payloadStart) {
+		String sourceUuid = JsonScanner.getString(frame, payloadStart, "sourceUuid");
+		String sourceWindowName = JsonScanner.getString(frame, payloadStart, "sourceWindowName");
+		String topic = JsonScanner.getString(frame, payloadStart, "topic");
+		int messageStart = JsonScanner.findField(frame, payloadStart, "message");
+		if (sourceUuid == null || sourceWindowName == null || topic == null || messageStart < 0) {
+			logger.error("invalid process-message payload: {}", frame);
+			return;
+		}
+		String[] keys = this.getMatchingKeys(sourceUuid, sourceWindowName, topic);
+		IabSubscription[] subscriptions = new IabSubscription[keys.length];
+		boolean needsTree = this.lastValueCache != null;
+		for (int i = 0; i < keys.length; i++) {
+			subscriptions[i] = this.subscriptionMap.get(keys[i]);
+			if (subscriptions[i] != null && subscriptions[i].listeners.size() > 0) {
+				needsTree = true;
+			}
+		}
+		JsonObject identity = needsTree
+				? Json.createObjectBuilder().add("uuid", sourceUuid).add("name", sourceWindowName).build()
+				: null;
+
+		int batchStart = IabMessageBatcher.findBatch(frame, messageStart);
+		if (batchStart >= 0) {
+			int pos = JsonScanner.skipWhitespace(frame, batchStart + 1);
+			while (frame.charAt(pos) != ']') {
+				int end = JsonScanner.skipValue(frame, pos);
+				this.processRawMessage(sourceUuid, sourceWindowName, topic, identity, subscriptions, frame, pos, end);
+				pos = JsonScanner.skipWhitespace(frame, end);
+				if (frame.charAt(pos) == ',') {
+					pos = JsonScanner.skipWhitespace(frame, pos + 1);
 				}
-			});
+			}
+		}
+		else {
+			int end = JsonScanner.skipValue(frame, messageStart);
+			this.processRawMessage(sourceUuid, sourceWindowName, topic, identity, subscriptions, frame, messageStart,
+					end);
 		}
 	}
-	
+
+	private void processRawMessage(String sourceUuid, String sourceWindowName, String topic, JsonObject identity,
+			IabSubscription[] subscriptions, String frame, int start, int end) {
+		if (this.isEcho(sourceUuid, sourceWindowName, topic)) {
+			// already delivered locally
+			return;
+		}
+		CharSequence rawMessage = CharBuffer.wrap(frame, start, end);
+		for (IabSubscription subscription : subscriptions) {
+			if (subscription != null && subscription.rawListeners.size() > 0) {
+				this.processRawMessage(subscription, sourceUuid, sourceWindowName, topic, rawMessage);
+			}
+		}
+		if (identity != null) {
+			JsonValue message = JsonParsers.parse(CharBuffer.wrap(frame, start, end));
+			this.dispatchMessage(sourceUuid, sourceWindowName, topic, identity, message, false);
+		}
+	}
+
+	DirectBufferPool getBufferPool() {
+		return this.bufferPool;
+	}
+
 	public OpenFinConnection getConnection() {
 		return this.connection;
 	}
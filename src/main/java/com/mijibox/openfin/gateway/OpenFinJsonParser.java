@@ -0,0 +1,40 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import javax.json.JsonValue;
+
+/**
+ * Parses the incoming websocket messages. The implementation is chosen by the
+ * system property <code>com.mijibox.openfin.gateway.jsonParser</code>:
+ * <code>fast</code> (default) for the built-in parser, <code>javax</code> for
+ * the javax.json provider, or the name of a class implementing this interface
+ * with a public no-arg constructor.
+ *
+ * @author Anthony
+ *
+ */
+public interface OpenFinJsonParser {
+
+	/**
+	 * @param text JSON text
+	 * @return the parsed value, using javax.json types.
+	 * @throws javax.json.JsonException if the text is not valid JSON.
+	 */
+	JsonValue parse(CharSequence text);
+}
@@ -0,0 +1,186 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Method invoked periodically by gateway.js. The result is compared with the
+ * previous one in OpenFin runtime, only the differences are sent as JSON Patch
+ * and applied to the local copy. A gap in the sequence numbers or a patch that
+ * does not apply makes it ask for the whole value again.
+ *
+ * @author Anthony
+ *
+ */
+public class OpenFinPoller {
+	final static Logger logger = LoggerFactory.getLogger(OpenFinPoller.class);
+
+	final static String SEQUENCE = "seq";
+	final static String VALUE = "value";
+	final static String PATCH = "patch";
+
+	private final OpenFinGatewayImpl gateway;
+	private final String iabTopic;
+	private final OpenFinPollerListener listener;
+	private final OpenFinIabMessageListener iabListener;
+	JsonValue pollerId;
+
+	// guarded by the instance lock
+	private JsonValue value;
+	private long sequence;
+	private boolean resyncing;
+
+	private final LongAdder valueCount;
+	private final LongAdder patchCount;
+	private final LongAdder gapCount;
+
+	OpenFinPoller(OpenFinGatewayImpl gateway, String iabTopic, OpenFinPollerListener listener) {
+		this.gateway = gateway;
+		this.iabTopic = iabTopic;
+		this.listener = listener;
+		this.iabListener = (src, msg) -> {
+			this.onMessage((JsonObject) msg);
+		};
+		this.valueCount = new LongAdder();
+		this.patchCount = new LongAdder();
+		this.gapCount = new LongAdder();
+	}
+
+	String getIabTopic() {
+		return this.iabTopic;
+	}
+
+	OpenFinIabMessageListener getIabListener() {
+		return this.iabListener;
+	}
+
+	public JsonValue getPollerId() {
+		return this.pollerId;
+	}
+
+	synchronized void onMessage(JsonObject msg) {
+		long seq = ((JsonNumber) msg.get(SEQUENCE)).longValue();
+		if (seq <= this.sequence) {
+			// processed after a newer message, the value has moved on already.
+			logger.debug("poller {} dropping stale message {}, at sequence {}", this.pollerId, seq, this.sequence);
+			return;
+		}
+		JsonValue newValue = null;
+		JsonArray patch = null;
+		if (msg.containsKey(VALUE)) {
+			newValue = msg.get(VALUE);
+			this.resyncing = false;
+			this.valueCount.increment();
+		}
+		else if (seq == this.sequence + 1 && this.value instanceof JsonStructure) {
+			patch = msg.getJsonArray(PATCH);
+			try {
+				newValue = Json.createPatch(patch).apply((JsonStructure) this.value);
+				this.patchCount.increment();
+			}
+			catch (JsonException e) {
+				logger.warn("unable to apply patch {} of poller {}", seq, this.pollerId, e);
+			}
+		}
+		else {
+			logger.debug("poller {} expected sequence {}, got {}", this.pollerId, this.sequence + 1, seq);
+		}
+
+		if (newValue == null) {
+			this.gapCount.increment();
+			if (!this.resyncing) {
+				this.resyncing = true;
+				this.resync().exceptionally(e -> {
+					logger.warn("error requesting resync of poller {}", this.pollerId, e);
+					synchronized (this) {
+						this.resyncing = false;
+					}
+					return null;
+				});
+			}
+		}
+		else {
+			this.value = newValue;
+			this.sequence = seq;
+			try {
+				this.listener.onChange(newValue, patch);
+			}
+			catch (Exception e) {
+				logger.error("error invoking poller listener", e);
+			}
+		}
+	}
+
+	/**
+	 * @return the last value reconstructed, null if nothing has been received yet.
+	 */
+	public synchronized JsonValue getValue() {
+		return this.value;
+	}
+
+	public synchronized long getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * Asks gateway.js to poll now and send the whole value.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> resync() {
+		return this.gateway.resyncPoller(this);
+	}
+
+	/**
+	 * Stops polling.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> close() {
+		return this.gateway.removePoller(this);
+	}
+
+	/**
+	 * @return number of times the whole value was received.
+	 */
+	public long getValueCount() {
+		return this.valueCount.sum();
+	}
+
+	public long getPatchCount() {
+		return this.patchCount.sum();
+	}
+
+	/**
+	 * @return number of patches dropped for a gap in sequence or not applying.
+	 */
+	public long getGapCount() {
+		return this.gapCount.sum();
+	}
+}
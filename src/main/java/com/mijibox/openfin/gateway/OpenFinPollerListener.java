@@ -0,0 +1,31 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+
+@FunctionalInterface
+public interface OpenFinPollerListener {
+	/**
+	 * @param value the current value, reconstructed from the deltas.
+	 * @param patch the JSON Patch (RFC 6902) applied to the previous value, null
+	 *              if the whole value was received.
+	 */
+	public void onChange(JsonValue value, JsonArray patch);
+}
@@ -0,0 +1,40 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+/**
+ * Priority of the requests sent to the gateway, requests of higher priority
+ * are served first when they have to wait.
+ *
+ * @author Anthony
+ *
+ */
+public enum OpenFinPriority {
+	/**
+	 * housekeeping that others depend on, like releasing proxy objects and listeners.
+	 */
+	CONTROL,
+	/**
+	 * user facing requests, the default.
+	 */
+	INTERACTIVE,
+	/**
+	 * background and bulk work.
+	 */
+	BULK
+}
@@ -0,0 +1,355 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result of an invoke streamed as the chunks of its JSON text, so the result
+ * is never held whole on the java side. The method is invoked when subscribed,
+ * only one subscriber is allowed. gateway.js sends no more chunks than the
+ * subscriber requested, at most {@link #MAX_WINDOW} at a time. Chunks may
+ * arrive out of order, they are buffered until the missing ones arrive, and
+ * the subscriber is signalled in order outside of the stream lock.
+ *
+ * @author Anthony
+ *
+ */
+public class OpenFinResultStream implements Flow.Publisher<CharSequence> {
+	final static Logger logger = LoggerFactory.getLogger(OpenFinResultStream.class);
+
+	final static String STREAM_ID = "streamId";
+	final static String CREDIT = "credit";
+	final static String CHUNK_SIZE = "chunkSize";
+	final static String SEQUENCE = "seq";
+	final static String DATA = "data";
+	final static String END = "end";
+	final static String ERROR = "error";
+
+	/**
+	 * chunk size in chars when not specified.
+	 */
+	public final static int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	/**
+	 * maximum chunks requested from gateway.js and not received yet.
+	 */
+	final static int MAX_WINDOW = 8;
+
+	private final OpenFinGatewayImpl gateway;
+	private final String iabTopic;
+	private final ProxyObject proxyObject;
+	private final int chunkSize;
+	private final String method;
+	private final JsonValue[] args;
+	private final OpenFinIabMessageListener iabListener;
+	private final AtomicBoolean subscribed;
+
+	// guarded by the instance lock
+	private Flow.Subscriber<? super CharSequence> subscriber;
+	private JsonValue streamId;
+	private long demand;
+	private long granted;
+	private long sequence;
+	private boolean done;
+	private long chunkCount;
+	private long charCount;
+	// chunks received ahead of the sequence, by seq
+	private final Map<Long, JsonObject> earlyChunks;
+	// subscriber signals not delivered yet, in order
+	private final ArrayDeque<Runnable> signals;
+	private boolean delivering;
+
+	OpenFinResultStream(OpenFinGatewayImpl gateway, String iabTopic, ProxyObject proxyObject, int chunkSize,
+			String method, JsonValue... args) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("invalid chunk size: " + chunkSize);
+		}
+		this.gateway = gateway;
+		this.iabTopic = iabTopic;
+		this.proxyObject = proxyObject;
+		this.chunkSize = chunkSize;
+		this.method = method;
+		this.args = args;
+		this.iabListener = (src, msg) -> {
+			this.onMessage((JsonObject) msg);
+		};
+		this.subscribed = new AtomicBoolean(false);
+		this.earlyChunks = new HashMap<>();
+		this.signals = new ArrayDeque<>();
+	}
+
+	String getIabTopic() {
+		return this.iabTopic;
+	}
+
+	OpenFinIabMessageListener getIabListener() {
+		return this.iabListener;
+	}
+
+	ProxyObject getProxyObject() {
+		return this.proxyObject;
+	}
+
+	int getChunkSize() {
+		return this.chunkSize;
+	}
+
+	String getMethod() {
+		return this.method;
+	}
+
+	JsonValue[] getArgs() {
+		return this.args;
+	}
+
+	synchronized JsonValue getStreamId() {
+		return this.streamId;
+	}
+
+	CompletionStage<JsonValue> start() {
+		return this.gateway.startStream(this);
+	}
+
+	void sendCredit(long credit) {
+		this.gateway.sendStreamCredit(this.streamId, credit);
+	}
+
+	void close(boolean cancel) {
+		this.gateway.closeStream(this, cancel);
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super CharSequence> subscriber) {
+		if (!this.subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("result stream of " + this.method + " subscribed already"));
+			return;
+		}
+		synchronized (this) {
+			this.subscriber = subscriber;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				OpenFinResultStream.this.request(n);
+			}
+
+			@Override
+			public void cancel() {
+				OpenFinResultStream.this.cancel();
+			}
+		});
+		this.start().whenComplete((id, e) -> {
+			if (e != null) {
+				this.fail(e);
+			}
+			else {
+				this.started(id);
+			}
+		});
+	}
+
+	private synchronized void started(JsonValue streamId) {
+		this.streamId = streamId;
+		if (this.done) {
+			// cancelled while starting
+			this.close(true);
+		}
+		else {
+			this.grant();
+		}
+	}
+
+	private void request(long n) {
+		if (n <= 0) {
+			this.fail(new IllegalArgumentException("non-positive request: " + n));
+			return;
+		}
+		synchronized (this) {
+			if (this.done) {
+				return;
+			}
+			this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+			this.grant();
+		}
+	}
+
+	/**
+	 * Gives gateway.js credit for more chunks, in batches of at least half the
+	 * window unless nothing is in flight.
+	 */
+	private void grant() {
+		if (this.streamId == null || this.done) {
+			return;
+		}
+		long credit = Math.min(this.demand, MAX_WINDOW) - this.granted;
+		if (credit > 0 && (this.granted == 0 || credit >= MAX_WINDOW / 2)) {
+			this.granted += credit;
+			this.sendCredit(credit);
+		}
+	}
+
+	private synchronized void cancel() {
+		if (this.done) {
+			return;
+		}
+		this.done = true;
+		this.earlyChunks.clear();
+		this.signals.clear();
+		if (this.streamId != null) {
+			this.close(true);
+		}
+	}
+
+	private void fail(Throwable e) {
+		synchronized (this) {
+			this.closeWithError(e);
+		}
+		this.deliver();
+	}
+
+	private void closeWithError(Throwable e) {
+		if (this.done) {
+			return;
+		}
+		this.done = true;
+		this.earlyChunks.clear();
+		if (this.streamId != null) {
+			this.close(true);
+		}
+		Flow.Subscriber<? super CharSequence> s = this.subscriber;
+		this.signals.add(() -> s.onError(e));
+	}
+
+	/**
+	 * Chunks are processed on the connection's message threads, a chunk ahead
+	 * of the sequence is kept until the ones before it arrive. gateway.js sends
+	 * no more than the window plus the end message ahead.
+	 */
+	void onMessage(JsonObject msg) {
+		synchronized (this) {
+			if (this.done) {
+				logger.debug("dropping message of closed stream {}", this.streamId);
+				return;
+			}
+			long seq = ((JsonNumber) msg.get(SEQUENCE)).longValue();
+			if (seq <= this.sequence || seq > this.sequence + MAX_WINDOW + 1) {
+				this.closeWithError(new IllegalStateException("result stream of " + this.method
+						+ " expected chunk " + (this.sequence + 1) + ", got " + seq));
+			}
+			else {
+				this.earlyChunks.put(seq, msg);
+				JsonObject next;
+				while (!this.done && (next = this.earlyChunks.remove(this.sequence + 1)) != null) {
+					this.sequence++;
+					this.process(next);
+				}
+			}
+		}
+		this.deliver();
+	}
+
+	private void process(JsonObject msg) {
+		Flow.Subscriber<? super CharSequence> s = this.subscriber;
+		if (msg.containsKey(DATA)) {
+			String data = msg.getString(DATA);
+			this.granted--;
+			this.demand--;
+			this.chunkCount++;
+			this.charCount += data.length();
+			this.signals.add(() -> s.onNext(data));
+			this.grant();
+		}
+		else {
+			this.done = true;
+			this.earlyChunks.clear();
+			this.close(false);
+			if (msg.containsKey(ERROR)) {
+				RuntimeException e = new RuntimeException("invokeStream error, " + msg.getString(ERROR));
+				this.signals.add(() -> s.onError(e));
+			}
+			else {
+				this.signals.add(() -> s.onComplete());
+			}
+		}
+	}
+
+	/**
+	 * Signals the subscriber outside of the lock, one thread at a time, so the
+	 * subscriber can request or cancel from its callbacks.
+	 */
+	private void deliver() {
+		synchronized (this) {
+			if (this.delivering) {
+				return;
+			}
+			this.delivering = true;
+		}
+		while (true) {
+			Runnable signal;
+			synchronized (this) {
+				signal = this.signals.poll();
+				if (signal == null) {
+					this.delivering = false;
+					return;
+				}
+			}
+			try {
+				signal.run();
+			}
+			catch (RuntimeException e) {
+				synchronized (this) {
+					this.delivering = false;
+				}
+				throw e;
+			}
+		}
+	}
+
+	public synchronized long getChunkCount() {
+		return this.chunkCount;
+	}
+
+	/**
+	 * @return length of the JSON text received so far.
+	 */
+	public synchronized long getCharCount() {
+		return this.charCount;
+	}
+}
@@ -0,0 +1,681 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locally materialized view of the running applications and their windows.
+ * Seeded once from fin.System.getAllApplications and getAllWindows, then kept
+ * current from the System events, so queries are answered without a round
+ * trip. A periodic full resync compares the model with a fresh snapshot,
+ * differences are counted as inconsistencies and corrected.
+ *
+ * @author Anthony
+ *
+ */
+public class OpenFinStateMirror {
+	final static Logger logger = LoggerFactory.getLogger(OpenFinStateMirror.class);
+
+	public final static String STATE_NORMAL = "normal";
+	public final static String STATE_MINIMIZED = "minimized";
+	public final static String STATE_MAXIMIZED = "maximized";
+
+	final static String[] EVENTS = { "application-started", "application-closed", "application-crashed",
+			"window-created", "window-closed", "window-bounds-changed", "window-minimized", "window-maximized",
+			"window-restored", "window-shown", "window-hidden" };
+
+	public static class ApplicationState {
+		private final String uuid;
+		/**
+		 * sequence of the event that produced this state, or the sequence at the
+		 * start of the snapshot it came from.
+		 */
+		final long sequence;
+
+		ApplicationState(String uuid, long sequence) {
+			this.uuid = uuid;
+			this.sequence = sequence;
+		}
+
+		public String getUuid() {
+			return this.uuid;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ApplicationState && this.uuid.equals(((ApplicationState) obj).uuid);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.uuid.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "ApplicationState[uuid=" + this.uuid + "]";
+		}
+	}
+
+	public static class WindowState {
+		private final String uuid;
+		private final String name;
+		private final int left;
+		private final int top;
+		private final int width;
+		private final int height;
+		private final String state;
+		private final boolean showing;
+		final long sequence;
+
+		WindowState(String uuid, String name, int left, int top, int width, int height, String state,
+				boolean showing, long sequence) {
+			this.uuid = uuid;
+			this.name = name;
+			this.left = left;
+			this.top = top;
+			this.width = width;
+			this.height = height;
+			this.state = state;
+			this.showing = showing;
+			this.sequence = sequence;
+		}
+
+		public String getUuid() {
+			return this.uuid;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public int getLeft() {
+			return this.left;
+		}
+
+		public int getTop() {
+			return this.top;
+		}
+
+		public int getWidth() {
+			return this.width;
+		}
+
+		public int getHeight() {
+			return this.height;
+		}
+
+		/**
+		 * @return normal, minimized or maximized.
+		 */
+		public String getState() {
+			return this.state;
+		}
+
+		public boolean isShowing() {
+			return this.showing;
+		}
+
+		WindowState withBounds(int left, int top, int width, int height, long sequence) {
+			return new WindowState(this.uuid, this.name, left, top, width, height, this.state, this.showing,
+					sequence);
+		}
+
+		WindowState withState(String state, long sequence) {
+			return new WindowState(this.uuid, this.name, this.left, this.top, this.width, this.height, state,
+					this.showing, sequence);
+		}
+
+		WindowState withShowing(boolean showing, long sequence) {
+			return new WindowState(this.uuid, this.name, this.left, this.top, this.width, this.height, this.state,
+					showing, sequence);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof WindowState)) {
+				return false;
+			}
+			WindowState w = (WindowState) obj;
+			return this.uuid.equals(w.uuid) && this.name.equals(w.name) && this.left == w.left
+					&& this.top == w.top && this.width == w.width && this.height == w.height
+					&& Objects.equals(this.state, w.state) && this.showing == w.showing;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.uuid, this.name, this.left, this.top, this.width, this.height, this.state,
+					this.showing);
+		}
+
+		@Override
+		public String toString() {
+			return "WindowState[uuid=" + this.uuid + ", name=" + this.name + ", left=" + this.left + ", top="
+					+ this.top + ", width=" + this.width + ", height=" + this.height + ", state=" + this.state
+					+ ", showing=" + this.showing + "]";
+		}
+	}
+
+	private final OpenFinGateway gateway;
+	private final ScheduledExecutorService scheduler;
+	private final Duration resyncInterval;
+	private final ConcurrentHashMap<String, ApplicationState> applications;
+	private final ConcurrentHashMap<String, WindowState> windows;
+	private final CopyOnWriteArrayList<OpenFinStateMirrorListener> listeners;
+	private final ConcurrentHashMap<String, ProxyListener> eventListeners;
+	private final LongAdder eventCount;
+	private final LongAdder resyncCount;
+	private final LongAdder inconsistencyCount;
+
+	/**
+	 * sequence of the last applied event and the removals since the last resync,
+	 * so a snapshot taken before an event does not revert it. Guarded by the
+	 * instance lock, as are all the updates of the model.
+	 */
+	private long sequence;
+	private final HashMap<String, Long> removedApplications;
+	private final HashMap<String, Long> removedWindows;
+	private boolean seeded;
+	private CompletableFuture<Void> resyncFuture;
+	private ScheduledFuture<?> resyncTask;
+	private volatile boolean closed;
+
+	OpenFinStateMirror(OpenFinGateway gateway, ScheduledExecutorService scheduler, Duration resyncInterval) {
+		this.gateway = gateway;
+		this.scheduler = scheduler;
+		this.resyncInterval = resyncInterval;
+		this.applications = new ConcurrentHashMap<>();
+		this.windows = new ConcurrentHashMap<>();
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.eventListeners = new ConcurrentHashMap<>();
+		this.eventCount = new LongAdder();
+		this.resyncCount = new LongAdder();
+		this.inconsistencyCount = new LongAdder();
+		this.removedApplications = new HashMap<>();
+		this.removedWindows = new HashMap<>();
+	}
+
+	/**
+	 * Creates the mirror, subscribes to the System events and seeds the model.
+	 * @param gateway the gateway
+	 * @param resyncInterval interval of the full resync, null or zero to disable it.
+	 * @return the new CompletionStage that completes with the seeded mirror.
+	 */
+	public static CompletionStage<OpenFinStateMirror> start(OpenFinGateway gateway, Duration resyncInterval) {
+		OpenFinStateMirror mirror = new OpenFinStateMirror(gateway, getScheduler(gateway), resyncInterval);
+		CompletableFuture<OpenFinStateMirror> future = new CompletableFuture<>();
+		// subscribe first, events received while seeding win over the snapshot.
+		mirror.addEventListeners().thenCompose(v -> {
+			return mirror.resync();
+		}).whenComplete((v, e) -> {
+			if (e == null) {
+				mirror.scheduleResync();
+				future.complete(mirror);
+			}
+			else {
+				// don't leave the System listeners behind
+				mirror.close().whenComplete((v2, e2) -> {
+					if (e2 != null) {
+						logger.warn("error removing System listeners", e2);
+					}
+					future.completeExceptionally(e);
+				});
+			}
+		});
+		return future;
+	}
+
+	private static ScheduledExecutorService getScheduler(OpenFinGateway gateway) {
+		if (gateway instanceof ShardedOpenFinGateway) {
+			return ((ShardedOpenFinGateway) gateway).getScheduler();
+		}
+		else if (gateway instanceof OpenFinGatewayImpl) {
+			return ((OpenFinGatewayImpl) gateway).getScheduler();
+		}
+		else {
+			return null;
+		}
+	}
+
+	private CompletionStage<Void> addEventListeners() {
+		CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
+		for (String event : EVENTS) {
+			future = future.thenCompose(v -> {
+				return this.gateway.addListener(true, "fin.System.addListener", event, e -> {
+					if (e.size() > 0 && e.get(0).getValueType() == JsonValue.ValueType.OBJECT) {
+						this.applyEvent(e.getJsonObject(0));
+					}
+					return null;
+				}).thenAccept(proxyListener -> {
+					this.eventListeners.put(event, proxyListener);
+				});
+			});
+		}
+		return future;
+	}
+
+	private void scheduleResync() {
+		if (this.resyncInterval == null || this.resyncInterval.isZero() || this.resyncInterval.isNegative()) {
+			return;
+		}
+		if (this.scheduler == null) {
+			logger.warn("no scheduler of the gateway, periodic resync disabled");
+			return;
+		}
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.resyncTask = this.scheduler.schedule(() -> {
+				this.resync().whenComplete((v, e) -> {
+					if (e != null) {
+						logger.warn("resync error", e);
+					}
+					this.scheduleResync();
+				});
+			}, this.resyncInterval.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Replaces the model with a fresh snapshot, except what changed by events
+	 * since the snapshot was requested. Differences found after the initial seed
+	 * are counted as inconsistencies.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> resync() {
+		long startSequence;
+		CompletableFuture<Void> future;
+		synchronized (this) {
+			if (this.resyncFuture != null) {
+				return this.resyncFuture;
+			}
+			future = new CompletableFuture<>();
+			this.resyncFuture = future;
+			startSequence = this.sequence;
+		}
+		this.fetchApplications(startSequence).thenCombine(this.fetchWindows(startSequence), (apps, wins) -> {
+			this.applySnapshot(apps, wins, startSequence);
+			return null;
+		}).whenComplete((v, e) -> {
+			synchronized (this) {
+				this.resyncFuture = null;
+			}
+			if (e != null) {
+				future.completeExceptionally(e);
+			}
+			else {
+				future.complete(null);
+			}
+		});
+		return future;
+	}
+
+	private CompletionStage<Map<String, ApplicationState>> fetchApplications(long startSequence) {
+		return this.gateway.invoke(OpenFinPriority.BULK, false, "fin.System.getAllApplications").thenApply(r -> {
+			Map<String, ApplicationState> apps = new HashMap<>();
+			JsonArray infos = r.getResultAsJsonArray();
+			for (int i = 0; infos != null && i < infos.size(); i++) {
+				JsonObject info = infos.getJsonObject(i);
+				if (info.getBoolean("isRunning", true)) {
+					String uuid = info.getString("uuid");
+					apps.put(uuid, new ApplicationState(uuid, startSequence));
+				}
+			}
+			return apps;
+		});
+	}
+
+	private CompletionStage<Map<String, WindowState>> fetchWindows(long startSequence) {
+		return this.gateway.invoke(OpenFinPriority.BULK, false, "fin.System.getAllWindows").thenCompose(r -> {
+			List<CompletableFuture<WindowState>> futures = new ArrayList<>();
+			JsonArray infos = r.getResultAsJsonArray();
+			for (int i = 0; infos != null && i < infos.size(); i++) {
+				JsonObject appInfo = infos.getJsonObject(i);
+				String uuid = appInfo.getString("uuid");
+				if (appInfo.containsKey("mainWindow")) {
+					futures.add(this.fetchWindow(uuid, appInfo.getJsonObject("mainWindow"), startSequence)
+							.toCompletableFuture());
+				}
+				JsonArray childWindows = appInfo.getJsonArray("childWindows");
+				for (int j = 0; childWindows != null && j < childWindows.size(); j++) {
+					futures.add(this.fetchWindow(uuid, childWindows.getJsonObject(j), startSequence)
+							.toCompletableFuture());
+				}
+			}
+			return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+				Map<String, WindowState> wins = new HashMap<>();
+				for (CompletableFuture<WindowState> f : futures) {
+					WindowState w = f.join();
+					if (w != null) {
+						wins.put(key(w.uuid, w.name), w);
+					}
+				}
+				return wins;
+			});
+		});
+	}
+
+	/**
+	 * Builds the window state from its entry of getAllWindows, the state and
+	 * visibility are asked from the window itself if the entry does not have
+	 * them.
+	 * @return the new CompletionStage that completes with null if the window is
+	 *         gone already.
+	 */
+	private CompletionStage<WindowState> fetchWindow(String uuid, JsonObject info, long startSequence) {
+		String name = info.getString("name");
+		if (info.containsKey("state") && info.containsKey("isShowing")) {
+			return CompletableFuture.completedFuture(toWindowState(uuid, name, info, info.getString("state"),
+					info.getBoolean("isShowing"), startSequence));
+		}
+		JsonObject identity = Json.createObjectBuilder().add("uuid", uuid).add("name", name).build();
+		return this.gateway.invoke(OpenFinPriority.BULK, true, "fin.Window.wrap", identity).thenCompose(r -> {
+			ProxyObject win = r.getProxyObject();
+			return win.invoke("getState").thenCombine(win.invoke("isShowing"), (state, showing) -> {
+				return toWindowState(uuid, name, info, state.getResultAsString(),
+						showing.getResultAsBoolean().booleanValue(), startSequence);
+			}).whenComplete((w, e) -> {
+				win.dispose();
+			});
+		}).exceptionally(e -> {
+			logger.debug("unable to get state of window {}/{}", uuid, name, e);
+			return null;
+		});
+	}
+
+	static WindowState toWindowState(String uuid, String name, JsonObject bounds, String state, boolean showing,
+			long sequence) {
+		int left = getInt(bounds, "left");
+		int top = getInt(bounds, "top");
+		int width = bounds.containsKey("width") ? getInt(bounds, "width") : getInt(bounds, "right") - left;
+		int height = bounds.containsKey("height") ? getInt(bounds, "height") : getInt(bounds, "bottom") - top;
+		return new WindowState(uuid, name, left, top, width, height, state, showing, sequence);
+	}
+
+	private static int getInt(JsonObject obj, String name) {
+		JsonValue v = obj.get(name);
+		return v instanceof JsonNumber ? ((JsonNumber) v).intValue() : 0;
+	}
+
+	static String key(String uuid, String name) {
+		return uuid + "::" + name;
+	}
+
+	synchronized long getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * Applies one System event to the model.
+	 */
+	synchronized void applyEvent(JsonObject event) {
+		String type = event.getString("type", null);
+		String uuid = event.getString("uuid", null);
+		if (type == null || uuid == null) {
+			return;
+		}
+		this.eventCount.increment();
+		long seq = ++this.sequence;
+		if (type.startsWith("application-")) {
+			ApplicationState oldState = this.applications.get(uuid);
+			if ("application-started".equals(type)) {
+				ApplicationState newState = new ApplicationState(uuid, seq);
+				this.applications.put(uuid, newState);
+				this.removedApplications.remove(uuid);
+				this.fireApplicationChanged(oldState, newState);
+			}
+			else if ("application-closed".equals(type) || "application-crashed".equals(type)) {
+				this.removedApplications.put(uuid, seq);
+				if (this.applications.remove(uuid) != null) {
+					this.fireApplicationChanged(oldState, null);
+				}
+			}
+			return;
+		}
+		String name = event.getString("name", null);
+		if (name == null) {
+			return;
+		}
+		String key = key(uuid, name);
+		WindowState oldState = this.windows.get(key);
+		WindowState newState = null;
+		if ("window-created".equals(type)) {
+			// the event has no bounds nor state, they are filled in by the bounds
+			// and shown events that follow, or by the next resync.
+			newState = oldState == null ? new WindowState(uuid, name, 0, 0, 0, 0, STATE_NORMAL, false, seq)
+					: oldState;
+			this.removedWindows.remove(key);
+		}
+		else if ("window-closed".equals(type)) {
+			this.removedWindows.put(key, seq);
+			if (this.windows.remove(key) != null) {
+				this.fireWindowChanged(oldState, null);
+			}
+			return;
+		}
+		else if (oldState == null) {
+			// not known yet, the next resync picks it up.
+			return;
+		}
+		else if ("window-bounds-changed".equals(type)) {
+			newState = oldState.withBounds(getInt(event, "left"), getInt(event, "top"), getInt(event, "width"),
+					getInt(event, "height"), seq);
+		}
+		else if ("window-minimized".equals(type)) {
+			newState = oldState.withState(STATE_MINIMIZED, seq);
+		}
+		else if ("window-maximized".equals(type)) {
+			newState = oldState.withState(STATE_MAXIMIZED, seq);
+		}
+		else if ("window-restored".equals(type)) {
+			newState = oldState.withState(STATE_NORMAL, seq);
+		}
+		else if ("window-shown".equals(type)) {
+			newState = oldState.withShowing(true, seq);
+		}
+		else if ("window-hidden".equals(type)) {
+			newState = oldState.withShowing(false, seq);
+		}
+		else {
+			return;
+		}
+		this.windows.put(key, newState);
+		if (!newState.equals(oldState)) {
+			this.fireWindowChanged(oldState, newState);
+		}
+	}
+
+	/**
+	 * Replaces the model with the snapshot requested at startSequence, entries
+	 * changed or removed by later events are kept.
+	 */
+	synchronized void applySnapshot(Map<String, ApplicationState> apps, Map<String, WindowState> wins,
+			long startSequence) {
+		this.reconcile(this.applications, apps, this.removedApplications, startSequence, s -> s.sequence,
+				this::fireApplicationChanged);
+		this.reconcile(this.windows, wins, this.removedWindows, startSequence, s -> s.sequence,
+				this::fireWindowChanged);
+		this.removedApplications.values().removeIf(seq -> seq <= startSequence);
+		this.removedWindows.values().removeIf(seq -> seq <= startSequence);
+		this.seeded = true;
+		this.resyncCount.increment();
+	}
+
+	private <S> void reconcile(Map<String, S> model, Map<String, S> snapshot, Map<String, Long> removed,
+			long startSequence, ToLongFunction<S> sequenceOf, BiConsumer<S, S> changeListener) {
+		Set<String> keys = new LinkedHashSet<>(model.keySet());
+		keys.addAll(snapshot.keySet());
+		for (String key : keys) {
+			S current = model.get(key);
+			S fetched = snapshot.get(key);
+			if (current != null && sequenceOf.applyAsLong(current) > startSequence) {
+				continue;
+			}
+			Long removedSequence = removed.get(key);
+			if (current == null && removedSequence != null && removedSequence > startSequence) {
+				continue;
+			}
+			if (!Objects.equals(current, fetched)) {
+				if (this.seeded) {
+					this.inconsistencyCount.increment();
+					logger.debug("inconsistent state of {}, mirrored: {}, actual: {}", key, current, fetched);
+				}
+				if (fetched == null) {
+					model.remove(key);
+				}
+				else {
+					model.put(key, fetched);
+				}
+				changeListener.accept(current, fetched);
+			}
+		}
+	}
+
+	private void fireApplicationChanged(ApplicationState oldState, ApplicationState newState) {
+		for (OpenFinStateMirrorListener listener : this.listeners) {
+			try {
+				listener.onApplicationChanged(oldState, newState);
+			}
+			catch (Exception e) {
+				logger.error("error invoking state mirror listener", e);
+			}
+		}
+	}
+
+	private void fireWindowChanged(WindowState oldState, WindowState newState) {
+		for (OpenFinStateMirrorListener listener : this.listeners) {
+			try {
+				listener.onWindowChanged(oldState, newState);
+			}
+			catch (Exception e) {
+				logger.error("error invoking state mirror listener", e);
+			}
+		}
+	}
+
+	public void addListener(OpenFinStateMirrorListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void removeListener(OpenFinStateMirrorListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	public List<ApplicationState> getApplications() {
+		return new ArrayList<>(this.applications.values());
+	}
+
+	/**
+	 * @return the application state, null if the application is not running.
+	 */
+	public ApplicationState getApplication(String uuid) {
+		return this.applications.get(uuid);
+	}
+
+	public boolean isRunning(String uuid) {
+		return this.applications.containsKey(uuid);
+	}
+
+	public List<WindowState> getWindows() {
+		return new ArrayList<>(this.windows.values());
+	}
+
+	public List<WindowState> getWindows(String uuid) {
+		List<WindowState> wins = new ArrayList<>();
+		for (WindowState w : this.windows.values()) {
+			if (w.uuid.equals(uuid)) {
+				wins.add(w);
+			}
+		}
+		return wins;
+	}
+
+	/**
+	 * @return the window state, null if there is no such window.
+	 */
+	public WindowState getWindow(String uuid, String name) {
+		return this.windows.get(key(uuid, name));
+	}
+
+	public long getEventCount() {
+		return this.eventCount.sum();
+	}
+
+	/**
+	 * @return number of completed resyncs including the initial seed.
+	 */
+	public long getResyncCount() {
+		return this.resyncCount.sum();
+	}
+
+	/**
+	 * @return number of entries corrected by the resyncs after the initial seed.
+	 */
+	public long getInconsistencyCount() {
+		return this.inconsistencyCount.sum();
+	}
+
+	/**
+	 * Stops the resync and removes the System event listeners, the model is no
+	 * longer updated.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> close() {
+		synchronized (this) {
+			this.closed = true;
+			if (this.resyncTask != null) {
+				this.resyncTask.cancel(false);
+			}
+		}
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (Map.Entry<String, ProxyListener> e : this.eventListeners.entrySet()) {
+			futures.add(this.gateway.removeListener("fin.System.removeListener", e.getKey(), e.getValue())
+					.toCompletableFuture());
+		}
+		this.eventListeners.clear();
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+	}
+}
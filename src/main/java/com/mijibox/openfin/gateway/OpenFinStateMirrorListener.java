@@ -0,0 +1,38 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import com.mijibox.openfin.gateway.OpenFinStateMirror.ApplicationState;
+import com.mijibox.openfin.gateway.OpenFinStateMirror.WindowState;
+
+/**
+ * Receives the changes of an OpenFinStateMirror. Old state is null when added,
+ * new state is null when removed. Called in the order the changes are applied,
+ * implementations should return quickly.
+ *
+ * @author Anthony
+ *
+ */
+public interface OpenFinStateMirrorListener {
+
+	default void onApplicationChanged(ApplicationState oldState, ApplicationState newState) {
+	}
+
+	default void onWindowChanged(WindowState oldState, WindowState newState) {
+	}
+}
@@ -0,0 +1,81 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+
+import javax.json.JsonValue;
+
+/**
+ * Method resolved once in gateway.js and kept there by a small integer
+ * handle, invokes send only the handle and the arguments. Instance methods
+ * keep their target object referenced until released.
+ *
+ * @author Anthony
+ *
+ */
+public class PreparedMethod {
+	private final OpenFinGatewayImpl gateway;
+	private final ProxyObject proxyObject;
+	private final String method;
+	private final int handle;
+
+	PreparedMethod(OpenFinGatewayImpl gateway, ProxyObject proxyObject, String method, int handle) {
+		this.gateway = gateway;
+		this.proxyObject = proxyObject;
+		this.method = method;
+		this.handle = handle;
+	}
+
+	public CompletionStage<InvokeResult> invoke(JsonValue... args) {
+		return this.invoke(OpenFinPriority.INTERACTIVE, this.gateway.getInvokeTimeout(), false, args);
+	}
+
+	public CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, JsonValue... args) {
+		return this.gateway.invoke(this, priority, timeout, createProxyObject, args);
+	}
+
+	/**
+	 * Frees the handle in gateway.js, it can be given to another method afterwards.
+	 * @return the new CompletionStage
+	 */
+	public CompletionStage<Void> release() {
+		return this.gateway.releasePreparedMethod(this);
+	}
+
+	public int getHandle() {
+		return this.handle;
+	}
+
+	public String getMethod() {
+		return this.method;
+	}
+
+	/**
+	 * @return the target object of the instance method, null for static methods.
+	 */
+	public ProxyObject getProxyObject() {
+		return this.proxyObject;
+	}
+
+	public OpenFinGateway getGateway() {
+		return this.gateway;
+	}
+}
@@ -17,6 +17,7 @@ limitations under the License.
 
 package com.mijibox.openfin.gateway;
 
+import java.time.Duration;
 import java.util.concurrent.CompletionStage;
 
 import javax.json.JsonObject;
@@ -24,11 +25,52 @@ import javax.json.JsonValue;
 
 public class ProxyObject extends AbstractProxy {
 	
-	JsonObject resultJson;
+	volatile JsonObject resultJson;
+	private String resultText;
+	private final DirectApiFastPath.TargetType targetType;
+	private final JsonObject identity;
 
-	ProxyObject(JsonValue proxyId, JsonObject jsonObject, ProxyObject invoker, OpenFinGatewayImpl gateway) {
+	ProxyObject(JsonValue proxyId, JsonObject jsonObject, String resultText, ProxyObject invoker,
+			OpenFinGatewayImpl gateway) {
+		this(proxyId, jsonObject, resultText, invoker, gateway, null);
+	}
+
+	ProxyObject(JsonValue proxyId, JsonObject jsonObject, String resultText, ProxyObject invoker,
+			OpenFinGatewayImpl gateway, DirectApiFastPath.TargetType targetType) {
+		this(proxyId, jsonObject, resultText, invoker, gateway, targetType, null);
+	}
+
+	/**
+	 * @param identity identity of the window or application, recorded when the
+	 *                 result JSON is not retained.
+	 */
+	ProxyObject(JsonValue proxyId, JsonObject jsonObject, String resultText, ProxyObject invoker,
+			OpenFinGatewayImpl gateway, DirectApiFastPath.TargetType targetType, JsonObject identity) {
 		super(proxyId, invoker, gateway);
 		this.resultJson = jsonObject;
+		this.resultText = resultText;
+		this.targetType = targetType;
+		this.identity = identity;
+	}
+
+	/**
+	 * @return window or application if the method that created the proxy object
+	 *         is known to return one, otherwise null.
+	 */
+	DirectApiFastPath.TargetType getTargetType() {
+		return this.targetType;
+	}
+
+	/**
+	 * @return the identity object of the result, null if there is none.
+	 */
+	JsonObject getIdentity() {
+		if (this.identity != null) {
+			return this.identity;
+		}
+		JsonObject json = this.getResultJson();
+		JsonValue value = json == null ? null : json.get("identity");
+		return value != null && value.getValueType() == JsonValue.ValueType.OBJECT ? value.asJsonObject() : null;
 	}
 	
 	public CompletionStage<InvokeResult> invoke(String method) {
@@ -43,6 +85,16 @@ public class ProxyObject extends AbstractProxy {
 		return this.gateway.invoke(createProxyObject, this, method, args);
 	}
 
+	/**
+	 * Prepares the instance method, the object stays referenced in OpenFin
+	 * runtime until the PreparedMethod is released.
+	 * @param method the instance method name
+	 * @return the new CompletionStage with the prepared method
+	 */
+	public CompletionStage<PreparedMethod> prepare(String method) {
+		return this.gateway.prepare(this, method);
+	}
+
 	/**
 	 * Single argument like ChannelProvider.onConnection(listener);
 	 * @param method method name to add the listener 
@@ -73,7 +125,30 @@ public class ProxyObject extends AbstractProxy {
 		return this.gateway.removeInstanceListener(this, method, event, listener);
 	}
 
+	public CompletionStage<OpenFinPoller> addPoller(Duration interval, OpenFinPollerListener listener, String method,
+			JsonValue... args) {
+		return this.gateway.addPoller(this, interval, listener, method, args);
+	}
+
+	public CompletionStage<BinaryResult> invokeBinary(String method, JsonValue... args) {
+		return this.gateway.invokeBinary(this, method, args);
+	}
+
+	public OpenFinResultStream invokeStream(String method, JsonValue... args) {
+		return this.gateway.invokeStream(this, OpenFinResultStream.DEFAULT_CHUNK_SIZE, method, args);
+	}
+
+	/**
+	 * @return the invoke result that created this proxy object, null if the
+	 *         gateway is set not to retain it.
+	 */
 	public JsonObject getResultJson() {
-		return this.resultJson;
+		JsonObject json = this.resultJson;
+		if (json == null && this.resultText != null) {
+			JsonValue value = InvokeResult.parse(this.resultText);
+			json = value.getValueType() == JsonValue.ValueType.OBJECT ? value.asJsonObject() : null;
+			this.resultJson = json;
+		}
+		return json;
 	}
 }
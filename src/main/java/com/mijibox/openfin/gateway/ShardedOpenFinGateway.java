@@ -0,0 +1,299 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import javax.json.JsonValue;
+
+/**
+ * Gateway over multiple gateway applications of the same connection. Invokes
+ * not on proxy objects are distributed by the routing, proxy objects and
+ * listeners stay in the shard that created them.
+ *
+ * @author Anthony
+ *
+ */
+public class ShardedOpenFinGateway implements OpenFinGateway {
+
+	public enum Routing {
+		/**
+		 * shards take turns.
+		 */
+		ROUND_ROBIN,
+		/**
+		 * the shard with the fewest outstanding invokes.
+		 */
+		LEAST_IN_FLIGHT
+	}
+
+	private final List<OpenFinGatewayImpl> shards;
+	private final Routing routing;
+	private final AtomicInteger nextShard;
+	private final AtomicLongArray routedCounts;
+
+	ShardedOpenFinGateway(List<OpenFinGatewayImpl> shards, Routing routing) {
+		this.shards = Collections.unmodifiableList(shards);
+		this.routing = routing;
+		this.nextShard = new AtomicInteger(0);
+		this.routedCounts = new AtomicLongArray(shards.size());
+	}
+
+	/**
+	 * @return index of the shard for the next routed call.
+	 */
+	int pickShard() {
+		int size = this.shards.size();
+		int start = Math.floorMod(this.nextShard.getAndIncrement(), size);
+		int picked = start;
+		if (this.routing == Routing.LEAST_IN_FLIGHT) {
+			// scan from the rotating start so ties are spread.
+			int least = Integer.MAX_VALUE;
+			for (int i = 0; i < size; i++) {
+				int idx = (start + i) % size;
+				int inFlight = this.shards.get(idx).getInFlightInvokes();
+				if (inFlight < least) {
+					least = inFlight;
+					picked = idx;
+				}
+			}
+		}
+		this.routedCounts.incrementAndGet(picked);
+		return picked;
+	}
+
+	private OpenFinGatewayImpl route() {
+		return this.shards.get(this.pickShard());
+	}
+
+	public List<? extends OpenFinGateway> getShards() {
+		return this.shards;
+	}
+
+	public int getShardCount() {
+		return this.shards.size();
+	}
+
+	public Routing getRouting() {
+		return this.routing;
+	}
+
+	/**
+	 * @return scheduler of the connection shared by the shards.
+	 */
+	ScheduledExecutorService getScheduler() {
+		return this.shards.get(0).getScheduler();
+	}
+
+	public int getShardInFlightInvokes(int shard) {
+		return this.shards.get(shard).getInFlightInvokes();
+	}
+
+	public long getShardInvokeCount(int shard) {
+		return this.shards.get(shard).getInvokeCount();
+	}
+
+	/**
+	 * @return calls the routing sent to the shard, calls on proxy objects are not counted.
+	 */
+	public long getShardRoutedCount(int shard) {
+		return this.routedCounts.get(shard);
+	}
+
+	@Override
+	public String getId() {
+		return this.shards.get(0).getId();
+	}
+
+	@Override
+	public String getGatewayScriptUrl() {
+		return this.shards.get(0).getGatewayScriptUrl();
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> invoke(String method, JsonValue... args) {
+		return this.route().invoke(method, args);
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> invoke(boolean createProxyObject, String method, JsonValue... args) {
+		return this.route().invoke(createProxyObject, method, args);
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> invoke(OpenFinPriority priority, boolean createProxyObject, String method,
+			JsonValue... args) {
+		return this.route().invoke(priority, createProxyObject, method, args);
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> invoke(OpenFinPriority priority, Duration timeout,
+			boolean createProxyObject, String method, JsonValue... args) {
+		return this.route().invoke(priority, timeout, createProxyObject, method, args);
+	}
+
+	@Override
+	public <T> CompletionStage<T> invoke(Class<T> resultType, String method, Object... args) {
+		return this.route().invoke(resultType, method, args);
+	}
+
+	@Override
+	public CompletionStage<PreparedMethod> prepare(String method) {
+		return this.route().prepare(method);
+	}
+
+	@Override
+	public CompletionStage<Void> addListener(String method, OpenFinEventListener listener) {
+		return this.route().addListener(method, listener);
+	}
+
+	@Override
+	public CompletionStage<ProxyListener> addListener(boolean createProxyListener, String method,
+			OpenFinEventListener listener) {
+		return this.route().addListener(createProxyListener, method, listener);
+	}
+
+	@Override
+	public CompletionStage<Void> addListener(String method, String event, OpenFinEventListener listener) {
+		return this.route().addListener(method, event, listener);
+	}
+
+	@Override
+	public CompletionStage<ProxyListener> addListener(boolean createProxyListener, String method, String event,
+			OpenFinEventListener listener) {
+		return this.route().addListener(createProxyListener, method, event, listener);
+	}
+
+	@Override
+	public CompletionStage<ProxyListener> addListener(boolean createProxyListener, String method,
+			OpenFinEventListener listener, int listenerArgIdx, JsonValue... args) {
+		return this.route().addListener(createProxyListener, method, listener, listenerArgIdx, args);
+	}
+
+	@Override
+	public CompletionStage<Void> removeListener(String method, String event, ProxyListener listener) {
+		return listener.gateway.removeListener(method, event, listener);
+	}
+
+	@Override
+	public CompletionStage<OpenFinPoller> addPoller(Duration interval, OpenFinPollerListener listener, String method,
+			JsonValue... args) {
+		return this.route().addPoller(interval, listener, method, args);
+	}
+
+	@Override
+	public OpenFinResultStream invokeStream(String method, JsonValue... args) {
+		return this.route().invokeStream(method, args);
+	}
+
+	@Override
+	public OpenFinResultStream invokeStream(int chunkSize, String method, JsonValue... args) {
+		return this.route().invokeStream(chunkSize, method, args);
+	}
+
+	@Override
+	public CompletionStage<BinaryResult> invokeBinary(String method, JsonValue... args) {
+		return this.route().invokeBinary(method, args);
+	}
+
+	@Override
+	public CompletionStage<Void> registerProcedure(String name, String body, String... parameterNames) {
+		return this.allShards(shard -> shard.registerProcedure(name, body, parameterNames));
+	}
+
+	@Override
+	public CompletionStage<InvokeResult> callProcedure(String name, JsonValue... args) {
+		return this.route().callProcedure(name, args);
+	}
+
+	@Override
+	public CompletionStage<List<String>> listProcedures() {
+		// procedures are registered to all the shards.
+		return this.shards.get(0).listProcedures();
+	}
+
+	@Override
+	public CompletionStage<Void> removeProcedure(String name) {
+		return this.allShards(shard -> shard.removeProcedure(name));
+	}
+
+	private CompletionStage<Void> allShards(Function<OpenFinGatewayImpl, CompletionStage<?>> action) {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[this.shards.size()];
+		for (int i = 0; i < futures.length; i++) {
+			futures[i] = action.apply(this.shards.get(i)).toCompletableFuture();
+		}
+		return CompletableFuture.allOf(futures);
+	}
+
+	@Override
+	public CompletionStage<OpenFinGateway> close() {
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[this.shards.size() - 1];
+		for (int i = 1; i < this.shards.size(); i++) {
+			futures[i - 1] = this.shards.get(i).quit().toCompletableFuture();
+		}
+		// the first shard disconnects after the others are gone.
+		return CompletableFuture.allOf(futures).thenCompose(v -> {
+			return this.shards.get(0).close();
+		}).thenApply(gateway -> this);
+	}
+
+	@Override
+	public OpenFinInterApplicationBus getOpenFinInterApplicationBus() {
+		return this.shards.get(0).getOpenFinInterApplicationBus();
+	}
+
+	@Override
+	public InvokeLimiter getInvokeLimiter() {
+		return this.shards.get(0).getInvokeLimiter();
+	}
+
+	/**
+	 * The coalescer is shared by all shards.
+	 */
+	@Override
+	public InvokeCoalescer getInvokeCoalescer() {
+		return this.shards.get(0).getInvokeCoalescer();
+	}
+
+	/**
+	 * The result cache is shared by all shards.
+	 */
+	@Override
+	public InvokeResultCache getInvokeResultCache() {
+		return this.shards.get(0).getInvokeResultCache();
+	}
+
+	@Override
+	public DirectApiFastPath getDirectApiFastPath() {
+		return this.shards.get(0).getDirectApiFastPath();
+	}
+
+	@Override
+	public CompletionStage<OpenFinGateway> getApplicationGateway(String appUuid) {
+		return this.shards.get(0).getApplicationGateway(appUuid);
+	}
+}
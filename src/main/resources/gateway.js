@@ -1,10 +1,18 @@
 var openFinApiGateway = (function() {
 	let proxyObjectMap = new Map();
+	// registered procedures, invoked as 'procedures.<name>' methods.
+	let procedures = Object.create(null);
+	const AsyncFunction = Object.getPrototypeOf(async function() {}).constructor;
 	let objIdSequence = 0;
+	// methods resolved once, indexed by handle, released handles are reused.
+	let preparedMethods = [];
+	let freeHandles = [];
 	let debug = false;
 
-	function addProxyObject(obj) {
-		let proxyObjId = 'proxy-' + objIdSequence++;
+	// protocol v2 uses numeric ids, they start from 1 so they are never falsy.
+	function addProxyObject(obj, numericId) {
+		let seq = ++objIdSequence;
+		let proxyObjId = numericId ? seq : 'proxy-' + seq;
 		proxyObjectMap.set(proxyObjId, obj);
 		return proxyObjId;
 	}
@@ -39,7 +47,54 @@ var openFinApiGateway = (function() {
 		return JSON.stringify(replaceCircular(obj));
 	}
 
-	function invokeMethod(obj, method, ...args) {
+	function jsonType(val) {
+		return val === null ? 'null' : Array.isArray(val) ? 'array' : typeof val;
+	}
+
+	function escapePointer(key) {
+		return String(key).replace(/~/g, '~0').replace(/\//g, '~1');
+	}
+
+	// structural diff of two JSON values as JSON Patch (RFC 6902) operations,
+	// arrays are compared by index.
+	function diff(prev, next, path, ops) {
+		let prevType = jsonType(prev);
+		if (prevType != jsonType(next) || (prevType != 'object' && prevType != 'array')) {
+			if (prev !== next) {
+				ops.push({op: 'replace', path, value: next});
+			}
+		}
+		else if (prevType == 'object') {
+			Object.keys(prev).forEach(key => {
+				if (!next.hasOwnProperty(key)) {
+					ops.push({op: 'remove', path: path + '/' + escapePointer(key)});
+				}
+			});
+			Object.keys(next).forEach(key => {
+				if (prev.hasOwnProperty(key)) {
+					diff(prev[key], next[key], path + '/' + escapePointer(key), ops);
+				}
+				else {
+					ops.push({op: 'add', path: path + '/' + escapePointer(key), value: next[key]});
+				}
+			});
+		}
+		else {
+			let common = Math.min(prev.length, next.length);
+			for (let i = 0; i < common; i++) {
+				diff(prev[i], next[i], path + '/' + i, ops);
+			}
+			for (let i = prev.length - 1; i >= common; i--) {
+				ops.push({op: 'remove', path: path + '/' + i});
+			}
+			for (let i = common; i < next.length; i++) {
+				ops.push({op: 'add', path: path + '/' + i, value: next[i]});
+			}
+		}
+		return ops;
+	}
+
+	function resolveMethod(obj, method) {
 		if (!obj) {
 			var nObj = method.substring(0, method.lastIndexOf('.'));
 			obj = eval(nObj);
@@ -47,12 +102,12 @@ var openFinApiGateway = (function() {
 			if (!obj || !m) {
 				throw new Error('invalid method: ' + method);
 			}
-			return m.call(obj, ...args);
+			return {obj, fn: m};
 		} 
 		else {
 			let evalResult = eval('obj.' + method);
 			if (isFunction(evalResult)) {
-				return evalResult.call(obj, ...args);
+				return {obj, fn: evalResult};
 			}
 			else {
 				throw new Error('invalid instance method: ' + method);
@@ -60,6 +115,11 @@ var openFinApiGateway = (function() {
 			}
 		}
 	}
+
+	function invokeMethod(obj, method, ...args) {
+		let resolved = resolveMethod(obj, method);
+		return resolved.fn.call(resolved.obj, ...args);
+	}
 	
 	function invokePromise(obj, method, ...args) {
 		return new Promise((resolve, reject)=>{
@@ -67,6 +127,142 @@ var openFinApiGateway = (function() {
 		});
 	}
 	
+	// binary results are sent as base64 text, data URLs like the ones of
+	// Window.capturePage are sent without the prefix.
+	function toBase64(result) {
+		if (typeof result === 'string') {
+			let comma = result.startsWith('data:') ? result.indexOf(',') : -1;
+			return comma >= 0 ? result.substring(comma + 1) : result;
+		}
+		let bytes = null;
+		if (result instanceof ArrayBuffer) {
+			bytes = new Uint8Array(result);
+		}
+		else if (ArrayBuffer.isView(result)) {
+			bytes = new Uint8Array(result.buffer, result.byteOffset, result.byteLength);
+		}
+		else {
+			throw new Error('result is not binary data');
+		}
+		let binary = '';
+		for (let i = 0; i < bytes.length; i += 0x8000) {
+			binary += String.fromCharCode.apply(null, bytes.subarray(i, i + 0x8000));
+		}
+		return btoa(binary);
+	}
+
+	function base64Size(text) {
+		let padding = text.endsWith('==') ? 2 : text.endsWith('=') ? 1 : 0;
+		return Math.floor(text.length * 3 / 4) - padding;
+	}
+
+	// protocol v2: messages are positional arrays [action code, messageId, lane, payload],
+	// responses [action code, messageId, payload]. Action codes are indexes of ACTIONS,
+	// sent to the java side in the hello handshake.
+	const PROTOCOL_VERSION = 2;
+	const ACTIONS = ['hello', 'hello-result', 'error', 'ping', 'pong', 'quit', 'quit-received', 'cancel',
+		'invoke', 'invoke-result', 'delete', 'delete-result', 'add-listener', 'add-listener-result',
+		'remove-listener', 'remove-listener-result', 'add-poller', 'add-poller-result', 'resync-poller',
+		'resync-poller-result', 'remove-poller', 'remove-poller-result', 'register-procedure',
+		'register-procedure-result', 'list-procedures', 'list-procedures-result', 'remove-procedure',
+		'remove-procedure-result', 'prepare', 'prepare-result', 'release', 'release-result', 'invoke-stream',
+		'invoke-stream-result', 'stream-credit', 'stream-cancel'];
+	const ACTION_CODES = new Map(ACTIONS.map((action, code) => [action, code]));
+	const LANES = ['control', 'interactive', 'bulk'];
+
+	// back to the v1 message, so processing is the same for both versions.
+	function decodeMessage(m) {
+		let action = ACTIONS[m[0]];
+		let payload = m[3];
+		if (action == 'invoke' && Array.isArray(payload)) {
+			// [method or handle, proxyResult, proxyObjId, args]
+			let target = payload[0];
+			payload = {proxyResult: payload[1] == 1, proxyObjId: payload[2], args: payload[3]};
+			if (typeof target === 'number') {
+				payload.handle = target;
+			}
+			else {
+				payload.method = target;
+			}
+		}
+		else if (action == 'add-listener' && Array.isArray(payload)) {
+			// [iabTopic, method, listenerArgIdx, proxyResult, proxyObjId, args]
+			payload = {iabTopic: payload[0], method: payload[1], listenerArgIdx: payload[2],
+				proxyResult: payload[3] == 1, proxyObjId: payload[4], args: payload[5]};
+		}
+		return {action, messageId: m[1], priority: LANES[m[2]], payload, compact: true};
+	}
+
+	function encodeResponse(msg) {
+		let payload = msg.payload;
+		if (msg.action == 'invoke-result') {
+			// [resultJson, proxyObjId], trailing ones omitted
+			payload = [];
+			if (typeof msg.payload.proxyObjId !== 'undefined') {
+				payload = [msg.payload.resultJson || null, msg.payload.proxyObjId];
+			}
+			else if (typeof msg.payload.resultJson !== 'undefined') {
+				payload = [msg.payload.resultJson];
+			}
+		}
+		return [ACTION_CODES.get(msg.action), msg.messageId, payload];
+	}
+
+	// messages coalesced by java side IabMessageBatcher
+	function unbatch(msg, handler) {
+		if (msg && Array.isArray(msg.iabBatch) && Object.keys(msg).length == 1) {
+			msg.iabBatch.forEach(m => handler(m));
+		}
+		else {
+			handler(msg);
+		}
+	}
+
+	// control messages are processed right away, interactive and bulk ones are
+	// started in lane order with a limited number of them in progress, so a
+	// burst of bulk work cannot hold up the renderer for everything else.
+	// work gets a release function to give its slot back early, e.g. when its
+	// invoke is cancelled, and a slot is given back after MAX_WORK_TIME anyway,
+	// the work keeps running without it, so calls that never settle cannot
+	// block the lanes.
+	const MAX_ACTIVE_WORK = 16;
+	const MAX_WORK_TIME = 10000;
+	let lanes = {interactive: [], bulk: []};
+	let activeWork = 0;
+
+	function schedule(lane, work) {
+		if (lane == 'control') {
+			work(() => {});
+			return;
+		}
+		(lanes[lane] || lanes.interactive).push(work);
+		runQueuedWork();
+	}
+
+	function runQueuedWork() {
+		while (activeWork < MAX_ACTIVE_WORK) {
+			let work = lanes.interactive.shift() || lanes.bulk.shift();
+			if (!work) {
+				return;
+			}
+			activeWork++;
+			let released = false;
+			let timer = null;
+			let release = () => {
+				if (!released) {
+					released = true;
+					clearTimeout(timer);
+					activeWork--;
+					runQueuedWork();
+				}
+			};
+			timer = setTimeout(release, MAX_WORK_TIME);
+			Promise.resolve(release).then(work).catch(e => {
+				console.error('error processing message', e);
+			}).then(release);
+		}
+	}
+
 	function sendMessage(dest, topic, payload) {
 		if (debug) {
 			console.debug('sending message: ' + JSON.stringify(payload));
@@ -79,55 +275,138 @@ var openFinApiGateway = (function() {
 		fin.Application.getCurrent().then( gatewayApp => {
 			let gatewayAppUuid = gatewayApp.identity.uuid;
 			let gatewayTopicExec = gatewayAppUuid + '-exec';
-			fin.InterApplicationBus.subscribe({uuid: '*'}, gatewayTopicExec, (msg, srcIdentity) => {
+			// invokes not finished yet by messageId, java side can cancel them.
+			let pendingInvokes = new Map();
+			fin.InterApplicationBus.subscribe({uuid: '*'}, gatewayTopicExec, (batchMsg, srcIdentity) => {
+				unbatch(batchMsg, m => {
+					let msg = Array.isArray(m) ? decodeMessage(m) : m;
+					if (msg.action == 'invoke') {
+						pendingInvokes.set(msg.messageId, {cancelled: false, release: null});
+					}
+					schedule(msg.priority, release => processMessage(msg, srcIdentity, release));
+				});
+			});
+
+			function processMessage(msg, srcIdentity, release) {
 				if (debug) {
 					console.debug('received message: ' + JSON.stringify(msg));
 				}
 				let action = msg.action;
 				let messageId = msg.messageId;
 				let payload = msg.payload;
+
+				var reply = function(response) {
+					sendMessage(srcIdentity, gatewayTopicExec, msg.compact ? encodeResponse(response) : response);
+				};
 				
 				var sendError = function(errorMessage) {
 					console.debug('sendError', errorMessage);
 					let errorPayload = {messageId, action: 'error', payload: {error: errorMessage, requestPayload: payload}};
-					sendMessage(srcIdentity, gatewayTopicExec, errorPayload);
+					reply(errorPayload);
 				};
 				
-				if (action == 'ping') {
-					sendMessage(srcIdentity, gatewayTopicExec, {action: 'pong', messageId, payload:{}});
+				if (action == 'hello') {
+					// v1 java side does not send it, v1 gateway.js does not answer it.
+					let version = Math.min(payload.version || 1, PROTOCOL_VERSION);
+					reply({action: 'hello-result', messageId, payload: {version, actions: ACTIONS}});
+				}
+				else if (action == 'ping') {
+					reply({action: 'pong', messageId, payload:{}});
 				}
 				else if (action == 'delete') {
 					// payload is proxyObjId
 					if (getProxyObject(payload)) {
 						removeProxyObject(payload);
-						sendMessage(srcIdentity, gatewayTopicExec, {action: 'delete-result', messageId, payload: {}});
+						reply({action: 'delete-result', messageId, payload: {}});
 					}
 					else {
 						sendError('delete error, proxyObject removed already');
 					}
 				}
 				else if (action == 'quit') {
-					sendMessage(srcIdentity, gatewayTopicExec, {action: 'quit-received', messageId, payload: {}});
+					reply({action: 'quit-received', messageId, payload: {}});
 					fin.Application.getCurrent().then(app => {
 						app.quit(true);
 					});
 				}
+				else if (action == 'cancel') {
+					// payload is messageId of the invoke
+					let pending = pendingInvokes.get(payload);
+					if (pending) {
+						pending.cancelled = true;
+						if (pending.release) {
+							// the call keeps running, its slot is free for the next one.
+							pending.release();
+						}
+					}
+				}
+				else if (action == 'prepare') {
+					let targetObject = getProxyObject(payload.proxyObjId);
+					if (payload.proxyObjId && !targetObject) {
+						sendError('prepare error, proxyObject removed already');
+					}
+					else {
+						try {
+							let resolved = resolveMethod(targetObject, payload.method);
+							let handle = freeHandles.length > 0 ? freeHandles.pop() : preparedMethods.length;
+							preparedMethods[handle] = resolved;
+							reply({action: 'prepare-result', messageId, payload: {handle}});
+						}
+						catch (e) {
+							console.error('prepare error ', e);
+							sendError('prepare error, ' + e.message);
+						}
+					}
+				}
+				else if (action == 'release') {
+					// payload is handle
+					if (preparedMethods[payload]) {
+						preparedMethods[payload] = null;
+						freeHandles.push(payload);
+						reply({action: 'release-result', messageId, payload: {}});
+					}
+					else {
+						sendError('release error, prepared method released already');
+					}
+				}
 				else if (action == 'invoke') {
 					let targetObject = getProxyObject(payload.proxyObjId);
+					let prepared = typeof payload.handle === 'number' ? preparedMethods[payload.handle] : null;
 					let args = payload.args || [];
-					if (payload.proxyObjId && !targetObject) {
+					let pending = pendingInvokes.get(messageId) || {cancelled: false};
+					pending.release = release;
+					if (pending.cancelled) {
+						// cancelled while queued
+						pendingInvokes.delete(messageId);
+					}
+					else if (payload.proxyObjId && !targetObject) {
+						pendingInvokes.delete(messageId);
 						sendError('invoke error, proxyObject removed already');
 					}
+					else if (typeof payload.handle === 'number' && !prepared) {
+						pendingInvokes.delete(messageId);
+						sendError('invoke error, prepared method released already');
+					}
 					else {
-						Promise.resolve(invokePromise(targetObject, payload.method, ...args)).then(result =>{
+						let invocation = prepared ? new Promise(resolve => {
+							resolve(prepared.fn.call(prepared.obj, ...args));
+						}) : invokePromise(targetObject, payload.method, ...args);
+						return Promise.resolve(invocation).then(result =>{
+							pendingInvokes.delete(messageId);
+							if (pending.cancelled) {
+								if (debug) {
+									console.debug('invokeMethod: ' + payload.method + ', cancelled, result dropped');
+								}
+								return;
+							}
 							let resultPayload = {messageId, action: 'invoke-result', payload: {}};
 							if (typeof result !== 'undefined') {
 								let stringifiedObj = stringify(result);
-								let resultPayloadResultObj = JSON.parse(stringifiedObj);
 								if (debug) {
 									console.debug('invokeMethod: ' + payload.method + ', got result: ' + stringifiedObj);
 								}
-								resultPayload.payload.result = resultPayloadResultObj
+								// sent as text, java side parses it only when needed.
+								resultPayload.payload.resultJson = stringifiedObj;
 							}
 							else {
 								if (debug) {
@@ -135,15 +414,184 @@ var openFinApiGateway = (function() {
 								}
 							}
 							if (payload.proxyResult) {
-								resultPayload.payload.proxyObjId = addProxyObject(result);
+								resultPayload.payload.proxyObjId = addProxyObject(result, msg.compact);
 							}
-							sendMessage(srcIdentity, gatewayTopicExec, resultPayload);
+							reply(resultPayload);
 						}).catch(e=>{
-							console.error('invoke error ', e);
-							sendError('invoke error, ' + e.message);
+							pendingInvokes.delete(messageId);
+							if (!pending.cancelled) {
+								console.error('invoke error ', e);
+								sendError('invoke error, ' + e.message);
+							}
 						});
 					}
 				}
+				else if (action == 'invoke-stream') {
+					let targetObject = getProxyObject(payload.proxyObjId);
+					if (payload.proxyObjId && !targetObject) {
+						sendError('invoke-stream error, proxyObject removed already');
+					}
+					else {
+						// the result text is sent in chunks on the iab topic, no more than the java side gave credit for.
+						let args = payload.args || [];
+						let stream = {credit: 0, seq: 0, pos: 0, text: null, done: false};
+						let send = m => {
+							m.seq = ++stream.seq;
+							sendMessage(srcIdentity, payload.iabTopic, m);
+						};
+						stream.finish = function(m) {
+							stream.done = true;
+							stream.text = null;
+							removeProxyObject(streamId);
+							send(m);
+						};
+						stream.pump = function() {
+							while (!stream.done && stream.text !== null && stream.credit > 0 && stream.pos < stream.text.length) {
+								let data = stream.text.substring(stream.pos, stream.pos + payload.chunkSize);
+								let m = stream.pos == 0 && payload.binary ? {size: base64Size(stream.text), data} : {data};
+								stream.pos += data.length;
+								stream.credit--;
+								send(m);
+							}
+							if (!stream.done && stream.text !== null && stream.pos >= stream.text.length) {
+								stream.finish({end: true});
+							}
+						};
+						let streamId = addProxyObject(stream, msg.compact);
+						reply({action: 'invoke-stream-result', messageId, payload: {streamId}});
+						return Promise.resolve(invokePromise(targetObject, payload.method, ...args)).then(result => {
+							if (!stream.done) {
+								if (payload.binary) {
+									stream.text = toBase64(result);
+								}
+								else {
+									stream.text = typeof result === 'undefined' ? '' : stringify(result);
+								}
+								stream.pump();
+							}
+						}).catch(e => {
+							console.error('invoke-stream error ', e);
+							if (!stream.done) {
+								stream.finish({error: e.message});
+							}
+						});
+					}
+				}
+				else if (action == 'stream-credit') {
+					let stream = getProxyObject(payload.streamId);
+					if (stream) {
+						stream.credit += payload.credit;
+						stream.pump();
+					}
+				}
+				else if (action == 'stream-cancel') {
+					// payload is streamId
+					let stream = getProxyObject(payload);
+					if (stream) {
+						stream.done = true;
+						stream.text = null;
+						removeProxyObject(payload);
+					}
+				}
+				else if (action == 'register-procedure') {
+					try {
+						procedures[payload.name] = new AsyncFunction(...payload.params, payload.body);
+						reply({action: 'register-procedure-result', messageId, payload: {}});
+					}
+					catch (e) {
+						console.error('register-procedure error ', e);
+						sendError('register-procedure error, ' + e.message);
+					}
+				}
+				else if (action == 'list-procedures') {
+					reply({action: 'list-procedures-result', messageId, payload: {names: Object.keys(procedures)}});
+				}
+				else if (action == 'remove-procedure') {
+					// payload is procedure name
+					if (procedures[payload]) {
+						delete procedures[payload];
+						reply({action: 'remove-procedure-result', messageId, payload: {}});
+					}
+					else {
+						sendError('remove-procedure error, procedure not registered');
+					}
+				}
+				else if (action == 'add-poller') {
+					let targetObject = getProxyObject(payload.proxyObjId);
+					if (payload.proxyObjId && !targetObject) {
+						sendError('add-poller error, proxyObject removed already');
+					}
+					else {
+						let args = payload.args || [];
+						let poller = {seq: 0, prev: undefined, sendValue: true, running: false};
+						// polls run in the bulk lane, a tick is skipped while the previous one is in progress.
+						poller.poll = function() {
+							if (poller.running) {
+								return;
+							}
+							poller.running = true;
+							schedule('bulk', () => {
+								return Promise.resolve(invokePromise(targetObject, payload.method, ...args)).then(result => {
+									let next = typeof result === 'undefined' ? null : JSON.parse(stringify(result));
+									let msg = null;
+									if (poller.sendValue) {
+										msg = {seq: ++poller.seq, value: next};
+										poller.sendValue = false;
+									}
+									else {
+										let ops = diff(poller.prev, next, '', []);
+										if (ops.length > 0) {
+											// whole value when the root changed or it's not larger than the patch
+											let valueJson = JSON.stringify(next);
+											if (ops[0].path === '' || valueJson.length <= JSON.stringify(ops).length) {
+												msg = {seq: ++poller.seq, value: next};
+											}
+											else {
+												msg = {seq: ++poller.seq, patch: ops};
+											}
+										}
+									}
+									poller.prev = next;
+									if (msg) {
+										sendMessage(srcIdentity, payload.iabTopic, msg);
+									}
+								}).catch(e => {
+									console.error('poller error ', e);
+								}).then(() => {
+									poller.running = false;
+								});
+							});
+						};
+						poller.timer = setInterval(poller.poll, payload.interval);
+						let pollerId = addProxyObject(poller, msg.compact);
+						reply({messageId, action: 'add-poller-result', payload: {pollerId}});
+						poller.poll();
+					}
+				}
+				else if (action == 'resync-poller') {
+					// payload is pollerId
+					let poller = getProxyObject(payload);
+					if (poller) {
+						poller.sendValue = true;
+						poller.poll();
+						reply({action: 'resync-poller-result', messageId, payload: {}});
+					}
+					else {
+						sendError('resync-poller error, poller removed already');
+					}
+				}
+				else if (action == 'remove-poller') {
+					// payload is pollerId
+					let poller = getProxyObject(payload);
+					if (poller) {
+						clearInterval(poller.timer);
+						removeProxyObject(payload);
+						reply({action: 'remove-poller-result', messageId, payload: {}});
+					}
+					else {
+						sendError('remove-poller error, poller removed already');
+					}
+				}
 				else if (action == 'add-listener') {
 					let iabTopic = payload.iabTopic;
 					let targetObject = getProxyObject(payload.proxyObjId);
@@ -161,7 +609,7 @@ var openFinApiGateway = (function() {
 									if (debug) {
 										console.debug(iabTopic + ': got listener response: ', e);
 									}
-									resolve(e);
+									unbatch(e, resolve);
 								});
 								fin.InterApplicationBus.send(srcIdentity, iabTopic, eventPayload);
 							});
@@ -171,12 +619,12 @@ var openFinApiGateway = (function() {
 						let listenerArgIdx = payload.listenerArgIdx;
 						args.splice(listenerArgIdx, 0, listener);
 
-						Promise.resolve(invokePromise(targetObject, payload.method, ...args)).then(result =>{
+						return Promise.resolve(invokePromise(targetObject, payload.method, ...args)).then(result =>{
 							let resultPayload = {messageId, action: 'add-listener-result', payload: {}};
 							if (payload.proxyResult) {
-								resultPayload.payload.proxyObjId = addProxyObject(listener);
+								resultPayload.payload.proxyObjId = addProxyObject(listener, msg.compact);
 							}
-							sendMessage(srcIdentity, gatewayTopicExec, resultPayload);
+							reply(resultPayload);
 						}).catch(e=>{
 							console.error('add-listener error ', e);
 							sendError('add-listener error, ' + e.message); 
@@ -193,16 +641,16 @@ var openFinApiGateway = (function() {
 						sendError('remove-listener error, proxyListener removed already');
 					}
 					else {
-						Promise.resolve(invokePromise(targetObject, payload.method, payload.event, listener)).then(result =>{
+						return Promise.resolve(invokePromise(targetObject, payload.method, payload.event, listener)).then(result =>{
 							let resultPayload = {messageId, action: 'remove-listener-result', payload};
-							sendMessage(srcIdentity, gatewayTopicExec, resultPayload);
+							reply(resultPayload);
 						}).catch(e=>{
 							console.error('remove-listener error ', e);
 							sendError('remove-listener error, ' + e.message); 
 						});
 					}
 				}
-			});
+			}
 		});
 	}
 	else {
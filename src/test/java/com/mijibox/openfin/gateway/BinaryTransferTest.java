@@ -0,0 +1,277 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.Test;
+
+public class BinaryTransferTest {
+
+	private byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return chunk messages as slices of a frame, like raw IAB messages.
+	 */
+	private List<CharSequence> messages(String base64, int chunkSize, boolean withSize, int size) {
+		List<CharSequence> messages = new ArrayList<>();
+		int seq = 0;
+		for (int pos = 0; pos < base64.length() || seq == 0; pos += chunkSize) {
+			StringBuilder msg = new StringBuilder("{\"seq\":").append(++seq);
+			if (seq == 1 && withSize) {
+				msg.append(",\"size\":").append(size);
+			}
+			msg.append(",\"data\":\"").append(base64, pos, Math.min(base64.length(), pos + chunkSize)).append("\"");
+			if (pos + chunkSize >= base64.length()) {
+				msg.append(",\"end\":true");
+			}
+			msg.append("}");
+			String frame = "{\"message\":" + msg + "}";
+			messages.add(CharBuffer.wrap(frame, 11, frame.length() - 1));
+		}
+		return messages;
+	}
+
+	private ByteBuffer receive(BinaryTransfer transfer, List<CharSequence> messages) {
+		for (int i = 0; i < messages.size(); i++) {
+			boolean ended = transfer.onMessage(messages.get(i));
+			assertEquals(i == messages.size() - 1, ended);
+		}
+		return transfer.finish();
+	}
+
+	private byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void chunksSplitAnywhere() {
+		byte[] bytes = this.randomBytes(100_001);
+		String base64 = Base64.getEncoder().encodeToString(bytes);
+		DirectBufferPool pool = new DirectBufferPool();
+		ByteBuffer buffer = this.receive(new BinaryTransfer(pool), this.messages(base64, 1001, true, bytes.length));
+		assertTrue(buffer.isDirect());
+		assertArrayEquals(bytes, this.toArray(buffer));
+		// allocated once for the announced size
+		assertEquals(1, pool.getAllocatedCount());
+
+		// url safe alphabet, no padding
+		String urlSafe = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+		ByteBuffer urlSafeBuffer = this.receive(new BinaryTransfer(pool), this.messages(urlSafe, 4096, false, 0));
+		assertArrayEquals(bytes, this.toArray(urlSafeBuffer));
+	}
+
+	@Test
+	public void buffersReused() {
+		DirectBufferPool pool = new DirectBufferPool();
+		for (int i = 0; i < 10; i++) {
+			byte[] bytes = this.randomBytes(50_000 + i);
+			String base64 = Base64.getEncoder().encodeToString(bytes);
+			ByteBuffer buffer = this.receive(new BinaryTransfer(pool), this.messages(base64, 65536, true, bytes.length));
+			assertArrayEquals(bytes, this.toArray(buffer));
+			pool.release(buffer);
+		}
+		assertEquals(1, pool.getAllocatedCount());
+		assertEquals(9, pool.getReusedCount());
+
+		ByteBuffer buffer = pool.acquire(DirectBufferPool.MIN_CAPACITY + 1);
+		assertEquals(DirectBufferPool.MIN_CAPACITY * 2, buffer.capacity());
+		assertEquals(buffer.capacity(), buffer.remaining());
+	}
+
+	@Test
+	public void emptyPayload() {
+		BinaryTransfer transfer = new BinaryTransfer(new DirectBufferPool());
+		assertTrue(transfer.onMessage("{\"seq\":1,\"size\":0,\"data\":\"\",\"end\":true}"));
+		assertEquals(0, transfer.finish().remaining());
+	}
+
+	@Test
+	public void outOfOrderChunksReassembled() {
+		byte[] bytes = this.randomBytes(20_001);
+		String base64 = Base64.getEncoder().encodeToString(bytes);
+		List<CharSequence> messages = this.messages(base64, 1001, true, bytes.length);
+		BinaryTransfer transfer = new BinaryTransfer(new DirectBufferPool());
+		// every window of chunks arrives reversed
+		int window = BinaryTransfer.MAX_EARLY_CHUNKS;
+		for (int start = 0; start < messages.size(); start += window) {
+			int end = Math.min(messages.size(), start + window);
+			for (int i = end - 1; i >= start; i--) {
+				boolean ended = transfer.onMessage(messages.get(i));
+				assertEquals(i == start && end == messages.size(), ended);
+			}
+		}
+		assertArrayEquals(bytes, this.toArray(transfer.finish()));
+	}
+
+	@Test
+	public void duplicateAndErrorRejected() {
+		BinaryTransfer transfer = new BinaryTransfer(new DirectBufferPool());
+		assertFalse(transfer.onMessage("{\"seq\":1,\"data\":\"AAEC\"}"));
+		try {
+			transfer.onMessage("{\"seq\":1,\"data\":\"AAEC\"}");
+			fail("duplicate not detected");
+		}
+		catch (IllegalStateException e) {
+		}
+		assertFalse(transfer.onMessage("{\"seq\":3,\"data\":\"AAEC\"}"));
+		try {
+			transfer.onMessage("{\"seq\":3,\"data\":\"AAEC\"}");
+			fail("duplicate early chunk not detected");
+		}
+		catch (IllegalStateException e) {
+		}
+		try {
+			transfer.onMessage("{\"seq\":" + (BinaryTransfer.MAX_EARLY_CHUNKS + 2) + ",\"data\":\"AAEC\"}");
+			fail("chunk too far ahead not detected");
+		}
+		catch (IllegalStateException e) {
+		}
+		transfer = new BinaryTransfer(new DirectBufferPool());
+		try {
+			transfer.onMessage("{\"seq\":1,\"error\":\"result is not binary data\"}");
+			fail("error not reported");
+		}
+		catch (IllegalStateException e) {
+			assertTrue(e.getMessage().contains("result is not binary data"));
+		}
+	}
+
+	@Test
+	public void interleavedTransfers() {
+		DirectBufferPool pool = new DirectBufferPool();
+		List<byte[]> received = new ArrayList<>();
+		OpenFinInterApplicationBus.BinaryIabMessageListener listener = new OpenFinInterApplicationBus.BinaryIabMessageListener(
+				pool, null, (identity, data) -> {
+					received.add(this.toArray(data));
+				});
+		byte[] bytes1 = this.randomBytes(3000);
+		byte[] bytes2 = this.randomBytes(5000);
+		List<CharSequence> messages1 = this.messages(Base64.getEncoder().encodeToString(bytes1), 1000, true, 3000);
+		List<CharSequence> messages2 = this.messages(Base64.getEncoder().encodeToString(bytes2), 1000, true, 5000);
+		for (int i = 0; i < Math.max(messages1.size(), messages2.size()); i++) {
+			if (i < messages1.size()) {
+				listener.onMessage("app1", "app1", "topic", "{\"binary\":1," + messages1.get(i).subSequence(1,
+						messages1.get(i).length()));
+			}
+			if (i < messages2.size()) {
+				listener.onMessage("app2", "app2", "topic", "{\"binary\":1," + messages2.get(i).subSequence(1,
+						messages2.get(i).length()));
+			}
+		}
+		assertEquals(2, received.size());
+		assertArrayEquals(bytes1, received.get(0));
+		assertArrayEquals(bytes2, received.get(1));
+		// buffers are back in the pool
+		pool.acquire(3000);
+		pool.acquire(5000);
+		assertEquals(2, pool.getReusedCount());
+	}
+
+	private String binaryMessage(int id, CharSequence chunk) {
+		return "{\"binary\":" + id + "," + chunk.subSequence(1, chunk.length());
+	}
+
+	@Test
+	public void lateChunksDropped() {
+		List<byte[]> received = new ArrayList<>();
+		OpenFinInterApplicationBus.BinaryIabMessageListener listener = new OpenFinInterApplicationBus.BinaryIabMessageListener(
+				new DirectBufferPool(), null, (identity, data) -> {
+					received.add(this.toArray(data));
+				});
+		byte[] bytes = this.randomBytes(3000);
+		List<CharSequence> messages = this.messages(Base64.getEncoder().encodeToString(bytes), 1000, true, 3000);
+		for (CharSequence msg : messages) {
+			listener.onMessage("app1", "app1", "topic", this.binaryMessage(1, msg));
+		}
+		// duplicate of a chunk after the transfer ended
+		listener.onMessage("app1", "app1", "topic", this.binaryMessage(1, messages.get(1)));
+		assertEquals(1, received.size());
+		assertEquals(0, listener.getTransferCount());
+
+		// chunks after a failed transfer
+		listener.onMessage("app1", "app1", "topic", "{\"binary\":2,\"seq\":1,\"error\":\"failed\"}");
+		listener.onMessage("app1", "app1", "topic", this.binaryMessage(2, messages.get(1)));
+		assertEquals(0, listener.getTransferCount());
+		assertEquals(1, received.size());
+	}
+
+	@Test
+	public void idleTransferReleased() throws Exception {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+		try {
+			DirectBufferPool pool = new DirectBufferPool();
+			OpenFinInterApplicationBus.BinaryIabMessageListener listener = new OpenFinInterApplicationBus.BinaryIabMessageListener(
+					pool, scheduler, Duration.ofMillis(50), (identity, data) -> {
+						fail("transfer should time out");
+					});
+			byte[] bytes = this.randomBytes(3000);
+			List<CharSequence> messages = this.messages(Base64.getEncoder().encodeToString(bytes), 1000, true, 3000);
+			listener.onMessage("app1", "app1", "topic", this.binaryMessage(1, messages.get(0)));
+			assertEquals(1, listener.getTransferCount());
+			for (int i = 0; i < 100 && listener.getTransferCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(0, listener.getTransferCount());
+			// the partial buffer is back in the pool
+			assertEquals(DirectBufferPool.MIN_CAPACITY, pool.getPooledBytes());
+			// the rest of it is dropped
+			listener.onMessage("app1", "app1", "topic", this.binaryMessage(1, messages.get(1)));
+			assertEquals(0, listener.getTransferCount());
+		}
+		finally {
+			scheduler.shutdownNow();
+		}
+	}
+
+	@Test
+	public void pooledBytesCapped() {
+		DirectBufferPool pool = new DirectBufferPool(2 * DirectBufferPool.MIN_CAPACITY);
+		ByteBuffer b1 = pool.acquire(DirectBufferPool.MIN_CAPACITY);
+		ByteBuffer b2 = pool.acquire(DirectBufferPool.MIN_CAPACITY);
+		ByteBuffer b3 = pool.acquire(DirectBufferPool.MIN_CAPACITY);
+		pool.release(b1);
+		pool.release(b2);
+		pool.release(b3);
+		assertEquals(2 * DirectBufferPool.MIN_CAPACITY, pool.getPooledBytes());
+		pool.acquire(DirectBufferPool.MIN_CAPACITY);
+		assertEquals(DirectBufferPool.MIN_CAPACITY, pool.getPooledBytes());
+		assertEquals(1, pool.getReusedCount());
+	}
+}
@@ -0,0 +1,156 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompactProtocolTest {
+	final static Logger logger = LoggerFactory.getLogger(CompactProtocolTest.class);
+
+	private final static JsonArray ACTIONS = Json.createArrayBuilder()
+			.add("hello").add("hello-result").add("error").add("ping").add("pong").add("quit")
+			.add("quit-received").add("cancel").add("invoke").add("invoke-result").build();
+
+	private final static JsonValue[] ARGS = new JsonValue[] {
+			Json.createObjectBuilder().add("uuid", "app-uuid").add("name", "window-name").build(), null };
+
+	private final static String RESULT_JSON = "{\"top\":10,\"left\":20,\"width\":800,\"height\":600}";
+
+	private final CompactProtocol protocol = new CompactProtocol(ACTIONS);
+
+	private String v1Invoke(ProxyObject proxyObject) {
+		return EnvelopeWriter.writeMessage("send-message", 1, generator -> {
+			generator.writeStartObject()
+					.write("messageId", 1)
+					.write("action", "invoke")
+					.writeKey("payload");
+			OpenFinGatewayImpl.writeInvokePayload(generator, false, proxyObject, "getBounds",
+					OpenFinGatewayImpl.NO_HANDLE, ARGS);
+			generator.writeEnd();
+		}).toString();
+	}
+
+	private String v2Invoke(ProxyObject proxyObject) {
+		return EnvelopeWriter.writeMessage("send-message", 1, generator -> {
+			this.protocol.writeMessage(generator, 1, "invoke", OpenFinPriority.INTERACTIVE, g -> {
+				CompactProtocol.writeInvokePayload(g, false, proxyObject, "getBounds", OpenFinGatewayImpl.NO_HANDLE,
+						ARGS);
+			});
+		}).toString();
+	}
+
+	private String v1Result(int messageId) {
+		return Json.createObjectBuilder()
+				.add("action", "invoke-result")
+				.add("messageId", messageId)
+				.add("payload", Json.createObjectBuilder().add("resultJson", RESULT_JSON).add("proxyObjId", "proxy-12"))
+				.build().toString();
+	}
+
+	private String v2Result(int messageId) {
+		return Json.createArrayBuilder()
+				.add(9)
+				.add(messageId)
+				.add(Json.createArrayBuilder().add(RESULT_JSON).add(12))
+				.build().toString();
+	}
+
+	private JsonObject v1Payload(String text) {
+		JsonObject msg = JsonParsers.parseObject(text);
+		assertEquals("invoke-result", msg.getString("action"));
+		return msg.getJsonObject("payload");
+	}
+
+	private JsonObject v2Payload(String text) {
+		JsonArray msg = JsonParsers.parse(text).asJsonArray();
+		assertEquals("invoke-result", this.protocol.getAction(msg));
+		return this.protocol.getPayload(msg);
+	}
+
+	private long nanosPerParse(String text, Function<String, JsonObject> decoder) {
+		int iterations = 50000;
+		for (int i = 0; i < iterations; i++) {
+			decoder.apply(text);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			decoder.apply(text);
+		}
+		return (System.nanoTime() - start) / iterations;
+	}
+
+	@Test
+	public void invokeMessage() {
+		ProxyObject window = new ProxyObject(Json.createValue(12), null, null, null, null);
+		JsonArray msg = JsonParsers.parseObject(this.v2Invoke(window)).getJsonArray("payload");
+		assertEquals(8, msg.getInt(0));
+		assertEquals(1, msg.getInt(2));
+		JsonArray payload = msg.getJsonArray(3);
+		assertEquals("getBounds", payload.getString(0));
+		assertEquals(0, payload.getInt(1));
+		assertEquals(12, payload.getInt(2));
+		assertEquals(1, payload.getJsonArray(3).size());
+
+		// trailing fields omitted
+		String staticInvoke = EnvelopeWriter.writeMessage("invoke", 1, g -> {
+			CompactProtocol.writeInvokePayload(g, true, null, "fin.System.getVersion", OpenFinGatewayImpl.NO_HANDLE,
+					null);
+		}).toString();
+		assertTrue(staticInvoke.contains("[\"fin.System.getVersion\",1]"));
+	}
+
+	@Test
+	public void invokeResult() {
+		JsonObject v1 = this.v1Payload(this.v1Result(5));
+		JsonObject v2 = this.v2Payload(this.v2Result(5));
+		assertEquals(RESULT_JSON, v2.getString("resultJson"));
+		assertEquals(12, v2.getInt("proxyObjId"));
+		assertEquals(v1.getString("resultJson"), v2.getString("resultJson"));
+		assertTrue(this.protocol.getPayload(Json.createArrayBuilder().add(9).add(6).add(JsonValue.EMPTY_JSON_ARRAY)
+				.build()).isEmpty());
+	}
+
+	@Test
+	public void sizeAndParseTime() {
+		ProxyObject v1Window = new ProxyObject(Json.createValue("proxy-12"), null, null, null, null);
+		ProxyObject v2Window = new ProxyObject(Json.createValue(12), null, null, null, null);
+		int v1InvokeSize = this.v1Invoke(v1Window).length();
+		int v2InvokeSize = this.v2Invoke(v2Window).length();
+		int v1ResultSize = this.v1Result(1000).length();
+		int v2ResultSize = this.v2Result(1000).length();
+		long v1Nanos = this.nanosPerParse(this.v1Result(1000), this::v1Payload);
+		long v2Nanos = this.nanosPerParse(this.v2Result(1000), this::v2Payload);
+		logger.info("invoke frame: v1 {} chars, v2 {} chars; invoke-result: v1 {} chars, v2 {} chars; "
+				+ "invoke-result parse: v1 {} ns, v2 {} ns", v1InvokeSize, v2InvokeSize, v1ResultSize, v2ResultSize,
+				v1Nanos, v2Nanos);
+		assertTrue(v2InvokeSize < v1InvokeSize);
+		assertTrue(v2ResultSize < v1ResultSize);
+	}
+}
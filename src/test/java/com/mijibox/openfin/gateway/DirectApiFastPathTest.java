@@ -0,0 +1,163 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class DirectApiFastPathTest {
+
+	private final DirectApiFastPath fastPath = new DirectApiFastPath();
+
+	private ProxyObject proxy(JsonObject identity, DirectApiFastPath.TargetType targetType) {
+		JsonObject resultJson = Json.createObjectBuilder().add("identity", identity).build();
+		return new ProxyObject(Json.createValue(1), resultJson, null, null, null, targetType);
+	}
+
+	@Test
+	public void staticMethods() {
+		DirectApiFastPath.Call call = this.fastPath.getCall(null, "fin.System.getVersion", null);
+		assertEquals("get-version", call.action);
+		assertEquals(0, call.payload.size());
+		// arguments are not mapped
+		assertNull(this.fastPath.getCall(null, "fin.System.getVersion", new JsonValue[] { JsonValue.TRUE }));
+		assertNull(this.fastPath.getCall(null, "fin.System.getProcessList", null));
+	}
+
+	@Test
+	public void windowMethods() {
+		ProxyObject window = this.proxy(Json.createObjectBuilder().add("uuid", "app").add("name", "win").build(),
+				DirectApiFastPath.TargetType.WINDOW);
+		DirectApiFastPath.Call call = this.fastPath.getCall(window, "getBounds", null);
+		assertEquals("get-window-bounds", call.action);
+		assertEquals("app", call.payload.getString("uuid"));
+		assertEquals("win", call.payload.getString("name"));
+
+		JsonObject bounds = Json.createObjectBuilder().add("left", 10).add("top", 20).build();
+		call = this.fastPath.getCall(window, "setBounds", new JsonValue[] { bounds });
+		assertEquals("set-window-bounds", call.action);
+		assertEquals(10, call.payload.getInt("left"));
+		assertFalse(call.returnsValue);
+
+		// application method on a window
+		assertNull(this.fastPath.getCall(window, "run", null));
+		assertNull(this.fastPath.getCall(window, "close", null));
+	}
+
+	@Test
+	public void applicationMethods() {
+		ProxyObject app = this.proxy(Json.createObjectBuilder().add("uuid", "app").build(),
+				DirectApiFastPath.TargetType.APPLICATION);
+		assertEquals("run-application", this.fastPath.getCall(app, "run", null).action);
+		assertNull(this.fastPath.getCall(app, "getBounds", null));
+		// no identity to route by
+		assertNull(this.fastPath.getCall(new ProxyObject(Json.createValue(2), null, null, null, null), "run", null));
+	}
+
+	@Test
+	public void unknownTargetNotRouted() {
+		// views, external windows and others have uuid and name identities too
+		ProxyObject view = this.proxy(Json.createObjectBuilder().add("uuid", "app").add("name", "view").build(), null);
+		assertNull(this.fastPath.getCall(view, "show", null));
+		assertNull(this.fastPath.getCall(view, "getBounds", null));
+	}
+
+	@Test
+	public void targetTypeFromCreatingMethod() {
+		assertEquals(DirectApiFastPath.TargetType.WINDOW, DirectApiFastPath.getTargetType(null, "fin.Window.wrap"));
+		assertEquals(DirectApiFastPath.TargetType.APPLICATION,
+				DirectApiFastPath.getTargetType(null, "fin.Application.getCurrent"));
+		assertNull(DirectApiFastPath.getTargetType(null, "fin.View.wrap"));
+		ProxyObject app = this.proxy(Json.createObjectBuilder().add("uuid", "app").build(),
+				DirectApiFastPath.TargetType.APPLICATION);
+		assertEquals(DirectApiFastPath.TargetType.WINDOW, DirectApiFastPath.getTargetType(app, "getWindow"));
+		assertNull(DirectApiFastPath.getTargetType(app, "getChildWindows"));
+		// method of an untyped proxy
+		ProxyObject other = this.proxy(Json.createObjectBuilder().add("uuid", "app").build(), null);
+		assertNull(DirectApiFastPath.getTargetType(other, "getWindow"));
+	}
+
+	@Test
+	public void identityRecordedWithoutResultJson() {
+		ProxyObject window = new ProxyObject(Json.createValue(1), null, null, null, null,
+				DirectApiFastPath.TargetType.WINDOW,
+				Json.createObjectBuilder().add("uuid", "app").add("name", "win").build());
+		assertNull(window.getResultJson());
+		assertEquals("show-window", this.fastPath.getCall(window, "show", null).action);
+		assertTrue(this.fastPath.getCall(null, "fin.System.getVersion", null).isReadOnly());
+		assertFalse(this.fastPath.getCall(window, "show", null).isReadOnly());
+	}
+
+	@Test
+	public void failedStateChangeNotRetried() throws Exception {
+		System.setProperty("com.mijibox.openfin.gateway.protocolVersion", "1");
+		try {
+			TestConnection connection = new TestConnection();
+			connection.responder = message -> {
+				if (OpenFinGatewayImpl.ACTION_INVOKE.equals(message.getString(OpenFinGatewayImpl.ACTION))) {
+					return Json.createObjectBuilder().add(OpenFinGatewayImpl.PROXY_ID, 5)
+							.add(OpenFinGatewayImpl.RESULT_JSON, "{\"identity\":{\"uuid\":\"app\",\"name\":\"win\"}}")
+							.build();
+				}
+				return JsonValue.EMPTY_JSON_OBJECT;
+			};
+			OpenFinGatewayLauncherImpl launcher = (OpenFinGatewayLauncherImpl) OpenFinGatewayLauncher
+					.newOpenFinGatewayLauncher().retainProxyResultJson(false).directApiFastPath(true)
+					.invokeTimeout(Duration.ofSeconds(5));
+			OpenFinGateway gateway = OpenFinGatewayImpl.newInstance(launcher, connection, null).toCompletableFuture()
+					.get(10, TimeUnit.SECONDS);
+			ProxyObject window = gateway.invoke(true, "fin.Window.wrap", JsonValue.EMPTY_JSON_OBJECT)
+					.toCompletableFuture().join().getProxyObject();
+			assertNull(window.getResultJson());
+
+			connection.nackReason = "window not found";
+			connection.nackedActions = Set.of("show-window", "get-window-bounds");
+			try {
+				window.invoke("show").toCompletableFuture().join();
+				fail("show should fail");
+			}
+			catch (CompletionException e) {
+				assertTrue(e.getCause().getMessage().contains("window not found"));
+			}
+			assertTrue(connection.actions.contains("show-window"));
+			assertEquals(1, connection.sentActions(OpenFinGatewayImpl.ACTION_INVOKE).size());
+
+			// reads are sent through gateway.js
+			window.invoke("getBounds").toCompletableFuture().join();
+			assertEquals(2, connection.sentActions(OpenFinGatewayImpl.ACTION_INVOKE).size());
+			assertEquals(1, gateway.getDirectApiFastPath().getFallbackCount());
+		}
+		finally {
+			System.clearProperty("com.mijibox.openfin.gateway.protocolVersion");
+		}
+	}
+}
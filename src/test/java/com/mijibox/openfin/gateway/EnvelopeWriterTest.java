@@ -0,0 +1,177 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class EnvelopeWriterTest {
+	final static Logger logger = LoggerFactory.getLogger(EnvelopeWriterTest.class);
+
+	private final static JsonValue[] ARGS = new JsonValue[] {
+			Json.createObjectBuilder()
+					.add("uuid", "app-uuid")
+					.add("name", "window-name")
+					.add("bounds", Json.createObjectBuilder().add("top", 10).add("left", 20).add("width", 800)
+							.add("height", 600))
+					.build(),
+			JsonValue.TRUE, null };
+
+	/**
+	 * How the invoke message was built before: each layer wraps the previous one in a new JsonObject.
+	 */
+	private CharSequence treeMessage() {
+		JsonArrayBuilder argsBuilder = Json.createArrayBuilder();
+		argsBuilder.add(ARGS[0]).add(ARGS[1]);
+		JsonObject invokePayload = Json.createObjectBuilder()
+				.add("proxyResult", false)
+				.add("method", "fin.Window.wrap")
+				.add("args", argsBuilder.build()).build();
+		JsonObject execMessage = Json.createObjectBuilder()
+				.add("messageId", 1)
+				.add("action", "invoke")
+				.add("payload", invokePayload).build();
+		JsonObject sendPayload = Json.createObjectBuilder()
+				.add("destinationUuid", "gateway")
+				.add("destinationWindowName", "gateway")
+				.add("topic", "gateway-exec")
+				.add("message", execMessage).build();
+		return Json.createObjectBuilder()
+				.add("action", "send-message")
+				.add("messageId", 1)
+				.add("payload", sendPayload).build().toString();
+	}
+
+	private CharSequence streamedMessage() {
+		return EnvelopeWriter.writeMessage("send-message", 1, g1 -> {
+			g1.writeStartObject()
+					.write("destinationUuid", "gateway")
+					.write("destinationWindowName", "gateway")
+					.write("topic", "gateway-exec")
+					.writeKey("message");
+			g1.writeStartObject()
+					.write("messageId", 1)
+					.write("action", "invoke")
+					.writeKey("payload");
+			g1.writeStartObject()
+					.write("proxyResult", false)
+					.write("method", "fin.Window.wrap");
+			EnvelopeWriter.writeArgs(g1, "args", ARGS);
+			g1.writeEnd();
+			g1.writeEnd();
+			g1.writeEnd();
+		});
+	}
+
+	private long allocatedBytesPerMessage(Supplier<CharSequence> messageSupplier) {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		int iterations = 20000;
+		long length = 0;
+		for (int i = 0; i < iterations; i++) {
+			length += messageSupplier.get().length();
+		}
+		long before = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (int i = 0; i < iterations; i++) {
+			length += messageSupplier.get().length();
+		}
+		long after = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		assertTrue(length > 0);
+		return (after - before) / iterations;
+	}
+
+	@Test
+	public void sameMessage() {
+		JsonValue tree = Json.createReader(new StringReader(this.treeMessage().toString())).readValue();
+		JsonValue streamed = Json.createReader(new StringReader(this.streamedMessage().toString())).readValue();
+		assertEquals(tree, streamed);
+	}
+
+	@Test
+	public void allocationPerInvoke() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		long treeBytes = this.allocatedBytesPerMessage(this::treeMessage);
+		long streamedBytes = this.allocatedBytesPerMessage(this::streamedMessage);
+		logger.info("allocation per invoke message, JsonObject tree: {} bytes, single-pass writer: {} bytes",
+				treeBytes, streamedBytes);
+		assertTrue(streamedBytes < treeBytes);
+	}
+
+	private int invokeFrameLength(ProxyObject proxyObject, String method, int handle, JsonValue[] args) {
+		return EnvelopeWriter.writeMessage("invoke", 1, g -> {
+			OpenFinGatewayImpl.writeInvokePayload(g, false, proxyObject, method, handle, args);
+		}).length();
+	}
+
+	@Test
+	public void preparedInvokeFrame() {
+		ProxyObject window = new ProxyObject(Json.createValue("proxy-12"), null, null, null, null);
+		int instanceFrame = this.invokeFrameLength(window, "getBounds", OpenFinGatewayImpl.NO_HANDLE, null);
+		int preparedInstanceFrame = this.invokeFrameLength(window, "getBounds", 3, null);
+		int staticFrame = this.invokeFrameLength(null, "fin.Window.wrap", OpenFinGatewayImpl.NO_HANDLE, ARGS);
+		int preparedStaticFrame = this.invokeFrameLength(null, "fin.Window.wrap", 3, ARGS);
+		logger.info("invoke frame, instance method: {} -> {} chars, static method with args: {} -> {} chars",
+				instanceFrame, preparedInstanceFrame, staticFrame, preparedStaticFrame);
+		assertTrue(preparedInstanceFrame < instanceFrame);
+		assertTrue(preparedStaticFrame < staticFrame);
+		JsonObject payload = JsonParsers.parseObject(EnvelopeWriter.writeMessage("invoke", 1, g -> {
+			OpenFinGatewayImpl.writeInvokePayload(g, false, window, "getBounds", 3, ARGS);
+		})).getJsonObject("payload");
+		assertEquals(3, payload.getInt("handle"));
+		assertEquals(2, payload.getJsonArray("args").size());
+		assertTrue(!payload.containsKey("method") && !payload.containsKey("proxyObjId"));
+	}
+
+	@Test
+	public void procedurePayloads() {
+		JsonObject payload = JsonParsers.parseObject(EnvelopeWriter.writeMessage("register-procedure", 1, g -> {
+			OpenFinGatewayImpl.writeRegisterProcedurePayload(g, "moveTo", "return fin.Window.wrap(id);", "id");
+		})).getJsonObject("payload");
+		assertEquals("moveTo", payload.getString("name"));
+		assertEquals("return fin.Window.wrap(id);", payload.getString("body"));
+		assertEquals(Json.createArrayBuilder().add("id").build(), payload.getJsonArray("params"));
+
+		for (String name : new String[] { "moveTo", "_private", "$1" }) {
+			OpenFinGatewayImpl.checkProcedureName(name);
+		}
+		// names used as property names in gateway.js, or as part of the invoked method path
+		for (String name : new String[] { null, "", "1st", "a.b", "constructor()", "__proto__.x", "a b" }) {
+			try {
+				OpenFinGatewayImpl.checkProcedureName(name);
+				fail("invalid procedure name accepted: " + name);
+			}
+			catch (IllegalArgumentException e) {
+			}
+		}
+	}
+}
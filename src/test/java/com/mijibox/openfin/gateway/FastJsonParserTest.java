@@ -0,0 +1,168 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParsingException;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FastJsonParserTest {
+	final static Logger logger = LoggerFactory.getLogger(FastJsonParserTest.class);
+
+	/**
+	 * frames as received from OpenFin Runtime.
+	 */
+	private final static String[] FRAMES = new String[] {
+			"{\"action\":\"ack\",\"correlationId\":42,\"payload\":{\"success\":true,\"data\":null}}",
+			"{\"action\":\"process-message\",\"payload\":{\"sourceUuid\":\"openfin-gateway-7f3c\","
+					+ "\"sourceWindowName\":\"openfin-gateway-7f3c\",\"topic\":\"7f3c-exec\",\"message\":"
+					+ "{\"messageId\":1287,\"action\":\"invoke\",\"payload\":{\"success\":true,\"result\":"
+					+ "{\"proxyId\":\"b6a1e0b2-1f2d-4c55-9d0e-0a7d8b7d3f11\",\"resultJson\":"
+					+ "\"{\\\"identity\\\":{\\\"uuid\\\":\\\"app\\\",\\\"name\\\":\\\"win\\\"}}\"}}}},\"messageId\":91}",
+			"{\"action\":\"process-message\",\"payload\":{\"sourceUuid\":\"app\",\"sourceWindowName\":\"main\","
+					+ "\"topic\":\"prices\",\"message\":{\"iabBatch\":[{\"sym\":\"EUR/USD\",\"bid\":1.08341,"
+					+ "\"ask\":1.08352,\"ts\":1603100000123},{\"sym\":\"USD/JPY\",\"bid\":105.412,\"ask\":105.421,"
+					+ "\"ts\":1603100000124},{\"sym\":\"GBP/USD\",\"bid\":1.29405,\"ask\":1.29418,"
+					+ "\"ts\":1603100000125}]}}}",
+			"{\"action\":\"process-message\",\"payload\":{\"sourceUuid\":\"app\",\"sourceWindowName\":\"main\","
+					+ "\"topic\":\"t\",\"message\":{\"text\":\"tab\\tquote\\\" \\u00e9\\\\\",\"list\":[[],{},-0,1e-3,"
+					+ "12345678901234567890,false,null],\"big\":-9223372036854775808}}}" };
+
+	private JsonValue parseJavax(String text) {
+		return Json.createReader(new StringReader(text)).readValue();
+	}
+
+	@Test
+	public void sameAsJavax() {
+		FastJsonParser parser = new FastJsonParser();
+		for (String frame : FRAMES) {
+			JsonValue expected = this.parseJavax(frame);
+			JsonValue actual = parser.parse(frame);
+			assertEquals(expected, actual);
+			assertEquals(actual, expected);
+			assertEquals(expected.hashCode(), actual.hashCode());
+			// serialized form is valid JSON of the same value
+			assertEquals(expected, this.parseJavax(actual.toString()));
+		}
+	}
+
+	@Test
+	public void accessors() {
+		JsonObject obj = new FastJsonParser().parse(FRAMES[2]).asJsonObject();
+		assertEquals("process-message", obj.getString("action"));
+		JsonObject payload = obj.getJsonObject("payload");
+		assertEquals("default", payload.getString("missing", "default"));
+		assertEquals(3, payload.getJsonObject("message").getJsonArray("iabBatch").size());
+		JsonObject tick = payload.getJsonObject("message").getJsonArray("iabBatch").getJsonObject(1);
+		assertEquals(1603100000124L, tick.getJsonNumber("ts").longValueExact());
+		assertTrue(tick.getJsonNumber("ts").isIntegral());
+		assertEquals(105.412, tick.getJsonNumber("bid").doubleValue(), 0);
+		assertTrue(obj.getJsonObject("payload").containsKey("topic"));
+	}
+
+	@Test
+	public void invalidJson() {
+		String[] invalid = new String[] { "{", "{\"a\":}", "[1,]", "{\"a\":1}x", "01", "\"abc", "tru" };
+		for (String text : invalid) {
+			try {
+				new FastJsonParser().parse(text);
+				fail("should not parse: " + text);
+			}
+			catch (JsonException e) {
+				logger.debug("expected error", e);
+			}
+		}
+	}
+
+	@Test
+	public void nestingLimited() {
+		int depth = FastJsonParser.MAX_DEPTH;
+		String nested = "[".repeat(depth) + "]".repeat(depth);
+		assertEquals(JsonValue.ValueType.ARRAY, new FastJsonParser().parse(nested).getValueType());
+		String[] tooDeep = new String[] { "[".repeat(depth + 1) + "]".repeat(depth + 1),
+				"{\"a\":".repeat(depth + 1) + "1" + "}".repeat(depth + 1), "[".repeat(100_000) };
+		for (String text : tooDeep) {
+			try {
+				new FastJsonParser().parse(text);
+				fail("should not parse nesting of " + text.length());
+			}
+			catch (JsonParsingException e) {
+				logger.debug("expected error", e);
+			}
+		}
+	}
+
+	@Test
+	public void valuesAsChecked() {
+		JsonArray array = new FastJsonParser().parse("[\"a\",\"b\"]").asJsonArray();
+		assertEquals("b", array.getValuesAs(JsonString.class).get(1).getString());
+		try {
+			new FastJsonParser().parse("[\"a\",1]").asJsonArray().getValuesAs(JsonString.class);
+			fail("number is not a JsonString");
+		}
+		catch (ClassCastException e) {
+		}
+	}
+
+	private long[] measure(Function<String, JsonValue> parser) {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		int iterations = 50000;
+		int size = 0;
+		for (int i = 0; i < iterations; i++) {
+			size += parser.apply(FRAMES[i % FRAMES.length]).getValueType().ordinal();
+		}
+		long bytesBefore = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long timeBefore = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			size += parser.apply(FRAMES[i % FRAMES.length]).getValueType().ordinal();
+		}
+		long time = System.nanoTime() - timeBefore;
+		long bytes = threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytesBefore;
+		assertTrue(size >= 0);
+		return new long[] { time / iterations, bytes / iterations };
+	}
+
+	@Test
+	public void parseCost() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		FastJsonParser fastParser = new FastJsonParser();
+		long[] javax = this.measure(this::parseJavax);
+		long[] fast = this.measure(fastParser::parse);
+		logger.info("per frame, javax.json: {} ns {} bytes, built-in: {} ns {} bytes", javax[0], javax[1], fast[0],
+				fast[1]);
+		assertTrue(fast[1] < javax[1]);
+	}
+}
@@ -0,0 +1,67 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class IabLastValueCacheTest {
+
+	private JsonObject incoming(String topic, JsonValue message) {
+		return Json.createObjectBuilder().add("sourceUuid", "app").add("sourceWindowName", "app")
+				.add("topic", topic).add("message", message).build();
+	}
+
+	@Test
+	public void replayOnlyToSubscribe() {
+		TestConnection connection = new TestConnection();
+		OpenFinInterApplicationBus iab = connection.getInterAppBus();
+		iab.enableLastValueCache(10);
+		JsonObject quote = Json.createObjectBuilder().add("price", 10).build();
+		iab.processMessage(this.incoming("quotes", quote));
+		JsonObject request = Json.createObjectBuilder().add(OpenFinInterApplicationBus.REQUEST_ID, 1)
+				.add(OpenFinInterApplicationBus.REPLY_TOPIC, "app-reply")
+				.add(OpenFinInterApplicationBus.REQUEST_MESSAGE, "ping").build();
+		iab.processMessage(this.incoming("requests", request));
+
+		List<JsonValue> received = new CopyOnWriteArrayList<>();
+		iab.subscribe(null, "quotes", (src, msg) -> received.add(msg)).toCompletableFuture().join();
+		assertEquals(List.of(quote), received);
+
+		List<CharSequence> raw = new CopyOnWriteArrayList<>();
+		iab.subscribeRaw(null, "quotes", (uuid, name, topic, msg) -> raw.add(msg)).toCompletableFuture().join();
+		assertEquals(0, raw.size());
+
+		List<JsonValue> requests = new CopyOnWriteArrayList<>();
+		iab.subscribeRequests(null, "requests", (src, msg) -> {
+			requests.add(msg);
+			return CompletableFuture.completedFuture(msg);
+		}).toCompletableFuture().join();
+		assertEquals(0, requests.size());
+		assertEquals(0, connection.sentMessages.size());
+	}
+}
@@ -0,0 +1,89 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class IabLocalDeliveryTest {
+
+	private JsonObject incoming(String uuid, String name, String topic, JsonValue message) {
+		return Json.createObjectBuilder().add("sourceUuid", uuid).add("sourceWindowName", name)
+				.add("topic", topic).add("message", message).build();
+	}
+
+	private OpenFinInterApplicationBus iab(TestConnection connection, List<JsonValue> received) {
+		OpenFinInterApplicationBus iab = connection.getInterAppBus();
+		iab.setLocalDelivery(true);
+		iab.subscribe(null, "quotes", (src, msg) -> received.add(msg)).toCompletableFuture().join();
+		return iab;
+	}
+
+	@Test
+	public void echoDropped() {
+		TestConnection connection = new TestConnection();
+		List<JsonValue> received = new CopyOnWriteArrayList<>();
+		OpenFinInterApplicationBus iab = this.iab(connection, received);
+		JsonObject quote = Json.createObjectBuilder().add("price", 10).build();
+		iab.publish("quotes", quote).toCompletableFuture().join();
+		assertEquals(1, received.size());
+
+		String uuid = connection.getUuid();
+		// same uuid and topic from another window is not the echo
+		JsonObject other = Json.createObjectBuilder().add("price", 11).build();
+		iab.processMessage(this.incoming(uuid, "other-window", "quotes", other));
+		assertEquals(List.of(quote, other), received);
+
+		iab.processMessage(this.incoming(uuid, uuid, "quotes", quote));
+		assertEquals(2, received.size());
+	}
+
+	@Test
+	public void nackedPublishNotEchoed() {
+		TestConnection connection = new TestConnection();
+		List<JsonValue> received = new CopyOnWriteArrayList<>();
+		OpenFinInterApplicationBus iab = this.iab(connection, received);
+		connection.nackReason = "no permission";
+		JsonObject quote = Json.createObjectBuilder().add("price", 10).build();
+		try {
+			iab.publish("quotes", quote).toCompletableFuture().join();
+			fail("publish should be nacked");
+		}
+		catch (CompletionException e) {
+			assertTrue(e.getCause().getMessage().contains("no permission"));
+		}
+		assertEquals(1, received.size());
+
+		// next message from this connection is a new one, not the echo of the failed publish
+		connection.nackReason = null;
+		String uuid = connection.getUuid();
+		iab.processMessage(this.incoming(uuid, uuid, "quotes", quote));
+		assertEquals(2, received.size());
+	}
+}
@@ -0,0 +1,56 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.json.Json;
+
+import org.junit.Test;
+
+public class IabMessageBatcherTest {
+
+	private void assertSameAsTree(String message, boolean batch) {
+		assertEquals(batch, IabMessageBatcher.isBatch(Json.createReader(new StringReader(message)).readValue()));
+		int batchStart = IabMessageBatcher.findBatch(message, 0);
+		if (batch) {
+			assertEquals(message.indexOf('['), batchStart);
+		}
+		else {
+			assertEquals(-1, batchStart);
+		}
+	}
+
+	@Test
+	public void rawBatchHasOnlyBatchMember() {
+		this.assertSameAsTree("{\"iabBatch\":[1,{\"a\":2}]}", true);
+		this.assertSameAsTree(" { \"iabBatch\" : [ ] } ", true);
+		this.assertSameAsTree("{\"seq\":1,\"iabBatch\":[1,2]}", false);
+		this.assertSameAsTree("{\"iabBatch\":[1,2],\"seq\":1}", false);
+		this.assertSameAsTree("{\"iabBatch\":{\"a\":[1]}}", false);
+		this.assertSameAsTree("{\"a\":{\"iabBatch\":[1]}}", false);
+		this.assertSameAsTree("[{\"iabBatch\":[1]}]", false);
+		this.assertSameAsTree("{}", false);
+		assertTrue(IabMessageBatcher.findBatch("{\"message\":{\"iabBatch\":[1]}}", 11) > 0);
+		assertFalse(IabMessageBatcher.findBatch("{\"message\":\"iabBatch\"}", 11) > 0);
+	}
+}
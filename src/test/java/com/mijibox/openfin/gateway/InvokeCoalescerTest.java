@@ -0,0 +1,87 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class InvokeCoalescerTest {
+
+	@Test
+	public void methodPattern() {
+		MethodPattern pattern = new MethodPattern("fin.System.get*", "getInfo");
+		assertTrue(pattern.matches("fin.System.getVersion"));
+		assertTrue(pattern.matches("getInfo"));
+		assertFalse(pattern.matches("fin.System.exit"));
+		assertFalse(pattern.matches("fin.Systemxget"));
+	}
+
+	@Test
+	public void key() {
+		JsonValue[] args = new JsonValue[] { Json.createValue("a"), null };
+		assertEquals(InvokeCoalescer.getKey("m", null, new JsonValue[] { Json.createValue("a") }),
+				InvokeCoalescer.getKey("m", null, args));
+		assertNotEquals(InvokeCoalescer.getKey("m", Json.createValue("proxy-1"), args),
+				InvokeCoalescer.getKey("m", Json.createValue("proxy-2"), args));
+		assertNotEquals(InvokeCoalescer.getKey("m", null, args), InvokeCoalescer.getKey("m", null, null));
+		// shards share static calls, not proxy objects
+		assertEquals(InvokeCoalescer.getKey("m", 0, null, args), InvokeCoalescer.getKey("m", 1, null, args));
+		assertNotEquals(InvokeCoalescer.getKey("m", 0, Json.createValue(1), args),
+				InvokeCoalescer.getKey("m", 1, Json.createValue(1), args));
+	}
+
+	@Test
+	public void sharedWhileInFlight() throws Exception {
+		InvokeCoalescer coalescer = new InvokeCoalescer("fin.System.getVersion");
+		AtomicInteger wireCalls = new AtomicInteger();
+		CompletableFuture<InvokeResult> wireFuture = new CompletableFuture<>();
+		CompletableFuture<InvokeResult> first = coalescer.invoke("k", () -> {
+			wireCalls.incrementAndGet();
+			return wireFuture;
+		});
+		CompletableFuture<InvokeResult> second = coalescer.invoke("k", () -> {
+			wireCalls.incrementAndGet();
+			return new CompletableFuture<>();
+		});
+		assertSame(first, second);
+		assertEquals(1, coalescer.getInFlightCount());
+		wireFuture.complete(null);
+		assertTrue(first.isDone());
+		assertEquals(0, coalescer.getInFlightCount());
+		// not in flight anymore, goes on the wire again
+		coalescer.invoke("k", () -> {
+			wireCalls.incrementAndGet();
+			return CompletableFuture.completedFuture(null);
+		});
+		assertEquals(2, wireCalls.get());
+		assertEquals(3, coalescer.getInvokeCount());
+		assertEquals(1, coalescer.getCoalescedCount());
+		assertEquals(1.5, coalescer.getCoalescingRatio(), 0.001);
+	}
+}
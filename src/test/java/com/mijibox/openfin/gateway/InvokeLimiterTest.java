@@ -0,0 +1,175 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class InvokeLimiterTest {
+
+	private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	@AfterClass
+	public static void teardown() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void maxInFlight() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(2, 0, 0, 10, InvokeLimiter.QueueOrder.FIFO, scheduler);
+		List<CompletableFuture<Integer>> pending = Collections.synchronizedList(new ArrayList<>());
+		List<CompletableFuture<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			results.add(limiter.submit(OpenFinPriority.INTERACTIVE, () -> {
+				CompletableFuture<Integer> f = new CompletableFuture<>();
+				pending.add(f);
+				return f;
+			}).toCompletableFuture());
+		}
+		assertEquals(2, pending.size());
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(3, limiter.getQueued());
+		for (int i = 0; i < 5; i++) {
+			pending.get(i).complete(i);
+		}
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, results.get(i).get(1, TimeUnit.SECONDS).intValue());
+		}
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(5, limiter.getAdmittedCount());
+		assertEquals(3, limiter.getQueuedCount());
+	}
+
+	@Test
+	public void rejectWhenQueueFull() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(1, 0, 0, 1, InvokeLimiter.QueueOrder.FIFO, scheduler);
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> blocker);
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> CompletableFuture.completedStage(null));
+		try {
+			limiter.submit(OpenFinPriority.INTERACTIVE, () -> CompletableFuture.completedStage(null))
+					.toCompletableFuture().get(1, TimeUnit.SECONDS);
+			fail("should be rejected");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(1, limiter.getRejectedCount());
+		blocker.complete(null);
+		assertEquals(0, limiter.getQueued());
+	}
+
+	@Test
+	public void priorityOrder() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(1, 0, 0, 10, InvokeLimiter.QueueOrder.PRIORITY, scheduler);
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		List<OpenFinPriority> order = Collections.synchronizedList(new ArrayList<>());
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> blocker);
+		for (OpenFinPriority priority : new OpenFinPriority[] { OpenFinPriority.BULK, OpenFinPriority.INTERACTIVE,
+				OpenFinPriority.CONTROL, OpenFinPriority.BULK }) {
+			limiter.submit(priority, () -> {
+				order.add(priority);
+				return CompletableFuture.completedStage(null);
+			});
+		}
+		blocker.complete(null);
+		assertEquals(List.of(OpenFinPriority.CONTROL, OpenFinPriority.INTERACTIVE, OpenFinPriority.BULK,
+				OpenFinPriority.BULK), order);
+	}
+
+	@Test
+	public void rateLimit() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(0, 100, 1, 100, InvokeLimiter.QueueOrder.FIFO, scheduler);
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int i = 0; i < 11; i++) {
+			results.add(limiter.submit(OpenFinPriority.INTERACTIVE, () -> CompletableFuture.<Void>completedStage(null))
+					.toCompletableFuture());
+		}
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		// one from the bucket, ten more at 100/s
+		assertTrue("elapsed " + elapsedMillis + "ms", elapsedMillis >= 90);
+		assertTrue(limiter.getAverageWaitMicros() > 0);
+	}
+
+	@Test
+	public void cancelledWaitersRemoved() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(1, 0, 0, Integer.MAX_VALUE, InvokeLimiter.QueueOrder.FIFO,
+				scheduler);
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> blocker);
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			CompletableFuture<Void> cancelSignal = new CompletableFuture<>();
+			results.add(limiter.submit(OpenFinPriority.INTERACTIVE, () -> {
+				fail("cancelled task should not run");
+				return CompletableFuture.<Void>completedStage(null);
+			}, cancelSignal).toCompletableFuture());
+			cancelSignal.cancel(false);
+		}
+		assertEquals(0, limiter.getQueued());
+		assertEquals(3000, limiter.getCancelledCount());
+		assertEquals(1, limiter.getAdmittedCount());
+		for (CompletableFuture<Void> result : results) {
+			assertTrue(result.isCompletedExceptionally());
+		}
+		blocker.complete(null);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void completedWaitersDrainIteratively() throws Exception {
+		InvokeLimiter limiter = new InvokeLimiter(1, 0, 0, Integer.MAX_VALUE, InvokeLimiter.QueueOrder.FIFO,
+				scheduler);
+		CompletableFuture<Void> blocker = new CompletableFuture<>();
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> blocker);
+		List<CompletableFuture<Void>> results = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			// like invokes that timed out while queued, they complete as soon as they start
+			results.add(limiter.submit(OpenFinPriority.INTERACTIVE, () -> CompletableFuture.<Void>completedStage(null))
+					.toCompletableFuture());
+		}
+		blocker.complete(null);
+		for (CompletableFuture<Void> result : results) {
+			result.get(1, TimeUnit.SECONDS);
+		}
+		assertEquals(0, limiter.getInFlight());
+		assertEquals(0, limiter.getQueued());
+		assertEquals(5001, limiter.getAdmittedCount());
+
+		// still usable
+		limiter.submit(OpenFinPriority.INTERACTIVE, () -> CompletableFuture.<Void>completedStage(null))
+				.toCompletableFuture().get(1, TimeUnit.SECONDS);
+		assertEquals(0, limiter.getInFlight());
+	}
+}
@@ -0,0 +1,97 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.util.List;
+
+import javax.json.Json;
+
+import org.junit.Test;
+
+public class InvokeResultCacheTest {
+
+	private InvokeResult result(int value) {
+		return new InvokeResult(null, Json.createObjectBuilder().add("resultJson", Integer.toString(value)).build(),
+				null);
+	}
+
+	private InvokeResultCache cache(Duration ttl, int maxEntries) {
+		return new InvokeResultCache(List.of(
+				new InvokeResultCache.Rule("fin.System.getMonitorInfo", ttl, maxEntries,
+						new String[] { "monitor-info-changed" }),
+				new InvokeResultCache.Rule("getInfo", ttl, maxEntries, null)));
+	}
+
+	@Test
+	public void hitAndMiss() {
+		InvokeResultCache cache = this.cache(Duration.ofMinutes(1), 10);
+		assertNull(cache.getRegion("fin.System.getVersion"));
+		InvokeResultCache.Region region = cache.getRegion("fin.System.getMonitorInfo");
+		assertNull(region.get("k"));
+		InvokeResult result = this.result(1);
+		region.put("k", result, region.getGeneration());
+		assertSame(result, region.get("k"));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void expiry() throws Exception {
+		InvokeResultCache cache = this.cache(Duration.ofMillis(50), 10);
+		InvokeResultCache.Region region = cache.getRegion("getInfo");
+		region.put("k", this.result(1), region.getGeneration());
+		Thread.sleep(100);
+		assertNull(region.get("k"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void lruEviction() {
+		InvokeResultCache cache = this.cache(Duration.ofMinutes(1), 2);
+		InvokeResultCache.Region region = cache.getRegion("getInfo");
+		region.put("a", this.result(1), region.getGeneration());
+		region.put("b", this.result(2), region.getGeneration());
+		region.get("a");
+		region.put("c", this.result(3), region.getGeneration());
+		assertNull(region.get("b"));
+		assertEquals(1, region.get("a").getResultAsInteger().intValue());
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void invalidateByEvent() {
+		InvokeResultCache cache = this.cache(Duration.ofMinutes(1), 10);
+		InvokeResultCache.Region monitorRegion = cache.getRegion("fin.System.getMonitorInfo");
+		InvokeResultCache.Region infoRegion = cache.getRegion("getInfo");
+		long generation = monitorRegion.getGeneration();
+		monitorRegion.put("k", this.result(1), generation);
+		infoRegion.put("k", this.result(2), infoRegion.getGeneration());
+		cache.invalidate("monitor-info-changed");
+		assertNull(monitorRegion.get("k"));
+		assertEquals(2, infoRegion.get("k").getResultAsInteger().intValue());
+		// result of an invoke started before the event is not stored
+		monitorRegion.put("k", this.result(1), generation);
+		assertNull(monitorRegion.get("k"));
+		assertEquals(1, cache.getInvalidationCount());
+	}
+}
@@ -0,0 +1,69 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+
+import javax.json.Json;
+
+import org.junit.Test;
+
+public class InvokeResultTest {
+
+	private InvokeResult rawResult(String json) {
+		return new InvokeResult(null, Json.createObjectBuilder().add("resultJson", json).build(), null);
+	}
+
+	@Test
+	public void scalars() {
+		assertEquals(Integer.valueOf(42), this.rawResult("42").getResultAsInteger());
+		assertEquals(Integer.valueOf(1), this.rawResult("1.5").getResultAsInteger());
+		assertEquals(Long.valueOf(12345678901L), this.rawResult("12345678901").getResultAsLong());
+		assertEquals(Double.valueOf(-1.5e3), this.rawResult("-1.5e3").getResultAsDouble());
+		assertEquals(new BigDecimal("0.1"), this.rawResult("0.1").getResultAsBigDecimal());
+		assertEquals(Boolean.TRUE, this.rawResult("true").getResultAsBoolean());
+		assertEquals(Boolean.FALSE, this.rawResult("false").getResultAsBoolean());
+		assertEquals("16.83.50.9", this.rawResult("\"16.83.50.9\"").getResultAsString());
+		assertEquals("a\"b", this.rawResult("\"a\\\"b\"").getResultAsString());
+	}
+
+	@Test
+	public void rawAndParsed() {
+		InvokeResult result = this.rawResult("{\"identity\":{\"uuid\":\"app\"}}");
+		assertEquals("{\"identity\":{\"uuid\":\"app\"}}", result.getRawResult());
+		assertEquals("app", result.getResultAsJsonObject().getJsonObject("identity").getString("uuid"));
+	}
+
+	@Test
+	public void undefinedResult() {
+		InvokeResult result = new InvokeResult(null, Json.createObjectBuilder().build(), null);
+		assertNull(result.getRawResult());
+		assertNull(result.getResult());
+		assertNull(result.getResultAsString());
+	}
+
+	@Test
+	public void treeResult() {
+		InvokeResult result = new InvokeResult(null, Json.createObjectBuilder().add("result", 7).build(), null);
+		assertEquals(Integer.valueOf(7), result.getResultAsInteger());
+		assertEquals("7", result.getRawResult());
+	}
+}
@@ -0,0 +1,41 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsonScannerTest {
+
+	@Test
+	public void findFields() {
+		String text = "{\"action\" : \"process-message\", \"payload\":{\"message\":{\"a\":[1,{\"topic\":\"x\"}]},"
+				+ "\"topic\":\"t\\\"1\",\"sourceUuid\":\"u\\u0041\"},\"n\":-1.5e3}";
+		assertEquals("process-message", JsonScanner.getString(text, 0, "action"));
+		int payload = JsonScanner.findField(text, 0, "payload");
+		assertEquals("t\"1", JsonScanner.getString(text, payload, "topic"));
+		assertEquals("uA", JsonScanner.getString(text, payload, "sourceUuid"));
+		int message = JsonScanner.findField(text, payload, "message");
+		assertEquals("{\"a\":[1,{\"topic\":\"x\"}]}", text.substring(message, JsonScanner.skipValue(text, message)));
+		int n = JsonScanner.findField(text, 0, "n");
+		assertEquals("-1.5e3", text.substring(n, JsonScanner.skipValue(text, n)));
+		assertEquals(-1, JsonScanner.findField(text, 0, "missing"));
+		assertEquals(null, JsonScanner.getString(text, 0, "n"));
+	}
+}
@@ -0,0 +1,217 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+
+import org.junit.Test;
+
+public class OpenFinCodecsTest {
+
+	public enum State {
+		normal, minimized, maximized
+	}
+
+	public static class Bounds {
+		public int top;
+		public int left;
+		public int width;
+		public int height;
+	}
+
+	public static class WindowInfo {
+		private String name;
+		private boolean showing;
+		private State state;
+		private Bounds bounds;
+		private List<WindowInfo> children;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public boolean isShowing() {
+			return showing;
+		}
+
+		public void setShowing(boolean showing) {
+			this.showing = showing;
+		}
+
+		public State getState() {
+			return state;
+		}
+
+		public void setState(State state) {
+			this.state = state;
+		}
+
+		public Bounds getBounds() {
+			return bounds;
+		}
+
+		public void setBounds(Bounds bounds) {
+			this.bounds = bounds;
+		}
+
+		public List<WindowInfo> getChildren() {
+			return children;
+		}
+
+		public void setChildren(List<WindowInfo> children) {
+			this.children = children;
+		}
+	}
+
+	private WindowInfo createWindowInfo() {
+		WindowInfo child = new WindowInfo();
+		child.setName("child");
+		child.setState(State.minimized);
+		WindowInfo info = new WindowInfo();
+		info.setName("main");
+		info.setShowing(true);
+		info.setState(State.normal);
+		info.setBounds(new Bounds());
+		info.getBounds().top = 10;
+		info.getBounds().width = 800;
+		info.setChildren(Arrays.asList(child));
+		return info;
+	}
+
+	@Test
+	public void encodeDecode() {
+		OpenFinCodec<WindowInfo> codec = OpenFinCodecs.get(WindowInfo.class);
+		JsonObject json = (JsonObject) codec.encode(this.createWindowInfo());
+		assertEquals("main", json.getString("name"));
+		assertEquals(800, json.getJsonObject("bounds").getInt("width"));
+		assertEquals("minimized", json.getJsonArray("children").getJsonObject(0).getString("state"));
+
+		WindowInfo decoded = codec.decode(json);
+		assertEquals("main", decoded.getName());
+		assertEquals(true, decoded.isShowing());
+		assertEquals(10, decoded.getBounds().top);
+		assertEquals(State.minimized, decoded.getChildren().get(0).getState());
+		assertNull(decoded.getChildren().get(0).getBounds());
+	}
+
+	@Test
+	public void writeMatchesEncode() {
+		OpenFinCodec<WindowInfo> codec = OpenFinCodecs.get(WindowInfo.class);
+		WindowInfo info = this.createWindowInfo();
+		StringWriter sw = new StringWriter();
+		JsonGenerator generator = Json.createGenerator(sw);
+		codec.write(info, generator);
+		generator.close();
+		JsonValue written = Json.createReader(new StringReader(sw.toString())).readValue();
+		assertEquals(codec.encode(info), written);
+	}
+
+	@Test
+	public void scalars() {
+		assertEquals(Json.createValue(42), OpenFinCodecs.encode(42));
+		assertEquals(Json.createValue("abc"), OpenFinCodecs.encode("abc"));
+		assertEquals(JsonValue.NULL, OpenFinCodecs.encode(null));
+		assertEquals(Long.valueOf(42), OpenFinCodecs.decode(Json.createValue(42), Long.class));
+		assertEquals(Arrays.asList(1, 2), Arrays.asList(OpenFinCodecs.decode(
+				Json.createArrayBuilder().add(1).add(2).build(), Integer[].class)));
+	}
+
+	/**
+	 * Only written by its codec, encoding it as a tree fails.
+	 */
+	public static class Point {
+		final int x;
+		final int y;
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	static {
+		OpenFinCodecs.register(Point.class, new OpenFinCodec<Point>() {
+			@Override
+			public JsonValue encode(Point value) {
+				throw new UnsupportedOperationException("encoded as tree");
+			}
+
+			@Override
+			public Point decode(JsonValue json) {
+				JsonObject obj = json.asJsonObject();
+				return new Point(obj.getInt("x"), obj.getInt("y"));
+			}
+
+			@Override
+			public void write(Point value, JsonGenerator generator) {
+				generator.writeStartObject().write("x", value.x).write("y", value.y).writeEnd();
+			}
+		});
+	}
+
+	@Test
+	public void typedArgumentsWrittenByCodec() {
+		JsonValue[] args = new JsonValue[] { CodecValue.of(new Point(1, 2)), CodecValue.of(JsonValue.TRUE),
+				CodecValue.of(null) };
+		assertSame(JsonValue.TRUE, args[1]);
+		JsonObject payload = JsonParsers.parseObject(EnvelopeWriter.writeMessage("invoke", 1, g -> {
+			OpenFinGatewayImpl.writeInvokePayload(g, false, null, "fin.Window.moveTo", OpenFinGatewayImpl.NO_HANDLE,
+					args);
+		})).getJsonObject("payload");
+		assertEquals(Json.createArrayBuilder().add(Json.createObjectBuilder().add("x", 1).add("y", 2)).add(true)
+				.build(), payload.getJsonArray("args"));
+		// coalescing and cache keys
+		assertEquals("{\"x\":1,\"y\":2}", args[0].toString());
+	}
+
+	@Test
+	public void typedPublishAndSendWrittenByCodec() {
+		TestConnection connection = new TestConnection();
+		OpenFinInterApplicationBus iab = connection.getInterAppBus();
+		JsonObject point = Json.createObjectBuilder().add("x", 3).add("y", 4).build();
+		iab.publish("points", new Point(3, 4), Point.class).toCompletableFuture().join();
+		assertEquals("points", connection.publishedMessages.get(0).getString("topic"));
+		assertEquals(point, connection.publishedMessages.get(0).getJsonObject("message"));
+
+		JsonObject destination = Json.createObjectBuilder().add("uuid", "app").add("name", "app").build();
+		iab.send(destination, "points", new Point(3, 4), Point.class).toCompletableFuture().join();
+		assertEquals("app", connection.sentMessages.get(0).getString("destinationUuid"));
+		assertEquals(point, connection.sentMessages.get(0).getJsonObject("message"));
+
+		WindowInfo info = this.createWindowInfo();
+		iab.publish("windows", info, WindowInfo.class).toCompletableFuture().join();
+		assertEquals(OpenFinCodecs.get(WindowInfo.class).encode(info),
+				connection.publishedMessages.get(1).getJsonObject("message"));
+	}
+}
@@ -18,9 +18,18 @@ limitations under the License.
 package com.mijibox.openfin.gateway;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -478,4 +487,255 @@ public class OpenFinGatewayApiTest {
 
 	}
 
+	@Test
+	public void controlAheadOfBulk() throws Exception {
+		CompletableFuture<?>[] bulkFutures = new CompletableFuture<?>[500];
+		for (int i = 0; i < bulkFutures.length; i++) {
+			bulkFutures[i] = gateway.invoke(OpenFinPriority.BULK, false, "fin.System.getVersion")
+					.toCompletableFuture();
+		}
+		((OpenFinGatewayImpl) gateway).ping().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		// ping overtook the bulk invokes queued before it
+		assertFalse(CompletableFuture.allOf(bulkFutures).isDone());
+		CompletableFuture.allOf(bulkFutures).get(60, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void invokeDeadline() throws Exception {
+		// Promise.race([]) never settles
+		CompletableFuture<InvokeResult> future = gateway.invoke(OpenFinPriority.INTERACTIVE, Duration.ofMillis(500),
+				false, "Promise.race", JsonValue.EMPTY_JSON_ARRAY).toCompletableFuture();
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("invoke should time out");
+		}
+		catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+	}
+
+	@Test
+	public void invokeCancel() throws Exception {
+		CompletableFuture<InvokeResult> future = gateway.invoke(OpenFinPriority.INTERACTIVE, null, false,
+				"Promise.race", JsonValue.EMPTY_JSON_ARRAY).toCompletableFuture();
+		assertTrue(future.cancel(true));
+		assertTrue(future.isCancelled());
+		// gateway keeps working
+		assertEquals(runtimeVersion, gateway.invoke("fin.System.getVersion").toCompletableFuture()
+				.get(20, TimeUnit.SECONDS).getResultAsString());
+	}
+
+	@Test
+	public void poller() throws Exception {
+		CountDownLatch latch = new CountDownLatch(3);
+		OpenFinPoller poller = gateway.addPoller(Duration.ofMillis(200), (value, patch) -> {
+			latch.countDown();
+		}, "fin.System.getProcessList").toCompletableFuture().get(20, TimeUnit.SECONDS);
+		assertTrue(latch.await(20, TimeUnit.SECONDS));
+		assertEquals(JsonValue.ValueType.ARRAY, poller.getValue().getValueType());
+		assertEquals(0, poller.getGapCount());
+		poller.close().toCompletableFuture().get(20, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void procedures() throws Exception {
+		gateway.registerProcedure("sumBounds", "let bounds = await fin.Window.getCurrentSync().getBounds(); "
+				+ "return bounds.width + bounds.height + offset;", "offset").toCompletableFuture()
+				.get(20, TimeUnit.SECONDS);
+		assertTrue(gateway.listProcedures().toCompletableFuture().get(20, TimeUnit.SECONDS).contains("sumBounds"));
+		InvokeResult result = gateway.callProcedure("sumBounds", Json.createValue(0)).toCompletableFuture()
+				.get(20, TimeUnit.SECONDS);
+		assertTrue(result.getResultAsInteger() > 0);
+		gateway.removeProcedure("sumBounds").toCompletableFuture().get(20, TimeUnit.SECONDS);
+		assertFalse(gateway.listProcedures().toCompletableFuture().get(20, TimeUnit.SECONDS).contains("sumBounds"));
+	}
+
+	@Test
+	public void preparedMethod() throws Exception {
+		int iterations = 200;
+		ProxyObject window = gateway.invoke(true, "fin.Window.getCurrent").toCompletableFuture()
+				.get(20, TimeUnit.SECONDS).getProxyObject();
+		PreparedMethod getBounds = window.prepare("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			window.invoke("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+		long byName = (System.nanoTime() - start) / iterations / 1000;
+		start = System.nanoTime();
+		InvokeResult result = null;
+		for (int i = 0; i < iterations; i++) {
+			result = getBounds.invoke().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+		long byHandle = (System.nanoTime() - start) / iterations / 1000;
+		logger.info("getBounds round trip, by name: {} us, prepared: {} us", byName, byHandle);
+		assertTrue(result.getResultAsJsonObject().containsKey("width"));
+
+		getBounds.release().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		CompletableFuture<?> errorFuture = new CompletableFuture<>();
+		getBounds.invoke().exceptionally(e -> {
+			errorFuture.complete(null);
+			return null;
+		});
+		errorFuture.get(20, TimeUnit.SECONDS);
+		window.dispose();
+	}
+
+	@Test
+	public void protocolVersion() throws Exception {
+		assertEquals(2, ((OpenFinGatewayImpl) gateway).getProtocolVersion());
+		ProxyObject window = gateway.invoke(true, "fin.Window.getCurrent").toCompletableFuture()
+				.get(20, TimeUnit.SECONDS).getProxyObject();
+		// numeric proxy ids
+		assertEquals(JsonValue.ValueType.NUMBER, window.getProxyId().getValueType());
+		assertTrue(window.invoke("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS)
+				.getResultAsJsonObject().containsKey("width"));
+		window.dispose();
+	}
+
+	private long invokeMicros(ProxyObject window, int iterations) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			window.invoke("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+		return (System.nanoTime() - start) / iterations / 1000;
+	}
+
+	@Test
+	public void directApiFastPath() throws Exception {
+		OpenFinGateway directGateway = OpenFinGatewayLauncher.newOpenFinGatewayLauncher()
+				.launcherBuilder(OpenFinLauncher.newOpenFinLauncherBuilder()
+						.runtimeVersion(this.runtimeVersion))
+				.directApiFastPath(true)
+				.open()
+				.toCompletableFuture().get(120, TimeUnit.SECONDS);
+		try {
+			ProxyObject window = gateway.invoke(true, "fin.Window.getCurrent").toCompletableFuture()
+					.get(20, TimeUnit.SECONDS).getProxyObject();
+			JsonObject identity = window.getResultJson().getJsonObject("identity");
+			ProxyObject directWindow = directGateway.invoke(true, "fin.Window.wrap", identity).toCompletableFuture()
+					.get(20, TimeUnit.SECONDS).getProxyObject();
+			int iterations = 200;
+			this.invokeMicros(window, 20);
+			this.invokeMicros(directWindow, 20);
+			long viaGateway = this.invokeMicros(window, iterations);
+			long direct = this.invokeMicros(directWindow, iterations);
+			logger.info("getBounds round trip, through gateway.js: {} us, direct API protocol: {} us", viaGateway,
+					direct);
+			assertEquals(0, directGateway.getDirectApiFastPath().getFallbackCount());
+			assertTrue(directGateway.getDirectApiFastPath().getDirectCount() >= iterations);
+			assertEquals(window.invoke("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS).getResult(),
+					directWindow.invoke("getBounds").toCompletableFuture().get(20, TimeUnit.SECONDS).getResult());
+		}
+		finally {
+			directGateway.close().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void shardedGateway() throws Exception {
+		ShardedOpenFinGateway shardedGateway = (ShardedOpenFinGateway) OpenFinGatewayLauncher
+				.newOpenFinGatewayLauncher()
+				.launcherBuilder(OpenFinLauncher.newOpenFinLauncherBuilder()
+						.runtimeVersion(this.runtimeVersion))
+				.gatewayShards(3, ShardedOpenFinGateway.Routing.ROUND_ROBIN)
+				.open()
+				.toCompletableFuture().get(120, TimeUnit.SECONDS);
+		try {
+			assertEquals(3, shardedGateway.getShardCount());
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[30];
+			for (int i = 0; i < futures.length; i++) {
+				futures[i] = shardedGateway.invoke("fin.System.getVersion").toCompletableFuture();
+			}
+			CompletableFuture.allOf(futures).get(20, TimeUnit.SECONDS);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(10, shardedGateway.getShardRoutedCount(i));
+				assertEquals(10, shardedGateway.getShardInvokeCount(i));
+				assertEquals(0, shardedGateway.getShardInFlightInvokes(i));
+			}
+
+			// proxy objects stay in their shard
+			ProxyObject app = shardedGateway.invoke(true, "fin.Application.getCurrent").toCompletableFuture()
+					.get(20, TimeUnit.SECONDS).getProxyObject();
+			int shard = shardedGateway.getShards().indexOf(app.getGateway());
+			long invokeCount = shardedGateway.getShardInvokeCount(shard);
+			for (int i = 0; i < 5; i++) {
+				app.invoke("getInfo").toCompletableFuture().get(20, TimeUnit.SECONDS);
+			}
+			assertEquals(invokeCount + 5, shardedGateway.getShardInvokeCount(shard));
+
+			shardedGateway.registerProcedure("add", "return a + b;", "a", "b").toCompletableFuture().get(20,
+					TimeUnit.SECONDS);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(Integer.valueOf(3), shardedGateway
+						.callProcedure("add", Json.createValue(1), Json.createValue(2)).toCompletableFuture()
+						.get(20, TimeUnit.SECONDS).getResultAsInteger());
+			}
+		}
+		finally {
+			shardedGateway.close().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void invokeStream() throws Exception {
+		JsonValue expected = gateway.invoke("fin.System.getAllWindows").toCompletableFuture()
+				.get(20, TimeUnit.SECONDS).getResult();
+		CompletableFuture<String> text = new CompletableFuture<>();
+		OpenFinResultStream stream = gateway.invokeStream(16, "fin.System.getAllWindows");
+		stream.subscribe(new Flow.Subscriber<CharSequence>() {
+			StringBuilder sb = new StringBuilder();
+			Flow.Subscription subscription;
+
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+
+			@Override
+			public void onNext(CharSequence item) {
+				this.sb.append(item);
+				this.subscription.request(1);
+			}
+
+			@Override
+			public void onError(Throwable throwable) {
+				text.completeExceptionally(throwable);
+			}
+
+			@Override
+			public void onComplete() {
+				text.complete(this.sb.toString());
+			}
+		});
+		String json = text.get(20, TimeUnit.SECONDS);
+		logger.info("streamed {} chars in {} chunks", stream.getCharCount(), stream.getChunkCount());
+		assertEquals(expected, JsonParsers.parse(json));
+		assertTrue(stream.getChunkCount() > 1);
+	}
+
+	@Test
+	public void invokeBinary() throws Exception {
+		try (BinaryResult result = gateway.invokeBinary("window.btoa", Json.createValue("hello"))
+				.toCompletableFuture().get(20, TimeUnit.SECONDS)) {
+			assertEquals("hello", new String(result.toByteArray(), StandardCharsets.US_ASCII));
+		}
+
+		int size = 300_000;
+		gateway.registerProcedure("bytes", "return new Uint8Array(n).map((v, i) => i % 251);", "n")
+				.toCompletableFuture().get(20, TimeUnit.SECONDS);
+		try (BinaryResult result = gateway.invokeBinary("procedures.bytes", Json.createValue(size))
+				.toCompletableFuture().get(20, TimeUnit.SECONDS)) {
+			ByteBuffer buffer = result.getBuffer();
+			assertTrue(buffer.isDirect());
+			assertEquals(size, buffer.remaining());
+			for (int i = 0; i < size; i++) {
+				assertEquals((byte) (i % 251), buffer.get(i));
+			}
+		}
+		finally {
+			gateway.removeProcedure("bytes").toCompletableFuture().get(20, TimeUnit.SECONDS);
+		}
+	}
 }
@@ -0,0 +1,141 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+
+import javax.json.JsonArray;
+import javax.json.JsonValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Invokes through a connection that acknowledges every websocket message,
+ * gateway.js never responds.
+ */
+public class OpenFinGatewayImplTest {
+
+	private TestConnection connection;
+	private OpenFinGatewayImpl gateway;
+
+	@Before
+	public void openGateway() throws Exception {
+		// no handshake, gateway.js is not there to answer it.
+		System.setProperty("com.mijibox.openfin.gateway.protocolVersion", "1");
+		this.connection = new TestConnection();
+		OpenFinGatewayLauncherImpl launcher = (OpenFinGatewayLauncherImpl) OpenFinGatewayLauncher
+				.newOpenFinGatewayLauncher().maxInFlightInvokes(1).invokeTimeout(Duration.ofMillis(300));
+		this.gateway = (OpenFinGatewayImpl) OpenFinGatewayImpl.newInstance(launcher, this.connection, null)
+				.toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+
+	@After
+	public void clearProtocolVersion() {
+		System.clearProperty("com.mijibox.openfin.gateway.protocolVersion");
+	}
+
+	private Throwable failure(CompletionStage<?> future) {
+		try {
+			future.toCompletableFuture().join();
+			fail("completed normally");
+			return null;
+		}
+		catch (CompletionException e) {
+			return e.getCause();
+		}
+		catch (CancellationException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Completion callbacks may still be running on the timeout thread.
+	 */
+	private void waitFor(BooleanSupplier condition) throws InterruptedException {
+		for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	private void assertReleased(int cancelCount) throws InterruptedException {
+		this.waitFor(() -> this.gateway.getInFlightInvokes() == 0
+				&& this.connection.sentActions("cancel").size() == cancelCount);
+		assertEquals(0, this.gateway.getPendingResponseCount());
+		assertEquals(0, this.gateway.getInvokeLimiter().getInFlight());
+		assertEquals(0, this.gateway.getInFlightInvokes());
+		assertEquals(cancelCount, this.connection.sentActions("cancel").size());
+	}
+
+	@Test
+	public void timeoutReleasesInvoke() throws Exception {
+		CompletionStage<InvokeResult> invoke = this.gateway.invoke("fin.System.getVersion");
+		assertEquals(1, this.connection.sentActions("invoke").size());
+		assertEquals(1, this.gateway.getPendingResponseCount());
+		assertTrue(this.failure(invoke) instanceof TimeoutException);
+		this.assertReleased(1);
+		int msgId = this.connection.sentActions("invoke").get(0).getInt("messageId");
+		assertEquals(msgId, this.connection.sentActions("cancel").get(0).getInt("payload"));
+
+		// the permit is back, the next invoke is sent right away
+		this.gateway.invoke("fin.System.getVersion");
+		assertEquals(2, this.connection.sentActions("invoke").size());
+	}
+
+	@Test
+	public void cancelReleasesInvoke() throws Exception {
+		CompletableFuture<InvokeResult> invoke = this.gateway.invoke("fin.System.getVersion").toCompletableFuture();
+		CompletableFuture<InvokeResult> queued = this.gateway.invoke("fin.System.getVersion").toCompletableFuture();
+		assertEquals(1, this.connection.sentActions("invoke").size());
+		assertEquals(1, this.gateway.getInvokeLimiter().getQueued());
+
+		// cancelled while waiting for a permit, never sent
+		queued.cancel(false);
+		assertEquals(0, this.gateway.getInvokeLimiter().getQueued());
+		invoke.cancel(false);
+		this.assertReleased(1);
+		assertEquals(1, this.connection.sentActions("invoke").size());
+
+		this.gateway.invoke("fin.System.getVersion");
+		assertEquals(2, this.connection.sentActions("invoke").size());
+	}
+
+	@Test
+	public void typedInvokeArgumentsWritten() {
+		OpenFinCodecsTest.Bounds bounds = new OpenFinCodecsTest.Bounds();
+		bounds.top = 10;
+		bounds.width = 800;
+		this.gateway.invoke(JsonValue.class, "fin.Window.setBounds", bounds, null);
+		JsonArray args = this.connection.sentActions("invoke").get(0).getJsonObject("payload").getJsonArray("args");
+		assertEquals(1, args.size());
+		assertEquals(OpenFinCodecs.encode(bounds), args.get(0));
+	}
+}
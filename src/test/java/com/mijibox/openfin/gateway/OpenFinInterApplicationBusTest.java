@@ -0,0 +1,290 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mijibox.openfin.gateway.OpenFinInterApplicationBus.Subscription;
+
+public class OpenFinInterApplicationBusTest {
+	final static Logger logger = LoggerFactory.getLogger(OpenFinInterApplicationBusTest.class);
+
+	private static OpenFinGateway gateway;
+
+	@BeforeClass
+	public static void setup() throws Exception {
+		gateway = OpenFinGatewayLauncher.newOpenFinGatewayLauncher()
+				.launcherBuilder(OpenFinLauncher.newOpenFinLauncherBuilder()
+						.addRuntimeOption("--v=1")
+						.addRuntimeOption("--no-sandbox"))
+				.open()
+				.toCompletableFuture().get(120, TimeUnit.SECONDS);
+	}
+
+	@AfterClass
+	public static void teardown() throws Exception {
+		gateway.close().toCompletableFuture().get(20, TimeUnit.SECONDS);
+		gateway = null;
+	}
+
+	@Test
+	public void batchedPublish() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		int cnt = 100;
+		CountDownLatch latch = new CountDownLatch(cnt);
+		iab.subscribe(null, topic, (src, msg) -> {
+			latch.countDown();
+		}).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		iab.enableBatching(Duration.ofMillis(5), 20);
+		try {
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[cnt];
+			for (int i = 0; i < cnt; i++) {
+				futures[i] = iab.publish(topic, Json.createObjectBuilder().add("seq", i).build())
+						.toCompletableFuture();
+			}
+			CompletableFuture.allOf(futures).get(10, TimeUnit.SECONDS);
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			IabMessageBatcher batcher = iab.getMessageBatcher();
+			logger.debug("batches: {}, average size: {}, average delay: {}us", batcher.getBatchCount(),
+					batcher.getAverageBatchSize(), batcher.getAverageDelayMicros());
+			assertEquals(cnt, batcher.getMessageCount());
+			assertTrue(batcher.getBatchCount() < cnt);
+		}
+		finally {
+			iab.disableBatching();
+		}
+	}
+
+	@Test
+	public void resubscribeWithinGracePeriod() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		iab.setUnsubscribeGracePeriod(Duration.ofSeconds(2));
+		try {
+			OpenFinIabMessageListener listener1 = (src, msg) -> {
+			};
+			CompletableFuture<?> listenerFuture = new CompletableFuture<>();
+			OpenFinIabMessageListener listener2 = (src, msg) -> {
+				listenerFuture.complete(null);
+			};
+			// concurrent subscriptions share the same subscribe request
+			CompletableFuture.allOf(
+					iab.subscribe(null, topic, listener1).toCompletableFuture(),
+					iab.subscribe(null, topic, listener2).toCompletableFuture())
+					.get(10, TimeUnit.SECONDS);
+			iab.unsubscribe(null, topic, listener1).toCompletableFuture().get(10, TimeUnit.SECONDS);
+			iab.unsubscribe(null, topic, listener2).toCompletableFuture().get(10, TimeUnit.SECONDS);
+			// still subscribed in the runtime, no round trip needed.
+			assertTrue(iab.subscribe(null, topic, listener2).toCompletableFuture().isDone());
+			iab.publish(topic, Json.createObjectBuilder().add("key", "value").build());
+			listenerFuture.get(10, TimeUnit.SECONDS);
+		}
+		finally {
+			iab.setUnsubscribeGracePeriod(Duration.ZERO);
+		}
+	}
+
+	@Test
+	public void subscribeAllBenchmark() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		int cnt = 800;
+		OpenFinIabMessageListener listener = (src, msg) -> {
+		};
+		List<Subscription> serialSubscriptions = new ArrayList<>();
+		List<Subscription> bulkSubscriptions = new ArrayList<>();
+		for (int i = 0; i < cnt; i++) {
+			serialSubscriptions.add(new Subscription(null, UUID.randomUUID().toString(), listener));
+			bulkSubscriptions.add(new Subscription(null, UUID.randomUUID().toString(), listener));
+		}
+
+		long start = System.nanoTime();
+		for (Subscription s : serialSubscriptions) {
+			iab.subscribe(s.getSource(), s.getTopic(), s.getListener()).toCompletableFuture().get(10,
+					TimeUnit.SECONDS);
+		}
+		long serialTime = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		iab.subscribeAll(bulkSubscriptions).toCompletableFuture().get(60, TimeUnit.SECONDS);
+		long bulkTime = System.nanoTime() - start;
+
+		logger.debug("{} subscriptions, serial: {}ms, subscribeAll (maxInFlight={}): {}ms", cnt,
+				serialTime / 1000000, iab.getMaxInFlightSubscriptions(), bulkTime / 1000000);
+
+		iab.unsubscribeAll(serialSubscriptions).toCompletableFuture().get(60, TimeUnit.SECONDS);
+		iab.unsubscribeAll(bulkSubscriptions).toCompletableFuture().get(60, TimeUnit.SECONDS);
+		assertTrue(bulkTime < serialTime);
+	}
+
+	@Test
+	public void localDelivery() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		AtomicInteger invokeCnt = new AtomicInteger(0);
+		CompletableFuture<String> sourceFuture = new CompletableFuture<>();
+		iab.subscribe(null, topic, (src, msg) -> {
+			invokeCnt.incrementAndGet();
+			sourceFuture.complete(src.getString("uuid"));
+		}).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		iab.setLocalDelivery(true);
+		try {
+			CompletableFuture<Void> publishFuture = iab.publish(topic, Json.createObjectBuilder().add("key", "value").build())
+					.toCompletableFuture();
+			// delivered before it reaches the runtime
+			assertEquals(1, invokeCnt.get());
+			assertEquals(iab.getConnection().getUuid(), sourceFuture.getNow(null));
+			publishFuture.get(10, TimeUnit.SECONDS);
+			// give the echoed copy time to arrive
+			Thread.sleep(1000);
+			assertEquals(1, invokeCnt.get());
+		}
+		finally {
+			iab.setLocalDelivery(false);
+		}
+	}
+
+	@Test
+	public void lastValueReplay() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		iab.enableLastValueCache(100);
+		try {
+			CountDownLatch latch = new CountDownLatch(2);
+			iab.subscribe(null, topic, (src, msg) -> {
+				latch.countDown();
+			}).toCompletableFuture().get(10, TimeUnit.SECONDS);
+			iab.publish(topic, Json.createObjectBuilder().add("seq", 1).build());
+			iab.publish(topic, Json.createObjectBuilder().add("seq", 2).build());
+			assertTrue(latch.await(10, TimeUnit.SECONDS));
+			assertEquals(2, iab.getLast(topic).asJsonObject().getInt("seq"));
+
+			CompletableFuture<Integer> lateFuture = new CompletableFuture<>();
+			iab.subscribe(null, topic, (src, msg) -> {
+				lateFuture.complete(msg.asJsonObject().getInt("seq"));
+			});
+			// replayed without waiting for the next message
+			assertEquals(Integer.valueOf(2), lateFuture.getNow(null));
+		}
+		finally {
+			iab.disableLastValueCache();
+		}
+	}
+
+	@Test
+	public void requestReply() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		String uuid = iab.getConnection().getUuid();
+		JsonObject self = Json.createObjectBuilder().add("uuid", uuid).add("name", uuid).build();
+		OpenFinIabRequestHandler handler = (src, msg) -> {
+			int value = msg.asJsonObject().getInt("value");
+			return CompletableFuture.completedStage(Json.createValue(value * 2));
+		};
+		iab.subscribeRequests(null, topic, handler).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		JsonValue result = iab.request(self, topic, Json.createObjectBuilder().add("value", 21).build(),
+				Duration.ofSeconds(10)).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertEquals(Json.createValue(42), result);
+		iab.unsubscribeRequests(null, topic, handler).toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void requestTimeout() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String uuid = iab.getConnection().getUuid();
+		JsonObject self = Json.createObjectBuilder().add("uuid", uuid).add("name", uuid).build();
+		try {
+			// nobody replies
+			iab.request(self, UUID.randomUUID().toString(), JsonValue.EMPTY_JSON_OBJECT, Duration.ofMillis(500))
+					.toCompletableFuture().get(10, TimeUnit.SECONDS);
+			fail("request should time out");
+		}
+		catch (ExecutionException e) {
+			logger.debug("expected error", e);
+		}
+	}
+
+	@Test
+	public void rawSubscription() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		CompletableFuture<String> rawFuture = new CompletableFuture<>();
+		CompletableFuture<JsonValue> treeFuture = new CompletableFuture<>();
+		OpenFinIabRawMessageListener rawListener = (srcUuid, srcName, t, msg) -> {
+			rawFuture.complete(msg.toString());
+		};
+		OpenFinIabMessageListener listener = (src, msg) -> {
+			treeFuture.complete(msg);
+		};
+		iab.subscribeRaw(null, topic, rawListener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		iab.subscribe(null, topic, listener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		JsonObject message = Json.createObjectBuilder().add("key", "va\"lue").add("n", 1).build();
+		iab.publish(topic, message).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		String raw = rawFuture.get(10, TimeUnit.SECONDS);
+		assertEquals(message, Json.createReader(new StringReader(raw)).readObject());
+		assertEquals(message, treeFuture.get(10, TimeUnit.SECONDS));
+		iab.unsubscribeRaw(null, topic, rawListener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		iab.unsubscribe(null, topic, listener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void binaryMessage() throws Exception {
+		OpenFinInterApplicationBus iab = gateway.getOpenFinInterApplicationBus();
+		String topic = UUID.randomUUID().toString();
+		byte[] bytes = new byte[200 * 1024 + 7];
+		new Random(1).nextBytes(bytes);
+		CompletableFuture<byte[]> received = new CompletableFuture<>();
+		OpenFinIabBinaryMessageListener listener = (src, data) -> {
+			byte[] copy = new byte[data.remaining()];
+			data.get(copy);
+			received.complete(copy);
+		};
+		iab.subscribeBinary(null, topic, listener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+		iab.publishBinary(topic, buffer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertArrayEquals(bytes, received.get(10, TimeUnit.SECONDS));
+		assertEquals(0, buffer.position());
+		iab.unsubscribeBinary(null, topic, listener).toCompletableFuture().get(10, TimeUnit.SECONDS);
+	}
+}
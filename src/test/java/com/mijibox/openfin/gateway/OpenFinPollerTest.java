@@ -0,0 +1,107 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class OpenFinPollerTest {
+
+	private static class TestPoller extends OpenFinPoller {
+		int resyncCount;
+
+		TestPoller(OpenFinPollerListener listener) {
+			super(null, "topic", listener);
+		}
+
+		@Override
+		public CompletionStage<Void> resync() {
+			this.resyncCount++;
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	private JsonObject message(String json) {
+		return JsonParsers.parseObject(json);
+	}
+
+	@Test
+	public void patchesApplied() {
+		List<JsonArray> patches = new ArrayList<>();
+		TestPoller poller = new TestPoller((value, patch) -> {
+			patches.add(patch);
+		});
+		poller.onMessage(this.message("{\"seq\":1,\"value\":{\"cpu\":1,\"procs\":[{\"pid\":1},{\"pid\":2}]}}"));
+		poller.onMessage(this.message("{\"seq\":2,\"patch\":[{\"op\":\"replace\",\"path\":\"/cpu\",\"value\":5},"
+				+ "{\"op\":\"remove\",\"path\":\"/procs/1\"},{\"op\":\"add\",\"path\":\"/mem\",\"value\":null}]}"));
+		JsonObject value = poller.getValue().asJsonObject();
+		assertEquals(5, value.getInt("cpu"));
+		assertEquals(1, value.getJsonArray("procs").size());
+		assertEquals(JsonValue.NULL, value.get("mem"));
+		assertEquals(2, poller.getSequence());
+		assertNull(patches.get(0));
+		assertEquals(3, patches.get(1).size());
+		assertEquals(1, poller.getValueCount());
+		assertEquals(1, poller.getPatchCount());
+	}
+
+	@Test
+	public void gapRequestsResync() {
+		TestPoller poller = new TestPoller((value, patch) -> {
+		});
+		poller.onMessage(this.message("{\"seq\":1,\"value\":{\"cpu\":1}}"));
+		poller.onMessage(this.message("{\"seq\":3,\"patch\":[{\"op\":\"replace\",\"path\":\"/cpu\",\"value\":3}]}"));
+		poller.onMessage(this.message("{\"seq\":4,\"patch\":[{\"op\":\"replace\",\"path\":\"/cpu\",\"value\":4}]}"));
+		assertEquals(1, poller.getValue().asJsonObject().getInt("cpu"));
+		assertEquals(2, poller.getGapCount());
+		assertEquals(1, poller.resyncCount);
+
+		poller.onMessage(this.message("{\"seq\":5,\"value\":{\"cpu\":5}}"));
+		poller.onMessage(this.message("{\"seq\":6,\"patch\":[{\"op\":\"remove\",\"path\":\"/missing\"}]}"));
+		assertEquals(5, poller.getValue().asJsonObject().getInt("cpu"));
+		assertEquals(2, poller.resyncCount);
+	}
+
+	@Test
+	public void staleValueDropped() {
+		List<JsonValue> values = new ArrayList<>();
+		TestPoller poller = new TestPoller((value, patch) -> {
+			values.add(value);
+		});
+		poller.onMessage(this.message("{\"seq\":1,\"value\":{\"cpu\":1}}"));
+		poller.onMessage(this.message("{\"seq\":3,\"value\":{\"cpu\":3}}"));
+		// processed late by another message thread
+		poller.onMessage(this.message("{\"seq\":2,\"value\":{\"cpu\":2}}"));
+		poller.onMessage(this.message("{\"seq\":3,\"value\":{\"cpu\":3}}"));
+		assertEquals(3, poller.getValue().asJsonObject().getInt("cpu"));
+		assertEquals(2, values.size());
+		assertEquals(0, poller.getGapCount());
+		assertEquals(0, poller.resyncCount);
+	}
+}
@@ -0,0 +1,226 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+import javax.json.Json;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+public class OpenFinResultStreamTest {
+
+	private static class TestStream extends OpenFinResultStream {
+		List<Long> credits = new ArrayList<>();
+		List<Boolean> closes = new ArrayList<>();
+
+		TestStream() {
+			super(null, "topic", null, 4, "fin.System.getLog");
+		}
+
+		@Override
+		CompletionStage<JsonValue> start() {
+			return CompletableFuture.completedFuture(Json.createValue(1));
+		}
+
+		@Override
+		void sendCredit(long credit) {
+			this.credits.add(credit);
+		}
+
+		@Override
+		void close(boolean cancel) {
+			this.closes.add(cancel);
+		}
+
+		void chunk(int seq, String data) {
+			this.onMessage(Json.createObjectBuilder().add("seq", seq).add("data", data).build());
+		}
+
+		void end(int seq) {
+			this.onMessage(Json.createObjectBuilder().add("seq", seq).add("end", true).build());
+		}
+	}
+
+	private static class TestSubscriber implements Flow.Subscriber<CharSequence> {
+		Flow.Subscription subscription;
+		StringBuilder text = new StringBuilder();
+		long initialRequest;
+		boolean completed;
+		Throwable error;
+
+		TestSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			if (this.initialRequest > 0) {
+				subscription.request(this.initialRequest);
+			}
+		}
+
+		@Override
+		public void onNext(CharSequence item) {
+			this.text.append(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+	}
+
+	@Test
+	public void creditBoundedByWindow() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(Long.MAX_VALUE);
+		stream.subscribe(subscriber);
+		assertEquals(List.of((long) OpenFinResultStream.MAX_WINDOW), stream.credits);
+		int seq = 0;
+		for (int i = 0; i < OpenFinResultStream.MAX_WINDOW / 2 - 1; i++) {
+			stream.chunk(++seq, "abcd");
+		}
+		// not worth a message yet
+		assertEquals(1, stream.credits.size());
+		stream.chunk(++seq, "abcd");
+		assertEquals(List.of((long) OpenFinResultStream.MAX_WINDOW, (long) OpenFinResultStream.MAX_WINDOW / 2),
+				stream.credits);
+		stream.chunk(++seq, "ef");
+		stream.end(++seq);
+		assertTrue(subscriber.completed);
+		assertEquals("abcd".repeat(OpenFinResultStream.MAX_WINDOW / 2) + "ef", subscriber.text.toString());
+		assertEquals(OpenFinResultStream.MAX_WINDOW / 2 + 1, stream.getChunkCount());
+		assertEquals(List.of(false), stream.closes);
+	}
+
+	@Test
+	public void creditFollowsDemand() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(0);
+		stream.subscribe(subscriber);
+		assertTrue(stream.credits.isEmpty());
+		subscriber.subscription.request(1);
+		stream.chunk(1, "abcd");
+		subscriber.subscription.request(2);
+		assertEquals(List.of(1L, 2L), stream.credits);
+		assertEquals("abcd", subscriber.text.toString());
+	}
+
+	@Test
+	public void cancelStopsDelivery() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(2);
+		stream.subscribe(subscriber);
+		stream.chunk(1, "abcd");
+		subscriber.subscription.cancel();
+		stream.chunk(2, "efgh");
+		assertEquals("abcd", subscriber.text.toString());
+		assertEquals(List.of(true), stream.closes);
+		assertFalse(subscriber.completed);
+	}
+
+	@Test
+	public void outOfOrderChunksReordered() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(4);
+		stream.subscribe(subscriber);
+		stream.chunk(3, "ijkl");
+		stream.chunk(2, "efgh");
+		assertEquals("", subscriber.text.toString());
+		stream.end(4);
+		assertFalse(subscriber.completed);
+		stream.chunk(1, "abcd");
+		assertEquals("abcdefghijkl", subscriber.text.toString());
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+		assertEquals(3, stream.getChunkCount());
+		assertEquals(List.of(false), stream.closes);
+	}
+
+	@Test
+	public void chunkOutsideWindowFailsStream() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(4);
+		stream.subscribe(subscriber);
+		stream.chunk(1, "abcd");
+		stream.chunk(OpenFinResultStream.MAX_WINDOW + 3, "ijkl");
+		assertTrue(subscriber.error instanceof IllegalStateException);
+		assertEquals(List.of(true), stream.closes);
+
+		TestSubscriber second = new TestSubscriber(1);
+		stream.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void duplicateChunkFailsStream() {
+		TestStream stream = new TestStream();
+		TestSubscriber subscriber = new TestSubscriber(4);
+		stream.subscribe(subscriber);
+		stream.chunk(1, "abcd");
+		stream.chunk(1, "abcd");
+		assertEquals("abcd", subscriber.text.toString());
+		assertTrue(subscriber.error instanceof IllegalStateException);
+	}
+
+	@Test
+	public void subscriberSignalledOutsideLock() {
+		TestStream stream = new TestStream();
+		List<Boolean> locked = new ArrayList<>();
+		TestSubscriber subscriber = new TestSubscriber(1) {
+			@Override
+			public void onNext(CharSequence item) {
+				locked.add(Thread.holdsLock(stream));
+				super.onNext(item);
+				// requesting from the callback is allowed
+				this.subscription.request(1);
+			}
+
+			@Override
+			public void onComplete() {
+				locked.add(Thread.holdsLock(stream));
+				super.onComplete();
+			}
+		};
+		stream.subscribe(subscriber);
+		stream.chunk(1, "abcd");
+		stream.chunk(2, "efgh");
+		stream.end(3);
+		assertEquals("abcdefgh", subscriber.text.toString());
+		assertTrue(subscriber.completed);
+		assertEquals(List.of(false, false, false), locked);
+	}
+}
@@ -0,0 +1,175 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.Test;
+
+import com.mijibox.openfin.gateway.OpenFinStateMirror.ApplicationState;
+import com.mijibox.openfin.gateway.OpenFinStateMirror.WindowState;
+
+public class OpenFinStateMirrorTest {
+
+	private JsonObject event(String type, String uuid, String name) {
+		return Json.createObjectBuilder().add("type", type).add("uuid", uuid).add("name", name).build();
+	}
+
+	private WindowState window(String uuid, String name, int left, long sequence) {
+		return new WindowState(uuid, name, left, 0, 800, 600, OpenFinStateMirror.STATE_NORMAL, true, sequence);
+	}
+
+	private void seed(OpenFinStateMirror mirror, WindowState... wins) {
+		Map<String, ApplicationState> apps = new HashMap<>();
+		Map<String, WindowState> winMap = new HashMap<>();
+		for (WindowState w : wins) {
+			apps.put(w.getUuid(), new ApplicationState(w.getUuid(), 0));
+			winMap.put(OpenFinStateMirror.key(w.getUuid(), w.getName()), w);
+		}
+		mirror.applySnapshot(apps, winMap, mirror.getSequence());
+	}
+
+	@Test
+	public void eventsUpdateModel() {
+		OpenFinStateMirror mirror = new OpenFinStateMirror(null, null, null);
+		this.seed(mirror, this.window("app1", "app1", 10, 0));
+		List<WindowState> changes = new ArrayList<>();
+		mirror.addListener(new OpenFinStateMirrorListener() {
+			@Override
+			public void onWindowChanged(WindowState oldState, WindowState newState) {
+				changes.add(newState);
+			}
+		});
+
+		mirror.applyEvent(Json.createObjectBuilder().add("type", "window-bounds-changed").add("uuid", "app1")
+				.add("name", "app1").add("left", 100).add("top", 50).add("width", 400).add("height", 300).build());
+		WindowState w = mirror.getWindow("app1", "app1");
+		assertEquals(100, w.getLeft());
+		assertEquals(300, w.getHeight());
+
+		mirror.applyEvent(this.event("window-minimized", "app1", "app1"));
+		assertEquals(OpenFinStateMirror.STATE_MINIMIZED, mirror.getWindow("app1", "app1").getState());
+		mirror.applyEvent(this.event("window-hidden", "app1", "app1"));
+		assertFalse(mirror.getWindow("app1", "app1").isShowing());
+
+		mirror.applyEvent(this.event("window-created", "app1", "child"));
+		assertEquals(2, mirror.getWindows("app1").size());
+		mirror.applyEvent(this.event("window-closed", "app1", "child"));
+		assertNull(mirror.getWindow("app1", "child"));
+		assertEquals(5, changes.size());
+		assertNull(changes.get(4));
+
+		mirror.applyEvent(Json.createObjectBuilder().add("type", "application-closed").add("uuid", "app1").build());
+		assertFalse(mirror.isRunning("app1"));
+		assertEquals(6, mirror.getEventCount());
+	}
+
+	@Test
+	public void resyncCorrectsInconsistency() {
+		OpenFinStateMirror mirror = new OpenFinStateMirror(null, null, null);
+		this.seed(mirror, this.window("app1", "app1", 10, 0), this.window("app2", "app2", 10, 0));
+		assertEquals(0, mirror.getInconsistencyCount());
+
+		// missed bounds change of app1 and the start of app3.
+		this.seed(mirror, this.window("app1", "app1", 20, 0), this.window("app2", "app2", 10, 0),
+				this.window("app3", "app3", 10, 0));
+		assertEquals(20, mirror.getWindow("app1", "app1").getLeft());
+		assertTrue(mirror.isRunning("app3"));
+		assertEquals(3, mirror.getInconsistencyCount());
+		assertEquals(2, mirror.getResyncCount());
+	}
+
+	@Test
+	public void eventsWinOverOlderSnapshot() {
+		OpenFinStateMirror mirror = new OpenFinStateMirror(null, null, null);
+		this.seed(mirror, this.window("app1", "app1", 10, 0), this.window("app1", "child", 10, 0));
+
+		long startSequence = mirror.getSequence();
+		// events received while the snapshot is on its way.
+		mirror.applyEvent(this.event("window-maximized", "app1", "app1"));
+		mirror.applyEvent(this.event("window-closed", "app1", "child"));
+
+		Map<String, ApplicationState> apps = new HashMap<>();
+		apps.put("app1", new ApplicationState("app1", startSequence));
+		Map<String, WindowState> wins = new HashMap<>();
+		wins.put(OpenFinStateMirror.key("app1", "app1"), this.window("app1", "app1", 10, startSequence));
+		wins.put(OpenFinStateMirror.key("app1", "child"), this.window("app1", "child", 10, startSequence));
+		mirror.applySnapshot(apps, wins, startSequence);
+
+		assertEquals(OpenFinStateMirror.STATE_MAXIMIZED, mirror.getWindow("app1", "app1").getState());
+		assertNull(mirror.getWindow("app1", "child"));
+		assertEquals(0, mirror.getInconsistencyCount());
+	}
+
+	@Test
+	public void failedSeedRemovesListeners() throws Exception {
+		System.setProperty("com.mijibox.openfin.gateway.protocolVersion", "1");
+		try {
+			TestConnection connection = new TestConnection();
+			AtomicInteger proxyId = new AtomicInteger();
+			connection.responder = message -> {
+				// invokes are never answered, the seed times out.
+				switch (message.getString(OpenFinGatewayImpl.ACTION)) {
+				case OpenFinGatewayImpl.ACTION_ADD_LISTENER:
+					return Json.createObjectBuilder().add(OpenFinGatewayImpl.PROXY_ID, proxyId.incrementAndGet())
+							.build();
+				case OpenFinGatewayImpl.ACTION_INVOKE:
+					return null;
+				default:
+					return JsonValue.EMPTY_JSON_OBJECT;
+				}
+			};
+			OpenFinGatewayLauncherImpl launcher = (OpenFinGatewayLauncherImpl) OpenFinGatewayLauncher
+					.newOpenFinGatewayLauncher().invokeTimeout(Duration.ofMillis(200));
+			OpenFinGateway gateway = OpenFinGatewayImpl.newInstance(launcher, connection, null).toCompletableFuture()
+					.get(10, TimeUnit.SECONDS);
+			try {
+				OpenFinStateMirror.start(gateway, null).toCompletableFuture().join();
+				fail("seed should time out");
+			}
+			catch (CompletionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			assertEquals(OpenFinStateMirror.EVENTS.length,
+					connection.sentActions(OpenFinGatewayImpl.ACTION_ADD_LISTENER).size());
+			assertEquals(OpenFinStateMirror.EVENTS.length,
+					connection.sentActions(OpenFinGatewayImpl.ACTION_REMOVE_LISTENER).size());
+		}
+		finally {
+			System.clearProperty("com.mijibox.openfin.gateway.protocolVersion");
+		}
+	}
+}
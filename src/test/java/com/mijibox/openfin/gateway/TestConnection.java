@@ -0,0 +1,107 @@
+/*
+Copyright 2020 MIJI Technology LLC
+
+Licensed under the Apache License, Version 2.0 (the "License");
+
+You may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package com.mijibox.openfin.gateway;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+/**
+ * Connection that acknowledges every websocket message without OpenFin
+ * Runtime, incoming messages are fed to the IAB by the test.
+ */
+class TestConnection extends OpenFinConnection {
+	/**
+	 * payloads of the websocket messages by action.
+	 */
+	final List<JsonObject> sentMessages = new CopyOnWriteArrayList<>();
+	final List<JsonObject> publishedMessages = new CopyOnWriteArrayList<>();
+	/**
+	 * when set, messages of the nacked actions are nacked with the reason.
+	 */
+	volatile String nackReason;
+	volatile Set<String> nackedActions = Set.of("send-message", "publish-message");
+	/**
+	 * actions of all the websocket messages.
+	 */
+	final List<String> actions = new CopyOnWriteArrayList<>();
+	/**
+	 * answers the gateway messages, returns the response payload or null for no response.
+	 */
+	volatile Function<JsonObject, JsonObject> responder;
+
+	TestConnection() {
+		super("test-connection", 0, null, null);
+	}
+
+	@Override
+	CompletionStage<JsonObject> sendMessage(String action, EnvelopeWriter.PayloadWriter payloadWriter,
+			OpenFinPriority priority) {
+		JsonObject payload = EnvelopeWriter.toJsonValue(payloadWriter).asJsonObject();
+		this.actions.add(action);
+		if ("send-message".equals(action)) {
+			this.sentMessages.add(payload);
+			this.respond(payload);
+		}
+		else if ("publish-message".equals(action)) {
+			this.publishedMessages.add(payload);
+		}
+		String reason = this.nackReason;
+		if (reason != null && this.nackedActions.contains(action)) {
+			return CompletableFuture.completedFuture(
+					Json.createObjectBuilder().add("success", false).add("reason", reason).build());
+		}
+		return CompletableFuture.completedFuture(Json.createObjectBuilder().add("success", true).build());
+	}
+
+	private void respond(JsonObject payload) {
+		Function<JsonObject, JsonObject> responder = this.responder;
+		JsonObject message = payload.getJsonObject("message");
+		if (responder == null || !message.containsKey(OpenFinGatewayImpl.ACTION)) {
+			return;
+		}
+		JsonObject response = responder.apply(message);
+		if (response != null) {
+			this.getInterAppBus().processMessage(Json.createObjectBuilder()
+					.add("sourceUuid", payload.getString("destinationUuid"))
+					.add("sourceWindowName", payload.getString("destinationWindowName"))
+					.add("topic", payload.getString("topic"))
+					.add("message", Json.createObjectBuilder()
+							.add(OpenFinGatewayImpl.ACTION, "response")
+							.add(OpenFinGatewayImpl.MESSAGE_ID, message.getInt(OpenFinGatewayImpl.MESSAGE_ID))
+							.add(OpenFinGatewayImpl.PAYLOAD, response))
+					.build());
+		}
+	}
+
+	/**
+	 * @return IAB messages sent to the gateway with the action.
+	 */
+	List<JsonObject> sentActions(String action) {
+		return this.sentMessages.stream().map(m -> m.getJsonObject("message"))
+				.filter(m -> action.equals(m.getString("action", null)))
+				.collect(Collectors.toList());
+	}
+}